@@ -0,0 +1,123 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray.propagator;
+
+import io.opentelemetry.api.baggage.Baggage;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link AwsXrayPropagator#inject(Context, Object, TextMapSetter)} and {@link
+ * AwsXrayPropagator#extract(Context, Object, TextMapGetter)} with and without baggage. Run with the
+ * {@code gc} profiler to see the allocated bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AwsXrayPropagatorBenchmark {
+
+  private static final AwsXrayPropagator PROPAGATOR = AwsXrayPropagator.getInstance();
+
+  private static final TextMapSetter<Map<String, String>> SETTER = Map::put;
+
+  private static final TextMapGetter<Map<String, String>> GETTER =
+      new TextMapGetter<Map<String, String>>() {
+        @Override
+        public Set<String> keys(Map<String, String> carrier) {
+          return carrier.keySet();
+        }
+
+        @Nullable
+        @Override
+        public String get(@Nullable Map<String, String> carrier, String key) {
+          return carrier != null ? carrier.get(key) : null;
+        }
+      };
+
+  @Param({"0", "3"})
+  int numberOfBaggageEntries;
+
+  Context context;
+  Map<String, String> extractCarrier;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SpanContext spanContext =
+        SpanContext.create(
+            "8a3c60f7d188f8fa79d48a391a778fa6",
+            "53995c3f42cd8ad8",
+            TraceFlags.getSampled(),
+            TraceState.getDefault());
+    Baggage baggage = Baggage.empty();
+    for (int i = 0; i < numberOfBaggageEntries; ++i) {
+      baggage = baggage.toBuilder().put("key" + i, "value" + i).build();
+    }
+    context = Context.root().with(Span.wrap(spanContext)).with(baggage);
+
+    extractCarrier = new HashMap<>();
+    PROPAGATOR.inject(context, extractCarrier, SETTER);
+  }
+
+  private Map<String, String> inject() {
+    Map<String, String> carrier = new HashMap<>();
+    PROPAGATOR.inject(context, carrier, SETTER);
+    return carrier;
+  }
+
+  private Context extract() {
+    return PROPAGATOR.extract(Context.root(), extractCarrier, GETTER);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Map<String, String> inject_01Thread() {
+    return inject();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Map<String, String> inject_04Threads() {
+    return inject();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public Context extract_01Thread() {
+    return extract();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Context extract_04Threads() {
+    return extract();
+  }
+}
@@ -1,6 +1,7 @@
 plugins {
   id("otel.java-conventions")
   id("otel.publish-conventions")
+  id("otel.jmh-conventions")
 }
 
 description = "OpenTelemetry AWS X-Ray Support"
@@ -21,12 +22,14 @@ dependencies {
   compileOnly("com.google.auto.value:auto-value-annotations")
 
   implementation("com.fasterxml.jackson.core:jackson-core")
-  implementation("com.fasterxml.jackson.core:jackson-databind")
+
+  jmh("com.fasterxml.jackson.core:jackson-databind")
 
   testImplementation("com.linecorp.armeria:armeria-junit5")
   testImplementation("io.opentelemetry:opentelemetry-sdk-extension-autoconfigure")
   testImplementation("io.opentelemetry:opentelemetry-sdk-testing")
   testImplementation("com.google.guava:guava")
+  testImplementation("com.squareup.okhttp3:mockwebserver")
   testImplementation("org.slf4j:slf4j-simple")
   testImplementation("org.skyscreamer:jsonassert")
 }
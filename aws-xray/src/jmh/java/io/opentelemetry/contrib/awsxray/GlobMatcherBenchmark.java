@@ -0,0 +1,71 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link GlobMatcher} with the equivalent case-insensitive regular expression for typical
+ * URL path patterns of X-Ray sampling rules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GlobMatcherBenchmark {
+
+  @Param({"/api/*", "/api/*/items/*", "*/health", "/api/v?/users/*/orders"})
+  String globPattern;
+
+  @Param({"/api/v1/users/12345/orders", "/static/css/main.css"})
+  String urlPath;
+
+  GlobMatcher globMatcher;
+  Pattern regexPattern;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    globMatcher = GlobMatcher.compile(globPattern);
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < globPattern.length(); i++) {
+      char c = globPattern.charAt(i);
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    regexPattern =
+        Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+  }
+
+  @Benchmark
+  public boolean glob() {
+    return globMatcher.matches(urlPath);
+  }
+
+  @Benchmark
+  public boolean regex() {
+    return regexPattern.matcher(urlPath).matches();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.contrib.awsxray.GetSamplingRulesResponse.SamplingRule;
+import io.opentelemetry.sdk.common.Clock;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link XrayRulesSampler#shouldSample(Context, String, String, SpanKind, Attributes,
+ * List)} for different numbers of rules, depending on whether the first, the last or only the
+ * default rule matches. Run with the {@code gc} profiler to see the allocated bytes per operation.
+ *
+ * <p>The rules are spread over several HTTP methods and hosts, as rules of real services are. The
+ * {@code linearScan} benchmarks test every rule in order of priority, as the sampler did before
+ * rules were indexed, and serve as baseline. The {@code cached} benchmarks use a sampler caching
+ * the matching rule, where every operation after the first is a cache hit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XrayRulesSamplerBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  private static final String[] HTTP_METHODS = {"GET", "POST", "PUT", "DELETE"};
+  private static final int NUMBER_OF_HOSTS = 10;
+
+  @Param({"10", "100", "1000"})
+  int numberOfRules;
+
+  @Param({"first", "last", "default"})
+  String matchingRule;
+
+  XrayRulesSampler sampler;
+  XrayRulesSampler cachingSampler;
+  SamplingRuleApplier[] appliers;
+  Attributes attributes;
+
+  private static String getHttpMethod(int ruleIndex) {
+    return HTTP_METHODS[ruleIndex % HTTP_METHODS.length];
+  }
+
+  private static String getHost(int ruleIndex) {
+    return "host-" + (ruleIndex % NUMBER_OF_HOSTS) + ".example.com";
+  }
+
+  private static SamplingRule createRule(int index) {
+    return SamplingRule.create(
+        Collections.emptyMap(),
+        0.1,
+        getHost(index),
+        getHttpMethod(index),
+        index + 1,
+        1,
+        "*",
+        null,
+        "rule-" + index,
+        "*",
+        "*",
+        "/api/service-" + index + "/*",
+        1);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    List<SamplingRule> rules = new ArrayList<>();
+    for (int i = 0; i < numberOfRules; ++i) {
+      rules.add(createRule(i));
+    }
+    rules.add(
+        SamplingRule.create(
+            Collections.emptyMap(),
+            0.05,
+            "*",
+            "*",
+            10000,
+            1,
+            "*",
+            null,
+            "Default",
+            "*",
+            "*",
+            "*",
+            1));
+    sampler =
+        new XrayRulesSampler(
+            "CLIENT_ID", Resource.getDefault(), Clock.getDefault(), Sampler.alwaysOn(), rules);
+    cachingSampler =
+        new XrayRulesSampler(
+            "CLIENT_ID",
+            Resource.getDefault(),
+            Clock.getDefault(),
+            Sampler.alwaysOn(),
+            rules,
+            1000,
+            new RuleMatchCache.Statistics());
+    // the rules are already ordered by priority
+    appliers =
+        rules.stream()
+            .map(rule -> new SamplingRuleApplier("CLIENT_ID", rule, Clock.getDefault()))
+            .toArray(SamplingRuleApplier[]::new);
+
+    int ruleIndex;
+    String urlPath;
+    switch (matchingRule) {
+      case "first":
+        ruleIndex = 0;
+        urlPath = "/api/service-0/items";
+        break;
+      case "last":
+        ruleIndex = numberOfRules - 1;
+        urlPath = "/api/service-" + ruleIndex + "/items";
+        break;
+      case "default":
+        ruleIndex = numberOfRules - 1;
+        urlPath = "/health";
+        break;
+      default:
+        throw new IllegalArgumentException(matchingRule);
+    }
+    attributes =
+        Attributes.builder()
+            .put(SemanticAttributes.HTTP_METHOD, getHttpMethod(ruleIndex))
+            .put(SemanticAttributes.HTTP_TARGET, urlPath)
+            .put(SemanticAttributes.NET_HOST_NAME, getHost(ruleIndex))
+            .build();
+  }
+
+  private SamplingResult shouldSample() {
+    return sampler.shouldSample(
+        Context.root(), TRACE_ID, "span", SpanKind.SERVER, attributes, NO_LINKS);
+  }
+
+  private SamplingResult shouldSampleLinearScan() {
+    for (SamplingRuleApplier applier : appliers) {
+      if (applier.matches(attributes, Resource.getDefault())) {
+        return applier.shouldSample(
+            Context.root(), TRACE_ID, "span", SpanKind.SERVER, attributes, NO_LINKS);
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult cached_01Thread() {
+    return cachingSampler.shouldSample(
+        Context.root(), TRACE_ID, "span", SpanKind.SERVER, attributes, NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult linearScan_01Thread() {
+    return shouldSampleLinearScan();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult shouldSample_01Thread() {
+    return shouldSample();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSample_04Threads() {
+    return shouldSample();
+  }
+}
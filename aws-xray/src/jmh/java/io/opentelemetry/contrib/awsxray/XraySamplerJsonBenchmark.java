@@ -0,0 +1,133 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsRequest.SamplingStatisticsDocument;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the streaming JSON codec of the sampler client with Jackson databind, which the client
+ * used before, for a rules response and a targets request with the given number of rules. The
+ * databind benchmarks bind to generic trees and maps, which is a lower bound of the previous cost
+ * of binding to the annotated classes. Run with the {@code gc} profiler to see the allocated bytes
+ * per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XraySamplerJsonBenchmark {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  @Param({"10", "100"})
+  int numberOfRules;
+
+  byte[] rulesResponse;
+  GetSamplingTargetsRequest targetsRequest;
+  Map<String, Object> targetsRequestMap;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("JavaUtilDate")
+  public void setup() {
+    StringBuilder json = new StringBuilder("{\"SamplingRuleRecords\":[");
+    List<SamplingStatisticsDocument> documents = new ArrayList<>();
+    List<Map<String, Object>> documentMaps = new ArrayList<>();
+    for (int i = 0; i < numberOfRules; ++i) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"SamplingRule\":{\"RuleName\":\"rule-")
+          .append(i)
+          .append("\",\"RuleARN\":\"arn:aws:xray:us-east-1:123456789012:sampling-rule/rule-")
+          .append(i)
+          .append("\",\"ResourceARN\":\"*\",\"Priority\":")
+          .append(i + 1)
+          .append(",\"FixedRate\":0.05,\"ReservoirSize\":1,\"ServiceName\":\"*\",")
+          .append("\"ServiceType\":\"*\",\"Host\":\"*\",\"HTTPMethod\":\"GET\",\"URLPath\":")
+          .append("\"/api/service-")
+          .append(i)
+          .append("/*\",\"Version\":1,\"Attributes\":{\"animal\":\"cat\"}},")
+          .append("\"CreatedAt\":1.6240122E9,\"ModifiedAt\":1.6240122E9}");
+
+      SamplingStatisticsDocument document =
+          SamplingStatisticsDocument.newBuilder()
+              .setRuleName("rule-" + i)
+              .setClientId("ABCDEF1234567890ABCDEF10")
+              .setTimestamp(new Date(1624257967000L))
+              .setRequestCount(110)
+              .setSampledCount(30)
+              .setBorrowCount(20)
+              .build();
+      documents.add(document);
+      Map<String, Object> documentMap = new LinkedHashMap<>();
+      documentMap.put("BorrowCount", document.getBorrowCount());
+      documentMap.put("ClientID", document.getClientId());
+      documentMap.put("RequestCount", document.getRequestCount());
+      documentMap.put("RuleName", document.getRuleName());
+      documentMap.put("SampledCount", document.getSampledCount());
+      documentMap.put("Timestamp", document.getTimestamp());
+      documentMaps.add(documentMap);
+    }
+    json.append("]}");
+    rulesResponse = json.toString().getBytes(StandardCharsets.UTF_8);
+    targetsRequest = GetSamplingTargetsRequest.create(documents);
+    targetsRequestMap = new LinkedHashMap<>();
+    targetsRequestMap.put("SamplingStatisticsDocuments", documentMaps);
+  }
+
+  @Benchmark
+  public GetSamplingRulesResponse readRules_streaming() throws IOException {
+    try (JsonParser parser = XraySamplerJson.JSON_FACTORY.createParser(rulesResponse)) {
+      return XraySamplerJson.readGetSamplingRulesResponse(parser);
+    }
+  }
+
+  @Benchmark
+  public JsonNode readRules_databind() throws IOException {
+    return OBJECT_MAPPER.readTree(rulesResponse);
+  }
+
+  @Benchmark
+  public byte[] writeTargets_streaming() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator generator = XraySamplerJson.JSON_FACTORY.createGenerator(out)) {
+      XraySamplerJson.writeGetSamplingTargetsRequest(generator, targetsRequest);
+    }
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] writeTargets_databind() throws IOException {
+    return OBJECT_MAPPER.writeValueAsBytes(targetsRequestMap);
+  }
+}
@@ -6,17 +6,21 @@
 package io.opentelemetry.contrib.awsxray;
 
 import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
 import io.opentelemetry.api.trace.SpanKind;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.contrib.awsxray.GetSamplingRulesResponse.SamplingRuleRecord;
 import io.opentelemetry.contrib.awsxray.GetSamplingTargetsRequest.SamplingStatisticsDocument;
 import io.opentelemetry.contrib.awsxray.GetSamplingTargetsResponse.SamplingTargetDocument;
+import io.opentelemetry.contrib.awsxray.XraySamplerClient.SamplingRulesResult;
 import io.opentelemetry.sdk.common.Clock;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.data.LinkData;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
 import io.opentelemetry.sdk.trace.samplers.SamplingResult;
 import java.io.Closeable;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
@@ -25,7 +29,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -40,6 +46,8 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
 
   static final long DEFAULT_TARGET_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
 
+  private static final long INITIAL_RULES_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private static final Random RANDOM = new Random();
   private static final Logger logger = Logger.getLogger(AwsXrayRemoteSampler.class.getName());
 
@@ -51,11 +59,21 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
   // Unique per-sampler client ID, generated as a random string.
   private final String clientId;
   private final long pollingIntervalNanos;
+  private final long targetIntervalNanos;
   private final Iterator<Long> jitterNanos;
+  // Only accessed on the executor thread.
+  private final ExponentialBackoff rulesBackoff;
+  private final ExponentialBackoff targetsBackoff;
+  private final int ruleMatchCacheSize;
+  private final RuleMatchCache.Statistics ruleMatchCacheStatistics =
+      new RuleMatchCache.Statistics();
+  @Nullable private final ObservableLongCounter ruleMatchCacheLookups;
 
   @Nullable private volatile ScheduledFuture<?> pollFuture;
   @Nullable private volatile ScheduledFuture<?> fetchTargetsFuture;
   @Nullable private volatile GetSamplingRulesResponse previousRulesResponse;
+  // The digest of the content of the last rules response the sampler was updated with.
+  @Nullable private volatile byte[] previousRulesDigest;
   private volatile Sampler sampler;
 
   /**
@@ -73,7 +91,10 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
       Clock clock,
       String endpoint,
       Sampler initialSampler,
-      long pollingIntervalNanos) {
+      long pollingIntervalNanos,
+      long targetIntervalNanos,
+      int ruleMatchCacheSize,
+      MeterProvider meterProvider) {
     this.resource = resource;
     this.clock = clock;
     this.initialSampler = initialSampler;
@@ -99,6 +120,17 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
     // Add ~1% of jitter
     jitterNanos = RANDOM.longs(0, pollingIntervalNanos / 100).iterator();
 
+    this.targetIntervalNanos = targetIntervalNanos;
+    rulesBackoff =
+        new ExponentialBackoff(INITIAL_RULES_BACKOFF_NANOS, pollingIntervalNanos, RANDOM);
+    targetsBackoff =
+        new ExponentialBackoff(
+            targetIntervalNanos, Math.max(targetIntervalNanos, pollingIntervalNanos), RANDOM);
+
+    this.ruleMatchCacheSize = ruleMatchCacheSize;
+    ruleMatchCacheLookups =
+        ruleMatchCacheSize > 0 ? ruleMatchCacheStatistics.register(meterProvider) : null;
+
     // Execute first update right away on the executor thread.
     executor.execute(this::getAndUpdateSampler);
   }
@@ -119,38 +151,67 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
     return "AwsXrayRemoteSampler{" + sampler.getDescription() + "}";
   }
 
+  // Requests are sent asynchronously, so that the executor thread is never blocked by a slow
+  // daemon, and rules polls and target fetches do not delay each other. The responses are handled
+  // on the executor thread, which keeps the state of the sampler confined to it.
+  @SuppressWarnings("FutureReturnValueIgnored") // failures are handled by the callback
   private void getAndUpdateSampler() {
+    // No pagination support yet, or possibly ever.
+    client
+        .getSamplingRulesAsync(GetSamplingRulesRequest.create(null), previousRulesDigest)
+        .whenCompleteAsync(this::updateSampler, this::executeUnlessClosed);
+  }
+
+  private void updateSampler(@Nullable SamplingRulesResult result, @Nullable Throwable error) {
+    if (result == null) {
+      logger.log(Level.FINE, "Failed to update sampler", error);
+      scheduleSamplerUpdate(error);
+      return;
+    }
+    // The response is only parsed if its content changed.
+    GetSamplingRulesResponse response = result.getResponse();
     try {
-      // No pagination support yet, or possibly ever.
-      GetSamplingRulesResponse response =
-          client.getSamplingRules(GetSamplingRulesRequest.create(null));
-      if (!response.equals(previousRulesResponse)) {
+      if (response != null && !response.equals(previousRulesResponse)) {
+        List<GetSamplingRulesResponse.SamplingRule> rules =
+            response.getSamplingRules().stream()
+                .map(SamplingRuleRecord::getRule)
+                .collect(Collectors.toList());
+        Sampler currentSampler = sampler;
         sampler =
-            new XrayRulesSampler(
-                clientId,
-                resource,
-                clock,
-                initialSampler,
-                response.getSamplingRules().stream()
-                    .map(SamplingRuleRecord::getRule)
-                    .collect(Collectors.toList()));
+            currentSampler instanceof XrayRulesSampler
+                ? ((XrayRulesSampler) currentSampler).withRules(rules)
+                : new XrayRulesSampler(
+                    clientId,
+                    resource,
+                    clock,
+                    initialSampler,
+                    rules,
+                    ruleMatchCacheSize,
+                    ruleMatchCacheStatistics);
         previousRulesResponse = response;
         ScheduledFuture<?> existingFetchTargetsFuture = fetchTargetsFuture;
         if (existingFetchTargetsFuture != null) {
           existingFetchTargetsFuture.cancel(false);
         }
+        targetsBackoff.reset();
         fetchTargetsFuture =
-            executor.schedule(
-                this::fetchTargets, DEFAULT_TARGET_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+            executor.schedule(this::fetchTargets, targetIntervalNanos, TimeUnit.NANOSECONDS);
       }
+      previousRulesDigest = result.getContentDigest();
     } catch (Throwable t) {
       logger.log(Level.FINE, "Failed to update sampler", t);
     }
-    scheduleSamplerUpdate();
+    scheduleSamplerUpdate(null);
   }
 
-  private void scheduleSamplerUpdate() {
-    long delay = pollingIntervalNanos + jitterNanos.next();
+  private void scheduleSamplerUpdate(@Nullable Throwable error) {
+    long delay;
+    if (isUnreachable(error)) {
+      delay = rulesBackoff.nextDelayNanos();
+    } else {
+      rulesBackoff.reset();
+      delay = pollingIntervalNanos + jitterNanos.next();
+    }
     pollFuture = executor.schedule(this::getAndUpdateSampler, delay, TimeUnit.NANOSECONDS);
   }
 
@@ -169,39 +230,81 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
     return Duration.ofNanos(pollFuture.getDelay(TimeUnit.NANOSECONDS));
   }
 
+  @SuppressWarnings("FutureReturnValueIgnored") // failures are handled by the callback
   private void fetchTargets() {
     if (!(sampler instanceof XrayRulesSampler)) {
       throw new IllegalStateException("Programming bug.");
     }
 
     XrayRulesSampler xrayRulesSampler = (XrayRulesSampler) sampler;
+    Date now = Date.from(Instant.ofEpochSecond(0, clock.now()));
+    List<SamplingStatisticsDocument> statistics;
+    try {
+      statistics = xrayRulesSampler.snapshot(now);
+      client
+          .getSamplingTargetsAsync(GetSamplingTargetsRequest.create(statistics))
+          .whenCompleteAsync(
+              (response, error) ->
+                  updateTargets(xrayRulesSampler, statistics, now, response, error),
+              this::executeUnlessClosed);
+    } catch (Throwable t) {
+      scheduleTargetsFetch(targetIntervalNanos);
+    }
+  }
+
+  private void updateTargets(
+      XrayRulesSampler xrayRulesSampler,
+      List<SamplingStatisticsDocument> statistics,
+      Date now,
+      @Nullable GetSamplingTargetsResponse response,
+      @Nullable Throwable error) {
+    if (sampler != xrayRulesSampler) {
+      // The rules were updated while the targets were fetched, which also scheduled a fetch of
+      // the targets of the new rules.
+      return;
+    }
+    if (response == null) {
+      // Might be a transient API failure, try again after a default interval, or back off if the
+      // daemon is unreachable.
+      scheduleTargetsFetch(
+          isUnreachable(error) ? targetsBackoff.nextDelayNanos() : targetIntervalNanos);
+      return;
+    }
+    targetsBackoff.reset();
     try {
-      Date now = Date.from(Instant.ofEpochSecond(0, clock.now()));
-      List<SamplingStatisticsDocument> statistics = xrayRulesSampler.snapshot(now);
       Set<String> requestedTargetRuleNames =
           statistics.stream()
               .map(SamplingStatisticsDocument::getRuleName)
               .collect(Collectors.toSet());
-
-      GetSamplingTargetsResponse response =
-          client.getSamplingTargets(GetSamplingTargetsRequest.create(statistics));
       Map<String, SamplingTargetDocument> targets =
           response.getDocuments().stream()
               .collect(Collectors.toMap(SamplingTargetDocument::getRuleName, Function.identity()));
-      sampler =
-          xrayRulesSampler = xrayRulesSampler.withTargets(targets, requestedTargetRuleNames, now);
+      xrayRulesSampler.applyTargets(targets, requestedTargetRuleNames, now);
     } catch (Throwable t) {
-      // Might be a transient API failure, try again after a default interval.
-      fetchTargetsFuture =
-          executor.schedule(
-              this::fetchTargets, DEFAULT_TARGET_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+      scheduleTargetsFetch(targetIntervalNanos);
       return;
     }
 
-    long nextTargetFetchIntervalNanos =
-        xrayRulesSampler.nextTargetFetchTimeNanos() - clock.nanoTime();
-    fetchTargetsFuture =
-        executor.schedule(this::fetchTargets, nextTargetFetchIntervalNanos, TimeUnit.NANOSECONDS);
+    scheduleTargetsFetch(xrayRulesSampler.nextTargetFetchTimeNanos() - clock.nanoTime());
+  }
+
+  private void scheduleTargetsFetch(long delayNanos) {
+    fetchTargetsFuture = executor.schedule(this::fetchTargets, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // The client fails with an IOException if the request could not be sent or the response could
+  // not be received, as opposed to the daemon responding with an error.
+  private static boolean isUnreachable(@Nullable Throwable error) {
+    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+    return cause instanceof IOException;
+  }
+
+  private void executeUnlessClosed(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // The sampler was closed while a request was in flight.
+    }
   }
 
   @Override
@@ -212,6 +315,11 @@ public final class AwsXrayRemoteSampler implements Sampler, Closeable {
       pollFuture.cancel(true);
     }
     executor.shutdownNow();
+    client.shutdown();
+    ObservableLongCounter ruleMatchCacheLookups = this.ruleMatchCacheLookups;
+    if (ruleMatchCacheLookups != null) {
+      ruleMatchCacheLookups.close();
+    }
     // No flushing behavior so no need to wait for the shutdown.
   }
 
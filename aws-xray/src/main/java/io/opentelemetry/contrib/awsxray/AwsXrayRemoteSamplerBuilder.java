@@ -8,6 +8,7 @@ package io.opentelemetry.contrib.awsxray;
 import static java.util.Objects.requireNonNull;
 
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import io.opentelemetry.api.metrics.MeterProvider;
 import io.opentelemetry.sdk.common.Clock;
 import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
@@ -27,6 +28,9 @@ public final class AwsXrayRemoteSamplerBuilder {
   private String endpoint = DEFAULT_ENDPOINT;
   @Nullable private Sampler initialSampler;
   private long pollingIntervalNanos = TimeUnit.SECONDS.toNanos(DEFAULT_POLLING_INTERVAL_SECS);
+  private long targetIntervalNanos = AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS;
+  private int ruleMatchCacheSize = 0;
+  private MeterProvider meterProvider = MeterProvider.noop();
 
   AwsXrayRemoteSamplerBuilder(Resource resource) {
     this.resource = resource;
@@ -68,6 +72,21 @@ public final class AwsXrayRemoteSamplerBuilder {
     return this;
   }
 
+  /**
+   * Sets the delay of the first fetch of sampling targets after the rules are updated, and of
+   * retries after failed fetches. If unset, defaults to 10s.
+   */
+  // visible for testing
+  @CanIgnoreReturnValue
+  AwsXrayRemoteSamplerBuilder setTargetInterval(long delay, TimeUnit unit) {
+    requireNonNull(unit, "unit");
+    if (delay <= 0) {
+      throw new IllegalArgumentException("delay must be positive");
+    }
+    targetIntervalNanos = unit.toNanos(delay);
+    return this;
+  }
+
   /**
    * Sets the initial sampler that is used before sampling configuration is obtained. If unset,
    * defaults to a parent-based always-on sampler.
@@ -79,6 +98,40 @@ public final class AwsXrayRemoteSamplerBuilder {
     return this;
   }
 
+  /**
+   * Sets the maximum number of entries of the cache of matching sampling rules. Spans which agree
+   * in all properties the sampling rules refer to, such as HTTP method, host, URL path, and matched
+   * attributes, are sampled by the same rule, so the rule only needs to be looked up once. The
+   * cache is cleared whenever the rules are updated. Once it is full, every new entry evicts
+   * another one, preferring entries that have not been hit recently.
+   *
+   * <p>The cache only helps if the URL paths, and the other properties, take few distinct values,
+   * such as routes without path parameters. With high-cardinality paths, for example paths
+   * containing IDs, almost every lookup misses and only adds the cost of maintaining the cache.
+   *
+   * <p>If unset, defaults to 0, which disables the cache. Must be non-negative.
+   */
+  @CanIgnoreReturnValue
+  public AwsXrayRemoteSamplerBuilder setRuleMatchCacheSize(int ruleMatchCacheSize) {
+    if (ruleMatchCacheSize < 0) {
+      throw new IllegalArgumentException("ruleMatchCacheSize must be non-negative");
+    }
+    this.ruleMatchCacheSize = ruleMatchCacheSize;
+    return this;
+  }
+
+  /**
+   * Sets the {@link MeterProvider} used to report the number of hits and misses of the cache of
+   * matching sampling rules, see {@link #setRuleMatchCacheSize(int)}. If unset, no metrics are
+   * reported.
+   */
+  @CanIgnoreReturnValue
+  public AwsXrayRemoteSamplerBuilder setMeterProvider(MeterProvider meterProvider) {
+    requireNonNull(meterProvider, "meterProvider");
+    this.meterProvider = meterProvider;
+    return this;
+  }
+
   /**
    * Sets the {@link Clock} used for time measurements for sampling, such as rate limiting or quota
    * expiry.
@@ -100,6 +153,13 @@ public final class AwsXrayRemoteSamplerBuilder {
                   new RateLimitingSampler(1, clock), Sampler.traceIdRatioBased(0.05)));
     }
     return new AwsXrayRemoteSampler(
-        resource, clock, endpoint, initialSampler, pollingIntervalNanos);
+        resource,
+        clock,
+        endpoint,
+        initialSampler,
+        pollingIntervalNanos,
+        targetIntervalNanos,
+        ruleMatchCacheSize,
+        meterProvider);
   }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import java.util.Random;
+
+/**
+ * Delays between retries of a failing request, doubling with every failure up to a maximum. Half of
+ * each delay is random, so that samplers which lost the connection to the daemon at the same time
+ * do not retry in lockstep.
+ *
+ * <p>Not thread-safe, each schedule of requests has its own instance.
+ */
+final class ExponentialBackoff {
+
+  private final long initialDelayNanos;
+  private final long maxDelayNanos;
+  private final Random random;
+
+  private long delayNanos;
+
+  ExponentialBackoff(long initialDelayNanos, long maxDelayNanos, Random random) {
+    if (initialDelayNanos <= 0) {
+      throw new IllegalArgumentException("initialDelayNanos must be positive");
+    }
+    this.initialDelayNanos = Math.min(initialDelayNanos, maxDelayNanos);
+    this.maxDelayNanos = maxDelayNanos;
+    this.random = random;
+    delayNanos = this.initialDelayNanos;
+  }
+
+  /** Returns the delay before the next retry, and doubles the delay of the retry after. */
+  long nextDelayNanos() {
+    long delay = delayNanos;
+    delayNanos = delay > maxDelayNanos / 2 ? maxDelayNanos : delay * 2;
+    long half = delay / 2;
+    return delay - half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+  }
+
+  /** Starts over with the initial delay, called once a request succeeds. */
+  void reset() {
+    delayNanos = initialDelayNanos;
+  }
+}
@@ -5,20 +5,16 @@
 
 package io.opentelemetry.contrib.awsxray;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.auto.value.AutoValue;
 import javax.annotation.Nullable;
 
 @AutoValue
-@JsonSerialize(as = GetSamplingRulesRequest.class)
 abstract class GetSamplingRulesRequest {
 
   static GetSamplingRulesRequest create(@Nullable String nextToken) {
     return new AutoValue_GetSamplingRulesRequest(nextToken);
   }
 
-  @JsonProperty("NextToken")
   @Nullable
   abstract String getNextToken();
 }
@@ -5,8 +5,6 @@
 
 package io.opentelemetry.contrib.awsxray;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
 import java.util.List;
 import java.util.Map;
@@ -15,10 +13,8 @@ import javax.annotation.Nullable;
 @AutoValue
 abstract class GetSamplingRulesResponse {
 
-  @JsonCreator
   static GetSamplingRulesResponse create(
-      @JsonProperty("NextToken") String nextToken,
-      @JsonProperty("SamplingRuleRecords") List<SamplingRuleRecord> samplingRules) {
+      @Nullable String nextToken, List<SamplingRuleRecord> samplingRules) {
     return new AutoValue_GetSamplingRulesResponse(nextToken, samplingRules);
   }
 
@@ -30,11 +26,7 @@ abstract class GetSamplingRulesResponse {
   @AutoValue
   abstract static class SamplingRuleRecord {
 
-    @JsonCreator
-    static SamplingRuleRecord create(
-        @JsonProperty("CreatedAt") String createdAt,
-        @JsonProperty("ModifiedAt") String modifiedAt,
-        @JsonProperty("SamplingRule") SamplingRule rule) {
+    static SamplingRuleRecord create(String createdAt, String modifiedAt, SamplingRule rule) {
       return new AutoValue_GetSamplingRulesResponse_SamplingRuleRecord(createdAt, modifiedAt, rule);
     }
 
@@ -48,21 +40,20 @@ abstract class GetSamplingRulesResponse {
   @AutoValue
   abstract static class SamplingRule {
 
-    @JsonCreator
     static SamplingRule create(
-        @JsonProperty("Attributes") Map<String, String> attributes,
-        @JsonProperty("FixedRate") double fixedRate,
-        @JsonProperty("Host") String host,
-        @JsonProperty("HTTPMethod") String httpMethod,
-        @JsonProperty("Priority") int priority,
-        @JsonProperty("ReservoirSize") int reservoirSize,
-        @JsonProperty("ResourceARN") String resourceArn,
-        @JsonProperty("RuleARN") @Nullable String ruleArn,
-        @JsonProperty("RuleName") @Nullable String ruleName,
-        @JsonProperty("ServiceName") String serviceName,
-        @JsonProperty("ServiceType") String serviceType,
-        @JsonProperty("URLPath") String urlPath,
-        @JsonProperty("Version") int version) {
+        Map<String, String> attributes,
+        double fixedRate,
+        String host,
+        String httpMethod,
+        int priority,
+        int reservoirSize,
+        String resourceArn,
+        @Nullable String ruleArn,
+        @Nullable String ruleName,
+        String serviceName,
+        String serviceType,
+        String urlPath,
+        int version) {
       return new AutoValue_GetSamplingRulesResponse_SamplingRule(
           attributes,
           fixedRate,
@@ -5,14 +5,11 @@
 
 package io.opentelemetry.contrib.awsxray;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.auto.value.AutoValue;
 import java.util.Date;
 import java.util.List;
 
 @AutoValue
-@JsonSerialize(as = GetSamplingTargetsRequest.class)
 abstract class GetSamplingTargetsRequest {
 
   static GetSamplingTargetsRequest create(List<SamplingStatisticsDocument> documents) {
@@ -20,33 +17,25 @@ abstract class GetSamplingTargetsRequest {
   }
 
   // Limit of 25 items
-  @JsonProperty("SamplingStatisticsDocuments")
   abstract List<SamplingStatisticsDocument> getDocuments();
 
   @AutoValue
-  @JsonSerialize(as = SamplingStatisticsDocument.class)
   abstract static class SamplingStatisticsDocument {
 
     static SamplingStatisticsDocument.Builder newBuilder() {
       return new AutoValue_GetSamplingTargetsRequest_SamplingStatisticsDocument.Builder();
     }
 
-    @JsonProperty("BorrowCount")
     abstract long getBorrowCount();
 
-    @JsonProperty("ClientID")
     abstract String getClientId();
 
-    @JsonProperty("RequestCount")
     abstract long getRequestCount();
 
-    @JsonProperty("RuleName")
     abstract String getRuleName();
 
-    @JsonProperty("SampledCount")
     abstract long getSampledCount();
 
-    @JsonProperty("Timestamp")
     abstract Date getTimestamp();
 
     @AutoValue.Builder
@@ -5,8 +5,6 @@
 
 package io.opentelemetry.contrib.awsxray;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.auto.value.AutoValue;
 import java.util.Date;
 import java.util.List;
@@ -15,11 +13,10 @@ import javax.annotation.Nullable;
 @AutoValue
 abstract class GetSamplingTargetsResponse {
 
-  @JsonCreator
   static GetSamplingTargetsResponse create(
-      @JsonProperty("LastRuleModification") Date lastRuleModification,
-      @JsonProperty("SamplingTargetDocuments") List<SamplingTargetDocument> documents,
-      @JsonProperty("UnprocessedStatistics") List<UnprocessedStatistics> unprocessedStatistics) {
+      Date lastRuleModification,
+      List<SamplingTargetDocument> documents,
+      List<UnprocessedStatistics> unprocessedStatistics) {
     return new AutoValue_GetSamplingTargetsResponse(
         lastRuleModification, documents, unprocessedStatistics);
   }
@@ -33,13 +30,12 @@ abstract class GetSamplingTargetsResponse {
   @AutoValue
   abstract static class SamplingTargetDocument {
 
-    @JsonCreator
     static SamplingTargetDocument create(
-        @JsonProperty("FixedRate") double fixedRate,
-        @JsonProperty("Interval") @Nullable Integer intervalSecs,
-        @JsonProperty("ReservoirQuota") @Nullable Integer reservoirQuota,
-        @JsonProperty("ReservoirQuotaTTL") @Nullable Date reservoirQuotaTtl,
-        @JsonProperty("RuleName") String ruleName) {
+        double fixedRate,
+        @Nullable Integer intervalSecs,
+        @Nullable Integer reservoirQuota,
+        @Nullable Date reservoirQuotaTtl,
+        String ruleName) {
       return new AutoValue_GetSamplingTargetsResponse_SamplingTargetDocument(
           fixedRate, intervalSecs, reservoirQuota, reservoirQuotaTtl, ruleName);
     }
@@ -63,11 +59,7 @@ abstract class GetSamplingTargetsResponse {
   @AutoValue
   abstract static class UnprocessedStatistics {
 
-    @JsonCreator
-    static UnprocessedStatistics create(
-        @JsonProperty("ErrorCode") String errorCode,
-        @JsonProperty("Message") String message,
-        @JsonProperty("RuleName") String ruleName) {
+    static UnprocessedStatistics create(String errorCode, String message, String ruleName) {
       return new AutoValue_GetSamplingTargetsResponse_UnprocessedStatistics(
           errorCode, message, ruleName);
     }
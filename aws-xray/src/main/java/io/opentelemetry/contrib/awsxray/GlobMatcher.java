@@ -0,0 +1,93 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+/**
+ * Matches strings against an X-Ray glob pattern, where {@code *} matches any number of characters
+ * and {@code ?} matches a single character. As required by X-Ray, characters are compared
+ * case-insensitively, in the same way as {@link String#equalsIgnoreCase(String)} does.
+ *
+ * <p>Matching does not allocate and, unlike a regular expression, does not backtrack beyond the
+ * last {@code *} seen, so it takes at most time proportional to the product of the lengths of the
+ * pattern and the string.
+ */
+final class GlobMatcher {
+
+  private final String pattern;
+  // the number of characters a matching string has at least
+  private final int minLength;
+
+  private GlobMatcher(String pattern) {
+    this.pattern = pattern;
+    int minLength = 0;
+    for (int i = 0; i < pattern.length(); i++) {
+      if (pattern.charAt(i) != '*') {
+        minLength += 1;
+      }
+    }
+    this.minLength = minLength;
+  }
+
+  static GlobMatcher compile(String pattern) {
+    return new GlobMatcher(pattern);
+  }
+
+  boolean matches(String s) {
+    if (s.length() < minLength) {
+      return false;
+    }
+    int patternLength = pattern.length();
+    int stringLength = s.length();
+    int patternIndex = 0;
+    int stringIndex = 0;
+    // the position after the last '*' in the pattern, and the position in the string it currently
+    // ends at, to resume from if the remaining pattern does not match
+    int starPatternIndex = -1;
+    int starStringIndex = 0;
+    while (stringIndex < stringLength) {
+      if (patternIndex < patternLength) {
+        char p = pattern.charAt(patternIndex);
+        if (p == '*') {
+          patternIndex++;
+          starPatternIndex = patternIndex;
+          starStringIndex = stringIndex;
+          continue;
+        }
+        if (p == '?' || equalsIgnoreCase(p, s.charAt(stringIndex))) {
+          patternIndex++;
+          stringIndex++;
+          continue;
+        }
+      }
+      if (starPatternIndex < 0) {
+        return false;
+      }
+      // let the last '*' match one more character
+      patternIndex = starPatternIndex;
+      starStringIndex++;
+      stringIndex = starStringIndex;
+    }
+    while (patternIndex < patternLength && pattern.charAt(patternIndex) == '*') {
+      patternIndex++;
+    }
+    return patternIndex == patternLength;
+  }
+
+  // same comparison as String.regionMatches(true, ...)
+  private static boolean equalsIgnoreCase(char c1, char c2) {
+    if (c1 == c2) {
+      return true;
+    }
+    char u1 = Character.toUpperCase(c1);
+    char u2 = Character.toUpperCase(c2);
+    return u1 == u2 || Character.toLowerCase(u1) == Character.toLowerCase(u2);
+  }
+
+  @Override
+  public String toString() {
+    return pattern;
+  }
+}
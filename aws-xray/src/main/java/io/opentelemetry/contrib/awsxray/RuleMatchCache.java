@@ -0,0 +1,165 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded cache from the properties of a span that sampling rules reference to the index of the
+ * first matching rule. A cache belongs to a single {@link SamplingRuleIndex}, so it is discarded
+ * together with the rules whenever the sampler is replaced.
+ *
+ * <p>Entries are evicted by the CLOCK policy. Every entry occupies a slot of a ring, and a hand
+ * moves around the ring, one slot per step. Once the cache is full, a new entry takes the slot of
+ * the first entry under the hand that has not been hit since the hand last passed it, and that
+ * entry is evicted. Entries hit in the meantime are skipped and lose their mark. Hence, frequently
+ * hit entries stay cached, while all other entries are evicted in turn, and a miss costs a few
+ * steps on average. Lookups stay lock-free and only mark an entry if it is not marked yet. Threads
+ * putting entries concurrently move the hand atomically, so the cache may briefly exceed its
+ * maximum size by the number of such threads, but it never loses all entries at once. The cache
+ * only pays off if the number of distinct keys stays below the maximum size. With high-cardinality
+ * URL paths, such as paths containing IDs, most lookups miss and every miss also evicts an entry.
+ */
+final class RuleMatchCache {
+
+  static final int NO_MATCH = -1;
+
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  // the key of every cached entry is in exactly one slot
+  private final AtomicReferenceArray<Key> slots;
+  private final AtomicLong hand = new AtomicLong();
+  private final Statistics statistics;
+
+  RuleMatchCache(int maxSize, Statistics statistics) {
+    this.slots = new AtomicReferenceArray<>(maxSize);
+    this.statistics = statistics;
+  }
+
+  /**
+   * Returns the cached index of the first matching rule, {@link #NO_MATCH} if no rule matches, or
+   * {@code null} if the key is not cached.
+   */
+  @Nullable
+  Integer get(Key key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      statistics.misses.increment();
+      return null;
+    }
+    statistics.hits.increment();
+    // avoid writing to entries hit by many threads
+    if (!entry.isHit) {
+      entry.isHit = true;
+    }
+    return entry.ruleIndex;
+  }
+
+  void put(Key key, int ruleIndex) {
+    if (entries.putIfAbsent(key, new Entry(ruleIndex)) != null) {
+      return;
+    }
+    int numberOfSlots = slots.length();
+    // after a full round all entries have lost their marks, unless concurrently hit again
+    for (int step = 0; ; ++step) {
+      int slot = (int) (hand.getAndIncrement() % numberOfSlots);
+      if (step < numberOfSlots) {
+        Key candidate = slots.get(slot);
+        Entry candidateEntry = candidate != null ? entries.get(candidate) : null;
+        if (candidateEntry != null && candidateEntry.isHit) {
+          candidateEntry.isHit = false;
+          continue;
+        }
+      }
+      Key evicted = slots.getAndSet(slot, key);
+      if (evicted != null) {
+        entries.remove(evicted);
+      }
+      return;
+    }
+  }
+
+  // visible for testing
+  int size() {
+    return entries.size();
+  }
+
+  private static final class Entry {
+    private final int ruleIndex;
+    private volatile boolean isHit;
+
+    private Entry(int ruleIndex) {
+      this.ruleIndex = ruleIndex;
+    }
+  }
+
+  /** The values of the span properties referenced by any rule, compared as a whole. */
+  static final class Key {
+    private final String[] values;
+    private final int hashCode;
+
+    Key(String[] values) {
+      this.values = values;
+      this.hashCode = Arrays.hashCode(values);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hashCode == other.hashCode && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  /**
+   * The number of cache hits and misses, shared by all caches of a sampler such that they survive
+   * rule updates, and reported as metric.
+   */
+  static final class Statistics {
+    private static final AttributeKey<Boolean> CACHE_HIT = AttributeKey.booleanKey("cache.hit");
+    private static final Attributes HIT_ATTRIBUTES = Attributes.of(CACHE_HIT, true);
+    private static final Attributes MISS_ATTRIBUTES = Attributes.of(CACHE_HIT, false);
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    /**
+     * Registers the number of lookups as counter, with an attribute telling whether the lookup was
+     * a hit.
+     */
+    ObservableLongCounter register(MeterProvider meterProvider) {
+      return meterProvider
+          .get("io.opentelemetry.contrib.aws-xray")
+          .counterBuilder("aws.xray.sampler.rule_match_cache.lookups")
+          .setDescription("The number of lookups in the cache of matching sampling rules.")
+          .setUnit("{lookups}")
+          .buildWithCallback(
+              measurement -> {
+                measurement.record(hits.sum(), HIT_ATTRIBUTES);
+                measurement.record(misses.sum(), MISS_ATTRIBUTES);
+              });
+    }
+  }
+}
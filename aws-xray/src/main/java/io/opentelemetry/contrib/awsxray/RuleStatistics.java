@@ -0,0 +1,113 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sampling statistics of all rules of a sampler, reported to X-Ray to allow it to allocate
+ * quota from the central reservoir.
+ *
+ * <p>The counters are kept in a single flat array, addressed by the index of the rule. To avoid
+ * contention on the hot sampling path, the array holds several stripes of counters for all rules,
+ * and a thread only updates the counters of the stripe selected by its ID. As the array is not
+ * necessarily aligned to cache lines, the stripes are separated by a full cache line of padding, so
+ * that threads updating different stripes never share a cache line. A snapshot sums and resets the
+ * counters of the requested rules in a single pass over the stripes, into a buffer provided by the
+ * caller.
+ */
+final class RuleStatistics {
+
+  static final int REQUESTS = 0;
+  static final int SAMPLED = 1;
+  static final int BORROWED = 2;
+  static final int NUMBER_OF_COUNTERS = 3;
+
+  private static final int MAX_NUMBER_OF_STRIPES = 16;
+  // the number of longs in a cache line of 64 bytes
+  private static final int PADDING = 8;
+
+  private final int stripeMask;
+  private final int stripeLength;
+  private final AtomicLongArray counts;
+
+  RuleStatistics(int numberOfRules) {
+    this(numberOfRules, getDefaultNumberOfStripes());
+  }
+
+  // visible for testing
+  RuleStatistics(int numberOfRules, int numberOfStripes) {
+    if (Integer.bitCount(numberOfStripes) != 1) {
+      throw new IllegalArgumentException("number of stripes must be a power of two");
+    }
+    this.stripeMask = numberOfStripes - 1;
+    // the counters followed by a cache line of padding
+    this.stripeLength = numberOfRules * NUMBER_OF_COUNTERS + PADDING;
+    // a cache line of padding before the first stripe
+    this.counts = new AtomicLongArray(PADDING + numberOfStripes * stripeLength);
+  }
+
+  private static int getDefaultNumberOfStripes() {
+    int processors = Runtime.getRuntime().availableProcessors();
+    int numberOfStripes = Integer.highestOneBit(Math.max(1, processors - 1)) << 1;
+    return Math.min(numberOfStripes, MAX_NUMBER_OF_STRIPES);
+  }
+
+  void increment(int ruleIndex, int counter) {
+    int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    counts.getAndIncrement(
+        PADDING + stripe * stripeLength + ruleIndex * NUMBER_OF_COUNTERS + counter);
+  }
+
+  /**
+   * Adds counts returned by {@link #sumThenReset(int...)}, starting at the given offset, to the
+   * counters of the given rule.
+   */
+  void add(int ruleIndex, long[] sums, int offset) {
+    for (int counter = 0; counter < NUMBER_OF_COUNTERS; ++counter) {
+      long sum = sums[offset + counter];
+      if (sum != 0) {
+        // any stripe will do, as all stripes are summed
+        counts.addAndGet(PADDING + ruleIndex * NUMBER_OF_COUNTERS + counter, sum);
+      }
+    }
+  }
+
+  /**
+   * Sums and resets the counters of the given rules.
+   *
+   * @param ruleIndexes the indexes of the rules
+   * @return the sums, {@link #NUMBER_OF_COUNTERS} per rule in the order of the given rules
+   */
+  long[] sumThenReset(int... ruleIndexes) {
+    long[] sums = new long[ruleIndexes.length * NUMBER_OF_COUNTERS];
+    sumThenReset(ruleIndexes, ruleIndexes.length, sums);
+    return sums;
+  }
+
+  /**
+   * Sums and resets the counters of the first {@code numberOfRules} of the given rules, and writes
+   * the sums into the given array, {@link #NUMBER_OF_COUNTERS} per rule in the order of the given
+   * rules.
+   */
+  void sumThenReset(int[] ruleIndexes, int numberOfRules, long[] sums) {
+    Arrays.fill(sums, 0, numberOfRules * NUMBER_OF_COUNTERS, 0L);
+    // Resetting requests first ensures that sample / borrow rate are positive after the reset.
+    // Snapshotting is not concurrent so this ensures they are always positive.
+    for (int counter = 0; counter < NUMBER_OF_COUNTERS; ++counter) {
+      for (int stripeStart = PADDING; stripeStart < counts.length(); stripeStart += stripeLength) {
+        for (int i = 0; i < numberOfRules; ++i) {
+          int index = stripeStart + ruleIndexes[i] * NUMBER_OF_COUNTERS + counter;
+          // avoids the write, and with it invalidating the cache line, for unused stripes
+          if (counts.get(index) != 0) {
+            sums[i * NUMBER_OF_COUNTERS + counter] += counts.getAndSet(index, 0);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsResponse.SamplingTargetDocument;
+import io.opentelemetry.sdk.common.Clock;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The targets X-Ray assigned to the rules of a sampler, and the state of their reservoirs.
+ *
+ * <p>Like {@link RuleStatistics}, the values are kept in a flat array addressed by the index of the
+ * rule, and a target is applied by updating the values of its rule in place. The reservoir of a
+ * rule is a rate limiter like {@link RateLimiter}, whose balance is updated whenever a span is
+ * sampled from the reservoir. The values of adjacent rules are separated by a full cache line of
+ * padding, so that threads sampling spans of different rules do not contend.
+ *
+ * <p>The values of a rule are updated one by one. A span sampled concurrently with the application
+ * of a target may therefore still see some values of the previous target, just as it could have
+ * been sampled by the previous target before.
+ */
+final class RuleTargets {
+
+  // the cost of a span in nanoseconds of balance
+  private static final int RESERVOIR_COST = 0;
+  // the maximum balance in nanoseconds, 0 if the rule has no reservoir
+  private static final int RESERVOIR_MAX_BALANCE = 1;
+  // the last time the reservoir was spent less the remaining balance
+  private static final int RESERVOIR_BALANCE = 2;
+  private static final int RESERVOIR_END_TIME = 3;
+  private static final int BORROWING = 4;
+  private static final int FIXED_RATE = 5;
+  private static final int NEXT_SNAPSHOT_TIME = 6;
+  private static final int NUMBER_OF_VALUES = 7;
+
+  // the number of longs in a cache line of 64 bytes
+  private static final int PADDING = 8;
+  private static final int RULE_LENGTH = NUMBER_OF_VALUES + PADDING;
+
+  private final Clock clock;
+  private final AtomicLongArray values;
+  // only replaced if the fixed rate of a rule changes
+  private final AtomicReferenceArray<Sampler> fixedRateSamplers;
+
+  RuleTargets(int numberOfRules, Clock clock) {
+    this.clock = clock;
+    // a cache line of padding before the first rule
+    this.values = new AtomicLongArray(PADDING + numberOfRules * RULE_LENGTH);
+    this.fixedRateSamplers = new AtomicReferenceArray<>(numberOfRules);
+  }
+
+  private static int getOffset(int ruleIndex) {
+    return PADDING + ruleIndex * RULE_LENGTH;
+  }
+
+  /**
+   * Initializes the values of a rule which has not received a target yet. It samples at the given
+   * fixed rate, and borrows from the central reservoir if {@code borrowPerSecond} is positive.
+   */
+  void initialize(int ruleIndex, int borrowPerSecond, double fixedRate) {
+    int offset = getOffset(ruleIndex);
+    // We don't have a SamplingTarget so are ready to report a snapshot right away.
+    values.set(offset + NEXT_SNAPSHOT_TIME, clock.nanoTime());
+    setFixedRate(ruleIndex, fixedRate);
+    // We either have no reservoir sampling or borrow until we get a quota so have no end time.
+    setReservoir(offset, borrowPerSecond, Long.MAX_VALUE);
+    values.set(offset + BORROWING, borrowPerSecond > 0 ? 1 : 0);
+  }
+
+  /** Applies the given target to a rule. */
+  void apply(int ruleIndex, SamplingTargetDocument target, Date now) {
+    int offset = getOffset(ruleIndex);
+    setFixedRate(ruleIndex, target.getFixedRate());
+    Integer reservoirQuota = target.getReservoirQuota();
+    Date reservoirQuotaTtl = target.getReservoirQuotaTtl();
+    // Not well documented but a quota should always come with a TTL
+    if (reservoirQuota != null && reservoirQuotaTtl != null) {
+      setReservoir(
+          offset,
+          reservoirQuota,
+          clock.nanoTime()
+              + Duration.between(now.toInstant(), reservoirQuotaTtl.toInstant()).toNanos());
+    } else {
+      setReservoir(offset, 0, clock.nanoTime());
+    }
+    values.set(offset + BORROWING, 0);
+    Integer intervalSecs = target.getIntervalSecs();
+    long intervalNanos =
+        intervalSecs != null
+            ? TimeUnit.SECONDS.toNanos(intervalSecs)
+            : AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS;
+    values.set(offset + NEXT_SNAPSHOT_TIME, clock.nanoTime() + intervalNanos);
+  }
+
+  /** Copies the values of a rule of the given targets, including the state of its reservoir. */
+  void copy(int ruleIndex, RuleTargets from, int fromRuleIndex) {
+    int offset = getOffset(ruleIndex);
+    int fromOffset = getOffset(fromRuleIndex);
+    for (int i = 0; i < NUMBER_OF_VALUES; ++i) {
+      values.set(offset + i, from.values.get(fromOffset + i));
+    }
+    fixedRateSamplers.set(ruleIndex, from.fixedRateSamplers.get(fromRuleIndex));
+  }
+
+  private void setFixedRate(int ruleIndex, double fixedRate) {
+    int offset = getOffset(ruleIndex);
+    long fixedRateBits = Double.doubleToLongBits(fixedRate);
+    if (fixedRateSamplers.get(ruleIndex) == null
+        || values.get(offset + FIXED_RATE) != fixedRateBits) {
+      fixedRateSamplers.set(ruleIndex, Sampler.parentBased(Sampler.traceIdRatioBased(fixedRate)));
+      values.set(offset + FIXED_RATE, fixedRateBits);
+    }
+  }
+
+  // Same as a new RateLimiter(quota, quota, clock), which starts with the maximum balance.
+  private void setReservoir(int offset, int quota, long endTimeNanos) {
+    long cost = 0;
+    long maxBalance = 0;
+    if (quota > 0) {
+      double creditsPerNanosecond = quota / 1.0e9;
+      cost = (long) (1.0 / creditsPerNanosecond);
+      maxBalance = (long) (quota / creditsPerNanosecond);
+    }
+    values.set(offset + RESERVOIR_MAX_BALANCE, 0);
+    values.set(offset + RESERVOIR_COST, cost);
+    values.set(offset + RESERVOIR_BALANCE, clock.nanoTime() - maxBalance);
+    values.set(offset + RESERVOIR_END_TIME, endTimeNanos);
+    values.set(offset + RESERVOIR_MAX_BALANCE, maxBalance);
+  }
+
+  /**
+   * Returns whether the rule has a reservoir which has not expired at the given time. Otherwise, it
+   * samples at its fixed rate only.
+   */
+  boolean hasReservoir(int ruleIndex, long nanoTime) {
+    int offset = getOffset(ruleIndex);
+    return values.get(offset + RESERVOIR_MAX_BALANCE) > 0
+        && nanoTime < values.get(offset + RESERVOIR_END_TIME);
+  }
+
+  /** Takes a span from the reservoir of a rule, returns {@code false} if it is exhausted. */
+  boolean trySpendReservoir(int ruleIndex) {
+    int offset = getOffset(ruleIndex);
+    long maxBalance = values.get(offset + RESERVOIR_MAX_BALANCE);
+    long cost = values.get(offset + RESERVOIR_COST);
+    long currentNanos;
+    long currentBalanceNanos;
+    long availableBalanceAfterWithdrawal;
+    do {
+      currentBalanceNanos = values.get(offset + RESERVOIR_BALANCE);
+      currentNanos = clock.nanoTime();
+      long currentAvailableBalance = Math.min(currentNanos - currentBalanceNanos, maxBalance);
+      availableBalanceAfterWithdrawal = currentAvailableBalance - cost;
+      if (availableBalanceAfterWithdrawal < 0) {
+        return false;
+      }
+    } while (!values.compareAndSet(
+        offset + RESERVOIR_BALANCE,
+        currentBalanceNanos,
+        currentNanos - availableBalanceAfterWithdrawal));
+    return true;
+  }
+
+  /** Returns whether spans sampled from the reservoir of a rule are borrowed. */
+  boolean isBorrowing(int ruleIndex) {
+    return values.get(getOffset(ruleIndex) + BORROWING) != 0;
+  }
+
+  Sampler getFixedRateSampler(int ruleIndex) {
+    return fixedRateSamplers.get(ruleIndex);
+  }
+
+  long getNextSnapshotTimeNanos(int ruleIndex) {
+    return values.get(getOffset(ruleIndex) + NEXT_SNAPSHOT_TIME);
+  }
+
+  void setNextSnapshotTimeNanos(int ruleIndex, long nextSnapshotTimeNanos) {
+    values.set(getOffset(ruleIndex) + NEXT_SNAPSHOT_TIME, nextSnapshotTimeNanos);
+  }
+}
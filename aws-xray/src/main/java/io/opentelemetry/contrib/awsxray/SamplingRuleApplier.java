@@ -6,6 +6,7 @@
 package io.opentelemetry.contrib.awsxray;
 
 import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.SpanKind;
 import io.opentelemetry.context.Context;
@@ -19,15 +20,14 @@ import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
 import io.opentelemetry.sdk.trace.samplers.SamplingResult;
 import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
 import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.LongAdder;
-import java.util.regex.Pattern;
+import java.util.Set;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -35,6 +35,18 @@ final class SamplingRuleApplier {
 
   private static final Map<String, String> XRAY_CLOUD_PLATFORM;
 
+  // string keys first, as rules mostly match string attributes
+  private static final AttributeType[] ATTRIBUTE_TYPES = {
+    AttributeType.STRING,
+    AttributeType.LONG,
+    AttributeType.BOOLEAN,
+    AttributeType.DOUBLE,
+    AttributeType.STRING_ARRAY,
+    AttributeType.LONG_ARRAY,
+    AttributeType.BOOLEAN_ARRAY,
+    AttributeType.DOUBLE_ARRAY
+  };
+
   static {
     Map<String, String> xrayCloudPlatform = new HashMap<>();
     xrayCloudPlatform.put(ResourceAttributes.CloudPlatformValues.AWS_EC2, "AWS::EC2::Instance");
@@ -52,11 +64,9 @@ final class SamplingRuleApplier {
   private final String ruleName;
   private final Clock clock;
   private final Sampler reservoirSampler;
-  private final long reservoirEndTimeNanos;
-  private final Sampler fixedRateSampler;
-  private final boolean borrowing;
 
   private final Map<String, Matcher> attributeMatchers;
+  private final List<AttributeKey<?>> typedAttributeKeys;
   private final Matcher urlPathMatcher;
   private final Matcher serviceNameMatcher;
   private final Matcher httpMethodMatcher;
@@ -64,11 +74,27 @@ final class SamplingRuleApplier {
   private final Matcher serviceTypeMatcher;
   private final Matcher resourceArnMatcher;
 
-  private final Statistics statistics;
-
-  private final long nextSnapshotTimeNanos;
+  private final RuleStatistics statistics;
+  private final RuleTargets targets;
+  private final int ruleIndex;
 
   SamplingRuleApplier(String clientId, GetSamplingRulesResponse.SamplingRule rule, Clock clock) {
+    this(clientId, rule, clock, new RuleStatistics(1), new RuleTargets(1, clock), 0);
+  }
+
+  /**
+   * Creates an applier which keeps its statistics and its targets in the given shared statistics
+   * and targets.
+   *
+   * @param ruleIndex the index of the rule in {@code statistics} and {@code targets}
+   */
+  SamplingRuleApplier(
+      String clientId,
+      GetSamplingRulesResponse.SamplingRule rule,
+      Clock clock,
+      RuleStatistics statistics,
+      RuleTargets targets,
+      int ruleIndex) {
     this.clientId = clientId;
     this.clock = clock;
     String ruleName = rule.getRuleName();
@@ -82,23 +108,10 @@ final class SamplingRuleApplier {
     }
     this.ruleName = ruleName;
 
-    // We don't have a SamplingTarget so are ready to report a snapshot right away.
-    nextSnapshotTimeNanos = clock.nanoTime();
-
-    // We either have no reservoir sampling or borrow until we get a quota so have no end time.
-    reservoirEndTimeNanos = Long.MAX_VALUE;
-
-    if (rule.getReservoirSize() > 0) {
-      // Until calling GetSamplingTargets, the default is to borrow 1/s if reservoir size is
-      // positive.
-      reservoirSampler = createRateLimited(1);
-      borrowing = true;
-    } else {
-      // No reservoir sampling, we will always use the fixed rate.
-      reservoirSampler = Sampler.alwaysOff();
-      borrowing = false;
-    }
-    fixedRateSampler = createFixedRate(rule.getFixedRate());
+    // Until calling GetSamplingTargets, the default is to borrow 1/s if reservoir size is
+    // positive. Otherwise, there is no reservoir sampling, we will always use the fixed rate.
+    targets.initialize(ruleIndex, rule.getReservoirSize() > 0 ? 1 : 0, rule.getFixedRate());
+    reservoirSampler = Sampler.parentBased(new ReservoirSampler(targets, ruleIndex));
 
     if (rule.getAttributes().isEmpty()) {
       attributeMatchers = Collections.emptyMap();
@@ -107,6 +120,7 @@ final class SamplingRuleApplier {
           rule.getAttributes().entrySet().stream()
               .collect(Collectors.toMap(Map.Entry::getKey, e -> toMatcher(e.getValue())));
     }
+    typedAttributeKeys = createTypedAttributeKeys(attributeMatchers.keySet());
 
     urlPathMatcher = toMatcher(rule.getUrlPath());
     serviceNameMatcher = toMatcher(rule.getServiceName());
@@ -115,17 +129,15 @@ final class SamplingRuleApplier {
     serviceTypeMatcher = toMatcher(rule.getServiceType());
     resourceArnMatcher = toMatcher(rule.getResourceArn());
 
-    statistics = new Statistics();
+    this.statistics = statistics;
+    this.targets = targets;
+    this.ruleIndex = ruleIndex;
   }
 
   private SamplingRuleApplier(
       String clientId,
       String ruleName,
       Clock clock,
-      Sampler reservoirSampler,
-      long reservoirEndTimeNanos,
-      Sampler fixedRateSampler,
-      boolean borrowing,
       Map<String, Matcher> attributeMatchers,
       Matcher urlPathMatcher,
       Matcher serviceNameMatcher,
@@ -133,16 +145,15 @@ final class SamplingRuleApplier {
       Matcher hostMatcher,
       Matcher serviceTypeMatcher,
       Matcher resourceArnMatcher,
-      Statistics statistics,
-      long nextSnapshotTimeNanos) {
+      RuleStatistics statistics,
+      RuleTargets targets,
+      int ruleIndex) {
     this.clientId = clientId;
     this.ruleName = ruleName;
     this.clock = clock;
-    this.reservoirSampler = reservoirSampler;
-    this.reservoirEndTimeNanos = reservoirEndTimeNanos;
-    this.fixedRateSampler = fixedRateSampler;
-    this.borrowing = borrowing;
+    this.reservoirSampler = Sampler.parentBased(new ReservoirSampler(targets, ruleIndex));
     this.attributeMatchers = attributeMatchers;
+    this.typedAttributeKeys = createTypedAttributeKeys(attributeMatchers.keySet());
     this.urlPathMatcher = urlPathMatcher;
     this.serviceNameMatcher = serviceNameMatcher;
     this.httpMethodMatcher = httpMethodMatcher;
@@ -150,68 +161,126 @@ final class SamplingRuleApplier {
     this.serviceTypeMatcher = serviceTypeMatcher;
     this.resourceArnMatcher = resourceArnMatcher;
     this.statistics = statistics;
-    this.nextSnapshotTimeNanos = nextSnapshotTimeNanos;
+    this.targets = targets;
+    this.ruleIndex = ruleIndex;
   }
 
-  @SuppressWarnings("deprecation") // TODO
   boolean matches(Attributes attributes, Resource resource) {
-    int matchedAttributes = 0;
-    String httpTarget = null;
-    String httpUrl = null;
-    String httpMethod = null;
-    String host = null;
-
-    for (Map.Entry<AttributeKey<?>, Object> entry : attributes.asMap().entrySet()) {
-      if (entry.getKey().equals(SemanticAttributes.HTTP_TARGET)) {
-        httpTarget = (String) entry.getValue();
-      } else if (entry.getKey().equals(SemanticAttributes.HTTP_URL)) {
-        httpUrl = (String) entry.getValue();
-      } else if (entry.getKey().equals(SemanticAttributes.HTTP_METHOD)) {
-        httpMethod = (String) entry.getValue();
-      } else if (entry.getKey().equals(SemanticAttributes.NET_HOST_NAME)) {
-        host = (String) entry.getValue();
-      } else if (entry.getKey().equals(SemanticAttributes.HTTP_HOST)) {
-        // TODO (trask) remove support for deprecated http.host attribute
-        host = (String) entry.getValue();
-      }
+    return matchesResource(resource)
+        && matchesSpan(new SpanProperties(attributes, typedAttributeKeys), resource);
+  }
 
-      Matcher matcher = attributeMatchers.get(entry.getKey().getKey());
-      if (matcher == null) {
-        continue;
-      }
-      if (matcher.matches(entry.getValue().toString())) {
-        matchedAttributes++;
-      } else {
+  /**
+   * Returns whether the rule matches the given resource, ignoring the span. As the resource of a
+   * sampler does not change, rules that do not match the resource can be skipped entirely.
+   */
+  boolean matchesResource(Resource resource) {
+    return serviceNameMatcher.matches(resource.getAttribute(ResourceAttributes.SERVICE_NAME))
+        && serviceTypeMatcher.matches(getServiceType(resource));
+  }
+
+  /**
+   * Returns whether the rule matches the given span properties, assuming that {@link
+   * #matchesResource(Resource)} is {@code true}.
+   */
+  boolean matchesSpan(SpanProperties span, Resource resource) {
+    for (Map.Entry<String, Matcher> entry : attributeMatchers.entrySet()) {
+      // All attributes in the matched attributes must be present in the span to be a match.
+      String value = span.getAttributeValue(entry.getKey());
+      if (value == null || !entry.getValue().matches(value)) {
         return false;
       }
     }
-    // All attributes in the matched attributes must have been present in the span to be a match.
-    if (matchedAttributes != attributeMatchers.size()) {
-      return false;
-    }
+    return urlPathMatcher.matches(span.urlPath)
+        && httpMethodMatcher.matches(span.httpMethod)
+        && hostMatcher.matches(span.host)
+        && resourceArnMatcher.matches(span.getArn(resource));
+  }
 
-    // URL Path may be in either http.target or http.url
-    if (httpTarget == null && httpUrl != null) {
-      int schemeEndIndex = httpUrl.indexOf("://");
-      // Per spec, http.url is always populated with scheme://host/target. If scheme doesn't
-      // match, assume it's bad instrumentation and ignore.
-      if (schemeEndIndex > 0) {
-        int pathIndex = httpUrl.indexOf('/', schemeEndIndex + "://".length());
-        if (pathIndex < 0) {
-          // No path, equivalent to root path.
-          httpTarget = "/";
-        } else {
-          httpTarget = httpUrl.substring(pathIndex);
-        }
+  /** Returns the keys of the span attributes this rule matches. */
+  Set<String> getAttributeKeys() {
+    return attributeMatchers.keySet();
+  }
+
+  /**
+   * Returns the attribute keys of all types for the given attribute names. Rules match attribute
+   * values of any type by their string representation, but attributes are looked up by typed keys.
+   * As attributes with the same name replace each other regardless of type, at most one of the keys
+   * of a name is present.
+   */
+  static List<AttributeKey<?>> createTypedAttributeKeys(Collection<String> names) {
+    List<AttributeKey<?>> keys = new ArrayList<>(names.size() * ATTRIBUTE_TYPES.length);
+    for (String name : names) {
+      for (AttributeType type : ATTRIBUTE_TYPES) {
+        keys.add(createAttributeKey(name, type));
       }
     }
+    return Collections.unmodifiableList(keys);
+  }
 
-    return urlPathMatcher.matches(httpTarget)
-        && serviceNameMatcher.matches(resource.getAttribute(ResourceAttributes.SERVICE_NAME))
-        && httpMethodMatcher.matches(httpMethod)
-        && hostMatcher.matches(host)
-        && serviceTypeMatcher.matches(getServiceType(resource))
-        && resourceArnMatcher.matches(getArn(attributes, resource));
+  private static AttributeKey<?> createAttributeKey(String name, AttributeType type) {
+    switch (type) {
+      case STRING:
+        return AttributeKey.stringKey(name);
+      case BOOLEAN:
+        return AttributeKey.booleanKey(name);
+      case LONG:
+        return AttributeKey.longKey(name);
+      case DOUBLE:
+        return AttributeKey.doubleKey(name);
+      case STRING_ARRAY:
+        return AttributeKey.stringArrayKey(name);
+      case BOOLEAN_ARRAY:
+        return AttributeKey.booleanArrayKey(name);
+      case LONG_ARRAY:
+        return AttributeKey.longArrayKey(name);
+      case DOUBLE_ARRAY:
+        return AttributeKey.doubleArrayKey(name);
+    }
+    throw new IllegalArgumentException("unknown attribute type " + type);
+  }
+
+  /**
+   * Returns the HTTP method this rule matches case-insensitively, or {@code null} if the rule
+   * matches a pattern or any method.
+   */
+  @Nullable
+  String getExactHttpMethod() {
+    return getExactValue(httpMethodMatcher);
+  }
+
+  /**
+   * Returns the host this rule matches case-insensitively, or {@code null} if the rule matches a
+   * pattern or any host.
+   */
+  @Nullable
+  String getExactHost() {
+    return getExactValue(hostMatcher);
+  }
+
+  /** Returns whether the URL path of a span is irrelevant for this rule. */
+  boolean matchesAnyUrlPath() {
+    return urlPathMatcher == TrueMatcher.INSTANCE;
+  }
+
+  /** Returns whether the HTTP method of a span is irrelevant for this rule. */
+  boolean matchesAnyHttpMethod() {
+    return httpMethodMatcher == TrueMatcher.INSTANCE;
+  }
+
+  /** Returns whether the host of a span is irrelevant for this rule. */
+  boolean matchesAnyHost() {
+    return hostMatcher == TrueMatcher.INSTANCE;
+  }
+
+  /** Returns whether the ARN of a span is irrelevant for this rule. */
+  boolean matchesAnyResourceArn() {
+    return resourceArnMatcher == TrueMatcher.INSTANCE;
+  }
+
+  @Nullable
+  private static String getExactValue(Matcher matcher) {
+    return matcher instanceof StringMatcher ? ((StringMatcher) matcher).target : null;
   }
 
   SamplingResult shouldSample(
@@ -222,97 +291,86 @@ final class SamplingRuleApplier {
       Attributes attributes,
       List<LinkData> parentLinks) {
     // Incrementing requests first ensures sample / borrow rate are positive.
-    statistics.requests.increment();
-    boolean reservoirExpired = clock.nanoTime() >= reservoirEndTimeNanos;
-    SamplingResult result =
-        !reservoirExpired
-            ? reservoirSampler.shouldSample(
-                parentContext, traceId, name, spanKind, attributes, parentLinks)
-            : SamplingResult.create(SamplingDecision.DROP);
-    if (result.getDecision() != SamplingDecision.DROP) {
-      // We use the result from the reservoir sampler if it worked.
-      if (borrowing) {
-        statistics.borrowed.increment();
+    statistics.increment(ruleIndex, RuleStatistics.REQUESTS);
+    if (targets.hasReservoir(ruleIndex, clock.nanoTime())) {
+      SamplingResult result =
+          reservoirSampler.shouldSample(
+              parentContext, traceId, name, spanKind, attributes, parentLinks);
+      if (result.getDecision() != SamplingDecision.DROP) {
+        // We use the result from the reservoir sampler if it worked.
+        if (targets.isBorrowing(ruleIndex)) {
+          statistics.increment(ruleIndex, RuleStatistics.BORROWED);
+        }
+        statistics.increment(ruleIndex, RuleStatistics.SAMPLED);
+        return result;
       }
-      statistics.sampled.increment();
-      return result;
     }
-    result =
-        fixedRateSampler.shouldSample(
-            parentContext, traceId, name, spanKind, attributes, parentLinks);
+    SamplingResult result =
+        targets
+            .getFixedRateSampler(ruleIndex)
+            .shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
     if (result.getDecision() != SamplingDecision.DROP) {
-      statistics.sampled.increment();
+      statistics.increment(ruleIndex, RuleStatistics.SAMPLED);
     }
     return result;
   }
 
   @Nullable
   SamplingStatisticsDocument snapshot(Date now) {
-    if (clock.nanoTime() < nextSnapshotTimeNanos) {
+    if (!isSnapshotDue(clock.nanoTime())) {
       return null;
     }
+    return createSnapshot(now, statistics.sumThenReset(ruleIndex), 0);
+  }
+
+  boolean isSnapshotDue(long nanoTime) {
+    return nanoTime >= targets.getNextSnapshotTimeNanos(ruleIndex);
+  }
+
+  int getRuleIndex() {
+    return ruleIndex;
+  }
+
+  /**
+   * Creates the statistics document of this rule from counts returned by {@link
+   * RuleStatistics#sumThenReset(int...)}, starting at the given offset.
+   */
+  SamplingStatisticsDocument createSnapshot(Date now, long[] counts, int offset) {
     return SamplingStatisticsDocument.newBuilder()
         .setClientId(clientId)
         .setRuleName(ruleName)
         .setTimestamp(now)
-        // Resetting requests first ensures that sample / borrow rate are positive after the reset.
-        // Snapshotting is not concurrent so this ensures they are always positive.
-        .setRequestCount(statistics.requests.sumThenReset())
-        .setSampledCount(statistics.sampled.sumThenReset())
-        .setBorrowCount(statistics.borrowed.sumThenReset())
+        .setRequestCount(counts[offset + RuleStatistics.REQUESTS])
+        .setSampledCount(counts[offset + RuleStatistics.SAMPLED])
+        .setBorrowCount(counts[offset + RuleStatistics.BORROWED])
         .build();
   }
 
   long getNextSnapshotTimeNanos() {
-    return nextSnapshotTimeNanos;
-  }
-
-  SamplingRuleApplier withTarget(SamplingTargetDocument target, Date now) {
-    Sampler newFixedRateSampler = createFixedRate(target.getFixedRate());
-    Sampler newReservoirSampler = Sampler.alwaysOff();
-    long newReservoirEndTimeNanos = clock.nanoTime();
-    // Not well documented but a quota should always come with a TTL
-    if (target.getReservoirQuota() != null && target.getReservoirQuotaTtl() != null) {
-      newReservoirSampler = createRateLimited(target.getReservoirQuota());
-      newReservoirEndTimeNanos =
-          clock.nanoTime()
-              + Duration.between(now.toInstant(), target.getReservoirQuotaTtl().toInstant())
-                  .toNanos();
-    }
-    long intervalNanos =
-        target.getIntervalSecs() != null
-            ? TimeUnit.SECONDS.toNanos(target.getIntervalSecs())
-            : AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS;
-    long newNextSnapshotTimeNanos = clock.nanoTime() + intervalNanos;
+    return targets.getNextSnapshotTimeNanos(ruleIndex);
+  }
 
-    return new SamplingRuleApplier(
-        clientId,
-        ruleName,
-        clock,
-        newReservoirSampler,
-        newReservoirEndTimeNanos,
-        newFixedRateSampler,
-        /* borrowing= */ false,
-        attributeMatchers,
-        urlPathMatcher,
-        serviceNameMatcher,
-        httpMethodMatcher,
-        hostMatcher,
-        serviceTypeMatcher,
-        resourceArnMatcher,
-        statistics,
-        newNextSnapshotTimeNanos);
+  /** Applies the given target, which takes effect for this rule right away. */
+  void applyTarget(SamplingTargetDocument target, Date now) {
+    targets.apply(ruleIndex, target, now);
   }
 
-  SamplingRuleApplier withNextSnapshotTimeNanos(long newNextSnapshotTimeNanos) {
+  void setNextSnapshotTimeNanos(long nextSnapshotTimeNanos) {
+    targets.setNextSnapshotTimeNanos(ruleIndex, nextSnapshotTimeNanos);
+  }
+
+  /**
+   * Returns a copy of this applier which keeps its statistics and targets at the given index of the
+   * given statistics and targets, used when this rule is carried over to an updated set of rules.
+   * The targets and the reservoir of this rule are copied, its statistics are not.
+   */
+  SamplingRuleApplier withState(
+      RuleStatistics newStatistics, RuleTargets newTargets, int newRuleIndex) {
+    newTargets.copy(newRuleIndex, targets, ruleIndex);
     return new SamplingRuleApplier(
         clientId,
         ruleName,
         clock,
-        reservoirSampler,
-        reservoirEndTimeNanos,
-        fixedRateSampler,
-        borrowing,
         attributeMatchers,
         urlPathMatcher,
         serviceNameMatcher,
@@ -320,8 +378,9 @@ final class SamplingRuleApplier {
         hostMatcher,
         serviceTypeMatcher,
         resourceArnMatcher,
-        statistics,
-        newNextSnapshotTimeNanos);
+        newStatistics,
+        newTargets,
+        newRuleIndex);
   }
 
   String getRuleName() {
@@ -367,39 +426,104 @@ final class SamplingRuleApplier {
     for (int i = 0; i < globPattern.length(); i++) {
       char c = globPattern.charAt(i);
       if (c == '*' || c == '?') {
-        return new PatternMatcher(toRegexPattern(globPattern));
+        return new PatternMatcher(GlobMatcher.compile(globPattern));
       }
     }
 
     return new StringMatcher(globPattern);
   }
 
-  private static Pattern toRegexPattern(String globPattern) {
-    int tokenStart = -1;
-    StringBuilder patternBuilder = new StringBuilder();
-    for (int i = 0; i < globPattern.length(); i++) {
-      char c = globPattern.charAt(i);
-      if (c == '*' || c == '?') {
-        if (tokenStart != -1) {
-          patternBuilder.append(Pattern.quote(globPattern.substring(tokenStart, i)));
-          tokenStart = -1;
-        }
-        if (c == '*') {
-          patternBuilder.append(".*");
-        } else {
-          // c == '?'
-          patternBuilder.append(".");
+  /**
+   * The properties of a span which sampling rules are matched against, looked up once, such that
+   * they can be shared by all rules.
+   */
+  static final class SpanProperties {
+    private final Attributes attributes;
+    @Nullable private Map<String, String> attributeValues;
+    @Nullable private String urlPath;
+    @Nullable private final String httpMethod;
+    @Nullable private final String host;
+    @Nullable private String arn;
+    private boolean isArnResolved;
+
+    /**
+     * Extracts the properties of a span.
+     *
+     * @param attributes the span attributes
+     * @param attributeKeys the keys of the attributes matched by any rule, as created by {@link
+     *     #createTypedAttributeKeys(Collection)}
+     */
+    @SuppressWarnings("deprecation") // TODO
+    SpanProperties(Attributes attributes, List<AttributeKey<?>> attributeKeys) {
+      this.attributes = attributes;
+      httpMethod = attributes.get(SemanticAttributes.HTTP_METHOD);
+      String host = attributes.get(SemanticAttributes.NET_HOST_NAME);
+      if (host == null) {
+        // TODO (trask) remove support for deprecated http.host attribute
+        host = attributes.get(SemanticAttributes.HTTP_HOST);
+      }
+      this.host = host;
+      for (AttributeKey<?> key : attributeKeys) {
+        Object value = attributes.get(key);
+        if (value != null) {
+          Map<String, String> attributeValues = this.attributeValues;
+          if (attributeValues == null) {
+            attributeValues = new HashMap<>();
+            this.attributeValues = attributeValues;
+          }
+          attributeValues.put(key.getKey(), value.toString());
         }
-      } else {
-        if (tokenStart == -1) {
-          tokenStart = i;
+      }
+
+      // URL Path may be in either http.target or http.url
+      urlPath = attributes.get(SemanticAttributes.HTTP_TARGET);
+      String httpUrl = attributes.get(SemanticAttributes.HTTP_URL);
+      if (urlPath == null && httpUrl != null) {
+        int schemeEndIndex = httpUrl.indexOf("://");
+        // Per spec, http.url is always populated with scheme://host/target. If scheme doesn't
+        // match, assume it's bad instrumentation and ignore.
+        if (schemeEndIndex > 0) {
+          int pathIndex = httpUrl.indexOf('/', schemeEndIndex + "://".length());
+          if (pathIndex < 0) {
+            // No path, equivalent to root path.
+            urlPath = "/";
+          } else {
+            urlPath = httpUrl.substring(pathIndex);
+          }
         }
       }
     }
-    if (tokenStart != -1) {
-      patternBuilder.append(Pattern.quote(globPattern.substring(tokenStart)));
+
+    @Nullable
+    String getUrlPath() {
+      return urlPath;
+    }
+
+    @Nullable
+    String getHttpMethod() {
+      return httpMethod;
+    }
+
+    @Nullable
+    String getHost() {
+      return host;
+    }
+
+    @Nullable
+    String getAttributeValue(String key) {
+      Map<String, String> attributeValues = this.attributeValues;
+      return attributeValues != null ? attributeValues.get(key) : null;
+    }
+
+    @Nullable
+    String getArn(Resource resource) {
+      // only resolved if a rule does not match any ARN
+      if (!isArnResolved) {
+        arn = SamplingRuleApplier.getArn(attributes, resource);
+        isArnResolved = true;
+      }
+      return arn;
     }
-    return Pattern.compile(patternBuilder.toString());
   }
 
   private interface Matcher {
@@ -443,9 +567,9 @@ final class SamplingRuleApplier {
   }
 
   private static class PatternMatcher implements Matcher {
-    private final Pattern pattern;
+    private final GlobMatcher pattern;
 
-    PatternMatcher(Pattern pattern) {
+    PatternMatcher(GlobMatcher pattern) {
       this.pattern = pattern;
     }
 
@@ -454,7 +578,7 @@ final class SamplingRuleApplier {
       if (s == null) {
         return false;
       }
-      return pattern.matcher(s).matches();
+      return pattern.matches(s);
     }
 
     @Override
@@ -463,21 +587,32 @@ final class SamplingRuleApplier {
     }
   }
 
-  private Sampler createRateLimited(int numPerSecond) {
-    return Sampler.parentBased(new RateLimitingSampler(numPerSecond, clock));
-  }
+  /** Samples root spans from the reservoir of a rule, like a {@link RateLimitingSampler}. */
+  private static final class ReservoirSampler implements Sampler {
+    private final RuleTargets targets;
+    private final int ruleIndex;
 
-  private static Sampler createFixedRate(double rate) {
-    return Sampler.parentBased(Sampler.traceIdRatioBased(rate));
-  }
+    private ReservoirSampler(RuleTargets targets, int ruleIndex) {
+      this.targets = targets;
+      this.ruleIndex = ruleIndex;
+    }
 
-  // We keep track of sampling requests and decisions to report to X-Ray to allow it to allocate
-  // quota from the central reservoir. We do not lock around updates because sampling is called on
-  // the hot, highly-contended path and locking would have significant overhead. The actual possible
-  // error should not be off to significantly affect quotas in practice.
-  private static class Statistics {
-    final LongAdder requests = new LongAdder();
-    final LongAdder sampled = new LongAdder();
-    final LongAdder borrowed = new LongAdder();
+    @Override
+    public SamplingResult shouldSample(
+        Context parentContext,
+        String traceId,
+        String name,
+        SpanKind spanKind,
+        Attributes attributes,
+        List<LinkData> parentLinks) {
+      return targets.trySpendReservoir(ruleIndex)
+          ? SamplingResult.create(SamplingDecision.RECORD_AND_SAMPLE)
+          : SamplingResult.create(SamplingDecision.DROP);
+    }
+
+    @Override
+    public String getDescription() {
+      return "ReservoirSampler";
+    }
   }
 }
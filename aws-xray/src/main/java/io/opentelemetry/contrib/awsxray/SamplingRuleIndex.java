@@ -0,0 +1,228 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.resources.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * An index over {@link SamplingRuleApplier}s which finds the first matching rule without testing
+ * every rule.
+ *
+ * <p>As the resource of a sampler is fixed, rules not matching its service name or service type are
+ * dropped when the index is built. The remaining rules are bucketed by their exact HTTP method and
+ * host, if any. For a span, only the rules in the buckets of its HTTP method and host, together
+ * with the rules matching any method or host, are candidates. The candidates are represented as bit
+ * sets, so they are visited in priority order, and only those are matched against the remaining
+ * properties of the span.
+ *
+ * <p>Optionally, the index of the first matching rule is cached by the values of the span
+ * properties that any rule references.
+ */
+final class SamplingRuleIndex {
+
+  private final Resource resource;
+  private final SamplingRuleApplier[] appliers;
+  private final List<AttributeKey<?>> typedAttributeKeys;
+  private final String[] sortedAttributeKeys;
+  private final boolean usesUrlPath;
+  private final boolean usesHttpMethod;
+  private final boolean usesHost;
+  private final boolean usesArn;
+  @Nullable private final RuleMatchCache cache;
+
+  private final Map<String, long[]> rulesByHttpMethod;
+  private final long[] rulesWithAnyHttpMethod;
+  private final Map<String, long[]> rulesByHost;
+  private final long[] rulesWithAnyHost;
+
+  /**
+   * Creates an index.
+   *
+   * @param appliers the rule appliers in order of priority
+   * @param resource the resource of the sampler
+   * @param cache the cache of matching rules, or {@code null} to not cache
+   */
+  SamplingRuleIndex(
+      SamplingRuleApplier[] appliers, Resource resource, @Nullable RuleMatchCache cache) {
+    this.resource = resource;
+    this.cache = cache;
+
+    List<SamplingRuleApplier> matchingAppliers = new ArrayList<>();
+    for (SamplingRuleApplier applier : appliers) {
+      if (applier.matchesResource(resource)) {
+        matchingAppliers.add(applier);
+      }
+    }
+    this.appliers = matchingAppliers.toArray(new SamplingRuleApplier[0]);
+
+    int numberOfWords = (this.appliers.length + 63) >>> 6;
+    rulesByHttpMethod = new HashMap<>();
+    rulesWithAnyHttpMethod = new long[numberOfWords];
+    rulesByHost = new HashMap<>();
+    rulesWithAnyHost = new long[numberOfWords];
+    Set<String> attributeKeys = new HashSet<>();
+    boolean usesUrlPath = false;
+    boolean usesHttpMethod = false;
+    boolean usesHost = false;
+    boolean usesArn = false;
+    for (int i = 0; i < this.appliers.length; ++i) {
+      SamplingRuleApplier applier = this.appliers[i];
+      addRule(i, applier.getExactHttpMethod(), rulesByHttpMethod, rulesWithAnyHttpMethod);
+      addRule(i, applier.getExactHost(), rulesByHost, rulesWithAnyHost);
+      attributeKeys.addAll(applier.getAttributeKeys());
+      usesUrlPath |= !applier.matchesAnyUrlPath();
+      usesHttpMethod |= !applier.matchesAnyHttpMethod();
+      usesHost |= !applier.matchesAnyHost();
+      usesArn |= !applier.matchesAnyResourceArn();
+    }
+    sortedAttributeKeys = attributeKeys.stream().sorted().toArray(String[]::new);
+    typedAttributeKeys =
+        SamplingRuleApplier.createTypedAttributeKeys(Arrays.asList(sortedAttributeKeys));
+    this.usesUrlPath = usesUrlPath;
+    this.usesHttpMethod = usesHttpMethod;
+    this.usesHost = usesHost;
+    this.usesArn = usesArn;
+  }
+
+  private static void addRule(
+      int ruleIndex,
+      @Nullable String exactValue,
+      Map<String, long[]> rulesByValue,
+      long[] rulesWithAnyValue) {
+    long[] rules = rulesWithAnyValue;
+    if (exactValue != null) {
+      rules =
+          rulesByValue.computeIfAbsent(
+              foldCase(exactValue), value -> new long[rulesWithAnyValue.length]);
+      // the value as given by the rule is mapped as well, spans mostly use the same spelling
+      rulesByValue.put(exactValue, rules);
+    }
+    rules[ruleIndex >>> 6] |= 1L << ruleIndex;
+  }
+
+  /**
+   * Returns a representation of the given value that is equal for all values that are equal
+   * ignoring case, in the sense of {@link String#equalsIgnoreCase(String)}, which is how rules
+   * match. Unlike a {@link java.util.TreeMap} with case-insensitive order, a hash map keyed by this
+   * representation finds the rules of a value in constant time.
+   */
+  static String foldCase(String value) {
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      if (foldCase(c) != c) {
+        char[] chars = value.toCharArray();
+        for (int j = i; j < chars.length; ++j) {
+          chars[j] = foldCase(chars[j]);
+        }
+        return new String(chars);
+      }
+    }
+    return value;
+  }
+
+  // the same per-character comparison as String.equalsIgnoreCase
+  private static char foldCase(char c) {
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * Returns the rule applier with the highest priority matching the given span attributes, or
+   * {@code null} if none matches.
+   */
+  @Nullable
+  SamplingRuleApplier findFirstMatch(Attributes attributes) {
+    SamplingRuleApplier.SpanProperties span =
+        new SamplingRuleApplier.SpanProperties(attributes, typedAttributeKeys);
+    RuleMatchCache cache = this.cache;
+    if (cache == null) {
+      return getApplier(findFirstMatchIndex(span));
+    }
+    RuleMatchCache.Key key = createCacheKey(span);
+    Integer cachedRuleIndex = cache.get(key);
+    if (cachedRuleIndex != null) {
+      return getApplier(cachedRuleIndex);
+    }
+    int ruleIndex = findFirstMatchIndex(span);
+    cache.put(key, ruleIndex);
+    return getApplier(ruleIndex);
+  }
+
+  @Nullable
+  private SamplingRuleApplier getApplier(int ruleIndex) {
+    return ruleIndex != RuleMatchCache.NO_MATCH ? appliers[ruleIndex] : null;
+  }
+
+  private RuleMatchCache.Key createCacheKey(SamplingRuleApplier.SpanProperties span) {
+    String[] values = new String[4 + sortedAttributeKeys.length];
+    // properties no rule depends on are left out, so that they do not split cache entries
+    if (usesUrlPath) {
+      values[0] = span.getUrlPath();
+    }
+    if (usesHttpMethod) {
+      values[1] = span.getHttpMethod();
+    }
+    if (usesHost) {
+      values[2] = span.getHost();
+    }
+    if (usesArn) {
+      values[3] = span.getArn(resource);
+    }
+    for (int i = 0; i < sortedAttributeKeys.length; ++i) {
+      values[4 + i] = span.getAttributeValue(sortedAttributeKeys[i]);
+    }
+    return new RuleMatchCache.Key(values);
+  }
+
+  private int findFirstMatchIndex(SamplingRuleApplier.SpanProperties span) {
+    long[] rulesWithHttpMethod = getRules(rulesByHttpMethod, span.getHttpMethod());
+    long[] rulesWithHost = getRules(rulesByHost, span.getHost());
+    for (int wordIndex = 0; wordIndex < rulesWithAnyHttpMethod.length; ++wordIndex) {
+      long candidates = rulesWithAnyHttpMethod[wordIndex] & rulesWithAnyHost[wordIndex];
+      if (rulesWithHttpMethod != null) {
+        candidates |= rulesWithHttpMethod[wordIndex] & rulesWithAnyHost[wordIndex];
+      }
+      if (rulesWithHost != null) {
+        candidates |= rulesWithAnyHttpMethod[wordIndex] & rulesWithHost[wordIndex];
+      }
+      if (rulesWithHttpMethod != null && rulesWithHost != null) {
+        candidates |= rulesWithHttpMethod[wordIndex] & rulesWithHost[wordIndex];
+      }
+      while (candidates != 0) {
+        int bitIndex = Long.numberOfTrailingZeros(candidates);
+        int ruleIndex = (wordIndex << 6) + bitIndex;
+        if (appliers[ruleIndex].matchesSpan(span, resource)) {
+          return ruleIndex;
+        }
+        candidates &= candidates - 1;
+      }
+    }
+    return RuleMatchCache.NO_MATCH;
+  }
+
+  @Nullable
+  private static long[] getRules(Map<String, long[]> rulesByValue, @Nullable String value) {
+    if (value == null || rulesByValue.isEmpty()) {
+      return null;
+    }
+    long[] rules = rulesByValue.get(value);
+    return rules != null ? rules : rulesByValue.get(foldCase(value));
+  }
+
+  // visible for testing
+  int getNumberOfRules() {
+    return appliers.length;
+  }
+}
@@ -14,16 +14,18 @@ import io.opentelemetry.sdk.resources.Resource;
 import io.opentelemetry.sdk.trace.data.LinkData;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
 import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 final class XrayRulesSampler implements Sampler {
 
@@ -33,7 +35,16 @@ final class XrayRulesSampler implements Sampler {
   private final Resource resource;
   private final Clock clock;
   private final Sampler fallbackSampler;
+  // The rules sorted by priority, and their appliers in the same order
+  private final List<GetSamplingRulesResponse.SamplingRule> rules;
   private final SamplingRuleApplier[] ruleAppliers;
+  private final RuleStatistics ruleStatistics;
+  // reused by every snapshot, as snapshots are taken by a single thread
+  private final int[] dueRuleIndexes;
+  private final long[] dueRuleCounts;
+  private final int ruleMatchCacheSize;
+  @Nullable private final RuleMatchCache.Statistics ruleMatchCacheStatistics;
+  private final SamplingRuleIndex ruleIndex;
 
   XrayRulesSampler(
       String clientId,
@@ -41,16 +52,32 @@ final class XrayRulesSampler implements Sampler {
       Clock clock,
       Sampler fallbackSampler,
       List<GetSamplingRulesResponse.SamplingRule> rules) {
+    this(clientId, resource, clock, fallbackSampler, rules, 0, null);
+  }
+
+  /**
+   * Creates a sampler which caches the matching rule for up to {@code ruleMatchCacheSize} distinct
+   * combinations of the span properties referenced by the rules. The cache is dropped whenever a
+   * new sampler is derived from this one.
+   */
+  XrayRulesSampler(
+      String clientId,
+      Resource resource,
+      Clock clock,
+      Sampler fallbackSampler,
+      List<GetSamplingRulesResponse.SamplingRule> rules,
+      int ruleMatchCacheSize,
+      @Nullable RuleMatchCache.Statistics ruleMatchCacheStatistics) {
     this(
         clientId,
         resource,
         clock,
         fallbackSampler,
-        rules.stream()
-            // Lower priority value takes precedence so normal ascending sort.
-            .sorted(Comparator.comparingInt(GetSamplingRulesResponse.SamplingRule::getPriority))
-            .map(rule -> new SamplingRuleApplier(clientId, rule, clock))
-            .toArray(SamplingRuleApplier[]::new));
+        sortByPriority(rules),
+        ruleMatchCacheSize,
+        ruleMatchCacheStatistics,
+        new RuleStatistics(rules.size()),
+        new RuleTargets(rules.size(), clock));
   }
 
   private XrayRulesSampler(
@@ -58,12 +85,73 @@ final class XrayRulesSampler implements Sampler {
       Resource resource,
       Clock clock,
       Sampler fallbackSampler,
+      List<GetSamplingRulesResponse.SamplingRule> rules,
+      int ruleMatchCacheSize,
+      @Nullable RuleMatchCache.Statistics ruleMatchCacheStatistics,
+      RuleStatistics ruleStatistics,
+      RuleTargets ruleTargets) {
+    this(
+        clientId,
+        resource,
+        clock,
+        fallbackSampler,
+        rules,
+        ruleMatchCacheSize,
+        ruleMatchCacheStatistics,
+        ruleStatistics,
+        createAppliers(clientId, clock, ruleStatistics, ruleTargets, rules));
+  }
+
+  private XrayRulesSampler(
+      String clientId,
+      Resource resource,
+      Clock clock,
+      Sampler fallbackSampler,
+      List<GetSamplingRulesResponse.SamplingRule> rules,
+      int ruleMatchCacheSize,
+      @Nullable RuleMatchCache.Statistics ruleMatchCacheStatistics,
+      RuleStatistics ruleStatistics,
       SamplingRuleApplier[] ruleAppliers) {
     this.clientId = clientId;
     this.resource = resource;
     this.clock = clock;
     this.fallbackSampler = fallbackSampler;
+    this.rules = rules;
     this.ruleAppliers = ruleAppliers;
+    this.ruleStatistics = ruleStatistics;
+    this.dueRuleIndexes = new int[ruleAppliers.length];
+    this.dueRuleCounts = new long[ruleAppliers.length * RuleStatistics.NUMBER_OF_COUNTERS];
+    this.ruleMatchCacheSize = ruleMatchCacheSize;
+    this.ruleMatchCacheStatistics = ruleMatchCacheStatistics;
+    RuleMatchCache ruleMatchCache =
+        ruleMatchCacheSize > 0 && ruleMatchCacheStatistics != null
+            ? new RuleMatchCache(ruleMatchCacheSize, ruleMatchCacheStatistics)
+            : null;
+    this.ruleIndex = new SamplingRuleIndex(ruleAppliers, resource, ruleMatchCache);
+  }
+
+  // The statistics and targets of a rule are addressed by its index in the sorted rules.
+  private static SamplingRuleApplier[] createAppliers(
+      String clientId,
+      Clock clock,
+      RuleStatistics ruleStatistics,
+      RuleTargets ruleTargets,
+      List<GetSamplingRulesResponse.SamplingRule> sortedRules) {
+    SamplingRuleApplier[] appliers = new SamplingRuleApplier[sortedRules.size()];
+    for (int i = 0; i < appliers.length; ++i) {
+      appliers[i] =
+          new SamplingRuleApplier(
+              clientId, sortedRules.get(i), clock, ruleStatistics, ruleTargets, i);
+    }
+    return appliers;
+  }
+
+  private static List<GetSamplingRulesResponse.SamplingRule> sortByPriority(
+      List<GetSamplingRulesResponse.SamplingRule> rules) {
+    return rules.stream()
+        // Lower priority value takes precedence so normal ascending sort.
+        .sorted(Comparator.comparingInt(GetSamplingRulesResponse.SamplingRule::getPriority))
+        .collect(Collectors.toList());
   }
 
   @Override
@@ -74,11 +162,9 @@ final class XrayRulesSampler implements Sampler {
       SpanKind spanKind,
       Attributes attributes,
       List<LinkData> parentLinks) {
-    for (SamplingRuleApplier applier : ruleAppliers) {
-      if (applier.matches(attributes, resource)) {
-        return applier.shouldSample(
-            parentContext, traceId, name, spanKind, attributes, parentLinks);
-      }
+    SamplingRuleApplier applier = ruleIndex.findFirstMatch(attributes);
+    if (applier != null) {
+      return applier.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
     }
 
     // In practice, X-Ray always returns a Default rule that matches all requests so it is a bug in
@@ -96,45 +182,117 @@ final class XrayRulesSampler implements Sampler {
     return "XrayRulesSampler{" + Arrays.toString(ruleAppliers) + "}";
   }
 
+  /**
+   * Returns the statistics of the rules whose snapshot is due, and resets them. The counts of all
+   * due rules are summed in a single pass into a buffer reused by every snapshot. Must not be
+   * called concurrently.
+   */
   List<GetSamplingTargetsRequest.SamplingStatisticsDocument> snapshot(Date now) {
-    return Arrays.stream(ruleAppliers)
-        .map(rule -> rule.snapshot(now))
-        .filter(Objects::nonNull)
-        .collect(Collectors.toList());
+    long nanoTime = clock.nanoTime();
+    int numberOfDueRules = 0;
+    for (SamplingRuleApplier applier : ruleAppliers) {
+      if (applier.isSnapshotDue(nanoTime)) {
+        dueRuleIndexes[numberOfDueRules++] = applier.getRuleIndex();
+      }
+    }
+    ruleStatistics.sumThenReset(dueRuleIndexes, numberOfDueRules, dueRuleCounts);
+    List<GetSamplingTargetsRequest.SamplingStatisticsDocument> snapshot =
+        new ArrayList<>(numberOfDueRules);
+    for (int i = 0; i < numberOfDueRules; ++i) {
+      snapshot.add(
+          ruleAppliers[dueRuleIndexes[i]].createSnapshot(
+              now, dueRuleCounts, i * RuleStatistics.NUMBER_OF_COUNTERS));
+    }
+    return snapshot;
   }
 
   long nextTargetFetchTimeNanos() {
-    return Arrays.stream(ruleAppliers)
-        .mapToLong(SamplingRuleApplier::getNextSnapshotTimeNanos)
-        .min()
-        // There is always at least one rule in practice so this should never be exercised.
-        .orElseGet(() -> clock.nanoTime() + AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS);
+    if (ruleAppliers.length == 0) {
+      // There is always at least one rule in practice so this should never be exercised.
+      return clock.nanoTime() + AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS;
+    }
+    long nextTargetFetchTimeNanos = Long.MAX_VALUE;
+    for (SamplingRuleApplier applier : ruleAppliers) {
+      nextTargetFetchTimeNanos =
+          Math.min(nextTargetFetchTimeNanos, applier.getNextSnapshotTimeNanos());
+    }
+    return nextTargetFetchTimeNanos;
   }
 
-  XrayRulesSampler withTargets(
+  /**
+   * Returns a sampler for the given updated rules. Rules which did not change keep their applier,
+   * with its targets, reservoir and the statistics not reported yet, only new and changed rules
+   * start over.
+   */
+  XrayRulesSampler withRules(List<GetSamplingRulesResponse.SamplingRule> newRules) {
+    Map<GetSamplingRulesResponse.SamplingRule, SamplingRuleApplier> previousAppliers =
+        new HashMap<>();
+    for (int i = 0; i < ruleAppliers.length; ++i) {
+      previousAppliers.putIfAbsent(rules.get(i), ruleAppliers[i]);
+    }
+
+    List<GetSamplingRulesResponse.SamplingRule> sortedRules = sortByPriority(newRules);
+    RuleStatistics newRuleStatistics = new RuleStatistics(sortedRules.size());
+    RuleTargets newRuleTargets = new RuleTargets(sortedRules.size(), clock);
+    SamplingRuleApplier[] newAppliers = new SamplingRuleApplier[sortedRules.size()];
+    // The indexes of the kept rules in the previous and the new statistics
+    int[] previousIndexes = new int[newAppliers.length];
+    int[] newIndexes = new int[newAppliers.length];
+    int numberOfKeptRules = 0;
+    for (int i = 0; i < newAppliers.length; ++i) {
+      GetSamplingRulesResponse.SamplingRule rule = sortedRules.get(i);
+      SamplingRuleApplier previousApplier = previousAppliers.remove(rule);
+      if (previousApplier != null) {
+        newAppliers[i] = previousApplier.withState(newRuleStatistics, newRuleTargets, i);
+        previousIndexes[numberOfKeptRules] = previousApplier.getRuleIndex();
+        newIndexes[numberOfKeptRules] = i;
+        ++numberOfKeptRules;
+      } else {
+        newAppliers[i] =
+            new SamplingRuleApplier(clientId, rule, clock, newRuleStatistics, newRuleTargets, i);
+      }
+    }
+
+    // Counts recorded through this sampler after this point are lost, which only concerns the few
+    // spans sampled concurrently with the update.
+    long[] counts = ruleStatistics.sumThenReset(Arrays.copyOf(previousIndexes, numberOfKeptRules));
+    for (int i = 0; i < numberOfKeptRules; ++i) {
+      newRuleStatistics.add(newIndexes[i], counts, i * RuleStatistics.NUMBER_OF_COUNTERS);
+    }
+
+    return new XrayRulesSampler(
+        clientId,
+        resource,
+        clock,
+        fallbackSampler,
+        sortedRules,
+        ruleMatchCacheSize,
+        ruleMatchCacheStatistics,
+        newRuleStatistics,
+        newAppliers);
+  }
+
+  /**
+   * Applies the given targets to the rules in place. Rules for which a target was requested but
+   * none was returned report their statistics again after the default interval.
+   */
+  void applyTargets(
       Map<String, SamplingTargetDocument> ruleTargets,
       Set<String> requestedTargetRuleNames,
       Date now) {
     long defaultNextSnapshotTimeNanos =
         clock.nanoTime() + AwsXrayRemoteSampler.DEFAULT_TARGET_INTERVAL_NANOS;
-    SamplingRuleApplier[] newAppliers =
-        Arrays.stream(ruleAppliers)
-            .map(
-                rule -> {
-                  SamplingTargetDocument target = ruleTargets.get(rule.getRuleName());
-                  if (target != null) {
-                    return rule.withTarget(target, now);
-                  }
-                  if (requestedTargetRuleNames.contains(rule.getRuleName())) {
-                    // In practice X-Ray should return a target for any rule we requested but
-                    // do a defensive check here in case. If we requested a target but got nothing
-                    // back assume the default interval.
-                    return rule.withNextSnapshotTimeNanos(defaultNextSnapshotTimeNanos);
-                  }
-                  // Target not requested, will be updated in a future target fetch.
-                  return rule;
-                })
-            .toArray(SamplingRuleApplier[]::new);
-    return new XrayRulesSampler(clientId, resource, clock, fallbackSampler, newAppliers);
+    for (SamplingRuleApplier applier : ruleAppliers) {
+      SamplingTargetDocument target = ruleTargets.get(applier.getRuleName());
+      if (target != null) {
+        applier.applyTarget(target, now);
+      } else if (requestedTargetRuleNames.contains(applier.getRuleName())) {
+        // In practice X-Ray should return a target for any rule we requested but
+        // do a defensive check here in case. If we requested a target but got nothing
+        // back assume the default interval.
+        applier.setNextSnapshotTimeNanos(defaultNextSnapshotTimeNanos);
+      }
+      // Otherwise, target not requested, will be updated in a future target fetch.
+    }
   }
 }
@@ -25,23 +25,32 @@
 
 package io.opentelemetry.contrib.awsxray;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
-import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.math.BigDecimal;
-import java.util.Date;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -49,17 +58,15 @@ import okhttp3.ResponseBody;
 
 final class XraySamplerClient {
 
-  private static final ObjectMapper OBJECT_MAPPER =
-      new ObjectMapper()
-          .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
-          // AWS APIs return timestamps as floats.
-          .registerModule(
-              new SimpleModule().addDeserializer(Date.class, new FloatDateDeserializer()))
-          // In case API is extended with new fields.
-          .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, /* state= */ false);
-
   private static final MediaType JSON_CONTENT_TYPE = MediaType.get("application/json");
 
+  // The daemon or collector is usually local, so connections are established quickly.
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+  private static final Duration CALL_TIMEOUT = Duration.ofSeconds(10);
+  // At most a rules poll and a targets fetch are in flight at the same time.
+  private static final int MAX_IDLE_CONNECTIONS = 2;
+  private static final Duration KEEP_ALIVE_DURATION = Duration.ofMinutes(5);
+
   private static final Logger logger = Logger.getLogger(XraySamplerClient.class.getName());
 
   private final String getSamplingRulesEndpoint;
@@ -70,48 +77,197 @@ final class XraySamplerClient {
     this.getSamplingRulesEndpoint = host + "/GetSamplingRules";
     // Lack of Get may look wrong but is correct.
     this.getSamplingTargetsEndpoint = host + "/SamplingTargets";
-    httpClient = new OkHttpClient();
+    httpClient =
+        new OkHttpClient.Builder()
+            .dispatcher(new Dispatcher(createDispatcherExecutor()))
+            .connectionPool(
+                new ConnectionPool(
+                    MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION.toNanos(), TimeUnit.NANOSECONDS))
+            .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+            .connectTimeout(CONNECT_TIMEOUT)
+            .callTimeout(CALL_TIMEOUT)
+            .build();
+  }
+
+  // Same as the default executor of OkHttp, but with daemon threads which do not keep the
+  // application from exiting.
+  private static ExecutorService createDispatcherExecutor() {
+    return new ThreadPoolExecutor(
+        0,
+        Integer.MAX_VALUE,
+        60,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<>(),
+        runnable -> {
+          Thread t = Executors.defaultThreadFactory().newThread(runnable);
+          try {
+            t.setDaemon(true);
+            t.setName("xray-sampler-http");
+          } catch (SecurityException e) {
+            // Well, we tried.
+          }
+          return t;
+        });
   }
 
   GetSamplingRulesResponse getSamplingRules(GetSamplingRulesRequest request) {
-    return executeJsonRequest(getSamplingRulesEndpoint, request, GetSamplingRulesResponse.class);
+    return executeJsonRequest(
+        getSamplingRulesEndpoint,
+        generator -> XraySamplerJson.writeGetSamplingRulesRequest(generator, request),
+        XraySamplerJson::readGetSamplingRulesResponse);
   }
 
   GetSamplingTargetsResponse getSamplingTargets(GetSamplingTargetsRequest request) {
     return executeJsonRequest(
-        getSamplingTargetsEndpoint, request, GetSamplingTargetsResponse.class);
+        getSamplingTargetsEndpoint,
+        generator -> XraySamplerJson.writeGetSamplingTargetsRequest(generator, request),
+        XraySamplerJson::readGetSamplingTargetsResponse);
   }
 
-  private <T> T executeJsonRequest(String endpoint, Object request, Class<T> responseType) {
-    byte[] requestBody;
-    try {
-      requestBody = OBJECT_MAPPER.writeValueAsBytes(request);
-    } catch (JsonProcessingException e) {
-      throw new UncheckedIOException("Failed to serialize request.", e);
-    }
+  /**
+   * Gets the sampling rules without blocking. The returned future is completed on a thread of the
+   * HTTP client, exceptionally with an {@link IOException} if the request could not be executed,
+   * for example because the daemon is unreachable, or with an {@link UncheckedIOException} if the
+   * response could not be deserialized.
+   *
+   * <p>X-Ray does not support conditional requests, so the response is always sent in full, but it
+   * is only parsed if the digest of its content differs from the given digest of the previous
+   * response.
+   */
+  CompletableFuture<SamplingRulesResult> getSamplingRulesAsync(
+      GetSamplingRulesRequest request, @Nullable byte[] previousContentDigest) {
+    return executeRequestAsync(
+        getSamplingRulesEndpoint,
+        generator -> XraySamplerJson.writeGetSamplingRulesRequest(generator, request),
+        response -> {
+          byte[] content = readContent(response, getSamplingRulesEndpoint);
+          byte[] contentDigest = digest(content);
+          if (previousContentDigest != null
+              && MessageDigest.isEqual(contentDigest, previousContentDigest)) {
+            return new SamplingRulesResult(null, contentDigest);
+          }
+          try (JsonParser parser = XraySamplerJson.JSON_FACTORY.createParser(content)) {
+            return new SamplingRulesResult(
+                XraySamplerJson.readGetSamplingRulesResponse(parser), contentDigest);
+          }
+        });
+  }
 
-    Call call =
-        httpClient.newCall(
-            new Request.Builder()
-                .url(endpoint)
-                .post(RequestBody.create(requestBody, JSON_CONTENT_TYPE))
-                .build());
+  /**
+   * Gets the sampling targets without blocking, completing the returned future like {@link
+   * #getSamplingRulesAsync(GetSamplingRulesRequest, byte[])}.
+   */
+  CompletableFuture<GetSamplingTargetsResponse> getSamplingTargetsAsync(
+      GetSamplingTargetsRequest request) {
+    return executeRequestAsync(
+        getSamplingTargetsEndpoint,
+        generator -> XraySamplerJson.writeGetSamplingTargetsRequest(generator, request),
+        response ->
+            readResponse(
+                response,
+                getSamplingTargetsEndpoint,
+                XraySamplerJson::readGetSamplingTargetsResponse));
+  }
 
-    String response;
+  /** Cancels the requests in flight and releases the threads and connections of the client. */
+  void shutdown() {
+    httpClient.dispatcher().cancelAll();
+    httpClient.dispatcher().executorService().shutdown();
+    httpClient.connectionPool().evictAll();
+  }
+
+  private interface RequestWriter {
+    void write(JsonGenerator generator) throws IOException;
+  }
+
+  private interface ResponseReader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  private interface ResponseHandler<T> {
+    T handle(Response response) throws IOException;
+  }
+
+  private <T> T executeJsonRequest(
+      String endpoint, RequestWriter requestWriter, ResponseReader<T> responseReader) {
+    Call call = httpClient.newCall(createRequest(endpoint, requestWriter));
     try (Response httpResponse = call.execute()) {
-      response = readResponse(httpResponse, endpoint);
+      return readResponse(httpResponse, endpoint, responseReader);
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException("Failed to deserialize response.", e);
     } catch (IOException e) {
       throw new UncheckedIOException("Failed to execute sampling request.", e);
     }
+  }
 
-    try {
-      return OBJECT_MAPPER.readValue(response, responseType);
-    } catch (JsonProcessingException e) {
-      throw new UncheckedIOException("Failed to deserialize response.", e);
+  private <T> CompletableFuture<T> executeRequestAsync(
+      String endpoint, RequestWriter requestWriter, ResponseHandler<T> responseHandler) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Call call = httpClient.newCall(createRequest(endpoint, requestWriter));
+    call.enqueue(
+        new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            result.completeExceptionally(e);
+          }
+
+          @Override
+          public void onResponse(Call call, Response response) {
+            try {
+              result.complete(responseHandler.handle(response));
+            } catch (JsonProcessingException e) {
+              result.completeExceptionally(
+                  new UncheckedIOException("Failed to deserialize response.", e));
+            } catch (IOException | RuntimeException e) {
+              result.completeExceptionally(e);
+            } finally {
+              response.close();
+            }
+          }
+        });
+    return result;
+  }
+
+  private static Request createRequest(String endpoint, RequestWriter requestWriter) {
+    ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+    try (JsonGenerator generator = XraySamplerJson.JSON_FACTORY.createGenerator(requestBody)) {
+      requestWriter.write(generator);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to serialize request.", e);
+    }
+    return new Request.Builder()
+        .url(endpoint)
+        .post(RequestBody.create(requestBody.toByteArray(), JSON_CONTENT_TYPE))
+        .build();
+  }
+
+  // The response is parsed while it is read, without copying it into a string first.
+  private static <T> T readResponse(
+      Response response, String endpoint, ResponseReader<T> responseReader) throws IOException {
+    try (JsonParser parser = createResponseParser(response, endpoint)) {
+      return responseReader.read(parser);
     }
   }
 
-  private static String readResponse(Response response, String endpoint) throws IOException {
+  private static JsonParser createResponseParser(Response response, String endpoint)
+      throws IOException {
+    ResponseBody body = getSuccessfulBody(response, endpoint);
+    if (body != null) {
+      return XraySamplerJson.JSON_FACTORY.createParser(body.byteStream());
+    }
+    return XraySamplerJson.JSON_FACTORY.createParser("");
+  }
+
+  private static byte[] readContent(Response response, String endpoint) throws IOException {
+    ResponseBody body = getSuccessfulBody(response, endpoint);
+    if (body != null) {
+      return body.bytes();
+    }
+    return new byte[0];
+  }
+
+  @Nullable
+  private static ResponseBody getSuccessfulBody(Response response, String endpoint) {
     if (!response.isSuccessful()) {
       logger.log(
           Level.FINE,
@@ -121,14 +277,18 @@ final class XraySamplerClient {
               + response.code()
               + ") text "
               + response.message());
-      return "";
+      return null;
     }
+    return response.body();
+  }
 
-    ResponseBody body = response.body();
-    if (body != null) {
-      return body.string();
+  private static byte[] digest(byte[] content) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(content);
+    } catch (NoSuchAlgorithmException e) {
+      // Every implementation of the Java platform supports SHA-256.
+      throw new IllegalStateException(e);
     }
-    return "";
   }
 
   // Visible for testing
@@ -136,32 +296,25 @@ final class XraySamplerClient {
     return getSamplingRulesEndpoint;
   }
 
-  @SuppressWarnings("JavaUtilDate")
-  private static class FloatDateDeserializer extends StdDeserializer<Date> {
-
-    private static final long serialVersionUID = 4446058377205025341L;
-
-    private static final int AWS_DATE_MILLI_SECOND_PRECISION = 3;
+  /** The result of polling the sampling rules. */
+  static final class SamplingRulesResult {
+    @Nullable private final GetSamplingRulesResponse response;
+    private final byte[] contentDigest;
 
-    private FloatDateDeserializer() {
-      super(Date.class);
+    private SamplingRulesResult(@Nullable GetSamplingRulesResponse response, byte[] contentDigest) {
+      this.response = response;
+      this.contentDigest = contentDigest;
     }
 
-    @Override
-    public Date deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-      return parseServiceSpecificDate(p.getText());
+    /** Returns the rules, or {@code null} if the response did not change. */
+    @Nullable
+    GetSamplingRulesResponse getResponse() {
+      return response;
     }
 
-    // Copied from AWS SDK
-    // https://github.com/aws/aws-sdk-java/blob/7b1e5b87b0bf03456df9e77716b14731adf9a7a7/aws-java-sdk-core/src/main/java/com/amazonaws/util/DateUtils.java#L239
-    /** Parses the given date string returned by the AWS service into a Date object. */
-    private static Date parseServiceSpecificDate(String dateString) {
-      try {
-        BigDecimal dateValue = new BigDecimal(dateString);
-        return new Date(dateValue.scaleByPowerOfTen(AWS_DATE_MILLI_SECOND_PRECISION).longValue());
-      } catch (NumberFormatException nfe) {
-        throw new IllegalArgumentException("Unable to parse date : " + dateString, nfe);
-      }
+    /** Returns the digest of the content of the response, to pass to the next poll. */
+    byte[] getContentDigest() {
+      return contentDigest;
     }
   }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.opentelemetry.contrib.awsxray.GetSamplingRulesResponse.SamplingRule;
+import io.opentelemetry.contrib.awsxray.GetSamplingRulesResponse.SamplingRuleRecord;
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsRequest.SamplingStatisticsDocument;
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsResponse.SamplingTargetDocument;
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsResponse.UnprocessedStatistics;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads and writes the JSON documents of the X-Ray sampling API with the streaming API of Jackson,
+ * without reflection. Buffers are recycled across requests by the {@link JsonFactory}.
+ *
+ * <p>Unknown fields are skipped, in case the API is extended with new fields. Missing required
+ * fields are reported as {@link JsonParseException}.
+ */
+final class XraySamplerJson {
+
+  static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final int AWS_DATE_MILLI_SECOND_PRECISION = 3;
+
+  static void writeGetSamplingRulesRequest(JsonGenerator generator, GetSamplingRulesRequest request)
+      throws IOException {
+    generator.writeStartObject();
+    writeStringFieldIfNotEmpty(generator, "NextToken", request.getNextToken());
+    generator.writeEndObject();
+  }
+
+  @SuppressWarnings("JavaUtilDate")
+  static void writeGetSamplingTargetsRequest(
+      JsonGenerator generator, GetSamplingTargetsRequest request) throws IOException {
+    generator.writeStartObject();
+    if (!request.getDocuments().isEmpty()) {
+      generator.writeArrayFieldStart("SamplingStatisticsDocuments");
+      for (SamplingStatisticsDocument document : request.getDocuments()) {
+        generator.writeStartObject();
+        generator.writeNumberField("BorrowCount", document.getBorrowCount());
+        writeStringFieldIfNotEmpty(generator, "ClientID", document.getClientId());
+        generator.writeNumberField("RequestCount", document.getRequestCount());
+        writeStringFieldIfNotEmpty(generator, "RuleName", document.getRuleName());
+        generator.writeNumberField("SampledCount", document.getSampledCount());
+        generator.writeNumberField("Timestamp", document.getTimestamp().getTime());
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+    }
+    generator.writeEndObject();
+  }
+
+  private static void writeStringFieldIfNotEmpty(
+      JsonGenerator generator, String name, @Nullable String value) throws IOException {
+    if (value != null && !value.isEmpty()) {
+      generator.writeStringField(name, value);
+    }
+  }
+
+  static GetSamplingRulesResponse readGetSamplingRulesResponse(JsonParser parser)
+      throws IOException {
+    String nextToken = null;
+    List<SamplingRuleRecord> samplingRules = null;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "NextToken":
+          nextToken = parser.getValueAsString();
+          break;
+        case "SamplingRuleRecords":
+          samplingRules = readArray(parser, XraySamplerJson::readSamplingRuleRecord);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return GetSamplingRulesResponse.create(
+        nextToken, required(parser, samplingRules, "SamplingRuleRecords"));
+  }
+
+  private static SamplingRuleRecord readSamplingRuleRecord(JsonParser parser) throws IOException {
+    String createdAt = null;
+    String modifiedAt = null;
+    SamplingRule rule = null;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "CreatedAt":
+          createdAt = parser.getValueAsString();
+          break;
+        case "ModifiedAt":
+          modifiedAt = parser.getValueAsString();
+          break;
+        case "SamplingRule":
+          rule = readSamplingRule(parser);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return SamplingRuleRecord.create(
+        required(parser, createdAt, "CreatedAt"),
+        required(parser, modifiedAt, "ModifiedAt"),
+        required(parser, rule, "SamplingRule"));
+  }
+
+  /** Reads a sampling rule, the parser being positioned at the start of the rule object. */
+  static SamplingRule readSamplingRule(JsonParser parser) throws IOException {
+    Map<String, String> attributes = null;
+    double fixedRate = 0;
+    String host = null;
+    String httpMethod = null;
+    int priority = 0;
+    int reservoirSize = 0;
+    String resourceArn = null;
+    String ruleArn = null;
+    String ruleName = null;
+    String serviceName = null;
+    String serviceType = null;
+    String urlPath = null;
+    int version = 0;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "Attributes":
+          attributes = readStringMap(parser);
+          break;
+        case "FixedRate":
+          fixedRate = parser.getValueAsDouble();
+          break;
+        case "Host":
+          host = parser.getValueAsString();
+          break;
+        case "HTTPMethod":
+          httpMethod = parser.getValueAsString();
+          break;
+        case "Priority":
+          priority = parser.getValueAsInt();
+          break;
+        case "ReservoirSize":
+          reservoirSize = parser.getValueAsInt();
+          break;
+        case "ResourceARN":
+          resourceArn = parser.getValueAsString();
+          break;
+        case "RuleARN":
+          ruleArn = parser.getValueAsString();
+          break;
+        case "RuleName":
+          ruleName = parser.getValueAsString();
+          break;
+        case "ServiceName":
+          serviceName = parser.getValueAsString();
+          break;
+        case "ServiceType":
+          serviceType = parser.getValueAsString();
+          break;
+        case "URLPath":
+          urlPath = parser.getValueAsString();
+          break;
+        case "Version":
+          version = parser.getValueAsInt();
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return SamplingRule.create(
+        required(parser, attributes, "Attributes"),
+        fixedRate,
+        required(parser, host, "Host"),
+        required(parser, httpMethod, "HTTPMethod"),
+        priority,
+        reservoirSize,
+        required(parser, resourceArn, "ResourceARN"),
+        ruleArn,
+        ruleName,
+        required(parser, serviceName, "ServiceName"),
+        required(parser, serviceType, "ServiceType"),
+        required(parser, urlPath, "URLPath"),
+        version);
+  }
+
+  static GetSamplingTargetsResponse readGetSamplingTargetsResponse(JsonParser parser)
+      throws IOException {
+    Date lastRuleModification = null;
+    List<SamplingTargetDocument> documents = null;
+    List<UnprocessedStatistics> unprocessedStatistics = null;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "LastRuleModification":
+          lastRuleModification = readDate(parser);
+          break;
+        case "SamplingTargetDocuments":
+          documents = readArray(parser, XraySamplerJson::readSamplingTargetDocument);
+          break;
+        case "UnprocessedStatistics":
+          unprocessedStatistics = readArray(parser, XraySamplerJson::readUnprocessedStatistics);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return GetSamplingTargetsResponse.create(
+        required(parser, lastRuleModification, "LastRuleModification"),
+        required(parser, documents, "SamplingTargetDocuments"),
+        required(parser, unprocessedStatistics, "UnprocessedStatistics"));
+  }
+
+  private static SamplingTargetDocument readSamplingTargetDocument(JsonParser parser)
+      throws IOException {
+    double fixedRate = 0;
+    Integer intervalSecs = null;
+    Integer reservoirQuota = null;
+    Date reservoirQuotaTtl = null;
+    String ruleName = null;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "FixedRate":
+          fixedRate = parser.getValueAsDouble();
+          break;
+        case "Interval":
+          intervalSecs = readInteger(parser);
+          break;
+        case "ReservoirQuota":
+          reservoirQuota = readInteger(parser);
+          break;
+        case "ReservoirQuotaTTL":
+          reservoirQuotaTtl = readDate(parser);
+          break;
+        case "RuleName":
+          ruleName = parser.getValueAsString();
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return SamplingTargetDocument.create(
+        fixedRate,
+        intervalSecs,
+        reservoirQuota,
+        reservoirQuotaTtl,
+        required(parser, ruleName, "RuleName"));
+  }
+
+  private static UnprocessedStatistics readUnprocessedStatistics(JsonParser parser)
+      throws IOException {
+    String errorCode = null;
+    String message = null;
+    String ruleName = null;
+    startObject(parser);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      switch (name) {
+        case "ErrorCode":
+          errorCode = parser.getValueAsString();
+          break;
+        case "Message":
+          message = parser.getValueAsString();
+          break;
+        case "RuleName":
+          ruleName = parser.getValueAsString();
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    return UnprocessedStatistics.create(
+        required(parser, errorCode, "ErrorCode"),
+        required(parser, message, "Message"),
+        required(parser, ruleName, "RuleName"));
+  }
+
+  private interface ValueReader<T> {
+    T read(JsonParser parser) throws IOException;
+  }
+
+  // the parser is positioned at the start of the object, or before it for the root object
+  private static void startObject(JsonParser parser) throws IOException {
+    if (!parser.hasCurrentToken()) {
+      parser.nextToken();
+    }
+    if (!parser.isExpectedStartObjectToken()) {
+      throw new JsonParseException(parser, "Expected an object");
+    }
+  }
+
+  @Nullable
+  private static <T> List<T> readArray(JsonParser parser, ValueReader<T> elementReader)
+      throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (!parser.isExpectedStartArrayToken()) {
+      throw new JsonParseException(parser, "Expected an array");
+    }
+    List<T> list = new ArrayList<>();
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      list.add(elementReader.read(parser));
+    }
+    return list;
+  }
+
+  @Nullable
+  private static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    startObject(parser);
+    Map<String, String> map = new LinkedHashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      parser.nextToken();
+      map.put(name, parser.getValueAsString());
+    }
+    return map;
+  }
+
+  @Nullable
+  private static Integer readInteger(JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    return parser.getValueAsInt();
+  }
+
+  // AWS APIs return timestamps as floats.
+  @Nullable
+  @SuppressWarnings("JavaUtilDate")
+  private static Date readDate(JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    // Copied from AWS SDK
+    // https://github.com/aws/aws-sdk-java/blob/7b1e5b87b0bf03456df9e77716b14731adf9a7a7/aws-java-sdk-core/src/main/java/com/amazonaws/util/DateUtils.java#L239
+    String dateString = parser.getText();
+    try {
+      BigDecimal dateValue = new BigDecimal(dateString);
+      return new Date(dateValue.scaleByPowerOfTen(AWS_DATE_MILLI_SECOND_PRECISION).longValue());
+    } catch (NumberFormatException nfe) {
+      throw new JsonParseException(parser, "Unable to parse date : " + dateString, nfe);
+    }
+  }
+
+  private static <T> T required(JsonParser parser, @Nullable T value, String name)
+      throws JsonParseException {
+    if (value == null) {
+      throw new JsonParseException(parser, "Missing required field " + name);
+    }
+    return value;
+  }
+
+  private XraySamplerJson() {}
+}
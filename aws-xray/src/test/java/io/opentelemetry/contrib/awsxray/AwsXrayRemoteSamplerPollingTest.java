@@ -0,0 +1,138 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static java.util.Objects.requireNonNull;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+import com.google.common.io.Resources;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests the scheduling and connection handling of the requests of {@link AwsXrayRemoteSampler}. */
+class AwsXrayRemoteSamplerPollingTest {
+
+  private final MockWebServer server = new MockWebServer();
+  private final AtomicInteger rulesRequests = new AtomicInteger();
+  private final AtomicInteger targetsRequests = new AtomicInteger();
+  // Blocks all but the first rules poll until released.
+  private final CountDownLatch slowRulesPoll = new CountDownLatch(1);
+  private volatile boolean rulesPollsAreSlow;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    String rulesResponse = readResource("/test-sampling-rules-response-1.json");
+    String targetsResponse = readResource("/test-sampling-targets-response.json");
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            if ("/GetSamplingRules".equals(request.getPath())) {
+              if (rulesRequests.getAndIncrement() > 0 && rulesPollsAreSlow) {
+                slowRulesPoll.await();
+              }
+              return jsonResponse(rulesResponse);
+            }
+            targetsRequests.incrementAndGet();
+            return jsonResponse(targetsResponse);
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    slowRulesPoll.countDown();
+    server.shutdown();
+  }
+
+  @Test
+  void slowRulesPollDoesNotDelayTargetFetch() {
+    rulesPollsAreSlow = true;
+    try (AwsXrayRemoteSampler sampler =
+        newSamplerBuilder(getEndpoint())
+            .setPollingInterval(Duration.ofMillis(10))
+            .setTargetInterval(100, TimeUnit.MILLISECONDS)
+            .build()) {
+      // The second rules poll is stuck until after the targets are fetched.
+      await().untilAsserted(() -> assertThat(rulesRequests).hasValueGreaterThan(1));
+      await().untilAsserted(() -> assertThat(targetsRequests).hasPositiveValue());
+      assertThat(sampler.getDescription()).contains("XrayRulesSampler");
+    }
+  }
+
+  @Test
+  void connectionsAreReused() throws InterruptedException {
+    try (AwsXrayRemoteSampler unused =
+        newSamplerBuilder(getEndpoint()).setPollingInterval(Duration.ofMillis(10)).build()) {
+      RecordedRequest request = null;
+      for (int i = 0; i < 3; ++i) {
+        request = server.takeRequest(10, TimeUnit.SECONDS);
+      }
+      // the index of the request on its connection
+      assertThat(requireNonNull(request).getSequenceNumber()).isPositive();
+    }
+  }
+
+  @Test
+  void backsOffWhenUnreachable() throws IOException {
+    String endpoint = getEndpoint();
+    server.shutdown();
+
+    try (AwsXrayRemoteSampler sampler =
+        newSamplerBuilder(endpoint).setPollingInterval(Duration.ofMinutes(5)).build()) {
+      // instead of waiting for the polling interval, the first retry is after about a second
+      await()
+          .untilAsserted(
+              () ->
+                  assertThat(sampler.getNextSamplerUpdateScheduledDuration())
+                      .isNotNull()
+                      .isLessThanOrEqualTo(Duration.ofSeconds(1)));
+      // and the delays grow with every failure
+      await()
+          .untilAsserted(
+              () ->
+                  assertThat(sampler.getNextSamplerUpdateScheduledDuration())
+                      .isNotNull()
+                      .isGreaterThan(Duration.ofSeconds(1))
+                      .isLessThanOrEqualTo(Duration.ofSeconds(2)));
+    }
+  }
+
+  private String getEndpoint() {
+    return "http://" + server.getHostName() + ":" + server.getPort();
+  }
+
+  private static AwsXrayRemoteSamplerBuilder newSamplerBuilder(String endpoint) {
+    return AwsXrayRemoteSampler.newBuilder(Resource.empty())
+        .setInitialSampler(Sampler.alwaysOn())
+        .setEndpoint(endpoint);
+  }
+
+  private static MockResponse jsonResponse(String body) {
+    return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+  }
+
+  private static String readResource(String resourcePath) throws IOException {
+    return Resources.toString(
+        requireNonNull(AwsXrayRemoteSamplerPollingTest.class.getResource(resourcePath)),
+        StandardCharsets.UTF_8);
+  }
+}
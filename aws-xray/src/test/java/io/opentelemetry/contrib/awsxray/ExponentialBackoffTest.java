@@ -0,0 +1,52 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ExponentialBackoffTest {
+
+  @Test
+  void invalidInitialDelay() {
+    assertThatThrownBy(() -> new ExponentialBackoff(0, 10, new Random()))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void delaysDoubleUpToMaximum() {
+    ExponentialBackoff backoff = new ExponentialBackoff(100, 1000, new Random());
+    for (long delay : new long[] {100, 200, 400, 800, 1000, 1000}) {
+      assertThat(backoff.nextDelayNanos()).isBetween(delay / 2, delay - 1);
+    }
+
+    backoff.reset();
+    assertThat(backoff.nextDelayNanos()).isBetween(50L, 99L);
+  }
+
+  @Test
+  void initialDelayIsCappedByMaximum() {
+    ExponentialBackoff backoff = new ExponentialBackoff(100, 10, new Random());
+    assertThat(backoff.nextDelayNanos()).isBetween(5L, 9L);
+    assertThat(backoff.nextDelayNanos()).isBetween(5L, 9L);
+  }
+
+  @Test
+  void delaysAreJittered() {
+    ExponentialBackoff backoff = new ExponentialBackoff(1_000_000, 1_000_000, new Random(1));
+    long first = backoff.nextDelayNanos();
+    long differentDelays = 0;
+    for (int i = 0; i < 10; ++i) {
+      if (backoff.nextDelayNanos() != first) {
+        ++differentDelays;
+      }
+    }
+    assertThat(differentDelays).isPositive();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class GlobMatcherTest {
+
+  private static boolean matches(String pattern, String s) {
+    return GlobMatcher.compile(pattern).matches(s);
+  }
+
+  @Test
+  void literals() {
+    assertThat(matches("", "")).isTrue();
+    assertThat(matches("", "a")).isFalse();
+    assertThat(matches("/api/cats", "/api/cats")).isTrue();
+    assertThat(matches("/api/cats", "/api/cat")).isFalse();
+    assertThat(matches("/api/cats", "/api/catss")).isFalse();
+  }
+
+  @Test
+  void wildcards() {
+    assertThat(matches("*", "")).isTrue();
+    assertThat(matches("**", "anything")).isTrue();
+    assertThat(matches("/api/*", "/api/")).isTrue();
+    assertThat(matches("/api/*", "/api/cats/1")).isTrue();
+    assertThat(matches("/api/*", "/apis")).isFalse();
+    assertThat(matches("*/cats", "/api/cats")).isTrue();
+    assertThat(matches("*/cats", "/api/cats/")).isFalse();
+    assertThat(matches("/api/*/items/*", "/api/cats/items/1")).isTrue();
+    assertThat(matches("/api/*/items/*", "/api/cats/things/1")).isFalse();
+    assertThat(matches("*a*a*a", "aaaa")).isTrue();
+    assertThat(matches("*a*a*b", "aaaa")).isFalse();
+    assertThat(matches("?", "")).isFalse();
+    assertThat(matches("?", "a")).isTrue();
+    assertThat(matches("?", "ab")).isFalse();
+    assertThat(matches("/api/v?/*", "/api/v2/cats")).isTrue();
+    assertThat(matches("/api/v?/*", "/api/v10/cats")).isFalse();
+    assertThat(matches("*?", "")).isFalse();
+    assertThat(matches("*?", "a")).isTrue();
+    // unlike '.' in a regular expression, wildcards also match line terminators
+    assertThat(matches("a*b?", "a\nb\n")).isTrue();
+  }
+
+  @Test
+  void caseInsensitive() {
+    assertThat(matches("/API/*", "/api/Cats")).isTrue();
+    assertThat(matches("*.EXAMPLE.com", "www.example.COM")).isTrue();
+    assertThat(matches("stra?e", "STRASSE")).isFalse();
+    assertThat(matches("ét?", "ÉTE")).isTrue();
+  }
+
+  @Test
+  void sameResultAsRegularExpression() {
+    SplittableRandom random = new SplittableRandom(0L);
+    char[] patternChars = {'a', 'b', 'A', '*', '?'};
+    char[] stringChars = {'a', 'b', 'B'};
+    for (int trial = 0; trial < 10000; ++trial) {
+      StringBuilder pattern = new StringBuilder();
+      StringBuilder regex = new StringBuilder();
+      for (int i = random.nextInt(8); i > 0; --i) {
+        char c = patternChars[random.nextInt(patternChars.length)];
+        pattern.append(c);
+        regex.append(c == '*' ? ".*" : c == '?' ? "." : String.valueOf(c));
+      }
+      StringBuilder s = new StringBuilder();
+      for (int i = random.nextInt(8); i > 0; --i) {
+        s.append(stringChars[random.nextInt(stringChars.length)]);
+      }
+      assertThat(matches(pattern.toString(), s.toString()))
+          .as("pattern %s, string %s", pattern, s)
+          .isEqualTo(
+              Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE).matcher(s).matches());
+    }
+  }
+}
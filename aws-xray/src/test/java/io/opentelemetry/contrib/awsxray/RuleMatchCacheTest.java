@@ -0,0 +1,142 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.ObservableLongCounter;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class RuleMatchCacheTest {
+
+  private static RuleMatchCache.Key key(String... values) {
+    return new RuleMatchCache.Key(values);
+  }
+
+  @Test
+  void lookups() {
+    RuleMatchCache cache = new RuleMatchCache(2, new RuleMatchCache.Statistics());
+    assertThat(cache.get(key("GET", null))).isNull();
+    cache.put(key("GET", null), 1);
+    cache.put(key("POST", null), RuleMatchCache.NO_MATCH);
+    assertThat(cache.get(key("GET", null))).isEqualTo(1);
+    assertThat(cache.get(key("POST", null))).isEqualTo(RuleMatchCache.NO_MATCH);
+    assertThat(cache.get(key("GET", "/"))).isNull();
+
+    // a new entry evicts a single other entry when full
+    cache.put(key("PUT", null), 0);
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.get(key("PUT", null))).isEqualTo(0);
+    assertThat(cache.get(key("GET", null)) == null ^ cache.get(key("POST", null)) == null).isTrue();
+
+    // putting a cached key again does not evict
+    cache.put(key("PUT", null), 0);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  void entriesNotHitAreEvictedInTurn() {
+    int maxSize = 10;
+    RuleMatchCache cache = new RuleMatchCache(maxSize, new RuleMatchCache.Statistics());
+    for (int i = 0; i < maxSize; ++i) {
+      cache.put(key(Integer.toString(i)), i);
+    }
+
+    // every entry is evicted once, instead of the same slots over and over again
+    for (int i = 0; i < maxSize; ++i) {
+      cache.put(key("new", Integer.toString(i)), i);
+      assertThat(cache.get(key(Integer.toString(i)))).isNull();
+      assertThat(cache.size()).isEqualTo(maxSize);
+    }
+  }
+
+  @Test
+  void entriesHitAreKept() {
+    int maxSize = 10;
+    RuleMatchCache cache = new RuleMatchCache(maxSize, new RuleMatchCache.Statistics());
+    for (int i = 0; i < maxSize; ++i) {
+      cache.put(key(Integer.toString(i)), i);
+    }
+
+    // a stream of keys seen only once does not evict the keys which are hit in the meantime
+    for (int i = 0; i < 1000; ++i) {
+      for (int hot = 0; hot < 3; ++hot) {
+        assertThat(cache.get(key(Integer.toString(hot)))).isEqualTo(hot);
+      }
+      cache.put(key("once", Integer.toString(i)), i);
+      assertThat(cache.size()).isEqualTo(maxSize);
+    }
+  }
+
+  @Test
+  void concurrentPutsStayBounded() throws InterruptedException {
+    int maxSize = 100;
+    int numThreads = 4;
+    RuleMatchCache cache = new RuleMatchCache(maxSize, new RuleMatchCache.Statistics());
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; ++t) {
+      String thread = Integer.toString(t);
+      threads.add(
+          new Thread(
+              () -> {
+                for (int i = 0; i < 10000; ++i) {
+                  cache.put(key(thread, Integer.toString(i)), i);
+                }
+              }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    // never cleared as a whole, and at most a few entries too many evicted by concurrent puts
+    assertThat(cache.size()).isBetween(maxSize - numThreads, maxSize);
+  }
+
+  @Test
+  void lookupsAreReported() {
+    InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+    SdkMeterProvider meterProvider =
+        SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    RuleMatchCache.Statistics statistics = new RuleMatchCache.Statistics();
+    ObservableLongCounter counter = statistics.register(meterProvider);
+
+    // the statistics are shared by the caches of successive rule sets
+    RuleMatchCache cache = new RuleMatchCache(10, statistics);
+    cache.put(key("GET"), 0);
+    cache.get(key("GET"));
+    cache.get(key("POST"));
+    RuleMatchCache newCache = new RuleMatchCache(10, statistics);
+    newCache.get(key("GET"));
+
+    Map<Attributes, Long> points = new HashMap<>();
+    for (MetricData metricData : metricReader.collectAllMetrics()) {
+      assertThat(metricData.getName()).isEqualTo("aws.xray.sampler.rule_match_cache.lookups");
+      for (LongPointData point : metricData.getLongSumData().getPoints()) {
+        points.put(point.getAttributes(), point.getValue());
+      }
+    }
+    AttributeKey<Boolean> cacheHit = AttributeKey.booleanKey("cache.hit");
+    assertThat(points)
+        .containsOnly(
+            entry(Attributes.of(cacheHit, true), 1L), entry(Attributes.of(cacheHit, false), 2L));
+
+    counter.close();
+    assertThat(metricReader.collectAllMetrics()).isEmpty();
+    meterProvider.shutdown();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class RuleStatisticsTest {
+
+  @Test
+  void invalidNumberOfStripes() {
+    assertThatThrownBy(() -> new RuleStatistics(1, 3)).isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void countersAreSeparate() {
+    RuleStatistics statistics = new RuleStatistics(3, 1);
+    statistics.increment(0, RuleStatistics.REQUESTS);
+    statistics.increment(1, RuleStatistics.SAMPLED);
+    statistics.increment(2, RuleStatistics.BORROWED);
+    statistics.increment(2, RuleStatistics.BORROWED);
+
+    assertThat(statistics.sumThenReset(2, 0)).containsExactly(0, 0, 2, 1, 0, 0);
+    // only the requested rules are reset
+    assertThat(statistics.sumThenReset(0, 1, 2)).containsExactly(0, 0, 0, 0, 1, 0, 0, 0, 0);
+    assertThat(statistics.sumThenReset()).isEmpty();
+  }
+
+  @Test
+  void addCounts() {
+    RuleStatistics statistics = new RuleStatistics(2, 4);
+    statistics.increment(1, RuleStatistics.REQUESTS);
+    statistics.add(1, new long[] {0, 0, 0, 5, 3, 1}, RuleStatistics.NUMBER_OF_COUNTERS);
+
+    assertThat(statistics.sumThenReset(0, 1)).containsExactly(0, 0, 0, 6, 3, 1);
+  }
+
+  @Test
+  void sumIntoBuffer() {
+    RuleStatistics statistics = new RuleStatistics(3, 2);
+    statistics.increment(1, RuleStatistics.SAMPLED);
+    statistics.increment(2, RuleStatistics.REQUESTS);
+    long[] sums = {7, 7, 7, 7, 7, 7, 7, 7, 7};
+
+    statistics.sumThenReset(new int[] {2, 1, 0}, 2, sums);
+    // only the first two rules are summed, the rest of the buffer is left as is
+    assertThat(sums).containsExactly(1, 0, 0, 0, 1, 0, 7, 7, 7);
+    assertThat(statistics.sumThenReset(0, 1, 2)).containsOnly(0);
+  }
+
+  @Test
+  void countsOfAllStripesAreSummed() throws InterruptedException {
+    RuleStatistics statistics = new RuleStatistics(2, 4);
+    int numberOfThreads = 8;
+    int numberOfIncrements = 10000;
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numberOfThreads; ++i) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int j = 0; j < numberOfIncrements; ++j) {
+                  statistics.increment(1, RuleStatistics.REQUESTS);
+                  statistics.increment(1, RuleStatistics.SAMPLED);
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    long total = (long) numberOfThreads * numberOfIncrements;
+    assertThat(statistics.sumThenReset(0, 1)).containsExactly(0, 0, 0, total, total, 0);
+    assertThat(statistics.sumThenReset(1)).containsExactly(0, 0, 0);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.contrib.awsxray.GetSamplingTargetsResponse.SamplingTargetDocument;
+import io.opentelemetry.sdk.testing.time.TestClock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("JavaUtilDate")
+class RuleTargetsTest {
+
+  private final TestClock clock = TestClock.create();
+
+  @Test
+  void initialReservoirBorrows() {
+    RuleTargets targets = new RuleTargets(2, clock);
+    targets.initialize(0, 1, 0.5);
+    targets.initialize(1, 0, 0.5);
+    // no target yet, so a snapshot is due right away
+    assertThat(targets.getNextSnapshotTimeNanos(0)).isEqualTo(clock.nanoTime());
+
+    assertThat(targets.hasReservoir(0, clock.nanoTime())).isTrue();
+    assertThat(targets.isBorrowing(0)).isTrue();
+    assertThat(targets.trySpendReservoir(0)).isTrue();
+    assertThat(targets.trySpendReservoir(0)).isFalse();
+    clock.advance(Duration.ofSeconds(1));
+    assertThat(targets.trySpendReservoir(0)).isTrue();
+
+    assertThat(targets.hasReservoir(1, clock.nanoTime())).isFalse();
+    assertThat(targets.isBorrowing(1)).isFalse();
+  }
+
+  @Test
+  void applyTarget() {
+    RuleTargets targets = new RuleTargets(2, clock);
+    targets.initialize(0, 1, 0.5);
+    targets.initialize(1, 1, 0.5);
+    Instant now = Instant.ofEpochSecond(0, clock.now());
+
+    targets.apply(
+        1, SamplingTargetDocument.create(0.5, 5, 3, Date.from(now.plusSeconds(10)), "rule"), now());
+
+    assertThat(targets.isBorrowing(1)).isFalse();
+    assertThat(targets.getNextSnapshotTimeNanos(1))
+        .isEqualTo(clock.nanoTime() + TimeUnit.SECONDS.toNanos(5));
+    for (int i = 0; i < 3; ++i) {
+      assertThat(targets.trySpendReservoir(1)).isTrue();
+    }
+    assertThat(targets.trySpendReservoir(1)).isFalse();
+    assertThat(targets.hasReservoir(1, clock.nanoTime() + TimeUnit.SECONDS.toNanos(10))).isFalse();
+    // the other rule is unaffected
+    assertThat(targets.isBorrowing(0)).isTrue();
+  }
+
+  @Test
+  void fixedRateSamplerIsOnlyReplacedIfTheRateChanges() {
+    RuleTargets targets = new RuleTargets(1, clock);
+    targets.initialize(0, 0, 0.5);
+    Object fixedRateSampler = targets.getFixedRateSampler(0);
+
+    targets.apply(0, SamplingTargetDocument.create(0.5, null, null, null, "rule"), now());
+    assertThat(targets.getFixedRateSampler(0)).isSameAs(fixedRateSampler);
+    targets.apply(0, SamplingTargetDocument.create(0.25, null, null, null, "rule"), now());
+    assertThat(targets.getFixedRateSampler(0).getDescription()).contains("0.25");
+  }
+
+  @Test
+  void copyKeepsReservoir() {
+    RuleTargets targets = new RuleTargets(1, clock);
+    targets.initialize(0, 1, 0.5);
+    assertThat(targets.trySpendReservoir(0)).isTrue();
+
+    RuleTargets newTargets = new RuleTargets(2, clock);
+    newTargets.copy(1, targets, 0);
+    assertThat(newTargets.isBorrowing(1)).isTrue();
+    assertThat(newTargets.getFixedRateSampler(1)).isSameAs(targets.getFixedRateSampler(0));
+    // the reservoir is still exhausted
+    assertThat(newTargets.trySpendReservoir(1)).isFalse();
+  }
+
+  private Date now() {
+    return Date.from(Instant.ofEpochSecond(0, clock.now()));
+  }
+}
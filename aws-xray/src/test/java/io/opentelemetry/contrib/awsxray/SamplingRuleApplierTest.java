@@ -9,7 +9,7 @@ import static io.opentelemetry.semconv.resource.attributes.ResourceAttributes.SE
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonParser;
 import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.common.AttributesBuilder;
@@ -38,8 +38,6 @@ import org.junit.jupiter.api.Test;
 @SuppressWarnings("JavaUtilDate")
 class SamplingRuleApplierTest {
 
-  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-
   private static final String CLIENT_ID = "test-client-id";
 
   @Nested
@@ -619,7 +617,7 @@ class SamplingRuleApplierTest {
     // Got a target!
     SamplingTargetDocument target =
         SamplingTargetDocument.create(0.0, 5, 2, Date.from(now.plusSeconds(10)), "test");
-    applier = applier.withTarget(target, Date.from(now));
+    applier.applyTarget(target, Date.from(now));
     // Statistics not expired yet
     assertThat(applier.snapshot(Date.from(now))).isNull();
 
@@ -677,7 +675,7 @@ class SamplingRuleApplierTest {
 
     // Got a target!
     SamplingTargetDocument target = SamplingTargetDocument.create(0.0, 5, null, null, "test");
-    applier = applier.withTarget(target, Date.from(now));
+    applier.applyTarget(target, Date.from(now));
     // No reservoir, always use fixed rate (drop)
     assertThat(doSample(applier)).isEqualTo(SamplingResult.create(SamplingDecision.DROP));
     assertThat(doSample(applier)).isEqualTo(SamplingResult.create(SamplingDecision.DROP));
@@ -688,7 +686,7 @@ class SamplingRuleApplierTest {
   }
 
   @Test
-  void withNextSnapshotTime() {
+  void setNextSnapshotTime() {
     TestClock clock = TestClock.create();
     SamplingRuleApplier applier =
         new SamplingRuleApplier(
@@ -700,7 +698,7 @@ class SamplingRuleApplierTest {
         .isEqualTo(SamplingResult.create(SamplingDecision.RECORD_AND_SAMPLE));
     assertThat(doSample(applier)).isEqualTo(SamplingResult.create(SamplingDecision.DROP));
 
-    applier = applier.withNextSnapshotTimeNanos(clock.now() + TimeUnit.SECONDS.toNanos(10));
+    applier.setNextSnapshotTimeNanos(clock.now() + TimeUnit.SECONDS.toNanos(10));
     assertThat(applier.snapshot(Date.from(now))).isNull();
     assertThat(doSample(applier)).isEqualTo(SamplingResult.create(SamplingDecision.DROP));
     clock.advance(Duration.ofSeconds(10));
@@ -722,10 +720,10 @@ class SamplingRuleApplierTest {
   }
 
   private static GetSamplingRulesResponse.SamplingRule readSamplingRule(String resourcePath) {
-    try {
-      return OBJECT_MAPPER.readValue(
-          SamplingRuleApplierTest.class.getResource(resourcePath),
-          GetSamplingRulesResponse.SamplingRule.class);
+    try (JsonParser parser =
+        XraySamplerJson.JSON_FACTORY.createParser(
+            SamplingRuleApplierTest.class.getResource(resourcePath))) {
+      return XraySamplerJson.readSamplingRule(parser);
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
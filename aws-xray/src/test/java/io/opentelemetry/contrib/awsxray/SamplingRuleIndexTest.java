@@ -0,0 +1,274 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.contrib.awsxray.GetSamplingRulesResponse.SamplingRule;
+import io.opentelemetry.sdk.common.Clock;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.semconv.resource.attributes.ResourceAttributes;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SplittableRandom;
+import javax.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+
+class SamplingRuleIndexTest {
+
+  private static final Resource RESOURCE =
+      Resource.create(Attributes.of(ResourceAttributes.SERVICE_NAME, "cat-service"));
+
+  private static SamplingRuleApplier createApplier(
+      String ruleName,
+      Map<String, String> attributes,
+      String serviceName,
+      String httpMethod,
+      String host,
+      String urlPath) {
+    return new SamplingRuleApplier(
+        "CLIENT_ID",
+        SamplingRule.create(
+            attributes,
+            1.0,
+            host,
+            httpMethod,
+            1,
+            1,
+            "*",
+            "*",
+            ruleName,
+            serviceName,
+            "*",
+            urlPath,
+            1),
+        Clock.getDefault());
+  }
+
+  private static SamplingRuleApplier createHttpApplier(
+      String ruleName, String httpMethod, String host, String urlPath) {
+    return createApplier(ruleName, Collections.emptyMap(), "*", httpMethod, host, urlPath);
+  }
+
+  private static Attributes span(String httpMethod, String host, String urlPath) {
+    return Attributes.builder()
+        .put(SemanticAttributes.HTTP_METHOD, httpMethod)
+        .put(SemanticAttributes.NET_HOST_NAME, host)
+        .put(SemanticAttributes.HTTP_TARGET, urlPath)
+        .build();
+  }
+
+  @Nullable
+  private static String findFirstMatch(SamplingRuleIndex index, Attributes attributes) {
+    SamplingRuleApplier applier = index.findFirstMatch(attributes);
+    return applier != null ? applier.getRuleName() : null;
+  }
+
+  @Test
+  void exactRulesAreMatchedCaseInsensitively() {
+    SamplingRuleIndex index =
+        new SamplingRuleIndex(
+            new SamplingRuleApplier[] {
+              createHttpApplier("get-a", "GET", "a.example.com", "*"),
+              createHttpApplier("post-a", "POST", "a.example.com", "*"),
+              createHttpApplier("get-b", "GET", "B.example.com", "*"),
+            },
+            RESOURCE,
+            null);
+
+    assertThat(findFirstMatch(index, span("get", "A.EXAMPLE.COM", "/"))).isEqualTo("get-a");
+    assertThat(findFirstMatch(index, span("Post", "a.example.com", "/"))).isEqualTo("post-a");
+    assertThat(findFirstMatch(index, span("GET", "b.example.com", "/"))).isEqualTo("get-b");
+    assertThat(findFirstMatch(index, span("POST", "b.example.com", "/"))).isNull();
+    assertThat(findFirstMatch(index, Attributes.empty())).isNull();
+  }
+
+  @Test
+  void foldCaseIsConsistentWithEqualsIgnoreCase() {
+    String[] values = {
+      "GET",
+      "get",
+      "Get",
+      "a.example.com",
+      "A.Example.COM",
+      "\u0130",
+      "\u0131",
+      "i",
+      "I",
+      "\u212a",
+      "k"
+    };
+    for (String value1 : values) {
+      for (String value2 : values) {
+        assertThat(SamplingRuleIndex.foldCase(value1).equals(SamplingRuleIndex.foldCase(value2)))
+            .isEqualTo(value1.equalsIgnoreCase(value2));
+      }
+    }
+    // folded values are not copied
+    String host = "a.example.com";
+    assertThat(SamplingRuleIndex.foldCase(host)).isSameAs(host);
+  }
+
+  @Test
+  void priorityOrderIsPreserved() {
+    SamplingRuleIndex index =
+        new SamplingRuleIndex(
+            new SamplingRuleApplier[] {
+              createHttpApplier("exact-path", "*", "*", "/cats"),
+              createHttpApplier("exact-method", "GET", "*", "*"),
+              createHttpApplier("exact-host", "*", "a.example.com", "*"),
+              createHttpApplier("exact-both", "POST", "a.example.com", "*"),
+              createHttpApplier("glob-method", "P*", "*", "*"),
+              createHttpApplier("default", "*", "*", "*"),
+            },
+            RESOURCE,
+            null);
+
+    assertThat(findFirstMatch(index, span("GET", "a.example.com", "/cats")))
+        .isEqualTo("exact-path");
+    assertThat(findFirstMatch(index, span("GET", "a.example.com", "/dogs")))
+        .isEqualTo("exact-method");
+    assertThat(findFirstMatch(index, span("POST", "a.example.com", "/dogs")))
+        .isEqualTo("exact-host");
+    assertThat(findFirstMatch(index, span("PUT", "b.example.com", "/dogs")))
+        .isEqualTo("glob-method");
+    assertThat(findFirstMatch(index, span("DELETE", "b.example.com", "/dogs")))
+        .isEqualTo("default");
+  }
+
+  @Test
+  void rulesNotMatchingResourceAreDropped() {
+    SamplingRuleIndex index =
+        new SamplingRuleIndex(
+            new SamplingRuleApplier[] {
+              createApplier("dog", Collections.emptyMap(), "dog-service", "*", "*", "*"),
+              createApplier("cat", Collections.emptyMap(), "cat-*", "*", "*", "*"),
+            },
+            RESOURCE,
+            null);
+
+    assertThat(index.getNumberOfRules()).isEqualTo(1);
+    assertThat(findFirstMatch(index, span("GET", "a.example.com", "/"))).isEqualTo("cat");
+  }
+
+  @Test
+  void attributesAreMatchedByKey() {
+    SamplingRuleIndex index =
+        new SamplingRuleIndex(
+            new SamplingRuleApplier[] {
+              createApplier(
+                  "animal", Collections.singletonMap("animal", "cat"), "*", "GET", "*", "*"),
+              createApplier("count", Collections.singletonMap("count", "1*"), "*", "*", "*", "*"),
+            },
+            RESOURCE,
+            null);
+
+    assertThat(
+            findFirstMatch(
+                index,
+                span("GET", "a", "/").toBuilder().put("animal", "cat").put("count", 100L).build()))
+        .isEqualTo("animal");
+    assertThat(
+            findFirstMatch(
+                index,
+                span("GET", "a", "/").toBuilder().put("animal", "dog").put("count", 100L).build()))
+        .isEqualTo("count");
+    assertThat(findFirstMatch(index, span("GET", "a", "/").toBuilder().put("count", 2L).build()))
+        .isNull();
+  }
+
+  @Test
+  void sameResultAsLinearScan() {
+    SplittableRandom random = new SplittableRandom(0L);
+    String[] httpMethods = {"*", "GET", "POST", "P*"};
+    String[] hosts = {"*", "a.example.com", "b.example.com", "*.example.com"};
+    String[] urlPaths = {"*", "/cats", "/dogs", "/cats/*"};
+    // more than 64 rules to span several words of the bit sets
+    SamplingRuleApplier[] appliers = new SamplingRuleApplier[200];
+    for (int i = 0; i < appliers.length; ++i) {
+      appliers[i] =
+          createApplier(
+              "rule-" + i,
+              random.nextInt(4) == 0
+                  ? Collections.singletonMap("animal", random.nextBoolean() ? "cat" : "*")
+                  : Collections.emptyMap(),
+              random.nextInt(10) == 0 ? "dog-service" : "*",
+              httpMethods[random.nextInt(httpMethods.length)],
+              hosts[random.nextInt(hosts.length)],
+              urlPaths[random.nextInt(urlPaths.length)]);
+    }
+    SamplingRuleIndex index = new SamplingRuleIndex(appliers, RESOURCE, null);
+    // a small cache, so that it is also cleared
+    RuleMatchCache.Statistics cacheStatistics = new RuleMatchCache.Statistics();
+    SamplingRuleIndex cachingIndex =
+        new SamplingRuleIndex(appliers, RESOURCE, new RuleMatchCache(20, cacheStatistics));
+
+    String[] spanHttpMethods = {"GET", "get", "POST", "PUT", "DELETE"};
+    String[] spanHosts = {"a.example.com", "B.EXAMPLE.COM", "c.example.com", "example.org"};
+    String[] spanUrlPaths = {"/", "/cats", "/dogs", "/cats/1"};
+    for (int trial = 0; trial < 1000; ++trial) {
+      AttributesBuilder attributes = Attributes.builder();
+      if (random.nextInt(10) != 0) {
+        attributes.put(
+            SemanticAttributes.HTTP_METHOD,
+            spanHttpMethods[random.nextInt(spanHttpMethods.length)]);
+      }
+      if (random.nextInt(10) != 0) {
+        attributes.put(
+            SemanticAttributes.NET_HOST_NAME, spanHosts[random.nextInt(spanHosts.length)]);
+      }
+      attributes.put(SemanticAttributes.HTTP_TARGET, spanUrlPaths[random.nextInt(4)]);
+      if (random.nextBoolean()) {
+        attributes.put("animal", random.nextBoolean() ? "cat" : "dog");
+      }
+      Attributes span = attributes.build();
+
+      SamplingRuleApplier expected = null;
+      for (SamplingRuleApplier applier : appliers) {
+        if (applier.matches(span, RESOURCE)) {
+          expected = applier;
+          break;
+        }
+      }
+      assertThat(index.findFirstMatch(span)).isSameAs(expected);
+      assertThat(cachingIndex.findFirstMatch(span)).isSameAs(expected);
+    }
+    assertThat(cacheStatistics.hits.sum()).isPositive();
+    assertThat(cacheStatistics.hits.sum() + cacheStatistics.misses.sum()).isEqualTo(1000);
+  }
+
+  @Test
+  void cacheKeyOnlyContainsReferencedProperties() {
+    RuleMatchCache cache = new RuleMatchCache(100, new RuleMatchCache.Statistics());
+    SamplingRuleIndex index =
+        new SamplingRuleIndex(
+            new SamplingRuleApplier[] {
+              createApplier(
+                  "animal", Collections.singletonMap("animal", "c*"), "*", "GET", "*", "*"),
+              createHttpApplier("default", "*", "*", "*"),
+            },
+            RESOURCE,
+            cache);
+
+    // neither the URL path, the host, nor other attributes are part of the key
+    for (int i = 0; i < 10; ++i) {
+      assertThat(
+              findFirstMatch(
+                  index,
+                  span("GET", "host-" + i, "/cats/" + i).toBuilder()
+                      .put("animal", "cat")
+                      .put("id", i)
+                      .build()))
+          .isEqualTo("animal");
+      assertThat(findFirstMatch(index, span("GET", "host-" + i, "/dogs/" + i)))
+          .isEqualTo("default");
+    }
+    assertThat(cache.size()).isEqualTo(2);
+  }
+}
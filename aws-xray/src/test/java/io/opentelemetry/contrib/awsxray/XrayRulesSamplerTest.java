@@ -138,12 +138,10 @@ class XrayRulesSamplerTest {
     Map<String, SamplingTargetDocument> targets = new HashMap<>();
     targets.put("cat-rule", catTarget);
     targets.put("bat-rule", batTarget);
-    sampler =
-        sampler.withTargets(
-            targets,
-            Stream.of("cat-rule", "bat-rule", "dog-rule", "default-rule")
-                .collect(Collectors.toSet()),
-            Date.from(now));
+    sampler.applyTargets(
+        targets,
+        Stream.of("cat-rule", "bat-rule", "dog-rule", "default-rule").collect(Collectors.toSet()),
+        Date.from(now));
     assertThat(doSample(sampler, "dog-service"))
         .isEqualTo(SamplingResult.create(SamplingDecision.RECORD_AND_SAMPLE));
     assertThat(doSample(sampler, "dog-service"))
@@ -169,6 +167,114 @@ class XrayRulesSamplerTest {
     assertThat(sampler.snapshot(Date.from(now))).hasSize(4);
   }
 
+  @Test
+  void updateRules() {
+    SamplingRule catRule =
+        SamplingRule.create(
+            Collections.singletonMap("test", "cat-service"),
+            1.0,
+            "*",
+            "*",
+            1,
+            1,
+            "*",
+            "*",
+            "cat-rule",
+            "*",
+            "*",
+            "*",
+            1);
+    SamplingRule dogRule =
+        SamplingRule.create(
+            Collections.singletonMap("test", "dog-service"),
+            0.0,
+            "*",
+            "*",
+            2,
+            0,
+            "*",
+            "*",
+            "dog-rule",
+            "*",
+            "*",
+            "*",
+            1);
+    SamplingRule changedDogRule =
+        SamplingRule.create(
+            Collections.singletonMap("test", "dog-service"),
+            1.0,
+            "*",
+            "*",
+            2,
+            0,
+            "*",
+            "*",
+            "dog-rule",
+            "*",
+            "*",
+            "*",
+            2);
+    SamplingRule defaultRule =
+        SamplingRule.create(
+            Collections.emptyMap(),
+            0.0,
+            "*",
+            "*",
+            3,
+            0,
+            "*",
+            "*",
+            "default-rule",
+            "*",
+            "*",
+            "*",
+            1);
+
+    TestClock clock = TestClock.create();
+    XrayRulesSampler sampler =
+        new XrayRulesSampler(
+            "CLIENT_ID",
+            Resource.getDefault(),
+            clock,
+            Sampler.alwaysOn(),
+            Arrays.asList(defaultRule, dogRule, catRule));
+
+    // borrowed from the reservoir, then sampled at the fixed rate
+    assertThat(doSample(sampler, "cat-service").getDecision())
+        .isEqualTo(SamplingDecision.RECORD_AND_SAMPLE);
+    assertThat(doSample(sampler, "cat-service").getDecision())
+        .isEqualTo(SamplingDecision.RECORD_AND_SAMPLE);
+    assertThat(doSample(sampler, "dog-service").getDecision()).isEqualTo(SamplingDecision.DROP);
+    sampler.applyTargets(
+        Collections.singletonMap(
+            "cat-rule", SamplingTargetDocument.create(0.0, null, null, null, "cat-rule")),
+        Collections.singleton("cat-rule"),
+        Date.from(Instant.ofEpochSecond(0, clock.now())));
+    assertThat(doSample(sampler, "cat-service").getDecision()).isEqualTo(SamplingDecision.DROP);
+
+    sampler = sampler.withRules(Arrays.asList(catRule, changedDogRule, defaultRule));
+
+    // The unchanged cat rule keeps its target, the changed dog rule starts over.
+    assertThat(doSample(sampler, "cat-service").getDecision()).isEqualTo(SamplingDecision.DROP);
+    assertThat(doSample(sampler, "dog-service").getDecision())
+        .isEqualTo(SamplingDecision.RECORD_AND_SAMPLE);
+
+    clock.advance(Duration.ofSeconds(10));
+    Map<String, GetSamplingTargetsRequest.SamplingStatisticsDocument> snapshot =
+        sampler.snapshot(Date.from(Instant.ofEpochSecond(0, clock.now()))).stream()
+            .collect(
+                Collectors.toMap(
+                    GetSamplingTargetsRequest.SamplingStatisticsDocument::getRuleName,
+                    document -> document));
+    assertThat(snapshot).containsOnlyKeys("cat-rule", "dog-rule", "default-rule");
+    // The statistics of the cat rule from before the update are kept.
+    assertThat(snapshot.get("cat-rule").getRequestCount()).isEqualTo(4);
+    assertThat(snapshot.get("cat-rule").getSampledCount()).isEqualTo(2);
+    assertThat(snapshot.get("cat-rule").getBorrowCount()).isEqualTo(1);
+    assertThat(snapshot.get("dog-rule").getRequestCount()).isEqualTo(1);
+    assertThat(snapshot.get("dog-rule").getSampledCount()).isEqualTo(1);
+  }
+
   private static SamplingResult doSample(Sampler sampler, String name) {
     return sampler.shouldSample(
         Context.current(),
@@ -92,6 +92,24 @@ class XraySamplerClientTest {
             });
   }
 
+  @Test
+  void getSamplingRules_unchanged() throws Exception {
+    enqueueResource("/get-sampling-rules-response.json");
+    enqueueResource("/get-sampling-rules-response.json");
+
+    XraySamplerClient.SamplingRulesResult result =
+        client.getSamplingRulesAsync(GetSamplingRulesRequest.create(null), null).join();
+    assertThat(result.getResponse()).isNotNull();
+
+    // The same content is not parsed again.
+    XraySamplerClient.SamplingRulesResult unchanged =
+        client
+            .getSamplingRulesAsync(GetSamplingRulesRequest.create(null), result.getContentDigest())
+            .join();
+    assertThat(unchanged.getResponse()).isNull();
+    assertThat(unchanged.getContentDigest()).isEqualTo(result.getContentDigest());
+  }
+
   @Test
   void getSamplingRules_malformed() {
     server.enqueue(HttpResponse.of(HttpStatus.OK, MediaType.JSON, "notjson"));
@@ -0,0 +1,192 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.awsxray;
+
+import static java.util.Objects.requireNonNull;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+
+class XraySamplerJsonTest {
+
+  private static JsonParser createParser(String json) throws IOException {
+    return XraySamplerJson.JSON_FACTORY.createParser(json);
+  }
+
+  private static String readResource(String resourcePath) throws IOException {
+    return Resources.toString(
+        requireNonNull(XraySamplerJsonTest.class.getResource(resourcePath)),
+        StandardCharsets.UTF_8);
+  }
+
+  private interface Writer {
+    void write(JsonGenerator generator) throws IOException;
+  }
+
+  private static String write(Writer writer) throws IOException {
+    StringWriter json = new StringWriter();
+    try (JsonGenerator generator = XraySamplerJson.JSON_FACTORY.createGenerator(json)) {
+      writer.write(generator);
+    }
+    return json.toString();
+  }
+
+  @Test
+  void writeGetSamplingRulesRequest() throws IOException {
+    assertThat(
+            write(
+                generator ->
+                    XraySamplerJson.writeGetSamplingRulesRequest(
+                        generator, GetSamplingRulesRequest.create("token"))))
+        .isEqualTo("{\"NextToken\":\"token\"}");
+    // empty values are omitted
+    assertThat(
+            write(
+                generator ->
+                    XraySamplerJson.writeGetSamplingRulesRequest(
+                        generator, GetSamplingRulesRequest.create(null))))
+        .isEqualTo("{}");
+  }
+
+  @Test
+  void writeGetSamplingTargetsRequest() throws Exception {
+    GetSamplingTargetsRequest request =
+        GetSamplingTargetsRequest.create(
+            Arrays.asList(
+                GetSamplingTargetsRequest.SamplingStatisticsDocument.newBuilder()
+                    .setRuleName("Test")
+                    .setClientId("ABCDEF1234567890ABCDEF10")
+                    .setTimestamp(Date.from(Instant.parse("2021-06-21T06:46:07Z")))
+                    .setRequestCount(110)
+                    .setSampledCount(30)
+                    .setBorrowCount(20)
+                    .build(),
+                GetSamplingTargetsRequest.SamplingStatisticsDocument.newBuilder()
+                    .setRuleName("polling-scorekeep")
+                    .setClientId("ABCDEF1234567890ABCDEF11")
+                    .setTimestamp(Date.from(Instant.parse("2018-07-07T00:20:06Z")))
+                    .setRequestCount(10500)
+                    .setSampledCount(31)
+                    .setBorrowCount(0)
+                    .build()));
+    JSONAssert.assertEquals(
+        readResource("/get-sampling-targets-request.json"),
+        write(generator -> XraySamplerJson.writeGetSamplingTargetsRequest(generator, request)),
+        /* strict= */ true);
+    assertThat(
+            write(
+                generator ->
+                    XraySamplerJson.writeGetSamplingTargetsRequest(
+                        generator, GetSamplingTargetsRequest.create(Collections.emptyList()))))
+        .isEqualTo("{}");
+  }
+
+  @Test
+  void readGetSamplingRulesResponse() throws IOException {
+    GetSamplingRulesResponse response;
+    try (JsonParser parser = createParser(readResource("/get-sampling-rules-response.json"))) {
+      response = XraySamplerJson.readGetSamplingRulesResponse(parser);
+    }
+
+    assertThat(response.getNextToken()).isNull();
+    assertThat(response.getSamplingRules())
+        .satisfiesExactly(
+            rule -> {
+              assertThat(rule.getCreatedAt()).isEqualTo("2021-06-18T17:28:15+09:00");
+              assertThat(rule.getRule().getRuleName()).isEqualTo("Test");
+              assertThat(rule.getRule().getRuleArn())
+                  .isEqualTo("arn:aws:xray:us-east-1:595986152929:sampling-rule/Test");
+              assertThat(rule.getRule().getPriority()).isEqualTo(1);
+              assertThat(rule.getRule().getFixedRate()).isEqualTo(0.9);
+              assertThat(rule.getRule().getReservoirSize()).isEqualTo(1000);
+              assertThat(rule.getRule().getServiceName()).isEqualTo("test-service-foo-bar");
+              assertThat(rule.getRule().getAttributes())
+                  .containsExactly(entry("animal", "cat"), entry("speed", "10"));
+            },
+            rule -> {
+              assertThat(rule.getRule().getRuleName()).isEqualTo("Default");
+              assertThat(rule.getRule().getPriority()).isEqualTo(10000);
+              assertThat(rule.getRule().getAttributes()).isEmpty();
+            });
+  }
+
+  @Test
+  void readGetSamplingTargetsResponse() throws IOException {
+    GetSamplingTargetsResponse response;
+    try (JsonParser parser = createParser(readResource("/get-sampling-targets-response.json"))) {
+      response = XraySamplerJson.readGetSamplingTargetsResponse(parser);
+    }
+
+    assertThat(response.getLastRuleModification())
+        .isEqualTo(Date.from(Instant.parse("2018-07-06T23:41:45Z")));
+    assertThat(response.getDocuments())
+        .satisfiesExactly(
+            document -> {
+              assertThat(document.getRuleName()).isEqualTo("base-scorekeep");
+              assertThat(document.getFixedRate()).isEqualTo(0.1);
+              assertThat(document.getReservoirQuota()).isEqualTo(2);
+              assertThat(document.getReservoirQuotaTtl())
+                  .isEqualTo(Date.from(Instant.parse("2018-07-07T00:25:07Z")));
+              assertThat(document.getIntervalSecs()).isEqualTo(10);
+            },
+            document -> {
+              assertThat(document.getRuleName()).isEqualTo("polling-scorekeep");
+              assertThat(document.getReservoirQuota()).isNull();
+              assertThat(document.getReservoirQuotaTtl()).isNull();
+              assertThat(document.getIntervalSecs()).isNull();
+            });
+    assertThat(response.getUnprocessedStatistics())
+        .satisfiesExactly(
+            statistics -> {
+              assertThat(statistics.getRuleName()).isEqualTo("cats-rule");
+              assertThat(statistics.getErrorCode()).isEqualTo("400");
+              assertThat(statistics.getMessage()).isEqualTo("Unknown rule");
+            });
+  }
+
+  @Test
+  void unknownFieldsAreSkipped() throws IOException {
+    try (JsonParser parser =
+        createParser(
+            "{\"New\":{\"Nested\":[1,{\"a\":2}]},"
+                + "\"SamplingRuleRecords\":[],\"NextToken\":null,\"Other\":3}")) {
+      assertThat(XraySamplerJson.readGetSamplingRulesResponse(parser).getSamplingRules()).isEmpty();
+    }
+  }
+
+  @Test
+  void malformed() throws IOException {
+    for (String json : new String[] {"", "notjson", "[]", "{}", "{\"SamplingRuleRecords\":{}}"}) {
+      try (JsonParser parser = createParser(json)) {
+        assertThatThrownBy(() -> XraySamplerJson.readGetSamplingRulesResponse(parser))
+            .as(json)
+            .isInstanceOf(JsonParseException.class);
+      }
+    }
+    try (JsonParser parser =
+        createParser(
+            "{\"LastRuleModification\":\"yesterday\",\"SamplingTargetDocuments\":[],"
+                + "\"UnprocessedStatistics\":[]}")) {
+      assertThatThrownBy(() -> XraySamplerJson.readGetSamplingTargetsResponse(parser))
+          .isInstanceOf(JsonParseException.class)
+          .hasMessageStartingWith("Unable to parse date : yesterday");
+    }
+  }
+}
@@ -15,6 +15,7 @@ dependencies {
   implementation("com.diffplug.spotless:spotless-plugin-gradle:6.11.0")
   implementation("net.ltgt.gradle:gradle-errorprone-plugin:3.0.1")
   implementation("net.ltgt.gradle:gradle-nullaway-plugin:1.4.0")
+  implementation("me.champeau.jmh:jmh-gradle-plugin:0.6.8")
 }
 
 spotless {
@@ -0,0 +1,17 @@
+plugins {
+  id("me.champeau.jmh")
+}
+
+dependencies {
+  jmh("org.openjdk.jmh:jmh-core")
+  jmh("org.openjdk.jmh:jmh-generator-bytecode")
+}
+
+jmh {
+  failOnError.set(true)
+  resultFormat.set("JSON")
+  // Otherwise an error will happen:
+  // Could not expand ZIP 'byte-buddy-agent-1.9.7.jar'.
+  includeTests.set(false)
+  profilers.add("gc")
+}
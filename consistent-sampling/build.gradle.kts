@@ -1,12 +1,14 @@
 plugins {
   id("otel.java-conventions")
   id("otel.publish-conventions")
+  id("otel.jmh-conventions")
 }
 
 description = "Sampler and exporter implementations for consistent sampling"
 
 dependencies {
   api("io.opentelemetry:opentelemetry-sdk-trace")
+  testImplementation("io.opentelemetry:opentelemetry-sdk-testing")
   testImplementation("org.hipparchus:hipparchus-core:2.3")
   testImplementation("org.hipparchus:hipparchus-stat:2.3")
 }
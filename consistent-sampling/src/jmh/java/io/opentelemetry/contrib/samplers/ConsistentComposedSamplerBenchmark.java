@@ -0,0 +1,116 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of composed samplers depending on the depth of the composition. The sampler is
+ * built as a chain {@code s1.op(s2).op(s3)...} of {@code depth} compositions, alternating
+ * rate-limiting and probability-based samplers. If {@code decidingSampler} is set, an always-on
+ * sampler is appended to {@code or} chains and a parent-based sampler, which returns an invalid
+ * p-value for child spans with unknown p-value, is appended to {@code and} chains. This sampler
+ * determines the result for the sampled child spans used by all benchmarks, hence none of the
+ * rate-limiting samplers needs to be evaluated.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsistentComposedSamplerBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final String SPAN_ID = "0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  // a sampled parent span without p-value
+  private static final Context PARENT_CONTEXT =
+      Span.wrap(
+              SpanContext.create(
+                  TRACE_ID, SPAN_ID, TraceFlags.getSampled(), TraceState.getDefault()))
+          .storeInContext(Context.root());
+
+  @Param({"and", "or"})
+  String operator;
+
+  @Param({"1", "2", "4", "8", "16"})
+  int depth;
+
+  @Param({"false", "true"})
+  boolean decidingSampler;
+
+  ConsistentSampler sampler;
+
+  private ConsistentSampler compose(ConsistentSampler sampler1, ConsistentSampler sampler2) {
+    return "and".equals(operator) ? sampler1.and(sampler2) : sampler1.or(sampler2);
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sampler = ConsistentSampler.rateLimited(1000., 10.);
+    for (int i = 1; i <= depth; ++i) {
+      ConsistentSampler next =
+          (i % 2 == 0)
+              ? ConsistentSampler.rateLimited(1000. * i, 10.)
+              : ConsistentSampler.probabilityBased(1. / (i + 1));
+      sampler = compose(sampler, next);
+    }
+    if (decidingSampler) {
+      sampler =
+          compose(
+              sampler,
+              "and".equals(operator)
+                  ? ConsistentSampler.parentBased(ConsistentSampler.alwaysOn())
+                  : ConsistentSampler.alwaysOn());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int getP() {
+    return sampler.getP(OtelTraceState.getInvalidP(), false);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult shouldSample() {
+    return sampler.shouldSample(
+        PARENT_CONTEXT, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSample_04Threads() {
+    return sampler.shouldSample(
+        PARENT_CONTEXT, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS);
+  }
+}
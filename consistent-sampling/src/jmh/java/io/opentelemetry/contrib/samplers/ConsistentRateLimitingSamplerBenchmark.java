@@ -0,0 +1,92 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of the rate limiting samplers for different numbers of threads sampling
+ * concurrently.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsistentRateLimitingSamplerBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  @Param({"rateLimited", "stripedRateLimited"})
+  String samplerType;
+
+  ConsistentSampler sampler;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    switch (samplerType) {
+      case "rateLimited":
+        sampler = ConsistentSampler.rateLimited(1000., 5.);
+        break;
+      case "stripedRateLimited":
+        sampler = ConsistentSampler.stripedRateLimited(1000., 5.);
+        break;
+      default:
+        throw new IllegalArgumentException(samplerType);
+    }
+  }
+
+  private SamplingResult shouldSample() {
+    return sampler.shouldSample(
+        Context.root(), TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult shouldSample_01Thread() {
+    return shouldSample();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSample_04Threads() {
+    return shouldSample();
+  }
+
+  @Benchmark
+  @Threads(16)
+  public SamplingResult shouldSample_16Threads() {
+    return shouldSample();
+  }
+
+  @Benchmark
+  @Threads(64)
+  public SamplingResult shouldSample_64Threads() {
+    return shouldSample();
+  }
+}
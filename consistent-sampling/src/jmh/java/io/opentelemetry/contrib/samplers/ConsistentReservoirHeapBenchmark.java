@@ -0,0 +1,147 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap retained by the reservoirs of a {@link
+ * ConsistentReservoirSamplingSpanProcessor} per buffered span, with and without compact span
+ * encoding. The reported {@code retainedBytesPerSpan} counter is the increase of used heap after a
+ * full garbage collection, divided by the number of buffered spans.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConsistentReservoirHeapBenchmark {
+
+  private static final String[] SPAN_NAMES = {"GET /users", "GET /orders", "POST /orders"};
+
+  @State(Scope.Benchmark)
+  public static class BenchmarkState {
+
+    @Param({"false", "true"})
+    boolean compactSpanEncoding;
+
+    @Param({"100000"})
+    int reservoirSize;
+
+    SdkTracerProvider sdkTracerProvider;
+    Tracer tracer;
+    SpanProcessor processor;
+
+    @Setup(Level.Trial)
+    public void setupTracer() {
+      sdkTracerProvider =
+          SdkTracerProvider.builder().setSampler(ConsistentSampler.alwaysOn()).build();
+      tracer = sdkTracerProvider.get("benchmark");
+    }
+
+    @Setup(Level.Iteration)
+    public void setupProcessor() {
+      // the export period is long enough that nothing is exported during an iteration
+      processor =
+          ConsistentReservoirSamplingSpanProcessor.builder(
+                  new NoopSpanExporter(), reservoirSize, TimeUnit.HOURS.toNanos(1))
+              .setCompactSpanEncoding(compactSpanEncoding)
+              .build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownProcessor() {
+      processor.shutdown().join(10, TimeUnit.SECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTracer() {
+      sdkTracerProvider.shutdown();
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class HeapCounters {
+    public long retainedBytesPerSpan;
+  }
+
+  private static long getUsedHeap(MemoryMXBean memoryMxBean) {
+    for (int i = 0; i < 3; ++i) {
+      System.gc();
+    }
+    return memoryMxBean.getHeapMemoryUsage().getUsed();
+  }
+
+  @Benchmark
+  public void fillReservoir(BenchmarkState benchmarkState, HeapCounters heapCounters) {
+    MemoryMXBean memoryMxBean = ManagementFactory.getMemoryMXBean();
+    long usedHeapBefore = getUsedHeap(memoryMxBean);
+    for (int i = 0; i < benchmarkState.reservoirSize; ++i) {
+      Span span =
+          benchmarkState
+              .tracer
+              .spanBuilder(SPAN_NAMES[i % SPAN_NAMES.length])
+              .setSpanKind(SpanKind.SERVER)
+              .setAttribute("http.method", i % 3 == 2 ? "POST" : "GET")
+              .setAttribute("http.route", SPAN_NAMES[i % SPAN_NAMES.length].substring(4))
+              .setAttribute(AttributeKey.longKey("http.status_code"), 200L)
+              .setAttribute("user.id", "user-" + (i % 1000))
+              .startSpan();
+      span.addEvent("cache miss");
+      span.end();
+      benchmarkState.processor.onEnd((ReadableSpan) span);
+    }
+    long usedHeapAfter = getUsedHeap(memoryMxBean);
+    heapCounters.retainedBytesPerSpan =
+        (usedHeapAfter - usedHeapBefore) / benchmarkState.reservoirSize;
+  }
+
+  private static final class NoopSpanExporter implements SpanExporter {
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+      return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+      return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+      return CompletableResultCode.ofSuccess();
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link ConsistentSampler#shouldSample(Context, String, String, SpanKind, Attributes,
+ * List)} for different samplers and parent trace states, for a single thread and for 4 threads
+ * sharing the same sampler. Run with the {@code gc} profiler to see the allocated bytes per
+ * operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsistentSamplerBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final String SPAN_ID = "0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  @Param({
+    "alwaysOn",
+    "alwaysOff",
+    "probabilityBased",
+    "parentBased",
+    "rateLimited",
+    "stripedRateLimited",
+    "keyedRateLimited",
+    "composedAnd",
+    "composedOr"
+  })
+  String samplerType;
+
+  @Param({"", "p:2;r:5", "p:2;r:5;x:3"})
+  String parentOtelTraceState;
+
+  ConsistentSampler sampler;
+  Context parentContext;
+  TraceState parentTraceState;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    switch (samplerType) {
+      case "alwaysOn":
+        sampler = ConsistentSampler.alwaysOn();
+        break;
+      case "alwaysOff":
+        sampler = ConsistentSampler.alwaysOff();
+        break;
+      case "probabilityBased":
+        sampler = ConsistentSampler.probabilityBased(0.3);
+        break;
+      case "parentBased":
+        sampler = ConsistentSampler.parentBased(ConsistentSampler.probabilityBased(0.3));
+        break;
+      case "rateLimited":
+        sampler = ConsistentSampler.rateLimited(1000., 10.);
+        break;
+      case "stripedRateLimited":
+        sampler = ConsistentSampler.stripedRateLimited(1000., 10.);
+        break;
+      case "keyedRateLimited":
+        sampler =
+            ConsistentSampler.keyedRateLimited(
+                AttributeKey.stringKey("http.route"), 100., 1000., 10., 1000);
+        break;
+      case "composedAnd":
+        sampler =
+            ConsistentSampler.probabilityBased(0.3).and(ConsistentSampler.probabilityBased(0.6));
+        break;
+      case "composedOr":
+        sampler =
+            ConsistentSampler.probabilityBased(0.3).or(ConsistentSampler.probabilityBased(0.6));
+        break;
+      default:
+        throw new IllegalArgumentException(samplerType);
+    }
+    if (parentOtelTraceState.isEmpty()) {
+      parentContext = Context.root();
+      parentTraceState = TraceState.getDefault();
+    } else {
+      parentTraceState =
+          TraceState.builder().put(OtelTraceState.TRACE_STATE_KEY, parentOtelTraceState).build();
+      parentContext =
+          Span.wrap(
+                  SpanContext.create(TRACE_ID, SPAN_ID, TraceFlags.getSampled(), parentTraceState))
+              .storeInContext(Context.root());
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult shouldSample() {
+    return sampler.shouldSample(
+        parentContext, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSample_04Threads() {
+    return sampler.shouldSample(
+        parentContext, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public TraceState shouldSampleAndUpdateTraceState() {
+    return sampler
+        .shouldSample(
+            parentContext, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS)
+        .getUpdatedTraceState(parentTraceState);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cached sampling results of {@link ConsistentSampler} with the previous approach,
+ * which parsed the "ot" trace state entry into a new {@link OtelTraceState}, serialized it again
+ * and rebuilt the {@link TraceState} for every span. Run with the {@code gc} profiler to see the
+ * allocated bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsistentSamplingResultBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final String SPAN_ID = "0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  // p:0 is unchanged by the always-on sampler, p:2 is replaced by p:0
+  @Param({"", "p:0;r:5", "p:2;r:5"})
+  String parentOtelTraceState;
+
+  ConsistentSampler sampler;
+  RValueGenerator rValueGenerator;
+  Context parentContext;
+  TraceState parentTraceState;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    sampler = ConsistentSampler.alwaysOn();
+    rValueGenerator = RValueGenerators.getDefault();
+    if (parentOtelTraceState.isEmpty()) {
+      parentContext = Context.root();
+      parentTraceState = TraceState.getDefault();
+    } else {
+      parentTraceState =
+          TraceState.builder().put(OtelTraceState.TRACE_STATE_KEY, parentOtelTraceState).build();
+      parentContext =
+          Span.wrap(
+                  SpanContext.create(TRACE_ID, SPAN_ID, TraceFlags.getSampled(), parentTraceState))
+              .storeInContext(Context.root());
+    }
+  }
+
+  @Benchmark
+  public TraceState cached() {
+    return sampler
+        .shouldSample(
+            parentContext, TRACE_ID, "span", SpanKind.INTERNAL, Attributes.empty(), NO_LINKS)
+        .getUpdatedTraceState(parentTraceState);
+  }
+
+  @Benchmark
+  public TraceState uncached() {
+    return shouldSampleUncached(parentContext, TRACE_ID, rValueGenerator)
+        .getUpdatedTraceState(parentTraceState);
+  }
+
+  /** The always-on sampling logic as implemented before sampling results were cached. */
+  private static SamplingResult shouldSampleUncached(
+      Context parentContext, String traceId, RValueGenerator rValueGenerator) {
+    SpanContext parentSpanContext = Span.fromContext(parentContext).getSpanContext();
+    boolean isParentSampled = parentSpanContext.isSampled();
+
+    OtelTraceState otelTraceState =
+        OtelTraceState.parse(parentSpanContext.getTraceState().get(OtelTraceState.TRACE_STATE_KEY));
+    if (!otelTraceState.hasValidR()
+        || (otelTraceState.hasValidP()
+            && ((otelTraceState.getP() <= otelTraceState.getR()) != isParentSampled))) {
+      otelTraceState.invalidateP();
+    }
+    if (!otelTraceState.hasValidR()) {
+      otelTraceState.setR(Math.min(rValueGenerator.generate(traceId), OtelTraceState.getMaxR()));
+    }
+    otelTraceState.setP(0);
+    String newOtTraceState = otelTraceState.serialize();
+
+    return new SamplingResult() {
+
+      @Override
+      public SamplingDecision getDecision() {
+        return SamplingDecision.RECORD_AND_SAMPLE;
+      }
+
+      @Override
+      public Attributes getAttributes() {
+        return Attributes.empty();
+      }
+
+      @Override
+      public TraceState getUpdatedTraceState(TraceState parentTraceState) {
+        return parentTraceState.toBuilder()
+            .put(OtelTraceState.TRACE_STATE_KEY, newOtTraceState)
+            .build();
+      }
+    };
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the generation of r-values and random booleans. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RValueGeneratorBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+
+  private final RValueGenerator defaultRValueGenerator = RValueGenerators.getDefault();
+  private final RValueGenerator threadLocalFreeRValueGenerator =
+      RValueGenerators.getThreadLocalFree();
+  private final RValueGenerator traceIdBasedRValueGenerator = RValueGenerators.getTraceIdBased();
+  private final RandomGenerator randomGenerator = RandomGenerator.getDefault();
+
+  @Benchmark
+  @Threads(1)
+  public int generateDefault_01Thread() {
+    return defaultRValueGenerator.generate(TRACE_ID);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int generateDefault_04Threads() {
+    return defaultRValueGenerator.generate(TRACE_ID);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int generateThreadLocalFree_01Thread() {
+    return threadLocalFreeRValueGenerator.generate(TRACE_ID);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int generateThreadLocalFree_04Threads() {
+    return threadLocalFreeRValueGenerator.generate(TRACE_ID);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int generateTraceIdBased_01Thread() {
+    return traceIdBasedRValueGenerator.generate(TRACE_ID);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean nextBoolean_01Thread() {
+    return randomGenerator.nextBoolean(0.3);
+  }
+}
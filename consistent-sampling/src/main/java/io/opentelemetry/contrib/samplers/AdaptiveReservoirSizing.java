@@ -0,0 +1,119 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+/**
+ * Adapts the reservoir size and the export period of a {@link
+ * ConsistentReservoirSamplingSpanProcessor} to a target export rate.
+ *
+ * <p>The reservoir size is always chosen as the number of spans that can be exported within one
+ * export period without exceeding the target export rate, limited by the maximum reservoir size.
+ * Hence, no more spans are exported than the backend is expected to take, regardless of the load.
+ *
+ * <p>The export period is the time in which the reservoir of the maximum export period would
+ * receive as many spans as it can keep, at a smoothed estimate of the rate of spans, bounded by the
+ * minimum and maximum export period. If the rate of spans exceeds the target export rate, the
+ * reservoir fills early and the export period is shortened in proportion to the rate, which reduces
+ * latency without exporting more spans per second. If the rate of spans is lower, the export period
+ * is extended up to the maximum export period, which reduces the number of exports. As the period
+ * only depends on the estimated rate, a steady rate of spans results in a steady export period.
+ *
+ * <p>The rate of spans is estimated by exponential smoothing of the rates observed in the past
+ * periods, each weighted by its duration, with the maximum export period as time constant. Short
+ * bursts and flushes therefore change the export period only gradually.
+ *
+ * <p>This class is not thread-safe.
+ */
+final class AdaptiveReservoirSizing {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final double targetSpansPerSecond;
+  private final int maxReservoirSize;
+  private final long minExportPeriodNanos;
+  private final long maxExportPeriodNanos;
+
+  private final int fullReservoirSize;
+
+  private int reservoirSize;
+  private long exportPeriodNanos;
+  // the smoothed rate of spans, NaN before the first update
+  private double spansPerNanosecond = Double.NaN;
+
+  /**
+   * Constructor.
+   *
+   * @param targetSpansPerSecond the target number of exported spans per second
+   * @param maxReservoirSize the maximum reservoir size
+   * @param minExportPeriodNanos the minimum export period in nanoseconds
+   * @param maxExportPeriodNanos the maximum export period in nanoseconds
+   */
+  AdaptiveReservoirSizing(
+      double targetSpansPerSecond,
+      int maxReservoirSize,
+      long minExportPeriodNanos,
+      long maxExportPeriodNanos) {
+    if (!(targetSpansPerSecond > 0)) {
+      throw new IllegalArgumentException("target spans per second must be positive");
+    }
+    if (maxReservoirSize < 1) {
+      throw new IllegalArgumentException("maximum reservoir size must be positive");
+    }
+    if (minExportPeriodNanos <= 0 || minExportPeriodNanos > maxExportPeriodNanos) {
+      throw new IllegalArgumentException(
+          "minimum export period must be positive and must not exceed maximum export period");
+    }
+    this.targetSpansPerSecond = targetSpansPerSecond;
+    this.maxReservoirSize = maxReservoirSize;
+    this.minExportPeriodNanos = minExportPeriodNanos;
+    this.maxExportPeriodNanos = maxExportPeriodNanos;
+    this.exportPeriodNanos = maxExportPeriodNanos;
+    this.fullReservoirSize = computeReservoirSize(maxExportPeriodNanos);
+    this.reservoirSize = fullReservoirSize;
+  }
+
+  private int computeReservoirSize(long exportPeriodNanos) {
+    double size = Math.ceil(exportPeriodNanos * targetSpansPerSecond / NANOS_PER_SECOND);
+    return (int) Math.max(1, Math.min(maxReservoirSize, size));
+  }
+
+  /**
+   * Updates the reservoir size and the export period based on the spans observed in the last
+   * period.
+   *
+   * @param numberOfSpans the number of spans added to the reservoir in the last period
+   * @param elapsedNanos the duration of the last period in nanoseconds
+   */
+  void update(long numberOfSpans, long elapsedNanos) {
+    if (elapsedNanos <= 0) {
+      return;
+    }
+    double observedSpansPerNanosecond = numberOfSpans / (double) elapsedNanos;
+    if (Double.isNaN(spansPerNanosecond)) {
+      spansPerNanosecond = observedSpansPerNanosecond;
+    } else {
+      double weight = -Math.expm1(-elapsedNanos / (double) maxExportPeriodNanos);
+      spansPerNanosecond += weight * (observedSpansPerNanosecond - spansPerNanosecond);
+    }
+    double fillTimeNanos = fullReservoirSize / spansPerNanosecond;
+    if (fillTimeNanos >= maxExportPeriodNanos) {
+      exportPeriodNanos = maxExportPeriodNanos;
+    } else if (fillTimeNanos <= minExportPeriodNanos) {
+      exportPeriodNanos = minExportPeriodNanos;
+    } else {
+      exportPeriodNanos = (long) fillTimeNanos;
+    }
+    reservoirSize = computeReservoirSize(exportPeriodNanos);
+  }
+
+  int getReservoirSize() {
+    return reservoirSize;
+  }
+
+  long getExportPeriodNanos() {
+    return exportPeriodNanos;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.sdk.trace.data.SpanData;
+
+/**
+ * An ended span encoded by a {@link CompactSpanEncoder}. Apart from this handle, an encoded span
+ * consists of a single byte array. The {@link SpanData} is only decoded on demand.
+ */
+final class CompactSpan {
+
+  private final CompactSpanEncoder encoder;
+  private final byte[] record;
+  private final int packedPR;
+
+  CompactSpan(CompactSpanEncoder encoder, byte[] record, int packedPR) {
+    this.encoder = encoder;
+    this.record = record;
+    this.packedPR = packedPR;
+  }
+
+  /**
+   * Returns the p- and r-value of the span packed as by {@link OtelTraceState#pack(int, int)}.
+   *
+   * @return the packed p- and r-value
+   */
+  int getPackedPR() {
+    return packedPR;
+  }
+
+  /** Returns the size of the encoded record in bytes. */
+  int getRecordSize() {
+    return record.length;
+  }
+
+  /**
+   * Decodes the span.
+   *
+   * @return the span data
+   */
+  SpanData toSpanData() {
+    return encoder.decode(record);
+  }
+}
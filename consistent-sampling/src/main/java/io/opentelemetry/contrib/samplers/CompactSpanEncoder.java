@@ -0,0 +1,717 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.AttributeType;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.common.AttributesBuilder;
+import io.opentelemetry.api.internal.OtelEncodingUtils;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.TraceStateBuilder;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.data.StatusData;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes ended spans into compact records, which are decoded into {@link SpanData} only when
+ * needed.
+ *
+ * <p>A {@link ReadableSpan} references many objects, like its attributes, events and links, which
+ * survive as long as the span is kept. In contrast, a record is a single byte array, which the
+ * garbage collector does not need to trace. Ids and timestamps are stored as primitive values.
+ * Values that are specific to a span, like attribute values, trace states and status descriptions,
+ * are stored inline as UTF-8. Only values that are typically shared by many spans, namely span and
+ * event names, attribute keys, resources and instrumentation scopes, are stored once in a
+ * dictionary of the encoder and referenced by their index. The dictionary therefore does not retain
+ * values of spans that were encoded and discarded afterwards, apart from their names and keys.
+ *
+ * <p>The dictionary grows with every new value, hence an encoder is meant to be used for a limited
+ * number of spans, like the spans of a single export period, and dropped afterwards. The encoded
+ * spans keep the dictionary alive. Once the dictionary holds {@value #MAX_DICTIONARY_SIZE} values,
+ * new names and attribute keys are stored inline as well, so that spans with names of high
+ * cardinality do not let the dictionary grow without bounds.
+ *
+ * <p>The span context, name, kind and instrumentation scope are read from the {@link ReadableSpan}
+ * directly. The remaining fields are not exposed by {@link ReadableSpan} and are read from {@link
+ * ReadableSpan#toSpanData()}, which for an ended span of the SDK only wraps its attributes, events
+ * and links instead of copying them. Spans are encoded into a buffer of the encoding thread, which
+ * is reused for all spans encoded by that thread, and only the record is allocated per span.
+ *
+ * <p>An {@code ExceptionEventData} is decoded as a plain {@link EventData} with the same name and
+ * attributes, which include the type, message and stack trace of the exception. The exception
+ * itself is not retained, as it may reference arbitrary objects.
+ *
+ * <p>This class is thread-safe. Spans are encoded without holding a lock, only adding a new value
+ * to the dictionary is synchronized.
+ */
+final class CompactSpanEncoder {
+
+  private static final int INITIAL_BUFFER_SIZE = 256;
+  // a larger buffer, grown for an exceptionally large span, is not kept for reuse
+  private static final int MAX_REUSED_BUFFER_SIZE = 1 << 16;
+
+  private static final ThreadLocal<ByteBuffer> REUSED_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+  // visible for testing
+  static final int MAX_DICTIONARY_SIZE = 4096;
+
+  // a reference to the dictionary is stored as index + 1, 0 indicates an inline value
+  private static final int INLINE_VALUE = 0;
+
+  private static final byte INVALID_SPAN_CONTEXT = 0;
+  private static final byte LOCAL_SPAN_CONTEXT = 1;
+  private static final byte REMOTE_SPAN_CONTEXT = 2;
+
+  private static final SpanKind[] SPAN_KINDS = SpanKind.values();
+  private static final StatusCode[] STATUS_CODES = StatusCode.values();
+  private static final AttributeType[] ATTRIBUTE_TYPES = AttributeType.values();
+
+  private final Map<Object, Integer> dictionaryIndices = new ConcurrentHashMap<>();
+  // guarded by itself
+  private final List<Object> dictionary = new ArrayList<>();
+
+  /**
+   * Encodes the given ended span.
+   *
+   * @param readableSpan the span
+   * @param packedPR the p- and r-value of the span packed as by {@link OtelTraceState#pack(int,
+   *     int)}
+   * @return the encoded span
+   */
+  CompactSpan encode(ReadableSpan readableSpan, int packedPR) {
+    return new CompactSpan(this, new Encoder().encodeSpan(readableSpan), packedPR);
+  }
+
+  /**
+   * Returns the index of the given value in the dictionary, after adding it if necessary. If the
+   * dictionary is full and {@code required} is {@code false}, -1 is returned instead of adding the
+   * value.
+   */
+  private int lookUpDictionaryIndex(Object value, boolean required) {
+    Integer index = dictionaryIndices.get(value);
+    if (index == null) {
+      synchronized (dictionary) {
+        index = dictionaryIndices.get(value);
+        if (index == null) {
+          if (!required && dictionary.size() >= MAX_DICTIONARY_SIZE) {
+            return -1;
+          }
+          index = dictionary.size();
+          dictionary.add(value);
+          dictionaryIndices.put(value, index);
+        }
+      }
+    }
+    return index;
+  }
+
+  // visible for testing
+  int getDictionarySize() {
+    synchronized (dictionary) {
+      return dictionary.size();
+    }
+  }
+
+  private Object lookUpDictionaryValue(int index) {
+    synchronized (dictionary) {
+      return dictionary.get(index);
+    }
+  }
+
+  private final class Encoder {
+
+    private ByteBuffer buffer = REUSED_BUFFER.get();
+
+    private byte[] encodeSpan(ReadableSpan readableSpan) {
+      buffer.clear();
+      putSpanContext(readableSpan.getSpanContext());
+      putSpanContext(readableSpan.getParentSpanContext());
+      putName(readableSpan.getName());
+      putByte(readableSpan.getKind().ordinal());
+      SpanData spanData = readableSpan.toSpanData();
+      putLong(spanData.getStartEpochNanos());
+      putLong(spanData.getEndEpochNanos());
+      putByte(spanData.hasEnded() ? 1 : 0);
+      putByte(spanData.getStatus().getStatusCode().ordinal());
+      putString(spanData.getStatus().getDescription());
+      putDictionaryIndex(spanData.getResource());
+      putDictionaryIndex(readableSpan.getInstrumentationScopeInfo());
+      putAttributes(spanData.getAttributes());
+      putVarInt(spanData.getTotalAttributeCount());
+      List<EventData> events = spanData.getEvents();
+      putVarInt(events.size());
+      for (EventData event : events) {
+        putName(event.getName());
+        putLong(event.getEpochNanos());
+        putAttributes(event.getAttributes());
+        putVarInt(event.getTotalAttributeCount());
+      }
+      putVarInt(spanData.getTotalRecordedEvents());
+      List<LinkData> links = spanData.getLinks();
+      putVarInt(links.size());
+      for (LinkData link : links) {
+        putSpanContext(link.getSpanContext());
+        putAttributes(link.getAttributes());
+        putVarInt(link.getTotalAttributeCount());
+      }
+      putVarInt(spanData.getTotalRecordedLinks());
+      int offset = buffer.arrayOffset();
+      return Arrays.copyOfRange(buffer.array(), offset, offset + buffer.position());
+    }
+
+    private void ensureRemaining(int numberOfBytes) {
+      if (buffer.remaining() < numberOfBytes) {
+        int capacity = Math.max(2 * buffer.capacity(), buffer.position() + numberOfBytes);
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+        if (capacity <= MAX_REUSED_BUFFER_SIZE) {
+          REUSED_BUFFER.set(newBuffer);
+        }
+      }
+    }
+
+    private void putByte(int value) {
+      ensureRemaining(Byte.BYTES);
+      buffer.put((byte) value);
+    }
+
+    private void putLong(long value) {
+      ensureRemaining(Long.BYTES);
+      buffer.putLong(value);
+    }
+
+    private void putDouble(double value) {
+      ensureRemaining(Double.BYTES);
+      buffer.putDouble(value);
+    }
+
+    private void putVarInt(int value) {
+      ensureRemaining(5);
+      while ((value & ~0x7F) != 0) {
+        buffer.put((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      buffer.put((byte) value);
+    }
+
+    private void putString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      putVarInt(bytes.length);
+      ensureRemaining(bytes.length);
+      buffer.put(bytes);
+    }
+
+    // for values of which there are only few, like resources and instrumentation scopes
+    private void putDictionaryIndex(Object value) {
+      putVarInt(lookUpDictionaryIndex(value, /* required= */ true));
+    }
+
+    private void putName(String name) {
+      int index = lookUpDictionaryIndex(name, /* required= */ false);
+      if (index >= 0) {
+        putVarInt(index + 1);
+      } else {
+        putVarInt(INLINE_VALUE);
+        putString(name);
+      }
+    }
+
+    private void putAttributeKey(AttributeKey<?> key) {
+      int index = lookUpDictionaryIndex(key, /* required= */ false);
+      if (index >= 0) {
+        putVarInt(index + 1);
+      } else {
+        putVarInt(INLINE_VALUE);
+        putByte(key.getType().ordinal());
+        putString(key.getKey());
+      }
+    }
+
+    private void putTraceState(TraceState traceState) {
+      putVarInt(traceState.size());
+      traceState.forEach(
+          (key, value) -> {
+            putString(key);
+            putString(value);
+          });
+    }
+
+    private void putSpanContext(SpanContext spanContext) {
+      if (!spanContext.isValid()) {
+        putByte(INVALID_SPAN_CONTEXT);
+        return;
+      }
+      putByte(spanContext.isRemote() ? REMOTE_SPAN_CONTEXT : LOCAL_SPAN_CONTEXT);
+      String traceId = spanContext.getTraceId();
+      putLong(OtelEncodingUtils.longFromBase16String(traceId, 0));
+      putLong(OtelEncodingUtils.longFromBase16String(traceId, 16));
+      putLong(OtelEncodingUtils.longFromBase16String(spanContext.getSpanId(), 0));
+      putByte(spanContext.getTraceFlags().asByte());
+      putTraceState(spanContext.getTraceState());
+    }
+
+    private void putAttributes(Attributes attributes) {
+      putVarInt(attributes.size());
+      attributes.forEach(
+          (key, value) -> {
+            putAttributeKey(key);
+            switch (key.getType()) {
+              case STRING:
+                putString((String) value);
+                break;
+              case BOOLEAN:
+                putByte(((Boolean) value) ? 1 : 0);
+                break;
+              case LONG:
+                putLong((Long) value);
+                break;
+              case DOUBLE:
+                putDouble((Double) value);
+                break;
+              case STRING_ARRAY:
+                List<?> strings = (List<?>) value;
+                putVarInt(strings.size());
+                for (Object element : strings) {
+                  putString((String) element);
+                }
+                break;
+              case BOOLEAN_ARRAY:
+                List<?> booleans = (List<?>) value;
+                putVarInt(booleans.size());
+                for (Object element : booleans) {
+                  putByte(((Boolean) element) ? 1 : 0);
+                }
+                break;
+              case LONG_ARRAY:
+                List<?> longs = (List<?>) value;
+                putVarInt(longs.size());
+                for (Object element : longs) {
+                  putLong((Long) element);
+                }
+                break;
+              case DOUBLE_ARRAY:
+                List<?> doubles = (List<?>) value;
+                putVarInt(doubles.size());
+                for (Object element : doubles) {
+                  putDouble((Double) element);
+                }
+                break;
+            }
+          });
+    }
+  }
+
+  /**
+   * Decodes a record created by this encoder.
+   *
+   * @param record the record
+   * @return the span data
+   */
+  SpanData decode(byte[] record) {
+    return new Decoder(ByteBuffer.wrap(record)).decodeSpanData();
+  }
+
+  private final class Decoder {
+
+    private final ByteBuffer record;
+
+    private Decoder(ByteBuffer record) {
+      this.record = record;
+    }
+
+    private SpanData decodeSpanData() {
+      SpanContext spanContext = getSpanContext();
+      SpanContext parentSpanContext = getSpanContext();
+      String name = getName();
+      SpanKind kind = SPAN_KINDS[record.get()];
+      long startEpochNanos = record.getLong();
+      long endEpochNanos = record.getLong();
+      boolean hasEnded = record.get() != 0;
+      StatusCode statusCode = STATUS_CODES[record.get()];
+      StatusData status = StatusData.create(statusCode, getString());
+      Resource resource = getDictionaryValue(Resource.class);
+      InstrumentationScopeInfo instrumentationScopeInfo =
+          getDictionaryValue(InstrumentationScopeInfo.class);
+      Attributes attributes = getAttributes();
+      int totalAttributeCount = getVarInt();
+      int numberOfEvents = getVarInt();
+      List<EventData> events = new ArrayList<>(numberOfEvents);
+      for (int i = 0; i < numberOfEvents; ++i) {
+        String eventName = getName();
+        long epochNanos = record.getLong();
+        Attributes eventAttributes = getAttributes();
+        events.add(EventData.create(epochNanos, eventName, eventAttributes, getVarInt()));
+      }
+      int totalRecordedEvents = getVarInt();
+      int numberOfLinks = getVarInt();
+      List<LinkData> links = new ArrayList<>(numberOfLinks);
+      for (int i = 0; i < numberOfLinks; ++i) {
+        SpanContext linkedSpanContext = getSpanContext();
+        Attributes linkAttributes = getAttributes();
+        links.add(LinkData.create(linkedSpanContext, linkAttributes, getVarInt()));
+      }
+      int totalRecordedLinks = getVarInt();
+      return new DecodedSpanData(
+          name,
+          kind,
+          spanContext,
+          parentSpanContext,
+          status,
+          startEpochNanos,
+          endEpochNanos,
+          hasEnded,
+          attributes,
+          totalAttributeCount,
+          Collections.unmodifiableList(events),
+          totalRecordedEvents,
+          Collections.unmodifiableList(links),
+          totalRecordedLinks,
+          resource,
+          instrumentationScopeInfo);
+    }
+
+    private int getVarInt() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = record.get();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+
+    private String getString() {
+      int length = getVarInt();
+      String value =
+          new String(
+              record.array(),
+              record.arrayOffset() + record.position(),
+              length,
+              StandardCharsets.UTF_8);
+      record.position(record.position() + length);
+      return value;
+    }
+
+    private <T> T getDictionaryValue(Class<T> type) {
+      return type.cast(lookUpDictionaryValue(getVarInt()));
+    }
+
+    private String getName() {
+      int reference = getVarInt();
+      if (reference == INLINE_VALUE) {
+        return getString();
+      }
+      return (String) lookUpDictionaryValue(reference - 1);
+    }
+
+    private AttributeKey<?> getAttributeKey() {
+      int reference = getVarInt();
+      if (reference != INLINE_VALUE) {
+        return (AttributeKey<?>) lookUpDictionaryValue(reference - 1);
+      }
+      AttributeType type = ATTRIBUTE_TYPES[record.get()];
+      String key = getString();
+      switch (type) {
+        case STRING:
+          return AttributeKey.stringKey(key);
+        case BOOLEAN:
+          return AttributeKey.booleanKey(key);
+        case LONG:
+          return AttributeKey.longKey(key);
+        case DOUBLE:
+          return AttributeKey.doubleKey(key);
+        case STRING_ARRAY:
+          return AttributeKey.stringArrayKey(key);
+        case BOOLEAN_ARRAY:
+          return AttributeKey.booleanArrayKey(key);
+        case LONG_ARRAY:
+          return AttributeKey.longArrayKey(key);
+        case DOUBLE_ARRAY:
+          return AttributeKey.doubleArrayKey(key);
+      }
+      throw new IllegalStateException("unknown attribute type " + type);
+    }
+
+    private TraceState getTraceState() {
+      int size = getVarInt();
+      if (size == 0) {
+        return TraceState.getDefault();
+      }
+      String[] keys = new String[size];
+      String[] values = new String[size];
+      for (int i = 0; i < size; ++i) {
+        keys[i] = getString();
+        values[i] = getString();
+      }
+      // put adds an entry in front of the others, hence the entries are put in reverse order
+      TraceStateBuilder builder = TraceState.builder();
+      for (int i = size - 1; i >= 0; --i) {
+        builder.put(keys[i], values[i]);
+      }
+      return builder.build();
+    }
+
+    private SpanContext getSpanContext() {
+      byte type = record.get();
+      if (type == INVALID_SPAN_CONTEXT) {
+        return SpanContext.getInvalid();
+      }
+      char[] traceId = new char[32];
+      OtelEncodingUtils.longToBase16String(record.getLong(), traceId, 0);
+      OtelEncodingUtils.longToBase16String(record.getLong(), traceId, 16);
+      char[] spanId = new char[16];
+      OtelEncodingUtils.longToBase16String(record.getLong(), spanId, 0);
+      TraceFlags traceFlags = TraceFlags.fromByte(record.get());
+      TraceState traceState = getTraceState();
+      if (type == REMOTE_SPAN_CONTEXT) {
+        return SpanContext.createFromRemoteParent(
+            new String(traceId), new String(spanId), traceFlags, traceState);
+      }
+      return SpanContext.create(new String(traceId), new String(spanId), traceFlags, traceState);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Attributes getAttributes() {
+      int size = getVarInt();
+      if (size == 0) {
+        return Attributes.empty();
+      }
+      AttributesBuilder builder = Attributes.builder();
+      for (int i = 0; i < size; ++i) {
+        AttributeKey<?> key = getAttributeKey();
+        switch (key.getType()) {
+          case STRING:
+            builder.put((AttributeKey<String>) key, getString());
+            break;
+          case BOOLEAN:
+            builder.put((AttributeKey<Boolean>) key, record.get() != 0);
+            break;
+          case LONG:
+            builder.put((AttributeKey<Long>) key, record.getLong());
+            break;
+          case DOUBLE:
+            builder.put((AttributeKey<Double>) key, record.getDouble());
+            break;
+          case STRING_ARRAY:
+            String[] strings = new String[getVarInt()];
+            for (int j = 0; j < strings.length; ++j) {
+              strings[j] = getString();
+            }
+            builder.put((AttributeKey<List<String>>) key, Arrays.asList(strings));
+            break;
+          case BOOLEAN_ARRAY:
+            Boolean[] booleans = new Boolean[getVarInt()];
+            for (int j = 0; j < booleans.length; ++j) {
+              booleans[j] = record.get() != 0;
+            }
+            builder.put((AttributeKey<List<Boolean>>) key, Arrays.asList(booleans));
+            break;
+          case LONG_ARRAY:
+            Long[] longs = new Long[getVarInt()];
+            for (int j = 0; j < longs.length; ++j) {
+              longs[j] = record.getLong();
+            }
+            builder.put((AttributeKey<List<Long>>) key, Arrays.asList(longs));
+            break;
+          case DOUBLE_ARRAY:
+            Double[] doubles = new Double[getVarInt()];
+            for (int j = 0; j < doubles.length; ++j) {
+              doubles[j] = record.getDouble();
+            }
+            builder.put((AttributeKey<List<Double>>) key, Arrays.asList(doubles));
+            break;
+        }
+      }
+      return builder.build();
+    }
+  }
+
+  private static final class DecodedSpanData implements SpanData {
+
+    private final String name;
+    private final SpanKind kind;
+    private final SpanContext spanContext;
+    private final SpanContext parentSpanContext;
+    private final StatusData status;
+    private final long startEpochNanos;
+    private final long endEpochNanos;
+    private final boolean hasEnded;
+    private final Attributes attributes;
+    private final int totalAttributeCount;
+    private final List<EventData> events;
+    private final int totalRecordedEvents;
+    private final List<LinkData> links;
+    private final int totalRecordedLinks;
+    private final Resource resource;
+    private final InstrumentationScopeInfo instrumentationScopeInfo;
+
+    private DecodedSpanData(
+        String name,
+        SpanKind kind,
+        SpanContext spanContext,
+        SpanContext parentSpanContext,
+        StatusData status,
+        long startEpochNanos,
+        long endEpochNanos,
+        boolean hasEnded,
+        Attributes attributes,
+        int totalAttributeCount,
+        List<EventData> events,
+        int totalRecordedEvents,
+        List<LinkData> links,
+        int totalRecordedLinks,
+        Resource resource,
+        InstrumentationScopeInfo instrumentationScopeInfo) {
+      this.name = name;
+      this.kind = kind;
+      this.spanContext = spanContext;
+      this.parentSpanContext = parentSpanContext;
+      this.status = status;
+      this.startEpochNanos = startEpochNanos;
+      this.endEpochNanos = endEpochNanos;
+      this.hasEnded = hasEnded;
+      this.attributes = attributes;
+      this.totalAttributeCount = totalAttributeCount;
+      this.events = events;
+      this.totalRecordedEvents = totalRecordedEvents;
+      this.links = links;
+      this.totalRecordedLinks = totalRecordedLinks;
+      this.resource = resource;
+      this.instrumentationScopeInfo = instrumentationScopeInfo;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public SpanKind getKind() {
+      return kind;
+    }
+
+    @Override
+    public SpanContext getSpanContext() {
+      return spanContext;
+    }
+
+    @Override
+    public SpanContext getParentSpanContext() {
+      return parentSpanContext;
+    }
+
+    @Override
+    public StatusData getStatus() {
+      return status;
+    }
+
+    @Override
+    public long getStartEpochNanos() {
+      return startEpochNanos;
+    }
+
+    @Override
+    public Attributes getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public List<EventData> getEvents() {
+      return events;
+    }
+
+    @Override
+    public List<LinkData> getLinks() {
+      return links;
+    }
+
+    @Override
+    public long getEndEpochNanos() {
+      return endEpochNanos;
+    }
+
+    @Override
+    public boolean hasEnded() {
+      return hasEnded;
+    }
+
+    @Override
+    public int getTotalRecordedEvents() {
+      return totalRecordedEvents;
+    }
+
+    @Override
+    public int getTotalRecordedLinks() {
+      return totalRecordedLinks;
+    }
+
+    @Override
+    public int getTotalAttributeCount() {
+      return totalAttributeCount;
+    }
+
+    @Override
+    @Deprecated
+    public io.opentelemetry.sdk.common.InstrumentationLibraryInfo getInstrumentationLibraryInfo() {
+      return io.opentelemetry.sdk.common.InstrumentationLibraryInfo.create(
+          instrumentationScopeInfo.getName(),
+          instrumentationScopeInfo.getVersion(),
+          instrumentationScopeInfo.getSchemaUrl());
+    }
+
+    @Override
+    public InstrumentationScopeInfo getInstrumentationScopeInfo() {
+      return instrumentationScopeInfo;
+    }
+
+    @Override
+    public Resource getResource() {
+      return resource;
+    }
+
+    @Override
+    public String toString() {
+      return "DecodedSpanData{"
+          + "spanContext="
+          + spanContext
+          + ", parentSpanContext="
+          + parentSpanContext
+          + ", name="
+          + name
+          + ", kind="
+          + kind
+          + ", startEpochNanos="
+          + startEpochNanos
+          + ", endEpochNanos="
+          + endEpochNanos
+          + ", attributes="
+          + attributes
+          + ", status="
+          + status
+          + "}";
+    }
+  }
+}
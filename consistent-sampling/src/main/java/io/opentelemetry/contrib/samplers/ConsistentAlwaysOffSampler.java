@@ -19,6 +19,11 @@ final class ConsistentAlwaysOffSampler extends ConsistentSampler {
     return OtelTraceState.getMaxP();
   }
 
+  @Override
+  boolean hasSideEffects() {
+    return false;
+  }
+
   @Override
   public String getDescription() {
     return "ConsistentAlwaysOffSampler";
@@ -19,6 +19,11 @@ final class ConsistentAlwaysOnSampler extends ConsistentSampler {
     return 0;
   }
 
+  @Override
+  boolean hasSideEffects() {
+    return false;
+  }
+
   @Override
   public String getDescription() {
     return "ConsistentAlwaysOnSampler";
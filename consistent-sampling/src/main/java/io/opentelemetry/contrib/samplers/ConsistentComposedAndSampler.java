@@ -5,45 +5,84 @@
 
 package io.opentelemetry.contrib.samplers;
 
-import static java.util.Objects.requireNonNull;
-
+import io.opentelemetry.api.common.Attributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.annotation.concurrent.Immutable;
 
 /**
- * A consistent sampler composed of two consistent samplers.
+ * A consistent sampler composed of two or more consistent samplers.
+ *
+ * <p>This sampler samples if all samplers would sample.
  *
- * <p>This sampler samples if both samplers would sample.
+ * <p>Nested composed samplers of this type are flattened, which avoids recursive evaluation. Since
+ * the result is invalid as soon as any sampler returns an invalid p-value, samplers without side
+ * effects are evaluated first and the remaining samplers are skipped in this case.
  */
 @Immutable
 final class ConsistentComposedAndSampler extends ConsistentSampler {
 
-  private final ConsistentSampler sampler1;
-  private final ConsistentSampler sampler2;
+  // the flattened samplers in the order they were composed
+  private final List<ConsistentSampler> samplers;
+  private final ConsistentSampler[] evaluationOrder;
+  private final boolean hasSideEffects;
   private final String description;
 
-  ConsistentComposedAndSampler(
+  static ConsistentComposedAndSampler create(
       ConsistentSampler sampler1, ConsistentSampler sampler2, RValueGenerator rValueGenerator) {
+    List<ConsistentSampler> samplers = new ArrayList<>();
+    addFlattened(samplers, sampler1);
+    addFlattened(samplers, sampler2);
+    return new ConsistentComposedAndSampler(samplers, rValueGenerator);
+  }
+
+  private static void addFlattened(List<ConsistentSampler> samplers, ConsistentSampler sampler) {
+    if (sampler instanceof ConsistentComposedAndSampler) {
+      for (ConsistentSampler s : ((ConsistentComposedAndSampler) sampler).samplers) {
+        ConsistentComposedSamplers.addIfAbsent(samplers, s);
+      }
+    } else {
+      ConsistentComposedSamplers.addIfAbsent(samplers, sampler);
+    }
+  }
+
+  private ConsistentComposedAndSampler(
+      List<ConsistentSampler> samplers, RValueGenerator rValueGenerator) {
     super(rValueGenerator);
-    this.sampler1 = requireNonNull(sampler1);
-    this.sampler2 = requireNonNull(sampler2);
+    this.samplers = Collections.unmodifiableList(samplers);
+    this.evaluationOrder = ConsistentComposedSamplers.getEvaluationOrder(samplers);
+    this.hasSideEffects = evaluationOrder[evaluationOrder.length - 1].hasSideEffects();
     this.description =
-        "ConsistentComposedAndSampler{"
-            + "sampler1="
-            + sampler1.getDescription()
-            + ",sampler2="
-            + sampler2.getDescription()
-            + '}';
+        ConsistentComposedSamplers.getDescription("ConsistentComposedAndSampler", samplers);
   }
 
   @Override
   protected int getP(int parentP, boolean isRoot) {
-    int p1 = sampler1.getP(parentP, isRoot);
-    int p2 = sampler2.getP(parentP, isRoot);
-    if (OtelTraceState.isValidP(p1) && OtelTraceState.isValidP(p2)) {
-      return Math.max(p1, p2);
-    } else {
-      return OtelTraceState.getInvalidP();
+    return getP(parentP, isRoot, Attributes.empty());
+  }
+
+  @Override
+  int getP(int parentP, boolean isRoot, Attributes attributes) {
+    int p = 0;
+    for (ConsistentSampler sampler : evaluationOrder) {
+      int samplerP = sampler.getP(parentP, isRoot, attributes);
+      if (!OtelTraceState.isValidP(samplerP)) {
+        return OtelTraceState.getInvalidP();
+      }
+      p = Math.max(p, samplerP);
     }
+    return p;
+  }
+
+  @Override
+  boolean hasSideEffects() {
+    return hasSideEffects;
+  }
+
+  // visible for testing
+  List<ConsistentSampler> getSamplers() {
+    return samplers;
   }
 
   @Override
@@ -5,51 +5,88 @@
 
 package io.opentelemetry.contrib.samplers;
 
-import static java.util.Objects.requireNonNull;
-
+import io.opentelemetry.api.common.Attributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.annotation.concurrent.Immutable;
 
 /**
- * A consistent sampler composed of two consistent samplers.
+ * A consistent sampler composed of two or more consistent samplers.
+ *
+ * <p>This sampler samples if any of the samplers would sample.
  *
- * <p>This sampler samples if any of the two samplers would sample.
+ * <p>Nested composed samplers of this type are flattened, which avoids recursive evaluation. Since
+ * the result is 0 as soon as any sampler returns a p-value of 0, samplers without side effects are
+ * evaluated first and the remaining samplers are skipped in this case.
  */
 @Immutable
 final class ConsistentComposedOrSampler extends ConsistentSampler {
 
-  private final ConsistentSampler sampler1;
-  private final ConsistentSampler sampler2;
+  // the flattened samplers in the order they were composed
+  private final List<ConsistentSampler> samplers;
+  private final ConsistentSampler[] evaluationOrder;
+  private final boolean hasSideEffects;
   private final String description;
 
-  ConsistentComposedOrSampler(
+  static ConsistentComposedOrSampler create(
       ConsistentSampler sampler1, ConsistentSampler sampler2, RValueGenerator rValueGenerator) {
+    List<ConsistentSampler> samplers = new ArrayList<>();
+    addFlattened(samplers, sampler1);
+    addFlattened(samplers, sampler2);
+    return new ConsistentComposedOrSampler(samplers, rValueGenerator);
+  }
+
+  private static void addFlattened(List<ConsistentSampler> samplers, ConsistentSampler sampler) {
+    if (sampler instanceof ConsistentComposedOrSampler) {
+      for (ConsistentSampler s : ((ConsistentComposedOrSampler) sampler).samplers) {
+        ConsistentComposedSamplers.addIfAbsent(samplers, s);
+      }
+    } else {
+      ConsistentComposedSamplers.addIfAbsent(samplers, sampler);
+    }
+  }
+
+  private ConsistentComposedOrSampler(
+      List<ConsistentSampler> samplers, RValueGenerator rValueGenerator) {
     super(rValueGenerator);
-    this.sampler1 = requireNonNull(sampler1);
-    this.sampler2 = requireNonNull(sampler2);
+    this.samplers = Collections.unmodifiableList(samplers);
+    this.evaluationOrder = ConsistentComposedSamplers.getEvaluationOrder(samplers);
+    this.hasSideEffects = evaluationOrder[evaluationOrder.length - 1].hasSideEffects();
     this.description =
-        "ConsistentComposedOrSampler{"
-            + "sampler1="
-            + sampler1.getDescription()
-            + ",sampler2="
-            + sampler2.getDescription()
-            + '}';
+        ConsistentComposedSamplers.getDescription("ConsistentComposedOrSampler", samplers);
   }
 
   @Override
   protected int getP(int parentP, boolean isRoot) {
-    int p1 = sampler1.getP(parentP, isRoot);
-    int p2 = sampler2.getP(parentP, isRoot);
-    if (OtelTraceState.isValidP(p1)) {
-      if (OtelTraceState.isValidP(p2)) {
-        return Math.min(p1, p2);
-      }
-      return p1;
-    } else {
-      if (OtelTraceState.isValidP(p2)) {
-        return p2;
+    return getP(parentP, isRoot, Attributes.empty());
+  }
+
+  @Override
+  int getP(int parentP, boolean isRoot, Attributes attributes) {
+    int p = OtelTraceState.getInvalidP();
+    for (ConsistentSampler sampler : evaluationOrder) {
+      int samplerP = sampler.getP(parentP, isRoot, attributes);
+      if (OtelTraceState.isValidP(samplerP)) {
+        if (samplerP == 0) {
+          return 0;
+        }
+        if (!OtelTraceState.isValidP(p) || samplerP < p) {
+          p = samplerP;
+        }
       }
-      return OtelTraceState.getInvalidP();
     }
+    return p;
+  }
+
+  @Override
+  boolean hasSideEffects() {
+    return hasSideEffects;
+  }
+
+  // visible for testing
+  List<ConsistentSampler> getSamplers() {
+    return samplers;
   }
 
   @Override
@@ -0,0 +1,84 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper methods for flattening chains of composed consistent samplers into a single composed
+ * sampler.
+ */
+final class ConsistentComposedSamplers {
+
+  private ConsistentComposedSamplers() {}
+
+  /**
+   * Adds the given sampler to the given list of samplers, unless it is already contained. Samplers
+   * are compared by identity, which is sufficient, as composing a sampler with itself does not
+   * change the result.
+   *
+   * @param samplers the list of samplers
+   * @param sampler the sampler to add
+   */
+  static void addIfAbsent(List<ConsistentSampler> samplers, ConsistentSampler sampler) {
+    requireNonNull(sampler);
+    for (ConsistentSampler s : samplers) {
+      if (s == sampler) {
+        return;
+      }
+    }
+    samplers.add(sampler);
+  }
+
+  /**
+   * Returns the given samplers in the order they are evaluated. Samplers without side effects come
+   * first, as they are cheap and may determine the result such that samplers with side effects do
+   * not need to be evaluated. Otherwise, the given order is retained.
+   *
+   * @param samplers the samplers
+   * @return the samplers in evaluation order
+   */
+  static ConsistentSampler[] getEvaluationOrder(List<ConsistentSampler> samplers) {
+    List<ConsistentSampler> ordered = new ArrayList<>(samplers.size());
+    for (ConsistentSampler sampler : samplers) {
+      if (!sampler.hasSideEffects()) {
+        ordered.add(sampler);
+      }
+    }
+    for (ConsistentSampler sampler : samplers) {
+      if (sampler.hasSideEffects()) {
+        ordered.add(sampler);
+      }
+    }
+    return ordered.toArray(new ConsistentSampler[0]);
+  }
+
+  /**
+   * Returns the description of a composed sampler, which lists the descriptions of the given
+   * samplers numbered in the given order.
+   *
+   * @param name the name of the composed sampler
+   * @param samplers the samplers
+   * @return the description
+   */
+  static String getDescription(String name, List<ConsistentSampler> samplers) {
+    StringBuilder description = new StringBuilder(name).append('{');
+    for (int i = 0; i < samplers.size(); ++i) {
+      if (i > 0) {
+        description.append(',');
+      }
+      description
+          .append("sampler")
+          .append(i + 1)
+          .append('=')
+          .append(samplers.get(i).getDescription());
+    }
+    return description.append('}').toString();
+  }
+}
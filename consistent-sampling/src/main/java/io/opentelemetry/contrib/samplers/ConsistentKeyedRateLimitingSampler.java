@@ -0,0 +1,428 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * This consistent {@link Sampler} limits the rate of sampled spans separately for each value of a
+ * given attribute, such that a single noisy value, like a frequently called endpoint, cannot use up
+ * the sampling budget of the others. In addition, the total rate of sampled spans is limited.
+ *
+ * <p>For each attribute value, the rate of spans is estimated by exponential smoothing exactly like
+ * in {@link ConsistentRateLimitingSampler}, which gives a sampling probability per value. Spans
+ * without the attribute share a common estimate. The total limit is enforced by estimating the rate
+ * of spans that would be sampled by the per-value limits alone, which is done by the same
+ * exponential smoothing, but weighting each span with its per-value sampling probability. If this
+ * rate exceeds the total limit, all per-value sampling probabilities are scaled down
+ * proportionally. Hence, the total limit only reduces sampling if the per-value limits do not
+ * suffice, and values below their limit are not sampled less than necessary. As the sampling
+ * probability does not depend on the r-value, the p-value is derived from it as in {@link
+ * ConsistentRateLimitingSampler}.
+ *
+ * <p>The per-value estimates are kept in up to 16 segments, each guarded by its own lock and each
+ * holding an equal share of the maximum number of values. Every segment is an open-addressing hash
+ * table backed by primitive arrays, hence updating the estimate of a known attribute value does not
+ * allocate. Each segment also estimates the weighted rate of its own spans under its lock, so
+ * sampling threads do not contend on a shared total. These per-segment rates are summed up to the
+ * total rate by a single thread about a hundred times per adaptation time, and the resulting
+ * scaling of the sampling probabilities is shared by all threads until the next update.
+ *
+ * <p>If a segment is full, an attribute value is evicted. Like the clock algorithm, a hand moves
+ * over the slots of the segment, and of the next 8 values it passes, the one with the smallest
+ * exponentially decayed span count is evicted. This combines least-frequently-used and
+ * least-recently-used eviction: values that have not been seen for a while or that are rare are
+ * evicted first, without scanning the whole segment. An evicted or new attribute value starts with
+ * an estimate as if it had been sampled exactly at the limit for one span, so it neither inherits
+ * the time since the creation of the sampler nor starts out throttled.
+ */
+final class ConsistentKeyedRateLimitingSampler extends ConsistentSampler {
+
+  private static final int MAX_NUMBER_OF_SEGMENTS = 16;
+
+  // small segments would evict values long before the maximum number of values is reached
+  private static final int MIN_SEGMENT_CAPACITY = 16;
+
+  // the number of values compared when looking for a value to evict
+  private static final int EVICTION_SAMPLE_SIZE = 8;
+
+  // how often per adaptation time the total rate is summed up from the segments
+  private static final int TOTAL_UPDATES_PER_ADAPTATION_TIME = 100;
+
+  // used as key for spans without the attribute
+  private static final Object MISSING_VALUE = new Object();
+
+  private final String description;
+  private final AttributeKey<?> attributeKey;
+  private final LongSupplier nanoTimeSupplier;
+  private final double inverseAdaptationTimeNanos;
+  private final double targetSpansPerNanosecondLimit;
+  // the window of a new value, in which exactly one span would be at the limit
+  private final double initialEffectiveWindowNanos;
+  private final double totalTargetSpansPerNanosecondLimit;
+  private final long totalUpdateIntervalNanos;
+  private final AtomicLong nextTotalUpdateNanoTime;
+  // the factor applied to the per-value sampling probabilities to enforce the total limit
+  private volatile double totalSamplingProbability = 1.;
+  private final RandomGenerator randomGenerator;
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * Constructor.
+   *
+   * @param attributeKey the key of the attribute whose values are rate-limited separately
+   * @param targetSpansPerSecondLimitPerValue the desired spans per second limit for each value
+   * @param totalTargetSpansPerSecondLimit the desired spans per second limit for all values
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param maxNumberOfValues the maximum number of attribute values for which estimates are kept
+   * @param rValueGenerator the function to use for generating the r-value
+   * @param randomGenerator a random generator
+   * @param nanoTimeSupplier a supplier for the current nano time
+   */
+  ConsistentKeyedRateLimitingSampler(
+      AttributeKey<?> attributeKey,
+      double targetSpansPerSecondLimitPerValue,
+      double totalTargetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      int maxNumberOfValues,
+      RValueGenerator rValueGenerator,
+      RandomGenerator randomGenerator,
+      LongSupplier nanoTimeSupplier) {
+    super(rValueGenerator);
+
+    if (targetSpansPerSecondLimitPerValue < 0.0) {
+      throw new IllegalArgumentException("Limit for sampled spans per second must be nonnegative!");
+    }
+    if (totalTargetSpansPerSecondLimit < 0.0) {
+      throw new IllegalArgumentException("Limit for sampled spans per second must be nonnegative!");
+    }
+    if (adaptationTimeSeconds < 0.0) {
+      throw new IllegalArgumentException("Adaptation rate must be nonnegative!");
+    }
+    if (maxNumberOfValues < 1) {
+      throw new IllegalArgumentException("Maximum number of attribute values must be positive!");
+    }
+    this.description =
+        String.format(
+            "ConsistentKeyedRateLimitingSampler{%s, %.6f, %.6f, %.6f, %d}",
+            attributeKey.getKey(),
+            targetSpansPerSecondLimitPerValue,
+            totalTargetSpansPerSecondLimit,
+            adaptationTimeSeconds,
+            maxNumberOfValues);
+    this.attributeKey = attributeKey;
+    this.nanoTimeSupplier = requireNonNull(nanoTimeSupplier);
+    this.inverseAdaptationTimeNanos = 1e-9 / adaptationTimeSeconds;
+    this.targetSpansPerNanosecondLimit = 1e-9 * targetSpansPerSecondLimitPerValue;
+    this.initialEffectiveWindowNanos =
+        targetSpansPerNanosecondLimit > 0 ? 1. / targetSpansPerNanosecondLimit : 0.;
+    long initialNanoTime = nanoTimeSupplier.getAsLong();
+    this.totalTargetSpansPerNanosecondLimit = 1e-9 * totalTargetSpansPerSecondLimit;
+    this.totalUpdateIntervalNanos =
+        (long) (adaptationTimeSeconds * 1e9 / TOTAL_UPDATES_PER_ADAPTATION_TIME);
+    this.nextTotalUpdateNanoTime = new AtomicLong(initialNanoTime + totalUpdateIntervalNanos);
+    this.randomGenerator = requireNonNull(randomGenerator);
+
+    int numberOfSegments = 1;
+    while (numberOfSegments < MAX_NUMBER_OF_SEGMENTS
+        && numberOfSegments * 2 * MIN_SEGMENT_CAPACITY <= maxNumberOfValues) {
+      numberOfSegments *= 2;
+    }
+    this.segments = new Segment[numberOfSegments];
+    for (int i = 0; i < numberOfSegments; ++i) {
+      // distribute the maximum number of values over the segments
+      int segmentCapacity =
+          maxNumberOfValues / numberOfSegments + (i < maxNumberOfValues % numberOfSegments ? 1 : 0);
+      segments[i] = new Segment(segmentCapacity, initialNanoTime);
+    }
+    this.segmentMask = numberOfSegments - 1;
+  }
+
+  private static int hash(Object value) {
+    int h = value.hashCode();
+    // spread higher bits, as the lower bits select the segment and the higher bits the slot
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  protected int getP(int parentP, boolean isRoot) {
+    return getP(parentP, isRoot, Attributes.empty());
+  }
+
+  @Override
+  int getP(int parentP, boolean isRoot, Attributes attributes) {
+    Object value = attributes.get(attributeKey);
+    if (value == null) {
+      value = MISSING_VALUE;
+    }
+    int hash = hash(value);
+    long currentNanoTime = nanoTimeSupplier.getAsLong();
+    double samplingProbability =
+        segments[hash & segmentMask].updateAndGetSamplingProbability(value, hash, currentNanoTime);
+
+    long nextTotalUpdate = nextTotalUpdateNanoTime.get();
+    if (currentNanoTime - nextTotalUpdate >= 0
+        && nextTotalUpdateNanoTime.compareAndSet(
+            nextTotalUpdate, currentNanoTime + totalUpdateIntervalNanos)) {
+      updateTotalSamplingProbability(currentNanoTime);
+    }
+    double currentTotalSamplingProbability = totalSamplingProbability;
+    if (currentTotalSamplingProbability < 1.) {
+      samplingProbability *= currentTotalSamplingProbability;
+    }
+
+    if (samplingProbability >= 1.) {
+      return 0;
+    }
+
+    int lowerPValue = getLowerBoundP(samplingProbability);
+    int upperPValue = getUpperBoundP(samplingProbability);
+
+    if (lowerPValue == upperPValue) {
+      return lowerPValue;
+    }
+
+    double upperSamplingRate = getSamplingProbability(lowerPValue);
+    double lowerSamplingRate = getSamplingProbability(upperPValue);
+    double probabilityToUseLowerPValue =
+        (samplingProbability - lowerSamplingRate) / (upperSamplingRate - lowerSamplingRate);
+
+    if (randomGenerator.nextBoolean(probabilityToUseLowerPValue)) {
+      return lowerPValue;
+    } else {
+      return upperPValue;
+    }
+  }
+
+  private void updateTotalSamplingProbability(long currentNanoTime) {
+    double weightedSpansPerNanosecond = 0;
+    for (Segment segment : segments) {
+      weightedSpansPerNanosecond += segment.getWeightedSpansPerNanosecond(currentNanoTime);
+    }
+    totalSamplingProbability =
+        weightedSpansPerNanosecond > 0
+            ? totalTargetSpansPerNanosecondLimit / weightedSpansPerNanosecond
+            : 1.;
+  }
+
+  // visible for testing
+  int getNumberOfValues() {
+    int numberOfValues = 0;
+    for (Segment segment : segments) {
+      numberOfValues += segment.getSize();
+    }
+    return numberOfValues;
+  }
+
+  // visible for testing
+  boolean containsValue(Object value) {
+    int hash = hash(value);
+    return segments[hash & segmentMask].contains(value, hash);
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+
+  /**
+   * An open-addressing hash table with linear probing that maps attribute values to the state of
+   * their estimates, which is stored in parallel primitive arrays, together with the estimate of
+   * the rate of all spans of the segment weighted by their per-value sampling probabilities.
+   */
+  private final class Segment {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int capacity;
+    private final int slotMask;
+
+    // guarded by lock
+    private final Object[] values;
+    private final int[] hashes;
+    private final double[] effectiveWindowCounts;
+    private final double[] effectiveWindowNanos;
+    private final long[] lastNanoTimes;
+    private int size = 0;
+    private int evictionHand = 0;
+    // the number of spans weighted by their per-value sampling probabilities
+    private double totalEffectiveWindowWeight = 0;
+    private double totalEffectiveWindowNanos = 0;
+    private long totalLastNanoTime;
+
+    private Segment(int capacity, long initialNanoTime) {
+      this.capacity = capacity;
+      // keep the load factor at or below 1/2
+      int numberOfSlots = Integer.highestOneBit(Math.max(1, capacity) * 4 - 1);
+      this.slotMask = numberOfSlots - 1;
+      this.values = new Object[numberOfSlots];
+      this.hashes = new int[numberOfSlots];
+      this.effectiveWindowCounts = new double[numberOfSlots];
+      this.effectiveWindowNanos = new double[numberOfSlots];
+      this.lastNanoTimes = new long[numberOfSlots];
+      this.totalLastNanoTime = initialNanoTime;
+    }
+
+    private int getSlot(int hash) {
+      // the lower bits are already used for selecting the segment
+      return (hash >>> 4) & slotMask;
+    }
+
+    private int getSize() {
+      lock.lock();
+      try {
+        return size;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean contains(Object value, int hash) {
+      lock.lock();
+      try {
+        return values[findSlot(value, hash)] != null;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private double updateAndGetSamplingProbability(Object value, int hash, long currentNanoTime) {
+      lock.lock();
+      try {
+        int slot = findSlot(value, hash);
+        if (values[slot] == null) {
+          if (size == capacity) {
+            removeSlot(findEvictionCandidate(currentNanoTime));
+            slot = findSlot(value, hash);
+          }
+          values[slot] = value;
+          hashes[slot] = hash;
+          effectiveWindowCounts[slot] = 0;
+          effectiveWindowNanos[slot] = initialEffectiveWindowNanos;
+          lastNanoTimes[slot] = currentNanoTime;
+          size += 1;
+        }
+
+        long lastNanoTime = lastNanoTimes[slot];
+        if (currentNanoTime <= lastNanoTime) {
+          effectiveWindowCounts[slot] += 1;
+        } else {
+          long nanoTimeDelta = currentNanoTime - lastNanoTime;
+          double decayFactor = Math.exp(-nanoTimeDelta * inverseAdaptationTimeNanos);
+          effectiveWindowCounts[slot] = effectiveWindowCounts[slot] * decayFactor + 1;
+          effectiveWindowNanos[slot] = effectiveWindowNanos[slot] * decayFactor + nanoTimeDelta;
+          lastNanoTimes[slot] = currentNanoTime;
+        }
+        double samplingProbability =
+            Math.min(
+                1.,
+                (effectiveWindowNanos[slot] * targetSpansPerNanosecondLimit)
+                    / effectiveWindowCounts[slot]);
+
+        if (currentNanoTime <= totalLastNanoTime) {
+          totalEffectiveWindowWeight += samplingProbability;
+        } else {
+          long nanoTimeDelta = currentNanoTime - totalLastNanoTime;
+          double decayFactor = Math.exp(-nanoTimeDelta * inverseAdaptationTimeNanos);
+          totalEffectiveWindowWeight =
+              totalEffectiveWindowWeight * decayFactor + samplingProbability;
+          totalEffectiveWindowNanos = totalEffectiveWindowNanos * decayFactor + nanoTimeDelta;
+          totalLastNanoTime = currentNanoTime;
+        }
+        return samplingProbability;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // the weighted rate of the spans of this segment, decayed to the given time
+    private double getWeightedSpansPerNanosecond(long currentNanoTime) {
+      lock.lock();
+      try {
+        double weight = totalEffectiveWindowWeight;
+        double windowNanos = totalEffectiveWindowNanos;
+        if (currentNanoTime > totalLastNanoTime) {
+          long nanoTimeDelta = currentNanoTime - totalLastNanoTime;
+          double decayFactor = Math.exp(-nanoTimeDelta * inverseAdaptationTimeNanos);
+          weight *= decayFactor;
+          windowNanos = windowNanos * decayFactor + nanoTimeDelta;
+        }
+        return windowNanos > 0 ? weight / windowNanos : 0.;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // returns the slot of the given value or the empty slot where it would be inserted
+    private int findSlot(Object value, int hash) {
+      int slot = getSlot(hash);
+      while (true) {
+        Object slotValue = values[slot];
+        if (slotValue == null || (hashes[slot] == hash && slotValue.equals(value))) {
+          return slot;
+        }
+        slot = (slot + 1) & slotMask;
+      }
+    }
+
+    // moves the eviction hand over the next values and returns the one with the smallest score
+    private int findEvictionCandidate(long currentNanoTime) {
+      // the decayed span count is compared on a logarithmic scale to avoid computing exponentials
+      int candidate = -1;
+      double candidateScore = Double.POSITIVE_INFINITY;
+      int numberOfCandidates = Math.min(EVICTION_SAMPLE_SIZE, size);
+      int slot = evictionHand;
+      while (numberOfCandidates > 0) {
+        if (values[slot] != null) {
+          double score =
+              Math.log(effectiveWindowCounts[slot])
+                  - (currentNanoTime - lastNanoTimes[slot]) * inverseAdaptationTimeNanos;
+          if (candidate < 0 || score < candidateScore) {
+            candidate = slot;
+            candidateScore = score;
+          }
+          numberOfCandidates -= 1;
+        }
+        slot = (slot + 1) & slotMask;
+      }
+      evictionHand = slot;
+      return candidate;
+    }
+
+    // removes the value of the given slot, shifting subsequent values of the probe sequence back
+    private void removeSlot(int slot) {
+      int emptySlot = slot;
+      int currentSlot = slot;
+      while (true) {
+        currentSlot = (currentSlot + 1) & slotMask;
+        if (values[currentSlot] == null) {
+          break;
+        }
+        int idealSlot = getSlot(hashes[currentSlot]);
+        // the value can be moved if its ideal slot is not cyclically within (emptySlot,
+        // currentSlot]
+        if (((currentSlot - idealSlot) & slotMask) >= ((currentSlot - emptySlot) & slotMask)) {
+          values[emptySlot] = values[currentSlot];
+          hashes[emptySlot] = hashes[currentSlot];
+          effectiveWindowCounts[emptySlot] = effectiveWindowCounts[currentSlot];
+          effectiveWindowNanos[emptySlot] = effectiveWindowNanos[currentSlot];
+          lastNanoTimes[emptySlot] = lastNanoTimes[currentSlot];
+          emptySlot = currentSlot;
+        }
+      }
+      values[emptySlot] = null;
+      size -= 1;
+    }
+  }
+}
@@ -7,6 +7,7 @@ package io.opentelemetry.contrib.samplers;
 
 import static java.util.Objects.requireNonNull;
 
+import io.opentelemetry.api.common.Attributes;
 import javax.annotation.concurrent.Immutable;
 
 /**
@@ -37,13 +38,23 @@ final class ConsistentParentBasedSampler extends ConsistentSampler {
 
   @Override
   protected int getP(int parentP, boolean isRoot) {
+    return getP(parentP, isRoot, Attributes.empty());
+  }
+
+  @Override
+  int getP(int parentP, boolean isRoot, Attributes attributes) {
     if (isRoot) {
-      return rootSampler.getP(parentP, isRoot);
+      return rootSampler.getP(parentP, isRoot, attributes);
     } else {
       return parentP;
     }
   }
 
+  @Override
+  boolean hasSideEffects() {
+    return rootSampler.hasSideEffects();
+  }
+
   @Override
   public String getDescription() {
     return description;
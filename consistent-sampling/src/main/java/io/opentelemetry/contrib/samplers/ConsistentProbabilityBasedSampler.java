@@ -58,6 +58,11 @@ final class ConsistentProbabilityBasedSampler extends ConsistentSampler {
     }
   }
 
+  @Override
+  boolean hasSideEffects() {
+    return false;
+  }
+
   @Override
   public String getDescription() {
     return description;
@@ -0,0 +1,578 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A reservoir sampling buffer that collects a fixed maximum number of consistently sampled items,
+ * like spans.
+ *
+ * <p>Consistent sampling requires that items are sampled only if r-value >= p-value, where p-value
+ * describes which sampling rate from the discrete set of possible sampling rates is applied.
+ * Consistent sampling allows to choose the sampling rate (the p-value) individually for every item.
+ * Therefore, the number of sampled items can be reduced by increasing the p-value of items, such
+ * that items for which r-value < p-value get discarded. To reduce the number of sampled items one
+ * can therefore apply the following procedure until the desired number of items are left:
+ *
+ * <p>1) Randomly choose an item among the items with smallest p-values
+ *
+ * <p>2) Increment its p-value by 1
+ *
+ * <p>3) Discard the item, if r-value < p-value
+ *
+ * <p>4) continue with 1)
+ *
+ * <p>By always incrementing one of the smallest p-values, this approach tries to balance the
+ * sampling rates (p-values). Balanced sampling rates are better for estimation (compare <a
+ * href="https://arxiv.org/abs/0803.0473">VarOpt sampling</a>).
+ *
+ * <p>This sampling approach can be implemented in a streaming fashion. In order to ensure that
+ * items have fair chances regardless of processing order, a uniform random number (priority) is
+ * associated with its p-value. When choosing an item among all items with smallest p-value, we take
+ * that with the smallest priority. For that, a priority queue is needed.
+ *
+ * <p>In the following, an equivalent and more efficient sampling approach is described, that is
+ * based on a priority queue where the minimum is the item with the smallest r-value. In this way
+ * the {@code add}-operation will have a worst case time complexity of {@code O(log n)} where {@code
+ * n} denotes the reservoir size. We use the following notation:
+ *
+ * <p>Z := {@code reservoirSize}
+ *
+ * <p>L := {@code maxDiscardedRValue}
+ *
+ * <p>R := {@code numberOfDiscardedItemsWithMaxDiscardedRValue}
+ *
+ * <p>K := {@code numSampledItemsWithGreaterRValueAndSmallPValue}
+ *
+ * <p>X := {@code numberOfSampledItemsWithMaxDiscardedRValue}
+ *
+ * <p>The sampling approach described above can be equivalently performed by keeping Z items with
+ * largest r-values (in case of ties with highest priority) and adjusting the corresponding p-values
+ * in a finalization step. We know that the largest r-value among the dropped items is L and that we
+ * had to discard exactly R items with (r-value == L). This implies that their corresponding
+ * p-values were raised to (L + 1) which finally violated the sampling condition (r-value >=
+ * p-value). We only raise the p-value of some item, if it belongs to the set of items with minimum
+ * p-value. Therefore, the minimum p-value must be given by L. To determine the p-values of all
+ * finally kept items, we consider 3 cases:
+ *
+ * <p>1) For all X kept items with r-value == L the corresponding p-value must also be L. Otherwise,
+ * the item would have been discarded. There are R items with (r-value == L) which have been
+ * discarded. Therefore, among the original (X + R) items with (r-value == L) we have kept X items.
+ *
+ * <p>2) For items with (p-value > L) the p-value will not be changed as they do not belong to the
+ * set of items with minimal p-values.
+ *
+ * <p>3) For the remaining K items for which (r-value > L) and (p-value <= L) the p-value needs to
+ * be adjusted. The new p-value will be either L or (L + 1). When starting to sample the first items
+ * with (p-value == L), we have N = R + K + X items which all have (r-value >= L) and (p-value ==
+ * L). This set can be divided into two sets of items dependent on whether (r-value == L) or
+ * (r-value > L). We know that there were (R + X) items with (r-value == L) and K items with
+ * (r-value > L). When randomly selecting an item to increase its p-value, the item will only be
+ * discarded if the item belongs to the first set (r-value == L). We will call such an event
+ * "failure". If the selected item belongs to the second set (r-value > L), its p-value will be
+ * increased by 1 to (L + 1) but the item will not be dropped. The sampling procedure will be
+ * stopped after R "failures". The number of "successes" follows a <a
+ * href="https://en.wikipedia.org/wiki/Negative_hypergeometric_distribution">negative hypergeometric
+ * distribution</a>. Therefore, we need to sample a random value from a negative hypergeometric
+ * distribution with N = R + X + K elements of which K are "successes" and after drawing R
+ * "failures", in order to determine how many items out of K will get a p-value equal to (L + 1).
+ * The expected number is given by R * K / (N - K + 1) = R * K / (R + X + 1). Instead of drawing the
+ * number from the negative hypergeometric distribution we could also set it to the stochastically
+ * rounded expected value. This makes this reservoir sampling approach not fully equivalent to the
+ * approach described initially, but leads to a smaller variance when estimating.
+ *
+ * <p>The priority queue is implemented as a binary heap of primitive keys, in which the r-value and
+ * the priority of an item are packed into a single {@code long}. Hence, items are compared without
+ * dereferencing them and an item that is not kept does not cause any allocation. Only kept items
+ * are referenced, an item is released as soon as it is discarded. The p-values of the kept items
+ * are not needed before the finalization step and are only requested then.
+ *
+ * <p>Reservoirs can be merged without loss of information, if the reservoir merged into has not a
+ * larger reservoir size. The Z items with largest r-values (and priorities) of the union are the Z
+ * items with largest r-values among the items kept by either reservoir. All other items have been
+ * discarded by one of the reservoirs or are discarded while merging. Hence, L and R of the merged
+ * reservoir can be derived from the values of both reservoirs and the items discarded during
+ * merging. The merged reservoir is therefore identical to a reservoir to which all items have been
+ * added directly. This allows hierarchical aggregation: reservoirs collected by many processes can
+ * be encoded using {@link #writeTo(DataOutput, ItemWriter)}, sent to an aggregator, decoded using
+ * {@link #readFrom(DataInput, ItemReader)}, and merged into a single reservoir. Only the merged
+ * reservoir is finalized using {@link #forEachSample(ToIntFunction, SampleConsumer)}, which yields
+ * the same unbiased adjusted counts (2^p-value) as if all items had been collected by a single
+ * reservoir.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @param <T> the type of the items
+ */
+public final class ConsistentReservoir<T> {
+
+  /**
+   * Writes an item to a {@link DataOutput}.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  public interface ItemWriter<T> {
+    void write(T item, DataOutput out) throws IOException;
+  }
+
+  /**
+   * Reads an item from a {@link DataInput}.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  public interface ItemReader<T> {
+    T read(DataInput in) throws IOException;
+  }
+
+  /**
+   * Consumes a sampled item together with its final p-value.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  public interface SampleConsumer<T> {
+    void accept(T item, int pValue);
+  }
+
+  private static final int ENCODING_VERSION = 1;
+
+  // The r-value and the priority of an item are packed into a single non-negative long, such that
+  // comparing keys is equivalent to comparing r-values first and priorities second. r-values
+  // require 6 bits, the remaining 57 bits are used for the (random) priority.
+  private static final int PRIORITY_BITS = 57;
+
+  // the arrays are grown on demand, such that many small reservoirs, as used for stratified
+  // sampling, do not allocate memory for items they never receive
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final int reservoirSize;
+  private int maxDiscardedRValue = 0;
+  private long numberOfDiscardedItemsWithMaxDiscardedRValue = 0;
+  private long numberOfAddedItems = 0;
+  private final RandomGenerator randomGenerator;
+
+  // binary min-heap of the keys of the kept items, the kept items are stored at the same indices
+  private long[] keys;
+  private Object[] items;
+  private int size = 0;
+
+  private ConsistentReservoir(int reservoirSize, RandomGenerator randomGenerator) {
+    if (reservoirSize < 1) {
+      throw new IllegalArgumentException("reservoir size must be positive");
+    }
+    this.reservoirSize = reservoirSize;
+    int initialCapacity = Math.min(reservoirSize, INITIAL_CAPACITY);
+    this.keys = new long[initialCapacity];
+    this.items = new Object[initialCapacity];
+    this.randomGenerator = requireNonNull(randomGenerator);
+  }
+
+  /**
+   * Returns a new empty reservoir with the given reservoir size.
+   *
+   * @param reservoirSize the maximum number of kept items
+   * @param <T> the type of the items
+   * @return a new reservoir
+   */
+  public static <T> ConsistentReservoir<T> create(int reservoirSize) {
+    return create(reservoirSize, RandomGenerator.getDefault());
+  }
+
+  static <T> ConsistentReservoir<T> create(int reservoirSize, RandomGenerator randomGenerator) {
+    return new ConsistentReservoir<>(reservoirSize, randomGenerator);
+  }
+
+  static long createKey(int rval, long randomLong) {
+    return ((long) rval << PRIORITY_BITS) | (randomLong >>> (Long.SIZE - PRIORITY_BITS));
+  }
+
+  static int getRFromKey(long key) {
+    return (int) (key >>> PRIORITY_BITS);
+  }
+
+  /**
+   * Adds an item with the given r-value to the reservoir.
+   *
+   * <p>If the r-value is invalid, a random r-value is generated, as a consistent sampler would do
+   * for a new trace.
+   *
+   * @param item the item
+   * @param rValue the r-value of the item
+   */
+  public void add(T item, int rValue) {
+    requireNonNull(item);
+    long priority = randomGenerator.nextLong();
+    if (!OtelTraceState.isValidR(rValue)) {
+      rValue =
+          Math.min(randomGenerator.numberOfLeadingZerosOfRandomLong(), OtelTraceState.getMaxR());
+    }
+    addWithKey(createKey(rValue, priority), item);
+  }
+
+  /**
+   * Adds an item to the reservoir.
+   *
+   * <p>If the reservoir is full, the item is only kept, if its key is greater than the smallest key
+   * in the reservoir. Either the given item or the item with the smallest key is discarded and not
+   * referenced by the reservoir anymore.
+   *
+   * @param key the key of the item
+   * @param item the item
+   */
+  void addWithKey(long key, T item) {
+
+    numberOfAddedItems += 1;
+
+    if (size < reservoirSize) {
+      if (size == keys.length) {
+        grow();
+      }
+      siftUp(size, key, item);
+      size += 1;
+      return;
+    }
+
+    long discardedKey = key;
+    long minKey = keys[0];
+    if (key > minKey) {
+      siftDown(0, key, item);
+      discardedKey = minKey;
+    }
+    int discardedRValue = getRFromKey(discardedKey);
+    if (discardedRValue > maxDiscardedRValue) {
+      maxDiscardedRValue = discardedRValue;
+      numberOfDiscardedItemsWithMaxDiscardedRValue = 1;
+    } else if (discardedRValue == maxDiscardedRValue) {
+      numberOfDiscardedItemsWithMaxDiscardedRValue += 1;
+    }
+  }
+
+  /**
+   * Returns {@code true} if an item with the given key would be kept, if it was added now. This
+   * allows to avoid preparing items that would be discarded right away.
+   *
+   * @param key the key of the item
+   * @return {@code true} if the item would be kept
+   */
+  boolean wouldKeep(long key) {
+    return size < reservoirSize || key > keys[0];
+  }
+
+  private void grow() {
+    int capacity = (int) Math.min((long) keys.length * 2, reservoirSize);
+    keys = Arrays.copyOf(keys, capacity);
+    items = Arrays.copyOf(items, capacity);
+  }
+
+  private void siftUp(int index, long key, Object item) {
+    while (index > 0) {
+      int parentIndex = (index - 1) >>> 1;
+      long parentKey = keys[parentIndex];
+      if (key >= parentKey) {
+        break;
+      }
+      keys[index] = parentKey;
+      items[index] = items[parentIndex];
+      index = parentIndex;
+    }
+    keys[index] = key;
+    items[index] = item;
+  }
+
+  private void siftDown(int index, long key, Object item) {
+    int half = size >>> 1;
+    while (index < half) {
+      int childIndex = 2 * index + 1;
+      long childKey = keys[childIndex];
+      int rightChildIndex = childIndex + 1;
+      if (rightChildIndex < size && keys[rightChildIndex] < childKey) {
+        childIndex = rightChildIndex;
+        childKey = keys[rightChildIndex];
+      }
+      if (key <= childKey) {
+        break;
+      }
+      keys[index] = childKey;
+      items[index] = items[childIndex];
+      index = childIndex;
+    }
+    keys[index] = key;
+    items[index] = item;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T getItem(int index) {
+    return (T) items[index];
+  }
+
+  /**
+   * Merges the given reservoirs and returns the merged reservoir. If the reservoir sizes differ,
+   * the reservoir with larger size is merged into the one with smaller size.
+   *
+   * <p>The given reservoirs must not be used afterwards.
+   *
+   * @param reservoir1 a reservoir
+   * @param reservoir2 another reservoir
+   * @param <T> the type of the items
+   * @return the merged reservoir
+   */
+  static <T> ConsistentReservoir<T> mergeIntoSmaller(
+      ConsistentReservoir<T> reservoir1, ConsistentReservoir<T> reservoir2) {
+    if (reservoir1.reservoirSize <= reservoir2.reservoirSize) {
+      reservoir1.merge(reservoir2);
+      return reservoir1;
+    } else {
+      reservoir2.merge(reservoir1);
+      return reservoir2;
+    }
+  }
+
+  /**
+   * Merges the given reservoir into this reservoir. Afterwards, this reservoir is the same as if
+   * all items added to either reservoir had been added to this reservoir. The given reservoir is
+   * not modified.
+   *
+   * @param other the reservoir to merge into this reservoir
+   * @throws IllegalArgumentException if the given reservoir is this reservoir or has a smaller
+   *     reservoir size, as it might have discarded items that this reservoir would keep
+   */
+  public void merge(ConsistentReservoir<? extends T> other) {
+    if (other == this) {
+      throw new IllegalArgumentException("a reservoir cannot be merged into itself");
+    }
+    if (other.reservoirSize < reservoirSize) {
+      throw new IllegalArgumentException(
+          "the reservoir size of the other reservoir must not be smaller");
+    }
+    long mergedNumberOfAddedItems = numberOfAddedItems + other.numberOfAddedItems;
+    for (int i = 0; i < other.size; ++i) {
+      addWithKey(other.keys[i], other.getItem(i));
+    }
+    numberOfAddedItems = mergedNumberOfAddedItems;
+    if (other.maxDiscardedRValue > maxDiscardedRValue) {
+      maxDiscardedRValue = other.maxDiscardedRValue;
+      numberOfDiscardedItemsWithMaxDiscardedRValue =
+          other.numberOfDiscardedItemsWithMaxDiscardedRValue;
+    } else if (other.maxDiscardedRValue == maxDiscardedRValue) {
+      numberOfDiscardedItemsWithMaxDiscardedRValue +=
+          other.numberOfDiscardedItemsWithMaxDiscardedRValue;
+    }
+  }
+
+  /**
+   * Returns {@code true} if items have been discarded. Otherwise, all added items are kept with
+   * unchanged p-values.
+   *
+   * @return {@code true} if items have been discarded
+   */
+  public boolean hasDiscardedItems() {
+    return numberOfDiscardedItemsWithMaxDiscardedRValue != 0;
+  }
+
+  /**
+   * Passes all kept items to the given consumer in no particular order.
+   *
+   * @param consumer the consumer of the items
+   */
+  public void forEachItem(Consumer<? super T> consumer) {
+    for (int i = 0; i < size; ++i) {
+      consumer.accept(getItem(i));
+    }
+  }
+
+  /**
+   * Passes all kept items to the given consumer in no particular order together with their final
+   * p-values, which reflect the additional sampling by this reservoir. The adjusted count of an
+   * item is given by 2^p-value.
+   *
+   * @param pValueFunction returns the p-value of an item at the time it was added, invalid p-values
+   *     must be mapped to 0
+   * @param consumer the consumer of the items and their final p-values
+   */
+  public void forEachSample(
+      ToIntFunction<? super T> pValueFunction, SampleConsumer<? super T> consumer) {
+
+    if (!hasDiscardedItems()) {
+      for (int i = 0; i < size; ++i) {
+        T item = getItem(i);
+        consumer.accept(item, pValueFunction.applyAsInt(item));
+      }
+      return;
+    }
+
+    int[] pValues = new int[size];
+    int numberOfSampledItemsWithMaxDiscardedRValue = 0;
+    int numSampledItemsWithGreaterRValueAndSmallPValue = 0;
+    for (int i = 0; i < size; ++i) {
+      pValues[i] = pValueFunction.applyAsInt(getItem(i));
+      if (getRFromKey(keys[i]) == maxDiscardedRValue) {
+        numberOfSampledItemsWithMaxDiscardedRValue += 1;
+      } else if (pValues[i] <= maxDiscardedRValue) {
+        numSampledItemsWithGreaterRValueAndSmallPValue += 1;
+      }
+    }
+
+    double expectedNumPValueIncrements =
+        numSampledItemsWithGreaterRValueAndSmallPValue
+            * (numberOfDiscardedItemsWithMaxDiscardedRValue
+                / (double)
+                    (numberOfDiscardedItemsWithMaxDiscardedRValue
+                        + numberOfSampledItemsWithMaxDiscardedRValue
+                        + 1L));
+    int roundedExpectedNumPValueIncrements =
+        Math.toIntExact(randomGenerator.roundStochastically(expectedNumPValueIncrements));
+
+    BitSet incrementIndicators =
+        randomGenerator.generateRandomBitSet(
+            numSampledItemsWithGreaterRValueAndSmallPValue, roundedExpectedNumPValueIncrements);
+
+    int incrementIndicatorIndex = 0;
+    for (int i = 0; i < size; ++i) {
+      int pval = pValues[i];
+      if (pval <= maxDiscardedRValue) {
+        pval = maxDiscardedRValue;
+        if (getRFromKey(keys[i]) > maxDiscardedRValue) {
+          if (incrementIndicators.get(incrementIndicatorIndex)) {
+            pval = maxDiscardedRValue + 1;
+          }
+          incrementIndicatorIndex += 1;
+        }
+      }
+      consumer.accept(getItem(i), pval);
+    }
+  }
+
+  /** Returns {@code true} if no items are kept. */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the number of kept items. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the maximum number of kept items. */
+  public int getReservoirSize() {
+    return reservoirSize;
+  }
+
+  /** Returns the number of items added to this reservoir, including merged reservoirs. */
+  public long getNumberOfAddedItems() {
+    return numberOfAddedItems;
+  }
+
+  /**
+   * Writes this reservoir to the given output. Apart from the items, which are written by the given
+   * item writer, the encoding requires a few bytes for the reservoir state and 8 bytes per kept
+   * item.
+   *
+   * @param out the output
+   * @param itemWriter writes a single item
+   * @throws IOException if an I/O error occurs
+   */
+  public void writeTo(DataOutput out, ItemWriter<? super T> itemWriter) throws IOException {
+    out.writeByte(ENCODING_VERSION);
+    writeVarLong(out, reservoirSize);
+    out.writeByte(maxDiscardedRValue);
+    writeVarLong(out, numberOfDiscardedItemsWithMaxDiscardedRValue);
+    writeVarLong(out, numberOfAddedItems);
+    writeVarLong(out, size);
+    // the heap order is retained, which allows reading without sorting
+    for (int i = 0; i < size; ++i) {
+      out.writeLong(keys[i]);
+      itemWriter.write(getItem(i), out);
+    }
+  }
+
+  /**
+   * Reads a reservoir written by {@link #writeTo(DataOutput, ItemWriter)} from the given input.
+   *
+   * @param in the input
+   * @param itemReader reads a single item
+   * @param <T> the type of the items
+   * @return the reservoir
+   * @throws IOException if an I/O error occurs or if the input is not a valid encoding
+   */
+  public static <T> ConsistentReservoir<T> readFrom(
+      DataInput in, ItemReader<? extends T> itemReader) throws IOException {
+    return readFrom(in, itemReader, RandomGenerator.getDefault());
+  }
+
+  static <T> ConsistentReservoir<T> readFrom(
+      DataInput in, ItemReader<? extends T> itemReader, RandomGenerator randomGenerator)
+      throws IOException {
+    int version = in.readUnsignedByte();
+    if (version != ENCODING_VERSION) {
+      throw new IOException("unsupported encoding version " + version);
+    }
+    long reservoirSize = readVarLong(in);
+    int maxDiscardedRValue = in.readUnsignedByte();
+    long numberOfDiscardedItemsWithMaxDiscardedRValue = readVarLong(in);
+    long numberOfAddedItems = readVarLong(in);
+    long size = readVarLong(in);
+    if (reservoirSize < 1
+        || reservoirSize > Integer.MAX_VALUE
+        || maxDiscardedRValue > OtelTraceState.getMaxR()
+        || numberOfDiscardedItemsWithMaxDiscardedRValue < 0
+        || size > reservoirSize
+        || size + numberOfDiscardedItemsWithMaxDiscardedRValue > numberOfAddedItems) {
+      throw new IOException("invalid reservoir encoding");
+    }
+    ConsistentReservoir<T> reservoir = create((int) reservoirSize, randomGenerator);
+    reservoir.maxDiscardedRValue = maxDiscardedRValue;
+    reservoir.numberOfDiscardedItemsWithMaxDiscardedRValue =
+        numberOfDiscardedItemsWithMaxDiscardedRValue;
+    reservoir.numberOfAddedItems = numberOfAddedItems;
+    for (int i = 0; i < size; ++i) {
+      long key = in.readLong();
+      if (key < 0 || getRFromKey(key) > OtelTraceState.getMaxR()) {
+        throw new IOException("invalid reservoir encoding");
+      }
+      if (i == reservoir.keys.length) {
+        reservoir.grow();
+      }
+      reservoir.keys[i] = key;
+      reservoir.items[i] = requireNonNull(itemReader.read(in));
+      if (i > 0 && key < reservoir.keys[(i - 1) >>> 1]) {
+        throw new IOException("invalid reservoir encoding");
+      }
+      reservoir.size = i + 1;
+    }
+    return reservoir;
+  }
+
+  private static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInput in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("invalid reservoir encoding");
+  }
+}
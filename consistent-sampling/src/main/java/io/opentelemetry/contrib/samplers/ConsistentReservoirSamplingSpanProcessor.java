@@ -8,11 +8,18 @@ package io.opentelemetry.contrib.samplers;
 import static io.opentelemetry.api.internal.Utils.checkArgument;
 import static java.util.Objects.requireNonNull;
 
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.internal.OtelEncodingUtils;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableLongGauge;
 import io.opentelemetry.api.trace.SpanContext;
 import io.opentelemetry.api.trace.TraceState;
 import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.common.CompletableResultCode;
-import io.opentelemetry.sdk.internal.DaemonThreadFactory;
 import io.opentelemetry.sdk.trace.ReadWriteSpan;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SpanProcessor;
@@ -20,283 +27,226 @@ import io.opentelemetry.sdk.trace.data.DelegatingSpanData;
 import io.opentelemetry.sdk.trace.data.SpanData;
 import io.opentelemetry.sdk.trace.export.SpanExporter;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /**
  * A {@link SpanProcessor} which periodically exports a fixed maximum number of spans. If the number
  * of spans in a period exceeds the fixed reservoir (buffer) size, spans will be consistently
  * (compare {@link ConsistentSampler}) sampled.
+ *
+ * <p>In stratified mode, enabled by {@link
+ * ConsistentReservoirSamplingSpanProcessorBuilder#setStratumKeyFunction(Function)}, spans are
+ * sampled separately for every stratum and the reservoir size is shared by all strata.
+ *
+ * <p>In trace-complete mode, enabled by {@link
+ * ConsistentReservoirSamplingSpanProcessorBuilder#setTraceCompleteSampling(boolean)}, the spans of
+ * a local trace are collected until its local root span has ended and are then kept or discarded
+ * together. The reservoir size still bounds the number of exported spans per period.
+ *
+ * <p>The processor does not start threads of its own. Exports, flushes and exporter timeouts are
+ * run as tasks of a scheduler shared by all processors, or of the executor set by {@link
+ * ConsistentReservoirSamplingSpanProcessorBuilder#setExecutorService(ScheduledExecutorService)}.
  */
 public final class ConsistentReservoirSamplingSpanProcessor implements SpanProcessor {
 
-  private static final String WORKER_THREAD_NAME =
-      ConsistentReservoirSamplingSpanProcessor.class.getSimpleName() + "_WorkerThread";
-
   private final Worker worker;
+  private final ObservableLongGauge reservoirSizeGauge;
+  private final ObservableLongGauge exportPeriodGauge;
   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
 
+  private static final String INSTRUMENTATION_SCOPE_NAME = "io.opentelemetry.contrib.samplers";
+  private static final AttributeKey<String> SPAN_PROCESSOR_TYPE_LABEL =
+      AttributeKey.stringKey("spanProcessorType");
+  private static final Attributes SPAN_PROCESSOR_TYPE_ATTRIBUTES =
+      Attributes.of(
+          SPAN_PROCESSOR_TYPE_LABEL,
+          ConsistentReservoirSamplingSpanProcessor.class.getSimpleName());
+
   // visible for testing
   static final long DEFAULT_EXPORT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
 
-  private static final class ReadableSpanWithPriority {
-
-    private final ReadableSpan readableSpan;
-    private int pval;
-    private final int rval;
-    private final long priority;
-
-    public static ReadableSpanWithPriority create(
-        ReadableSpan readableSpan, RandomGenerator randomGenerator) {
-      String otelTraceStateString =
-          readableSpan.getSpanContext().getTraceState().get(OtelTraceState.TRACE_STATE_KEY);
-      OtelTraceState otelTraceState = OtelTraceState.parse(otelTraceStateString);
-      int pval;
-      int rval;
-      long priority = randomGenerator.nextLong();
-      if (otelTraceState.hasValidR()) {
-        rval = otelTraceState.getR();
-      } else {
-        rval =
-            Math.min(randomGenerator.numberOfLeadingZerosOfRandomLong(), OtelTraceState.getMaxR());
-      }
-
-      if (otelTraceState.hasValidP()) {
-        pval = otelTraceState.getP();
-      } else {
-        // if the p-value is not defined assume it is zero,
-        // which corresponds to an adjusted count of 1
-        pval = 0;
-      }
-
-      return new ReadableSpanWithPriority(readableSpan, pval, rval, priority);
+  /**
+   * Creates the key of a span from its r-value and a random priority.
+   *
+   * <p>Only the r-value is needed to decide whether a span is kept by a reservoir. If the trace
+   * state does not contain a valid r-value, it is randomly generated.
+   *
+   * @param packedPR the p- and r-value of the span as returned by {@link
+   *     #parsePacked(ReadableSpan)}
+   * @param randomGenerator a random generator
+   * @return the key
+   */
+  private static long createKey(int packedPR, RandomGenerator randomGenerator) {
+    long priority = randomGenerator.nextLong();
+    int rval = OtelTraceState.unpackR(packedPR);
+    if (!OtelTraceState.isValidR(rval)) {
+      rval = Math.min(randomGenerator.numberOfLeadingZerosOfRandomLong(), OtelTraceState.getMaxR());
     }
+    return ConsistentReservoir.createKey(rval, priority);
+  }
 
-    private ReadableSpanWithPriority(ReadableSpan readableSpan, int pval, int rval, long priority) {
-      this.readableSpan = readableSpan;
-      this.pval = pval;
-      this.rval = rval;
-      this.priority = priority;
+  /**
+   * Creates the key of a local trace from its trace id and r-value.
+   *
+   * <p>In contrast to {@link #createKey(int, RandomGenerator)}, the priority is derived from the
+   * trace id, which is random for traces started by the SDK. Hence, all parts of a local trace get
+   * the same key, even if they are handed over separately, for example because some spans ended
+   * after the local root span. If the trace state does not contain a valid r-value, it is derived
+   * from the trace id as well.
+   *
+   * @param traceId the trace id
+   * @param packedPR the p- and r-value of the span as returned by {@link
+   *     #parsePacked(ReadableSpan)}
+   * @return the key
+   */
+  private static long createTraceKey(String traceId, int packedPR) {
+    long priority =
+        mix64(
+            OtelEncodingUtils.longFromBase16String(traceId, 0)
+                ^ mix64(OtelEncodingUtils.longFromBase16String(traceId, 16)));
+    int rval = OtelTraceState.unpackR(packedPR);
+    if (!OtelTraceState.isValidR(rval)) {
+      rval = Math.min(Long.numberOfLeadingZeros(mix64(priority)), OtelTraceState.getMaxR());
     }
+    return ConsistentReservoir.createKey(rval, priority);
+  }
 
-    private ReadableSpan getReadableSpan() {
-      return readableSpan;
-    }
+  // the finalizer of MurmurHash3, a bijection that spreads every input bit over the output bits
+  private static long mix64(long value) {
+    value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+    value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return value ^ (value >>> 33);
+  }
 
-    private int getP() {
-      return pval;
-    }
+  private static boolean isLocalRoot(ReadableSpan span) {
+    SpanContext parentSpanContext = span.getParentSpanContext();
+    return !parentSpanContext.isValid() || parentSpanContext.isRemote();
+  }
 
-    private void setP(int pval) {
-      this.pval = pval;
-    }
+  /**
+   * Returns the p-value of a kept span. If the p-value is not defined it is assumed to be zero,
+   * which corresponds to an adjusted count of 1.
+   *
+   * @param span the kept span, either a {@link ReadableSpan} or a {@link CompactSpan}
+   * @return the p-value
+   */
+  private static int getP(Object span) {
+    int packedPR =
+        span instanceof CompactSpan
+            ? ((CompactSpan) span).getPackedPR()
+            : parsePacked((ReadableSpan) span);
+    int pval = OtelTraceState.unpackP(packedPR);
+    return OtelTraceState.isValidP(pval) ? pval : 0;
+  }
 
-    private int getR() {
-      return rval;
-    }
+  private static SpanData toSpanData(Object span) {
+    return span instanceof CompactSpan
+        ? ((CompactSpan) span).toSpanData()
+        : ((ReadableSpan) span).toSpanData();
+  }
 
-    private static int compareRthenPriority(
-        ReadableSpanWithPriority s1, ReadableSpanWithPriority s2) {
-      int compareR = Integer.compare(s1.rval, s2.rval);
-      if (compareR != 0) {
-        return compareR;
-      }
-      return Long.compare(s1.priority, s2.priority);
+  /**
+   * Returns the span data of a kept span with the trace state updated to the given final p-value.
+   *
+   * @param span the kept span, either a {@link ReadableSpan} or a {@link CompactSpan}
+   * @param pval the final p-value
+   * @return the span data
+   */
+  private static SpanData toSpanData(Object span, int pval) {
+    SpanData spanData = toSpanData(span);
+    SpanContext spanContext = spanData.getSpanContext();
+    TraceState traceState = spanContext.getTraceState();
+    String otelTraceStateString = traceState.get(OtelTraceState.TRACE_STATE_KEY);
+    OtelTraceState otelTraceState = OtelTraceState.parse(otelTraceStateString);
+    if ((!otelTraceState.hasValidR() && pval > 0)
+        || (otelTraceState.hasValidR() && pval != otelTraceState.getP())) {
+      otelTraceState.setP(pval);
+      spanData = updateSpanDataWithOtelTraceState(spanData, otelTraceState);
     }
+    return spanData;
   }
 
   /**
-   * A reservoir sampling buffer that collects a fixed number of spans.
-   *
-   * <p>Consistent sampling requires that spans are sampled only if r-value >= p-value, where
-   * p-value describes which sampling rate from the discrete set of possible sampling rates is
-   * applied. Consistent sampling allows to choose the sampling rate (the p-value) individually for
-   * every span. Therefore, the number of sampled spans can be reduced by increasing the p-value of
-   * spans, such that spans for which r-value < p-value get discarded. To reduce the number of
-   * sampled spans one can therefore apply the following procedure until the desired number of spans
-   * are left:
-   *
-   * <p>1) Randomly choose a span among the spans with smallest p-values
-   *
-   * <p>2) Increment its p-value by 1
-   *
-   * <p>3) Discard the span, if r-value < p-value
-   *
-   * <p>4) continue with 1)
+   * Returns the p- and r-value of a span packed as by {@link OtelTraceState#pack(int, int)}. They
+   * are extracted without allocating, if the trace state does not contain other key-value pairs
+   * than p and r.
    *
-   * <p>By always incrementing one of the smallest p-values, this approach tries to balance the
-   * sampling rates (p-values). Balanced sampling rates are better for estimation (compare <a
-   * href="https://arxiv.org/abs/0803.0473">VarOpt sampling</a>).
-   *
-   * <p>This sampling approach can be implemented in a streaming fashion. In order to ensure that
-   * spans have fair chances regardless of processing order, a uniform random number (priority) is
-   * associated with its p-value. When choosing a span among all spans with smallest p-value, we
-   * take that with the smallest priority. For that, a priority queue is needed.
-   *
-   * <p>In the following, an equivalent and more efficient sampling approach is described, that is
-   * based on a priority queue where the minimum is the span with the smallest r-value. In this way
-   * the {@code add}-operation will have a worst case time complexity of {@code O(log n)} where
-   * {@code n} denotes the reservoir size. We use the following notation:
-   *
-   * <p>Z := {@code reservoirSize}
-   *
-   * <p>L := {@code maxDiscardedRValue}
-   *
-   * <p>R := {@code numberOfDiscardedSpansWithMaxDiscardedRValue}
-   *
-   * <p>K := {@code numSampledSpansWithGreaterRValueAndSmallPValue}
-   *
-   * <p>X := {@code numberOfSampledSpansWithMaxDiscardedRValue}
-   *
-   * <p>The sampling approach described above can be equivalently performed by keeping Z spans with
-   * largest r-values (in case of ties with highest priority) and adjusting the corresponding
-   * p-values in a finalization step. We know that the largest r-value among the dropped spans is L
-   * and that we had to discard exactly R spans with (r-value == L). This implies that their
-   * corresponding p-values were raised to (L + 1) which finally violated the sampling condition
-   * (r-value >= p-value). We only raise the p-value of some span, if it belongs to the set of spans
-   * with minimum p-value. Therefore, the minimum p-value must be given by L. To determine the
-   * p-values of all finally kept spans, we consider 3 cases:
-   *
-   * <p>1) For all X kept spans with r-value == L the corresponding p-value must also be L.
-   * Otherwise, the span would have been discarded. There are R spans with (r-value == L) which have
-   * been discarded. Therefore, among the original (X + R) spans with (r-value == L) we have kept X
-   * spans.
-   *
-   * <p>2) For spans with (p-value > L) the p-value will not be changed as they do not belong to the
-   * set of spans with minimal p-values.
-   *
-   * <p>3) For the remaining K spans for which (r-value > L) and (p-value <= L) the p-value needs to
-   * be adjusted. The new p-value will be either L or (L + 1). When starting to sample the first
-   * spans with (p-value == L), we have N = R + K + X spans which all have (r-value >= L) and
-   * (p-value == L). This set can be divided into two sets of spans dependent on whether (r-value ==
-   * L) or (r-value > L). We know that there were (R + X) spans with (r-value == L) and K spans with
-   * (r-value > L). When randomly selecting a span to increase its p-value, the span will only be
-   * discarded if the span belongs to the first set (r-value == L). We will call such an event
-   * "failure". If the selected span belongs to the second set (r-value > L), its p-value will be
-   * increased by 1 to (L + 1) but the span will not be dropped. The sampling procedure will be
-   * stopped after R "failures". The number of "successes" follows a <a
-   * href="https://en.wikipedia.org/wiki/Negative_hypergeometric_distribution">negative
-   * hypergeometric distribution</a>. Therefore, we need to sample a random value from a negative
-   * hypergeometric distribution with N = R + X + K elements of which K are "successes" and after
-   * drawing R "failures", in order to determine how many spans out of K will get a p-value equal to
-   * (L + 1). The expected number is given by R * K / (N - K + 1) = R * K / (R + X + 1). Instead of
-   * drawing the number from the negative hypergeometric distribution we could also set it to the
-   * stochastically rounded expected value. This makes this reservoir sampling approach not fully
-   * equivalent to the approach described initially, but leads to a smaller variance when
-   * estimating.
+   * @param readableSpan the span
+   * @return the packed p- and r-value
    */
-  private static final class Reservoir {
-    private final int reservoirSize;
-    private int maxDiscardedRValue = 0;
-    private long numberOfDiscardedSpansWithMaxDiscardedRValue = 0;
-    private final PriorityQueue<ReadableSpanWithPriority> queue;
-    private final RandomGenerator randomGenerator;
-
-    public Reservoir(int reservoirSize, RandomGenerator randomGenerator) {
-      if (reservoirSize < 1) {
-        throw new IllegalArgumentException();
-      }
-      this.reservoirSize = reservoirSize;
-      this.queue =
-          new PriorityQueue<>(reservoirSize, ReadableSpanWithPriority::compareRthenPriority);
-      this.randomGenerator = randomGenerator;
+  private static int parsePacked(ReadableSpan readableSpan) {
+    String otelTraceStateString =
+        readableSpan.getSpanContext().getTraceState().get(OtelTraceState.TRACE_STATE_KEY);
+    int packed = OtelTraceState.parsePacked(otelTraceStateString);
+    if (packed == OtelTraceState.getNotPackable()) {
+      OtelTraceState otelTraceState = OtelTraceState.parse(otelTraceStateString);
+      packed = OtelTraceState.pack(otelTraceState.getP(), otelTraceState.getR());
     }
+    return packed;
+  }
 
-    public void add(ReadableSpanWithPriority readableSpanWithPriority) {
-
-      if (queue.size() < reservoirSize) {
-        queue.add(readableSpanWithPriority);
-        return;
-      }
-
-      ReadableSpanWithPriority head = queue.peek();
-      if (ReadableSpanWithPriority.compareRthenPriority(readableSpanWithPriority, head) > 0) {
-        queue.remove();
-        queue.add(readableSpanWithPriority);
-        readableSpanWithPriority = head;
-      }
-      if (readableSpanWithPriority.getR() > maxDiscardedRValue) {
-        maxDiscardedRValue = readableSpanWithPriority.getR();
-        numberOfDiscardedSpansWithMaxDiscardedRValue = 1;
-      } else if (readableSpanWithPriority.getR() == maxDiscardedRValue) {
-        numberOfDiscardedSpansWithMaxDiscardedRValue += 1;
-      }
+  /**
+   * Finalizes the reservoirs of all strata and returns the kept spans.
+   *
+   * @param reservoir the stratified reservoir
+   * @return the kept spans
+   */
+  private static List<SpanData> getResult(ConsistentStratifiedReservoir<Object> reservoir) {
+    List<SpanData> result = new ArrayList<>(reservoir.size());
+    for (ConsistentReservoir<Object> stratum : reservoir.getStrataWithinBudget()) {
+      addResult(stratum, result);
     }
+    return result;
+  }
 
-    public List<SpanData> getResult() {
-
-      if (numberOfDiscardedSpansWithMaxDiscardedRValue == 0) {
-        return queue.stream().map(x -> x.readableSpan.toSpanData()).collect(Collectors.toList());
-      }
-
-      List<ReadableSpanWithPriority> readableSpansWithPriority = new ArrayList<>(queue.size());
-      int numberOfSampledSpansWithMaxDiscardedRValue = 0;
-      int numSampledSpansWithGreaterRValueAndSmallPValue = 0;
-      for (ReadableSpanWithPriority readableSpanWithPriority : queue) {
-        if (readableSpanWithPriority.getR() == maxDiscardedRValue) {
-          numberOfSampledSpansWithMaxDiscardedRValue += 1;
-        } else if (readableSpanWithPriority.getP() <= maxDiscardedRValue) {
-          numSampledSpansWithGreaterRValueAndSmallPValue += 1;
-        }
-        readableSpansWithPriority.add(readableSpanWithPriority);
-      }
-
-      double expectedNumPValueIncrements =
-          numSampledSpansWithGreaterRValueAndSmallPValue
-              * (numberOfDiscardedSpansWithMaxDiscardedRValue
-                  / (double)
-                      (numberOfDiscardedSpansWithMaxDiscardedRValue
-                          + numberOfSampledSpansWithMaxDiscardedRValue
-                          + 1L));
-      int roundedExpectedNumPValueIncrements =
-          Math.toIntExact(randomGenerator.roundStochastically(expectedNumPValueIncrements));
-
-      BitSet incrementIndicators =
-          randomGenerator.generateRandomBitSet(
-              numSampledSpansWithGreaterRValueAndSmallPValue, roundedExpectedNumPValueIncrements);
-
-      int incrementIndicatorIndex = 0;
-      List<SpanData> result = new ArrayList<>(queue.size());
-      for (ReadableSpanWithPriority readableSpanWithPriority : readableSpansWithPriority) {
-        if (readableSpanWithPriority.getP() <= maxDiscardedRValue) {
-          readableSpanWithPriority.setP(maxDiscardedRValue);
-          if (readableSpanWithPriority.getR() > maxDiscardedRValue) {
-            if (incrementIndicators.get(incrementIndicatorIndex)) {
-              readableSpanWithPriority.setP(maxDiscardedRValue + 1);
-            }
-            incrementIndicatorIndex += 1;
-          }
-        }
+  /**
+   * Finalizes the given trace reservoir and returns the spans of the kept traces. The p-values of
+   * the kept spans are adjusted as described in {@link ConsistentTraceReservoir}.
+   *
+   * @param reservoir the trace reservoir
+   * @return the kept spans
+   */
+  private static List<SpanData> getResult(ConsistentTraceReservoir<Object> reservoir) {
+    List<SpanData> result = new ArrayList<>(reservoir.size());
+    if (!reservoir.hasDiscardedItems()) {
+      reservoir.forEachItem(span -> result.add(toSpanData(span)));
+    } else {
+      reservoir.forEachSample(
+          ConsistentReservoirSamplingSpanProcessor::getP,
+          (span, pval) -> result.add(toSpanData(span, pval)));
+    }
+    return result;
+  }
 
-        SpanData spanData = readableSpanWithPriority.getReadableSpan().toSpanData();
-        SpanContext spanContext = spanData.getSpanContext();
-        TraceState traceState = spanContext.getTraceState();
-        String otelTraceStateString = traceState.get(OtelTraceState.TRACE_STATE_KEY);
-        OtelTraceState otelTraceState = OtelTraceState.parse(otelTraceStateString);
-        if ((!otelTraceState.hasValidR() && readableSpanWithPriority.getP() > 0)
-            || (otelTraceState.hasValidR()
-                && readableSpanWithPriority.getP() != otelTraceState.getP())) {
-          otelTraceState.setP(readableSpanWithPriority.getP());
-          spanData = updateSpanDataWithOtelTraceState(spanData, otelTraceState);
-        }
-        result.add(spanData);
-      }
+  /**
+   * Finalizes the given reservoir and adds the kept spans to the given list. The p-values of the
+   * kept spans are adjusted as described in {@link ConsistentReservoir}, such that their adjusted
+   * counts reflect the additional sampling by the reservoir.
+   *
+   * @param reservoir the reservoir
+   * @param result the list to which the kept spans are added
+   */
+  private static void addResult(ConsistentReservoir<Object> reservoir, List<SpanData> result) {
 
-      return result;
+    if (!reservoir.hasDiscardedItems()) {
+      reservoir.forEachItem(span -> result.add(toSpanData(span)));
+      return;
     }
 
-    public boolean isEmpty() {
-      return queue.isEmpty();
-    }
+    // the p-values are only parsed for the kept spans
+    reservoir.forEachSample(
+        ConsistentReservoirSamplingSpanProcessor::getP,
+        (span, pval) -> result.add(toSpanData(span, pval)));
   }
 
   private static SpanData updateSpanDataWithOtelTraceState(
@@ -329,8 +279,10 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
       long exportPeriodNanos,
       long exporterTimeoutNanos,
       RandomGenerator randomGenerator) {
-    return new ConsistentReservoirSamplingSpanProcessor(
-        spanExporter, exportPeriodNanos, reservoirSize, exporterTimeoutNanos, randomGenerator);
+    return builder(spanExporter, reservoirSize, exportPeriodNanos)
+        .setExporterTimeoutNanos(exporterTimeoutNanos)
+        .setRandomGenerator(randomGenerator)
+        .build();
   }
 
   /**
@@ -372,23 +324,127 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
     return create(spanExporter, reservoirSize, exportPeriodNanos, DEFAULT_EXPORT_TIMEOUT_NANOS);
   }
 
-  private ConsistentReservoirSamplingSpanProcessor(
+  /**
+   * Returns a new builder for a {@link SpanProcessor} which periodically exports a fixed maximum
+   * number of spans. If the number of spans in a period exceeds the fixed reservoir (buffer) size,
+   * spans will be consistently (compare {@link ConsistentSampler}) sampled.
+   *
+   * @param spanExporter a span exporter
+   * @param reservoirSize the reservoir size
+   * @param exportPeriodNanos the export period in nanoseconds
+   * @return a builder
+   */
+  public static ConsistentReservoirSamplingSpanProcessorBuilder builder(
+      SpanExporter spanExporter, int reservoirSize, long exportPeriodNanos) {
+    return new ConsistentReservoirSamplingSpanProcessorBuilder(
+        spanExporter, reservoirSize, exportPeriodNanos);
+  }
+
+  ConsistentReservoirSamplingSpanProcessor(
       SpanExporter spanExporter,
       long exportPeriodNanos,
       int reservoirSize,
       long exporterTimeoutNanos,
-      RandomGenerator randomGenerator) {
+      int numberOfStripes,
+      int maxConcurrentExports,
+      ExportBackPressureStrategy exportBackPressureStrategy,
+      RandomGenerator randomGenerator,
+      @Nullable AdaptiveReservoirSizing adaptiveReservoirSizing,
+      @Nullable Function<? super ReadableSpan, ?> stratumKeyFunction,
+      int maxNumberOfStrata,
+      StratumBudgetPolicy stratumBudgetPolicy,
+      boolean compactSpanEncoding,
+      boolean traceCompleteSampling,
+      int maxNumberOfPendingSpans,
+      long traceTimeoutNanos,
+      @Nullable ScheduledExecutorService executorService,
+      MeterProvider meterProvider) {
     requireNonNull(spanExporter, "spanExporter");
     checkArgument(exportPeriodNanos > 0, "export period must be positive");
     checkArgument(reservoirSize > 0, "reservoir size must be positive");
     checkArgument(exporterTimeoutNanos > 0, "exporter timeout must be positive");
+    checkArgument(numberOfStripes > 0, "number of stripes must be positive");
+    checkArgument(
+        maxConcurrentExports > 0, "maximum number of concurrent exports must be positive");
+    requireNonNull(exportBackPressureStrategy, "exportBackPressureStrategy");
     requireNonNull(randomGenerator, "randomGenerator");
+    checkArgument(maxNumberOfStrata > 0, "maximum number of strata must be positive");
+    requireNonNull(stratumBudgetPolicy, "stratumBudgetPolicy");
+    checkArgument(
+        !traceCompleteSampling || stratumKeyFunction == null,
+        "stratified mode cannot be combined with trace-complete sampling");
+    checkArgument(maxNumberOfPendingSpans > 0, "maximum number of pending spans must be positive");
+    checkArgument(traceTimeoutNanos > 0, "trace timeout must be positive");
+    requireNonNull(meterProvider, "meterProvider");
 
+    Meter meter = meterProvider.meterBuilder(INSTRUMENTATION_SCOPE_NAME).build();
+    TaskScheduler taskScheduler =
+        executorService != null ? TaskScheduler.create(executorService) : TaskScheduler.getShared();
+    ExportPipeline exportPipeline =
+        new ExportPipeline(
+            spanExporter,
+            exporterTimeoutNanos,
+            maxConcurrentExports,
+            exportBackPressureStrategy,
+            taskScheduler,
+            meter);
+    LongCounter incompleteTraces =
+        meter
+            .counterBuilder("incompleteTraces")
+            .setDescription(
+                "The number of local traces handed over for sampling before their local root span"
+                    + " ended")
+            .setUnit("1")
+            .build();
+    LongCounter oversizedTraceSpans =
+        meter
+            .counterBuilder("oversizedTraceSpans")
+            .setDescription(
+                "The number of spans discarded because their local trace had more spans than the"
+                    + " reservoir size")
+            .setUnit("1")
+            .build();
     this.worker =
         new Worker(
-            spanExporter, exportPeriodNanos, reservoirSize, exporterTimeoutNanos, randomGenerator);
-    Thread workerThread = new DaemonThreadFactory(WORKER_THREAD_NAME).newThread(worker);
-    workerThread.start();
+            spanExporter,
+            exportPipeline,
+            exportPeriodNanos,
+            reservoirSize,
+            numberOfStripes,
+            randomGenerator,
+            adaptiveReservoirSizing,
+            stratumKeyFunction,
+            // without stratum key function, all spans belong to the same stratum
+            stratumKeyFunction != null ? maxNumberOfStrata : 1,
+            stratumBudgetPolicy,
+            compactSpanEncoding,
+            traceCompleteSampling,
+            // the limit is shared evenly by all stripes
+            Math.max(1, maxNumberOfPendingSpans / numberOfStripes),
+            traceTimeoutNanos,
+            incompleteTraces,
+            oversizedTraceSpans,
+            taskScheduler);
+
+    this.reservoirSizeGauge =
+        meter
+            .gaugeBuilder("reservoirSize")
+            .ofLongs()
+            .setDescription("The maximum number of spans exported per export period")
+            .setUnit("1")
+            .buildWithCallback(
+                result -> result.record(worker.getReservoirSize(), SPAN_PROCESSOR_TYPE_ATTRIBUTES));
+    this.exportPeriodGauge =
+        meter
+            .gaugeBuilder("exportPeriod")
+            .ofLongs()
+            .setDescription("The time between two exports")
+            .setUnit("ns")
+            .buildWithCallback(
+                result ->
+                    result.record(worker.getExportPeriodNanos(), SPAN_PROCESSOR_TYPE_ATTRIBUTES));
+
+    worker.scheduleExport();
   }
 
   @Override
@@ -417,6 +473,9 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
     if (isShutdown.getAndSet(true)) {
       return CompletableResultCode.ofSuccess();
     }
+    // the callbacks would otherwise keep the processor reachable from the meter provider
+    reservoirSizeGauge.close();
+    exportPeriodGauge.close();
     return worker.shutdown();
   }
 
@@ -430,85 +489,463 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
     return worker.isReservoirEmpty();
   }
 
-  private static final class Worker implements Runnable {
+  // Visible for testing
+  long[] getNumberOfAddedSpansPerStripe() {
+    return worker.getNumberOfAddedSpansPerStripe();
+  }
+
+  // Visible for testing
+  int getNumberOfWaitingFlushes() {
+    return worker.exportPipeline.getNumberOfWaitingFlushes();
+  }
+
+  /**
+   * The spans collected by the reservoir stripes during an export period, which are handed over to
+   * the {@link ExportPipeline}.
+   */
+  private interface SpanReservoir {
+
+    /** Returns {@code true} if no spans are kept. */
+    boolean isEmpty();
+
+    /** Returns the number of kept spans. */
+    int size();
+
+    /**
+     * Merges this and the given reservoir of the same kind into the one with smaller reservoir
+     * size. Neither reservoir must be used afterwards.
+     *
+     * @param other the other reservoir
+     * @return the merged reservoir
+     */
+    SpanReservoir mergeIntoSmaller(SpanReservoir other);
+
+    /**
+     * Finalizes the reservoir and returns the kept spans with adjusted p-values.
+     *
+     * @return the kept spans
+     */
+    List<SpanData> getResult();
+  }
+
+  private static final class StratifiedSpanReservoir implements SpanReservoir {
+    private final ConsistentStratifiedReservoir<Object> reservoir;
+
+    private StratifiedSpanReservoir(ConsistentStratifiedReservoir<Object> reservoir) {
+      this.reservoir = reservoir;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return reservoir.isEmpty();
+    }
+
+    @Override
+    public int size() {
+      return reservoir.size();
+    }
+
+    @Override
+    public SpanReservoir mergeIntoSmaller(SpanReservoir other) {
+      return new StratifiedSpanReservoir(
+          ConsistentStratifiedReservoir.mergeIntoSmaller(
+              reservoir, ((StratifiedSpanReservoir) other).reservoir));
+    }
+
+    @Override
+    public List<SpanData> getResult() {
+      return ConsistentReservoirSamplingSpanProcessor.getResult(reservoir);
+    }
+  }
+
+  private static final class TraceSpanReservoir implements SpanReservoir {
+    private final ConsistentTraceReservoir<Object> reservoir;
+
+    private TraceSpanReservoir(ConsistentTraceReservoir<Object> reservoir) {
+      this.reservoir = reservoir;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return reservoir.isEmpty();
+    }
+
+    @Override
+    public int size() {
+      return reservoir.size();
+    }
+
+    @Override
+    public SpanReservoir mergeIntoSmaller(SpanReservoir other) {
+      return new TraceSpanReservoir(
+          ConsistentTraceReservoir.mergeIntoSmaller(
+              reservoir, ((TraceSpanReservoir) other).reservoir));
+    }
+
+    @Override
+    public List<SpanData> getResult() {
+      return ConsistentReservoirSamplingSpanProcessor.getResult(reservoir);
+    }
+  }
+
+  /**
+   * Collects ended spans in the reservoirs and hands them over to the {@link ExportPipeline} at the
+   * end of every export period or when flushing. The worker never waits for the exporter.
+   */
+  private static final class Worker {
 
-    private static final Logger logger = Logger.getLogger(Worker.class.getName());
     private final SpanExporter spanExporter;
-    private final long exportPeriodNanos;
-    private final int reservoirSize;
-    private final long exporterTimeoutNanos;
+    private final ExportPipeline exportPipeline;
+    @Nullable private final AdaptiveReservoirSizing adaptiveReservoirSizing;
+    @Nullable private final Function<? super ReadableSpan, ?> stratumKeyFunction;
+    private final int maxNumberOfStrata;
+    private final StratumBudgetPolicy stratumBudgetPolicy;
+    private final boolean compactSpanEncoding;
+    private final boolean traceCompleteSampling;
+    private final int maxNumberOfPendingSpansPerStripe;
+    private final long traceTimeoutNanos;
+    private final LongCounter incompleteTraces;
+    private final LongCounter oversizedTraceSpans;
+    private final TaskScheduler taskScheduler;
+
+    // only modified while holding the export lock
+    private volatile long exportPeriodNanos;
+    private volatile int reservoirSize;
 
-    private long nextExportTime;
+    // periodic exports and flushes may run concurrently
+    private final Object exportLock = new Object();
+
+    // guarded by exportLock
+    private long lastSwapTime = System.nanoTime();
+    @Nullable private ScheduledFuture<?> scheduledExport = null;
+    private boolean continueWork = true;
 
     private final RandomGenerator randomGenerator;
-    private final Object reservoirLock = new Object();
-    private Reservoir reservoir;
-    private final BlockingQueue<CompletableResultCode> signal;
-    private volatile boolean continueWork = true;
+    private final ReservoirStripe[] reservoirStripes;
+
+    /** A part of the reservoir guarded by its own lock, to which ended spans are added. */
+    private abstract static class ReservoirStripe {
+      final Object reservoirLock = new Object();
+
+      abstract void addSpan(ReadableSpan span);
+
+      /**
+       * Replaces the reservoir of this stripe by a new one and returns the old one.
+       *
+       * @param flush whether all spans collected so far must be handed over
+       * @return the old reservoir
+       */
+      abstract SpanReservoir swapReservoir(boolean flush);
+
+      abstract long getNumberOfAddedSpans();
 
-    private static Reservoir createReservoir(int reservoirSize, RandomGenerator randomGenerator) {
-      return new Reservoir(reservoirSize, randomGenerator);
+      abstract boolean isEmpty();
+    }
+
+    /** Samples spans individually, optionally stratified. */
+    private final class SpanReservoirStripe extends ReservoirStripe {
+      // the kept spans are either ReadableSpans or CompactSpans encoded by the span encoder
+      private ConsistentStratifiedReservoir<Object> reservoir;
+      @Nullable private CompactSpanEncoder spanEncoder;
+
+      private SpanReservoirStripe() {
+        synchronized (reservoirLock) {
+          this.reservoir = createReservoir();
+          this.spanEncoder = createSpanEncoder();
+        }
+      }
+
+      @Override
+      void addSpan(ReadableSpan span) {
+        int packedPR = parsePacked(span);
+        long key = createKey(packedPR, randomGenerator);
+        Object stratumKey = stratumKeyFunction != null ? stratumKeyFunction.apply(span) : null;
+        CompactSpanEncoder spanEncoder;
+        synchronized (reservoirLock) {
+          spanEncoder = this.spanEncoder;
+          // only spans that are kept are encoded, a discarded span is not referenced anymore anyway
+          if (spanEncoder == null || !reservoir.wouldKeep(stratumKey, key)) {
+            reservoir.addWithKey(stratumKey, key, span);
+            return;
+          }
+        }
+        // Encoding is expensive and the encoder is thread-safe, hence the lock is not held while
+        // encoding. If the reservoir was swapped in the meantime, the span goes into the new one,
+        // which is fine as it references its encoder. If the reservoir filled up in the meantime,
+        // the span is discarded as if it had not been encoded.
+        CompactSpan compactSpan = spanEncoder.encode(span, packedPR);
+        synchronized (reservoirLock) {
+          reservoir.addWithKey(stratumKey, key, compactSpan);
+        }
+      }
+
+      @Override
+      SpanReservoir swapReservoir(boolean flush) {
+        ConsistentStratifiedReservoir<Object> oldReservoir;
+        ConsistentStratifiedReservoir<Object> newReservoir = createReservoir();
+        CompactSpanEncoder newSpanEncoder = createSpanEncoder();
+        synchronized (reservoirLock) {
+          oldReservoir = reservoir;
+          reservoir = newReservoir;
+          // the spans encoded so far keep the old encoder alive until they are exported
+          spanEncoder = newSpanEncoder;
+        }
+        return new StratifiedSpanReservoir(oldReservoir);
+      }
+
+      @Override
+      long getNumberOfAddedSpans() {
+        synchronized (reservoirLock) {
+          return reservoir.getNumberOfAddedItems();
+        }
+      }
+
+      @Override
+      boolean isEmpty() {
+        synchronized (reservoirLock) {
+          return reservoir.isEmpty();
+        }
+      }
+    }
+
+    /**
+     * Collects the spans of local traces in a {@link PendingTraceIndex} until the traces are
+     * complete, and samples the complete traces as a whole.
+     */
+    private final class TraceReservoirStripe extends ReservoirStripe {
+      private final PendingTraceIndex<ReadableSpan> pendingTraces;
+      private final PendingTraceIndex.TraceConsumer<ReadableSpan> traceConsumer = this::addTrace;
+      // the spans of kept traces are either ReadableSpans or CompactSpans
+      private ConsistentTraceReservoir<Object> reservoir;
+      @Nullable private CompactSpanEncoder spanEncoder;
+
+      private TraceReservoirStripe() {
+        synchronized (reservoirLock) {
+          this.pendingTraces =
+              new PendingTraceIndex<>(maxNumberOfPendingSpansPerStripe, traceTimeoutNanos);
+          this.reservoir = createTraceReservoir();
+          this.spanEncoder = createSpanEncoder();
+        }
+      }
+
+      @Override
+      void addSpan(ReadableSpan span) {
+        String traceId = span.getSpanContext().getTraceId();
+        long key = createTraceKey(traceId, parsePacked(span));
+        boolean isLocalRoot = isLocalRoot(span);
+        long nanoTime = System.nanoTime();
+        int numberOfIncompleteTraces;
+        synchronized (reservoirLock) {
+          numberOfIncompleteTraces =
+              pendingTraces.add(traceId, key, span, isLocalRoot, nanoTime, traceConsumer);
+        }
+        if (numberOfIncompleteTraces > 0) {
+          incompleteTraces.add(numberOfIncompleteTraces, SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+        }
+      }
+
+      // guarded by reservoirLock
+      private void addTrace(long key, List<? extends ReadableSpan> spans) {
+        if (spans.size() > reservoir.getReservoirSize()) {
+          // the adjusted counts of the exported spans cannot account for these spans
+          oversizedTraceSpans.add(spans.size(), SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+        }
+        CompactSpanEncoder spanEncoder = this.spanEncoder;
+        // only the spans of traces that may be kept are encoded
+        if (spanEncoder != null && reservoir.mightKeep(key, spans.size())) {
+          List<Object> encodedSpans = new ArrayList<>(spans.size());
+          for (ReadableSpan span : spans) {
+            encodedSpans.add(spanEncoder.encode(span, parsePacked(span)));
+          }
+          reservoir.addTrace(key, encodedSpans);
+        } else {
+          reservoir.addTrace(key, spans);
+        }
+      }
+
+      @Override
+      SpanReservoir swapReservoir(boolean flush) {
+        ConsistentTraceReservoir<Object> oldReservoir;
+        ConsistentTraceReservoir<Object> newReservoir = createTraceReservoir();
+        CompactSpanEncoder newSpanEncoder = createSpanEncoder();
+        int numberOfIncompleteTraces;
+        synchronized (reservoirLock) {
+          // incomplete traces are handed over to the reservoir that is swapped out
+          numberOfIncompleteTraces =
+              flush
+                  ? pendingTraces.handOverAllTraces(traceConsumer)
+                  : pendingTraces.handOverTimedOutTraces(System.nanoTime(), traceConsumer);
+          oldReservoir = reservoir;
+          reservoir = newReservoir;
+          spanEncoder = newSpanEncoder;
+        }
+        if (numberOfIncompleteTraces > 0) {
+          incompleteTraces.add(numberOfIncompleteTraces, SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+        }
+        return new TraceSpanReservoir(oldReservoir);
+      }
+
+      @Override
+      long getNumberOfAddedSpans() {
+        synchronized (reservoirLock) {
+          return reservoir.getNumberOfAddedItems();
+        }
+      }
+
+      @Override
+      boolean isEmpty() {
+        synchronized (reservoirLock) {
+          return reservoir.isEmpty() && pendingTraces.isEmpty();
+        }
+      }
+    }
+
+    private ConsistentStratifiedReservoir<Object> createReservoir() {
+      return ConsistentStratifiedReservoir.create(
+          reservoirSize, maxNumberOfStrata, stratumBudgetPolicy, randomGenerator);
+    }
+
+    private ConsistentTraceReservoir<Object> createTraceReservoir() {
+      return ConsistentTraceReservoir.create(reservoirSize, randomGenerator);
+    }
+
+    @Nullable
+    private CompactSpanEncoder createSpanEncoder() {
+      return compactSpanEncoding ? new CompactSpanEncoder() : null;
     }
 
     private Worker(
         SpanExporter spanExporter,
+        ExportPipeline exportPipeline,
         long exportPeriodNanos,
         int reservoirSize,
-        long exporterTimeoutNanos,
-        RandomGenerator randomGenerator) {
+        int numberOfStripes,
+        RandomGenerator randomGenerator,
+        @Nullable AdaptiveReservoirSizing adaptiveReservoirSizing,
+        @Nullable Function<? super ReadableSpan, ?> stratumKeyFunction,
+        int maxNumberOfStrata,
+        StratumBudgetPolicy stratumBudgetPolicy,
+        boolean compactSpanEncoding,
+        boolean traceCompleteSampling,
+        int maxNumberOfPendingSpansPerStripe,
+        long traceTimeoutNanos,
+        LongCounter incompleteTraces,
+        LongCounter oversizedTraceSpans,
+        TaskScheduler taskScheduler) {
       this.spanExporter = spanExporter;
-      this.exportPeriodNanos = exportPeriodNanos;
-      this.reservoirSize = reservoirSize;
-      this.exporterTimeoutNanos = exporterTimeoutNanos;
+      this.exportPipeline = exportPipeline;
+      this.adaptiveReservoirSizing = adaptiveReservoirSizing;
+      this.stratumKeyFunction = stratumKeyFunction;
+      this.maxNumberOfStrata = maxNumberOfStrata;
+      this.stratumBudgetPolicy = stratumBudgetPolicy;
+      this.compactSpanEncoding = compactSpanEncoding;
+      this.traceCompleteSampling = traceCompleteSampling;
+      this.maxNumberOfPendingSpansPerStripe = maxNumberOfPendingSpansPerStripe;
+      this.traceTimeoutNanos = traceTimeoutNanos;
+      this.incompleteTraces = incompleteTraces;
+      this.oversizedTraceSpans = oversizedTraceSpans;
+      this.taskScheduler = taskScheduler;
+      if (adaptiveReservoirSizing != null) {
+        this.exportPeriodNanos = adaptiveReservoirSizing.getExportPeriodNanos();
+        this.reservoirSize = adaptiveReservoirSizing.getReservoirSize();
+      } else {
+        this.exportPeriodNanos = exportPeriodNanos;
+        this.reservoirSize = reservoirSize;
+      }
       this.randomGenerator = randomGenerator;
-      synchronized (reservoirLock) {
-        this.reservoir = createReservoir(reservoirSize, randomGenerator);
+      this.reservoirStripes = new ReservoirStripe[numberOfStripes];
+      for (int i = 0; i < numberOfStripes; ++i) {
+        reservoirStripes[i] =
+            traceCompleteSampling ? new TraceReservoirStripe() : new SpanReservoirStripe();
       }
-      this.signal = new ArrayBlockingQueue<>(1);
     }
 
-    private void addSpan(ReadableSpan span) {
-      ReadableSpanWithPriority readableSpanWithPriority =
-          ReadableSpanWithPriority.create(span, randomGenerator);
-      synchronized (reservoirLock) {
-        reservoir.add(readableSpanWithPriority);
+    private ReservoirStripe getReservoirStripe(ReadableSpan span) {
+      if (reservoirStripes.length == 1) {
+        return reservoirStripes[0];
+      }
+      if (traceCompleteSampling) {
+        // all spans of a trace must be added to the same stripe
+        int hash = span.getSpanContext().getTraceId().hashCode();
+        return reservoirStripes[Math.abs(hash % reservoirStripes.length)];
       }
+      return reservoirStripes[(int) (Thread.currentThread().getId() % reservoirStripes.length)];
     }
 
-    @Override
-    public void run() {
-      updateNextExportTime();
-      CompletableResultCode completableResultCode = null;
-      while (continueWork) {
-
-        if (completableResultCode != null || System.nanoTime() >= nextExportTime) {
-          Reservoir oldReservoir;
-          Reservoir newReservoir = createReservoir(reservoirSize, randomGenerator);
-          synchronized (reservoirLock) {
-            oldReservoir = reservoir;
-            reservoir = newReservoir;
-          }
-          exportCurrentBatch(oldReservoir.getResult());
-          updateNextExportTime();
-          if (completableResultCode != null) {
-            completableResultCode.succeed();
-          }
+    private void addSpan(ReadableSpan span) {
+      getReservoirStripe(span).addSpan(span);
+    }
+
+    /**
+     * Replaces the reservoirs of all stripes by new ones and returns the merged old reservoirs.
+     *
+     * @param flush whether all collected spans must be handed over, including the spans of pending
+     *     traces in trace-complete mode
+     * @return the merged reservoir
+     */
+    private SpanReservoir swapReservoirs(boolean flush) {
+      lastSwapTime = System.nanoTime();
+      SpanReservoir mergedReservoir = null;
+      for (ReservoirStripe reservoirStripe : reservoirStripes) {
+        SpanReservoir oldReservoir = reservoirStripe.swapReservoir(flush);
+        if (mergedReservoir == null) {
+          mergedReservoir = oldReservoir;
+        } else {
+          mergedReservoir = mergedReservoir.mergeIntoSmaller(oldReservoir);
         }
+      }
+      return requireNonNull(mergedReservoir);
+    }
 
-        try {
-          long pollWaitTime = nextExportTime - System.nanoTime();
-          if (pollWaitTime > 0) {
-            completableResultCode = signal.poll(pollWaitTime, TimeUnit.NANOSECONDS);
-          }
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          return;
+    /**
+     * Adapts reservoir size and export period to the number of spans added since the last export,
+     * if adaptive reservoir sizing is enabled. The new reservoir size applies to the reservoirs
+     * created by the next call of {@link #swapReservoirs(boolean)}.
+     */
+    private void adaptReservoirSize() {
+      AdaptiveReservoirSizing adaptiveReservoirSizing = this.adaptiveReservoirSizing;
+      if (adaptiveReservoirSizing == null) {
+        return;
+      }
+      long numberOfAddedSpans = 0;
+      for (ReservoirStripe reservoirStripe : reservoirStripes) {
+        numberOfAddedSpans += reservoirStripe.getNumberOfAddedSpans();
+      }
+      adaptiveReservoirSizing.update(numberOfAddedSpans, System.nanoTime() - lastSwapTime);
+      reservoirSize = adaptiveReservoirSizing.getReservoirSize();
+      exportPeriodNanos = adaptiveReservoirSizing.getExportPeriodNanos();
+    }
+
+    /**
+     * Hands over the spans collected so far to the {@link ExportPipeline}.
+     *
+     * @param flushResult the result to complete after export, or {@code null} if not flushing
+     */
+    private void exportReservoirs(@Nullable CompletableResultCode flushResult) {
+      synchronized (exportLock) {
+        adaptReservoirSize();
+        exportPipeline.submit(swapReservoirs(/* flush= */ flushResult != null), flushResult);
+      }
+    }
+
+    /**
+     * Schedules the next periodic export, unless the worker has been shut down. The delay is the
+     * current export period, which may change with adaptive reservoir sizing.
+     */
+    private void scheduleExport() {
+      synchronized (exportLock) {
+        if (continueWork) {
+          scheduledExport = taskScheduler.schedule(this::exportPeriodically, exportPeriodNanos);
         }
       }
     }
 
-    private void updateNextExportTime() {
-      nextExportTime = System.nanoTime() + exportPeriodNanos;
+    private void exportPeriodically() {
+      try {
+        exportReservoirs(/* flushResult= */ null);
+      } finally {
+        scheduleExport();
+      }
     }
 
     private CompletableResultCode shutdown() {
@@ -517,7 +954,7 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
       CompletableResultCode flushResult = forceFlush();
       flushResult.whenComplete(
           () -> {
-            continueWork = false;
+            stop();
             CompletableResultCode shutdownResult = spanExporter.shutdown();
             shutdownResult.whenComplete(
                 () -> {
@@ -532,33 +969,316 @@ public final class ConsistentReservoirSamplingSpanProcessor implements SpanProce
       return result;
     }
 
+    private void stop() {
+      synchronized (exportLock) {
+        continueWork = false;
+        ScheduledFuture<?> scheduledExport = this.scheduledExport;
+        if (scheduledExport != null) {
+          scheduledExport.cancel(/* mayInterruptIfRunning= */ false);
+        }
+      }
+    }
+
     private CompletableResultCode forceFlush() {
       CompletableResultCode flushResult = new CompletableResultCode();
-      signal.offer(flushResult);
+      try {
+        // every flush is a task of its own, hence concurrent flushes are never dropped
+        taskScheduler.execute(() -> exportReservoirs(flushResult));
+      } catch (RejectedExecutionException e) {
+        flushResult.fail();
+      }
       return flushResult;
     }
 
-    private void exportCurrentBatch(List<SpanData> batch) {
-      if (batch.isEmpty()) {
-        return;
+    private int getReservoirSize() {
+      return reservoirSize;
+    }
+
+    private long getExportPeriodNanos() {
+      return exportPeriodNanos;
+    }
+
+    private boolean isReservoirEmpty() {
+      for (ReservoirStripe reservoirStripe : reservoirStripes) {
+        if (!reservoirStripe.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private long[] getNumberOfAddedSpansPerStripe() {
+      long[] numberOfAddedSpans = new long[reservoirStripes.length];
+      for (int i = 0; i < reservoirStripes.length; ++i) {
+        numberOfAddedSpans[i] = reservoirStripes[i].getNumberOfAddedSpans();
+      }
+      return numberOfAddedSpans;
+    }
+  }
+
+  /**
+   * Finalizes the reservoirs handed over by the {@link Worker} and exports the resulting batches.
+   *
+   * <p>At most {@code maxConcurrentExports} exports are in flight at the same time. An export is
+   * complete, when the exporter completes its result or when the exporter timeout elapses. Only a
+   * single reservoir waits for export. If another reservoir is handed over in the meantime, the
+   * {@link ExportBackPressureStrategy} decides whether the waiting reservoir is merged into the new
+   * one or dropped. As finalized reservoirs cannot be merged anymore, a reservoir is not finalized
+   * before it can be exported.
+   *
+   * <p>A flush completes, once the batch it was handed over with and all batches in flight at that
+   * time have been exported.
+   *
+   * <p>A task exporting the waiting batch is scheduled whenever a batch is handed over or an export
+   * completes, and exporter timeouts are scheduled as well. At most one such task is scheduled at a
+   * time.
+   */
+  private static final class ExportPipeline {
+
+    private static final Logger logger = Logger.getLogger(ExportPipeline.class.getName());
+    private static final double NANOS_PER_MILLISECOND = 1e6;
+
+    private final SpanExporter spanExporter;
+    private final long exporterTimeoutNanos;
+    private final int maxConcurrentExports;
+    private final ExportBackPressureStrategy exportBackPressureStrategy;
+    private final DoubleHistogram finalizationDuration;
+    private final DoubleHistogram exportDuration;
+    private final LongCounter droppedSpans;
+    private final TaskScheduler taskScheduler;
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    @Nullable private SpanReservoir waitingReservoir = null;
+    private List<CompletableResultCode> waitingFlushResults = new ArrayList<>();
+    private final List<InFlightExport> inFlightExports = new ArrayList<>();
+    private boolean isExportTaskScheduled = false;
+
+    private static final class Batch {
+      private final SpanReservoir reservoir;
+      private final List<CompletableResultCode> flushResults;
+      private final List<CompletableResultCode> precedingExportResults;
+
+      private Batch(
+          SpanReservoir reservoir,
+          List<CompletableResultCode> flushResults,
+          List<CompletableResultCode> precedingExportResults) {
+        this.reservoir = reservoir;
+        this.flushResults = flushResults;
+        this.precedingExportResults = precedingExportResults;
+      }
+    }
+
+    private static final class InFlightExport {
+      private final long startTime;
+      private final AtomicBoolean isCompleted = new AtomicBoolean(false);
+      private final CompletableResultCode result = new CompletableResultCode();
+      @Nullable private volatile ScheduledFuture<?> timeout = null;
+
+      private InFlightExport(long startTime) {
+        this.startTime = startTime;
+      }
+    }
+
+    private ExportPipeline(
+        SpanExporter spanExporter,
+        long exporterTimeoutNanos,
+        int maxConcurrentExports,
+        ExportBackPressureStrategy exportBackPressureStrategy,
+        TaskScheduler taskScheduler,
+        Meter meter) {
+      this.spanExporter = spanExporter;
+      this.exporterTimeoutNanos = exporterTimeoutNanos;
+      this.maxConcurrentExports = maxConcurrentExports;
+      this.exportBackPressureStrategy = exportBackPressureStrategy;
+      this.taskScheduler = taskScheduler;
+      this.finalizationDuration =
+          meter
+              .histogramBuilder("reservoirFinalizationDuration")
+              .setDescription("The time needed to convert a reservoir into a batch of spans")
+              .setUnit("ms")
+              .build();
+      this.exportDuration =
+          meter
+              .histogramBuilder("exportDuration")
+              .setDescription("The time needed to export a batch of spans")
+              .setUnit("ms")
+              .build();
+      this.droppedSpans =
+          meter
+              .counterBuilder("droppedSpans")
+              .setDescription("The number of sampled spans dropped because exports were congested")
+              .setUnit("1")
+              .build();
+    }
+
+    /**
+     * Hands over a reservoir for export.
+     *
+     * @param reservoir the reservoir
+     * @param flushResult the result to complete after export, or {@code null} if not flushing
+     */
+    private void submit(SpanReservoir reservoir, @Nullable CompletableResultCode flushResult) {
+      synchronized (lock) {
+        SpanReservoir waiting = waitingReservoir;
+        if (waiting != null && !waiting.isEmpty()) {
+          if (reservoir.isEmpty()) {
+            reservoir = waiting;
+          } else if (exportBackPressureStrategy == ExportBackPressureStrategy.MERGE) {
+            reservoir = waiting.mergeIntoSmaller(reservoir);
+          } else {
+            droppedSpans.add(waiting.size(), SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+            logger.log(Level.FINE, "Dropped batch of spans, because exports are congested");
+          }
+        }
+        if (flushResult != null) {
+          waitingFlushResults.add(flushResult);
+        }
+        if (reservoir.isEmpty() && waitingFlushResults.isEmpty()) {
+          return;
+        }
+        waitingReservoir = reservoir;
       }
+      scheduleExportTask();
+    }
 
+    private int getNumberOfWaitingFlushes() {
+      synchronized (lock) {
+        return waitingFlushResults.size();
+      }
+    }
+
+    /**
+     * Schedules a task exporting the waiting batch, if there is a waiting batch, a free export
+     * slot, and no such task is scheduled yet.
+     */
+    private void scheduleExportTask() {
+      synchronized (lock) {
+        if (isExportTaskScheduled
+            || waitingReservoir == null
+            || inFlightExports.size() >= maxConcurrentExports) {
+          return;
+        }
+        isExportTaskScheduled = true;
+      }
       try {
-        CompletableResultCode result = spanExporter.export(Collections.unmodifiableList(batch));
-        result.join(exporterTimeoutNanos, TimeUnit.NANOSECONDS);
-        if (!result.isSuccess()) {
-          logger.log(Level.FINE, "Exporter failed");
+        taskScheduler.execute(this::exportWaitingBatches);
+      } catch (RejectedExecutionException e) {
+        synchronized (lock) {
+          isExportTaskScheduled = false;
         }
-      } catch (RuntimeException e) {
-        logger.log(Level.WARNING, "Exporter threw an Exception", e);
-      } finally {
-        batch.clear();
+        logger.log(Level.WARNING, "Executor rejected export", e);
       }
     }
 
-    private boolean isReservoirEmpty() {
-      synchronized (reservoirLock) {
-        return reservoir.isEmpty();
+    private void exportWaitingBatches() {
+      while (true) {
+        Batch batch;
+        synchronized (lock) {
+          if (waitingReservoir == null || inFlightExports.size() >= maxConcurrentExports) {
+            isExportTaskScheduled = false;
+            return;
+          }
+          batch = takeWaitingBatch();
+        }
+        try {
+          export(batch);
+        } catch (RuntimeException e) {
+          synchronized (lock) {
+            isExportTaskScheduled = false;
+          }
+          throw e;
+        }
+      }
+    }
+
+    private Batch takeWaitingBatch() {
+      SpanReservoir reservoir = requireNonNull(waitingReservoir);
+      List<CompletableResultCode> flushResults = waitingFlushResults;
+      List<CompletableResultCode> precedingExportResults = new ArrayList<>();
+      if (!flushResults.isEmpty()) {
+        for (InFlightExport inFlightExport : inFlightExports) {
+          precedingExportResults.add(inFlightExport.result);
+        }
+      }
+      waitingReservoir = null;
+      waitingFlushResults = new ArrayList<>();
+      return new Batch(reservoir, flushResults, precedingExportResults);
+    }
+
+    private void export(Batch batch) {
+      long finalizationStartTime = System.nanoTime();
+      List<SpanData> spans = batch.reservoir.getResult();
+      long exportStartTime = System.nanoTime();
+      finalizationDuration.record(
+          (exportStartTime - finalizationStartTime) / NANOS_PER_MILLISECOND,
+          SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+
+      List<CompletableResultCode> exportResults = batch.precedingExportResults;
+      if (!spans.isEmpty()) {
+        InFlightExport inFlightExport = new InFlightExport(exportStartTime);
+        synchronized (lock) {
+          inFlightExports.add(inFlightExport);
+        }
+        exportResults.add(inFlightExport.result);
+        inFlightExport.timeout =
+            taskScheduler.schedule(
+                () -> {
+                  if (!inFlightExport.isCompleted.get()) {
+                    logger.log(Level.FINE, "Exporter timed out");
+                    completeExport(inFlightExport, /* success= */ false);
+                  }
+                },
+                exporterTimeoutNanos);
+        try {
+          CompletableResultCode result = spanExporter.export(Collections.unmodifiableList(spans));
+          result.whenComplete(
+              () -> {
+                if (!result.isSuccess()) {
+                  logger.log(Level.FINE, "Exporter failed");
+                }
+                completeExport(inFlightExport, result.isSuccess());
+              });
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Exporter threw an Exception", e);
+          completeExport(inFlightExport, /* success= */ false);
+        }
+      }
+
+      if (!batch.flushResults.isEmpty()) {
+        // a flush fails if any export it waited for failed or timed out
+        CompletableResultCode allExportResults = CompletableResultCode.ofAll(exportResults);
+        allExportResults.whenComplete(
+            () ->
+                batch.flushResults.forEach(
+                    allExportResults.isSuccess()
+                        ? CompletableResultCode::succeed
+                        : CompletableResultCode::fail));
+      }
+    }
+
+    private void completeExport(InFlightExport inFlightExport, boolean success) {
+      if (inFlightExport.isCompleted.getAndSet(true)) {
+        // already timed out or completed
+        return;
+      }
+      ScheduledFuture<?> timeout = inFlightExport.timeout;
+      if (timeout != null) {
+        timeout.cancel(/* mayInterruptIfRunning= */ false);
+      }
+      synchronized (lock) {
+        inFlightExports.remove(inFlightExport);
+      }
+      // a waiting batch may be exported now
+      scheduleExportTask();
+      exportDuration.record(
+          (System.nanoTime() - inFlightExport.startTime) / NANOS_PER_MILLISECOND,
+          SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+      if (success) {
+        inFlightExport.result.succeed();
+      } else {
+        inFlightExport.result.fail();
       }
     }
   }
@@ -0,0 +1,434 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/** Builder class for {@link ConsistentReservoirSamplingSpanProcessor}. */
+public final class ConsistentReservoirSamplingSpanProcessorBuilder {
+
+  private static final int DEFAULT_NUMBER_OF_STRIPES = 1;
+  private static final int DEFAULT_MAX_CONCURRENT_EXPORTS = 1;
+  private static final int DEFAULT_MAX_NUMBER_OF_STRATA = 100;
+
+  // the default minimum export period in adaptive mode as fraction of the maximum export period
+  private static final int DEFAULT_MIN_EXPORT_PERIOD_DIVISOR = 10;
+
+  private final SpanExporter spanExporter;
+  private final int reservoirSize;
+  private final long exportPeriodNanos;
+  private long exporterTimeoutNanos =
+      ConsistentReservoirSamplingSpanProcessor.DEFAULT_EXPORT_TIMEOUT_NANOS;
+  private int numberOfStripes = DEFAULT_NUMBER_OF_STRIPES;
+  private int maxConcurrentExports = DEFAULT_MAX_CONCURRENT_EXPORTS;
+  private ExportBackPressureStrategy exportBackPressureStrategy = ExportBackPressureStrategy.MERGE;
+  private RandomGenerator randomGenerator = RandomGenerator.getDefault();
+  private double targetExportedSpansPerSecond = 0;
+  private long minExportPeriodNanos = 0;
+  @Nullable private Function<? super ReadableSpan, ?> stratumKeyFunction = null;
+  private int maxNumberOfStrata = DEFAULT_MAX_NUMBER_OF_STRATA;
+  private StratumBudgetPolicy stratumBudgetPolicy = StratumBudgetPolicy.SQUARE_ROOT;
+  private boolean compactSpanEncoding = false;
+  private boolean traceCompleteSampling = false;
+  private int maxNumberOfPendingSpans = 0;
+  private long traceTimeoutNanos = 0;
+  @Nullable private ScheduledExecutorService executorService = null;
+  private MeterProvider meterProvider = MeterProvider.noop();
+
+  ConsistentReservoirSamplingSpanProcessorBuilder(
+      SpanExporter spanExporter, int reservoirSize, long exportPeriodNanos) {
+    this.spanExporter = spanExporter;
+    this.reservoirSize = reservoirSize;
+    this.exportPeriodNanos = exportPeriodNanos;
+  }
+
+  /**
+   * Sets the maximum time an export will be allowed to run before being cancelled.
+   *
+   * @param exporterTimeoutNanos the exporter timeout in nanoseconds
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setExporterTimeoutNanos(
+      long exporterTimeoutNanos) {
+    this.exporterTimeoutNanos = exporterTimeoutNanos;
+    return this;
+  }
+
+  /**
+   * Sets the number of stripes the reservoir is split into.
+   *
+   * <p>Every stripe is a reservoir of full size guarded by its own lock. Ended spans are added to
+   * the stripe selected by the ending thread, which reduces lock contention if many threads end
+   * spans concurrently. All stripes are merged before export. The merged result is exactly the same
+   * as if all spans had been added to a single reservoir, hence the sampling guarantees are not
+   * affected. However, more memory is needed, as each stripe may hold up to {@code reservoirSize}
+   * spans.
+   *
+   * <p>If unset, defaults to {@value #DEFAULT_NUMBER_OF_STRIPES}.
+   *
+   * @param numberOfStripes the number of stripes
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setNumberOfStripes(int numberOfStripes) {
+    this.numberOfStripes = numberOfStripes;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of exports that may be in flight at the same time.
+   *
+   * <p>Reservoirs are converted into batches of spans and exported by separate tasks, hence
+   * collecting spans never waits for the exporter. An export is in flight until the exporter has
+   * completed its result or until the exporter timeout has elapsed. If the maximum number of
+   * concurrent exports is reached, the next batch waits for export and batches handed over in the
+   * meantime are dealt with according to the {@link ExportBackPressureStrategy}.
+   *
+   * <p>If unset, defaults to {@value #DEFAULT_MAX_CONCURRENT_EXPORTS}.
+   *
+   * @param maxConcurrentExports the maximum number of concurrent exports
+   * @return this builder
+   * @see #setExportBackPressureStrategy(ExportBackPressureStrategy)
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setMaxConcurrentExports(
+      int maxConcurrentExports) {
+    this.maxConcurrentExports = maxConcurrentExports;
+    return this;
+  }
+
+  /**
+   * Sets the strategy for dealing with a batch of spans that is still waiting for export, when the
+   * next batch is handed over.
+   *
+   * <p>If unset, defaults to {@link ExportBackPressureStrategy#MERGE}, which keeps the number of
+   * exported spans bounded by the reservoir size without losing information about the spans of the
+   * waiting batch.
+   *
+   * @param exportBackPressureStrategy the back-pressure strategy
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setExportBackPressureStrategy(
+      ExportBackPressureStrategy exportBackPressureStrategy) {
+    this.exportBackPressureStrategy =
+        requireNonNull(exportBackPressureStrategy, "exportBackPressureStrategy");
+    return this;
+  }
+
+  /**
+   * Enables adaptive reservoir sizing with the given target number of exported spans per second.
+   *
+   * <p>In adaptive mode, the reservoir size passed to {@link
+   * ConsistentReservoirSamplingSpanProcessor#builder(SpanExporter, int, long)} is the maximum
+   * reservoir size and the export period is the maximum export period, which bounds the time spans
+   * are kept before being exported. Between export periods, the reservoir is resized such that not
+   * more spans than the target rate are exported. If the reservoir fills early, because spans
+   * arrive faster than the target rate, the export period is shortened in proportion to the
+   * smoothed rate of spans, down to the minimum export period. If spans arrive slower, the export
+   * period is extended up to the maximum export period. A steady rate of spans results in a steady
+   * export period.
+   *
+   * <p>By default, adaptive reservoir sizing is disabled and reservoir size and export period are
+   * fixed.
+   *
+   * @param targetExportedSpansPerSecond the target number of exported spans per second
+   * @return this builder
+   * @see #setMinExportPeriodNanos(long)
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setTargetExportedSpansPerSecond(
+      double targetExportedSpansPerSecond) {
+    this.targetExportedSpansPerSecond = targetExportedSpansPerSecond;
+    return this;
+  }
+
+  /**
+   * Sets the minimum export period used in adaptive mode.
+   *
+   * <p>If unset, defaults to a tenth of the (maximum) export period. Ignored, unless adaptive
+   * reservoir sizing is enabled by {@link #setTargetExportedSpansPerSecond(double)}.
+   *
+   * @param minExportPeriodNanos the minimum export period in nanoseconds
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setMinExportPeriodNanos(
+      long minExportPeriodNanos) {
+    this.minExportPeriodNanos = minExportPeriodNanos;
+    return this;
+  }
+
+  /**
+   * Enables stratified mode, in which spans are grouped into strata by the given function.
+   *
+   * <p>In stratified mode, every stratum collects its spans in a separate consistent reservoir,
+   * such that frequent spans cannot crowd out rare ones. When exporting, the reservoir size is
+   * allocated to the strata according to the {@link StratumBudgetPolicy}, hence the total number of
+   * exported spans per period is still bounded by the reservoir size. The p-values of the spans are
+   * adjusted for every stratum separately, hence the adjusted counts remain correct.
+   *
+   * <p>Typical stratum key functions are {@code ReadableSpan::getName}, {@code
+   * ReadableSpan::getKind} or {@code span -> span.getAttribute(key)}. The function is called for
+   * every ended sampled span and should therefore be cheap. Spans for which the function returns
+   * {@code null} form a stratum of their own.
+   *
+   * <p><b>Memory:</b> until the export, every stratum, including the overflow stratum, may hold up
+   * to {@code reservoirSize} spans. Hence, every stripe may buffer up to {@code
+   * min(maxNumberOfStrata + 1, reservoirSize)} times {@code reservoirSize} spans instead of {@code
+   * reservoirSize}. With the default maximum of 100 strata, that is up to 101 times {@code
+   * reservoirSize} spans, for example more than 400,000 spans for a reservoir size of 4096. Reduce
+   * the maximum number of strata or the reservoir size accordingly.
+   *
+   * <p>By default, stratified mode is disabled and all spans are collected in a single reservoir.
+   *
+   * @param stratumKeyFunction returns the stratum key of a span
+   * @return this builder
+   * @see #setMaxNumberOfStrata(int)
+   * @see #setStratumBudgetPolicy(StratumBudgetPolicy)
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setStratumKeyFunction(
+      Function<? super ReadableSpan, ?> stratumKeyFunction) {
+    this.stratumKeyFunction = requireNonNull(stratumKeyFunction, "stratumKeyFunction");
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of strata per export period used in stratified mode.
+   *
+   * <p>Once the maximum number of strata is reached, spans with further stratum keys are collected
+   * in a single overflow stratum. The maximum number of strata is reduced to one less than the
+   * reservoir size if larger, so that every stratum is allocated at least one span when exporting.
+   *
+   * <p><b>Memory:</b> until the export, every stratum, including the overflow stratum, may hold up
+   * to {@code reservoirSize} spans. Hence, every stripe may buffer up to {@code
+   * min(maxNumberOfStrata + 1, reservoirSize)} times {@code reservoirSize} spans. With the default
+   * maximum of 100 strata, that is up to 101 times {@code reservoirSize} spans.
+   *
+   * <p>If unset, defaults to {@value #DEFAULT_MAX_NUMBER_OF_STRATA}. Ignored, unless stratified
+   * mode is enabled by {@link #setStratumKeyFunction(Function)}.
+   *
+   * @param maxNumberOfStrata the maximum number of strata
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setMaxNumberOfStrata(
+      int maxNumberOfStrata) {
+    this.maxNumberOfStrata = maxNumberOfStrata;
+    return this;
+  }
+
+  /**
+   * Sets the policy for allocating the reservoir size to the strata in stratified mode.
+   *
+   * <p>If unset, defaults to {@link StratumBudgetPolicy#SQUARE_ROOT}. Ignored, unless stratified
+   * mode is enabled by {@link #setStratumKeyFunction(Function)}.
+   *
+   * @param stratumBudgetPolicy the stratum budget policy
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setStratumBudgetPolicy(
+      StratumBudgetPolicy stratumBudgetPolicy) {
+    this.stratumBudgetPolicy = requireNonNull(stratumBudgetPolicy, "stratumBudgetPolicy");
+    return this;
+  }
+
+  /**
+   * Enables or disables the compact encoding of spans kept by the reservoir.
+   *
+   * <p>By default, the reservoir references the ended spans until they are exported, including all
+   * objects referenced by them, like attributes, events and links. For large reservoirs, these
+   * objects can make up a significant part of the old generation of the heap. If compact encoding
+   * is enabled, a span that is kept by the reservoir is encoded into a single byte array when it
+   * ends and is not referenced anymore. Span names, attribute keys, resources and instrumentation
+   * scopes are stored only once per export period. The {@link
+   * io.opentelemetry.sdk.trace.data.SpanData} is only decoded for the spans that are finally
+   * exported. Encoding requires some processing time on the thread that ends the span.
+   *
+   * <p>If unset, compact encoding is disabled.
+   *
+   * @param compactSpanEncoding whether to encode kept spans
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setCompactSpanEncoding(
+      boolean compactSpanEncoding) {
+    this.compactSpanEncoding = compactSpanEncoding;
+    return this;
+  }
+
+  /**
+   * Enables or disables trace-complete mode, in which the spans of a local trace are kept or
+   * discarded together.
+   *
+   * <p>In trace-complete mode, the spans of a local trace, which are the spans of a trace that end
+   * within this process, are collected until the local root span, the span without parent or with a
+   * remote parent, has ended. Then the local trace is added to the reservoir as a whole. All spans
+   * of a trace share the same r-value, hence they are kept or discarded together. The reservoir
+   * size is the maximum number of spans, not traces, exported per period. Large traces therefore
+   * occupy more of the reservoir than small ones. The p-values of the exported spans are adjusted
+   * as in the default mode, such that the adjusted counts remain correct. A trace with more spans
+   * than the reservoir size is never exported. It is discarded like any other trace that does not
+   * fit, and its spans are counted by the {@code oversizedTraceSpans} metric, as the adjusted
+   * counts of the exported spans cannot account for them.
+   *
+   * <p>Spans of incomplete traces are kept in memory until the local root span ends, but at most
+   * for the trace timeout, and the number of such pending spans is limited. Traces that exceed
+   * either limit are added to the reservoir incomplete. Spans of a trace that end after its local
+   * root span get the same key and are therefore most likely kept or discarded like the trace.
+   *
+   * <p>Trace-complete mode cannot be combined with stratified mode. If unset, trace-complete mode
+   * is disabled and spans are sampled individually.
+   *
+   * @param traceCompleteSampling whether to keep or discard the spans of local traces together
+   * @return this builder
+   * @see #setMaxNumberOfPendingSpans(int)
+   * @see #setTraceTimeoutNanos(long)
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setTraceCompleteSampling(
+      boolean traceCompleteSampling) {
+    this.traceCompleteSampling = traceCompleteSampling;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of spans of incomplete traces kept in memory in trace-complete mode.
+   *
+   * <p>If the limit is exceeded, the traces with the oldest pending spans are added to the
+   * reservoir incomplete. With multiple stripes, the limit is shared evenly by the stripes.
+   *
+   * <p>If unset, defaults to the reservoir size. Ignored, unless trace-complete mode is enabled by
+   * {@link #setTraceCompleteSampling(boolean)}.
+   *
+   * @param maxNumberOfPendingSpans the maximum number of pending spans
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setMaxNumberOfPendingSpans(
+      int maxNumberOfPendingSpans) {
+    this.maxNumberOfPendingSpans = maxNumberOfPendingSpans;
+    return this;
+  }
+
+  /**
+   * Sets the time after which an incomplete trace is added to the reservoir in trace-complete mode,
+   * measured from the end of its first span.
+   *
+   * <p>Timed out traces are detected at the end of every export period, hence an incomplete trace
+   * may be pending for up to the trace timeout plus the export period.
+   *
+   * <p>If unset, defaults to the export period. Ignored, unless trace-complete mode is enabled by
+   * {@link #setTraceCompleteSampling(boolean)}.
+   *
+   * @param traceTimeoutNanos the trace timeout in nanoseconds
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setTraceTimeoutNanos(
+      long traceTimeoutNanos) {
+    this.traceTimeoutNanos = traceTimeoutNanos;
+    return this;
+  }
+
+  /**
+   * Sets an executor that runs the periodic exports, flushes and exporter timeouts of the span
+   * processor.
+   *
+   * <p>By default, these tasks are run by a scheduler shared by all span processors in the JVM,
+   * which hands them over to virtual threads on Java 21 or later, and otherwise to daemon threads
+   * that are started on demand and terminate when idle. Setting an executor gives control over the
+   * threads, for example to limit their number. The span processor does not shut down the executor.
+   *
+   * <p>Reservoir finalization, which may take some time for large reservoirs, and the export call
+   * itself are run on the executor. A flush is submitted to the executor immediately and completes
+   * as soon as its batch has been exported. If the executor rejects a flush, the flush fails.
+   *
+   * @param executorService the executor
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setExecutorService(
+      ScheduledExecutorService executorService) {
+    this.executorService = requireNonNull(executorService, "executorService");
+    return this;
+  }
+
+  /**
+   * Sets the {@link MeterProvider} used to report the current reservoir size and export period, the
+   * durations of reservoir finalization and export, the number of dropped spans, and the number of
+   * incomplete traces in trace-complete mode.
+   *
+   * <p>If unset, no metrics are reported.
+   *
+   * @param meterProvider the meter provider
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentReservoirSamplingSpanProcessorBuilder setMeterProvider(
+      MeterProvider meterProvider) {
+    this.meterProvider = requireNonNull(meterProvider, "meterProvider");
+    return this;
+  }
+
+  // visible for testing
+  @CanIgnoreReturnValue
+  ConsistentReservoirSamplingSpanProcessorBuilder setRandomGenerator(
+      RandomGenerator randomGenerator) {
+    this.randomGenerator = randomGenerator;
+    return this;
+  }
+
+  /**
+   * Returns a new {@link SpanProcessor} with the configuration of this builder.
+   *
+   * @return a span processor
+   */
+  public SpanProcessor build() {
+    AdaptiveReservoirSizing adaptiveReservoirSizing = null;
+    if (targetExportedSpansPerSecond != 0) {
+      adaptiveReservoirSizing =
+          new AdaptiveReservoirSizing(
+              targetExportedSpansPerSecond,
+              reservoirSize,
+              minExportPeriodNanos != 0
+                  ? minExportPeriodNanos
+                  : Math.max(1, exportPeriodNanos / DEFAULT_MIN_EXPORT_PERIOD_DIVISOR),
+              exportPeriodNanos);
+    }
+    return new ConsistentReservoirSamplingSpanProcessor(
+        spanExporter,
+        exportPeriodNanos,
+        reservoirSize,
+        exporterTimeoutNanos,
+        numberOfStripes,
+        maxConcurrentExports,
+        exportBackPressureStrategy,
+        randomGenerator,
+        adaptiveReservoirSizing,
+        stratumKeyFunction,
+        maxNumberOfStrata,
+        stratumBudgetPolicy,
+        compactSpanEncoding,
+        traceCompleteSampling,
+        maxNumberOfPendingSpans != 0 ? maxNumberOfPendingSpans : reservoirSize,
+        traceTimeoutNanos != 0 ? traceTimeoutNanos : exportPeriodNanos,
+        executorService,
+        meterProvider);
+  }
+}
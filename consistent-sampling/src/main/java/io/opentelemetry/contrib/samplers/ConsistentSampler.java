@@ -7,6 +7,7 @@ package io.opentelemetry.contrib.samplers;
 
 import static java.util.Objects.requireNonNull;
 
+import io.opentelemetry.api.common.AttributeKey;
 import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.Span;
 import io.opentelemetry.api.trace.SpanContext;
@@ -19,6 +20,7 @@ import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
 import io.opentelemetry.sdk.trace.samplers.SamplingResult;
 import java.util.List;
 import java.util.function.LongSupplier;
+import javax.annotation.concurrent.Immutable;
 
 /** Abstract base class for consistent samplers. */
 public abstract class ConsistentSampler implements Sampler {
@@ -160,6 +162,165 @@ public abstract class ConsistentSampler implements Sampler {
         nanoTimeSupplier);
   }
 
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate, like {@link #rateLimited(double, double)}, but scales
+   * better if many threads start spans concurrently.
+   *
+   * <p>Spans are counted using striped counters, and the sampling probability is only updated every
+   * 10 milliseconds. This avoids contention on a shared state, at the expense of reacting to load
+   * changes with a delay of up to one update interval.
+   *
+   * @param targetSpansPerSecondLimit the desired spans per second limit
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   */
+  public static ConsistentSampler stripedRateLimited(
+      double targetSpansPerSecondLimit, double adaptationTimeSeconds) {
+    return stripedRateLimited(
+        targetSpansPerSecondLimit, adaptationTimeSeconds, RValueGenerators.getDefault());
+  }
+
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate, like {@link #rateLimited(double, double,
+   * RValueGenerator)}, but scales better if many threads start spans concurrently.
+   *
+   * @param targetSpansPerSecondLimit the desired spans per second limit
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param rValueGenerator the function to use for generating the r-value
+   * @see #stripedRateLimited(double, double)
+   */
+  public static ConsistentSampler stripedRateLimited(
+      double targetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      RValueGenerator rValueGenerator) {
+    return stripedRateLimited(
+        targetSpansPerSecondLimit, adaptationTimeSeconds, rValueGenerator, System::nanoTime);
+  }
+
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate, but scales better if many threads start spans
+   * concurrently.
+   *
+   * @param targetSpansPerSecondLimit the desired spans per second limit
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param rValueGenerator the function to use for generating the r-value
+   * @param nanoTimeSupplier a supplier for the current nano time
+   */
+  static ConsistentSampler stripedRateLimited(
+      double targetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      RValueGenerator rValueGenerator,
+      LongSupplier nanoTimeSupplier) {
+    return new ConsistentStripedRateLimitingSampler(
+        targetSpansPerSecondLimit,
+        adaptationTimeSeconds,
+        rValueGenerator,
+        RandomGenerator.getDefault(),
+        nanoTimeSupplier,
+        ConsistentStripedRateLimitingSampler.DEFAULT_TICK_NANOS);
+  }
+
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate separately for each value of the given attribute, and
+   * to meet the total target span rate for all values.
+   *
+   * <p>A single frequent attribute value, like a frequently called endpoint, cannot use up the
+   * sampling budget of the other values. Estimates are kept for at most the given number of
+   * attribute values. If this number is exceeded, estimates of rare or no longer seen values are
+   * evicted.
+   *
+   * @param attributeKey the key of the attribute whose values are rate-limited separately
+   * @param targetSpansPerSecondLimitPerValue the desired spans per second limit for each value
+   * @param totalTargetSpansPerSecondLimit the desired spans per second limit for all values
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param maxNumberOfValues the maximum number of attribute values for which estimates are kept
+   */
+  public static ConsistentSampler keyedRateLimited(
+      AttributeKey<?> attributeKey,
+      double targetSpansPerSecondLimitPerValue,
+      double totalTargetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      int maxNumberOfValues) {
+    return keyedRateLimited(
+        attributeKey,
+        targetSpansPerSecondLimitPerValue,
+        totalTargetSpansPerSecondLimit,
+        adaptationTimeSeconds,
+        maxNumberOfValues,
+        RValueGenerators.getDefault());
+  }
+
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate separately for each value of the given attribute, and
+   * to meet the total target span rate for all values.
+   *
+   * @param attributeKey the key of the attribute whose values are rate-limited separately
+   * @param targetSpansPerSecondLimitPerValue the desired spans per second limit for each value
+   * @param totalTargetSpansPerSecondLimit the desired spans per second limit for all values
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param maxNumberOfValues the maximum number of attribute values for which estimates are kept
+   * @param rValueGenerator the function to use for generating the r-value
+   * @see #keyedRateLimited(AttributeKey, double, double, double, int)
+   */
+  public static ConsistentSampler keyedRateLimited(
+      AttributeKey<?> attributeKey,
+      double targetSpansPerSecondLimitPerValue,
+      double totalTargetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      int maxNumberOfValues,
+      RValueGenerator rValueGenerator) {
+    return keyedRateLimited(
+        attributeKey,
+        targetSpansPerSecondLimitPerValue,
+        totalTargetSpansPerSecondLimit,
+        adaptationTimeSeconds,
+        maxNumberOfValues,
+        rValueGenerator,
+        System::nanoTime);
+  }
+
+  /**
+   * Returns a new {@link ConsistentSampler} that attempts to adjust the sampling probability
+   * dynamically to meet the target span rate separately for each value of the given attribute, and
+   * to meet the total target span rate for all values.
+   *
+   * @param attributeKey the key of the attribute whose values are rate-limited separately
+   * @param targetSpansPerSecondLimitPerValue the desired spans per second limit for each value
+   * @param totalTargetSpansPerSecondLimit the desired spans per second limit for all values
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param maxNumberOfValues the maximum number of attribute values for which estimates are kept
+   * @param rValueGenerator the function to use for generating the r-value
+   * @param nanoTimeSupplier a supplier for the current nano time
+   */
+  static ConsistentSampler keyedRateLimited(
+      AttributeKey<?> attributeKey,
+      double targetSpansPerSecondLimitPerValue,
+      double totalTargetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      int maxNumberOfValues,
+      RValueGenerator rValueGenerator,
+      LongSupplier nanoTimeSupplier) {
+    return new ConsistentKeyedRateLimitingSampler(
+        attributeKey,
+        targetSpansPerSecondLimitPerValue,
+        totalTargetSpansPerSecondLimit,
+        adaptationTimeSeconds,
+        maxNumberOfValues,
+        rValueGenerator,
+        RandomGenerator.getDefault(),
+        nanoTimeSupplier);
+  }
+
   /**
    * Returns a {@link ConsistentSampler} that samples a span if both this and the other given
    * consistent sampler would sample the span.
@@ -172,6 +333,10 @@ public abstract class ConsistentSampler implements Sampler {
    * called for each sampler individually. Also, the combined sampler is more efficient than
    * evaluating the two samplers individually and combining both results afterwards.
    *
+   * <p>Chains of composed samplers are flattened into a single composed sampler that evaluates
+   * samplers without side effects first. Samplers with side effects, like rate-limiting samplers,
+   * are not evaluated once the result is already known.
+   *
    * @param otherConsistentSampler the other consistent sampler
    * @return the composed consistent sampler
    */
@@ -179,7 +344,7 @@ public abstract class ConsistentSampler implements Sampler {
     if (otherConsistentSampler == this) {
       return this;
     }
-    return new ConsistentComposedAndSampler(
+    return ConsistentComposedAndSampler.create(
         this, otherConsistentSampler, RValueGenerators.getDefault());
   }
 
@@ -195,6 +360,10 @@ public abstract class ConsistentSampler implements Sampler {
    * called for each sampler individually. Also, the combined sampler is more efficient than
    * evaluating the two samplers individually and combining both results afterwards.
    *
+   * <p>Chains of composed samplers are flattened into a single composed sampler that evaluates
+   * samplers without side effects first. Samplers with side effects, like rate-limiting samplers,
+   * are not evaluated once the result is already known.
+   *
    * @param otherConsistentSampler the other consistent sampler
    * @return the composed consistent sampler
    */
@@ -202,7 +371,7 @@ public abstract class ConsistentSampler implements Sampler {
     if (otherConsistentSampler == this) {
       return this;
     }
-    return new ConsistentComposedOrSampler(
+    return ConsistentComposedOrSampler.create(
         this, otherConsistentSampler, RValueGenerators.getDefault());
   }
 
@@ -212,14 +381,11 @@ public abstract class ConsistentSampler implements Sampler {
     this.rValueGenerator = requireNonNull(rValueGenerator);
   }
 
-  private static boolean isInvariantViolated(
-      OtelTraceState otelTraceState, boolean isParentSampled) {
-    if (otelTraceState.hasValidR() && otelTraceState.hasValidP()) {
+  private static boolean isInvariantViolated(int p, int r, boolean isParentSampled) {
+    if (OtelTraceState.isValidR(r) && OtelTraceState.isValidP(p)) {
       // if valid p- and r-values are given, they must be consistent with the isParentSampled flag
       // see
       // https://github.com/open-telemetry/opentelemetry-specification/blob/main/specification/trace/tracestate-probability-sampling.md#sampled-flag
-      int p = otelTraceState.getP();
-      int r = otelTraceState.getR();
       int maxP = OtelTraceState.getMaxP();
       boolean isInvariantTrue = ((p <= r) == isParentSampled) || (isParentSampled && (p == maxP));
       return !isInvariantTrue;
@@ -244,59 +410,129 @@ public abstract class ConsistentSampler implements Sampler {
 
     TraceState parentTraceState = parentSpanContext.getTraceState();
     String otelTraceStateString = parentTraceState.get(OtelTraceState.TRACE_STATE_KEY);
-    OtelTraceState otelTraceState = OtelTraceState.parse(otelTraceStateString);
 
-    if (!otelTraceState.hasValidR() || isInvariantViolated(otelTraceState, isParentSampled)) {
+    // the parsed state is only needed to retain other key-value pairs, the common case of a state
+    // consisting of p- and r-values only is handled without allocating
+    OtelTraceState otelTraceState = null;
+    int p;
+    int r;
+    int packed = OtelTraceState.parsePacked(otelTraceStateString);
+    if (packed != OtelTraceState.getNotPackable()) {
+      p = OtelTraceState.unpackP(packed);
+      r = OtelTraceState.unpackR(packed);
+    } else {
+      otelTraceState = OtelTraceState.parse(otelTraceStateString);
+      p = otelTraceState.getP();
+      r = otelTraceState.getR();
+    }
+
+    if (!OtelTraceState.isValidR(r) || isInvariantViolated(p, r, isParentSampled)) {
       // unset p-value in case of an invalid r-value or in case of any invariant violation
-      otelTraceState.invalidateP();
+      p = OtelTraceState.getInvalidP();
     }
 
     // generate new r-value if not available
-    if (!otelTraceState.hasValidR()) {
-      otelTraceState.setR(Math.min(rValueGenerator.generate(traceId), OtelTraceState.getMaxR()));
+    if (!OtelTraceState.isValidR(r)) {
+      r = Math.min(rValueGenerator.generate(traceId), OtelTraceState.getMaxR());
+      if (!OtelTraceState.isValidR(r)) {
+        r = OtelTraceState.getInvalidR();
+      }
     }
 
-    // determine and set new p-value that is used for the sampling decision
-    int newP = getP(otelTraceState.getP(), isRoot);
-    otelTraceState.setP(newP);
+    // determine new p-value that is used for the sampling decision
+    p = getP(p, isRoot, attributes);
+    if (!OtelTraceState.isValidP(p)) {
+      p = OtelTraceState.getInvalidP();
+    }
 
     // determine sampling decision
     boolean isSampled;
-    if (otelTraceState.hasValidP()) {
-      isSampled = (otelTraceState.getP() <= otelTraceState.getR());
+    if (OtelTraceState.isValidP(p)) {
+      isSampled = (p <= r);
     } else {
       // if new p-value is invalid, respect sampling decision of parent
       isSampled = isParentSampled;
     }
+
     SamplingDecision samplingDecision =
         isSampled ? SamplingDecision.RECORD_AND_SAMPLE : SamplingDecision.DROP;
 
     // invalidate p-value if not sampled
     if (!isSampled) {
-      otelTraceState.invalidateP();
+      p = OtelTraceState.getInvalidP();
     }
 
-    String newOtTraceState = otelTraceState.serialize();
+    if (otelTraceState == null) {
+      return ConsistentSamplingResult.get(samplingDecision, p, r);
+    }
 
-    return new SamplingResult() {
+    otelTraceState.setP(p);
+    otelTraceState.setR(r);
+    return new ConsistentSamplingResult(samplingDecision, otelTraceState.serialize());
+  }
 
-      @Override
-      public SamplingDecision getDecision() {
-        return samplingDecision;
-      }
+  @Immutable
+  private static final class ConsistentSamplingResult implements SamplingResult {
+
+    // results for states without other key-value pairs indexed by the sampling decision and the
+    // packed p- and r-values
+    private static final ConsistentSamplingResult[] CACHED_RESULTS = createCachedResults();
+
+    private final SamplingDecision samplingDecision;
+    private final String otelTraceState;
+
+    private ConsistentSamplingResult(SamplingDecision samplingDecision, String otelTraceState) {
+      this.samplingDecision = samplingDecision;
+      this.otelTraceState = otelTraceState;
+    }
+
+    private static ConsistentSamplingResult get(SamplingDecision samplingDecision, int p, int r) {
+      return CACHED_RESULTS[getIndex(samplingDecision, OtelTraceState.pack(p, r))];
+    }
 
-      @Override
-      public Attributes getAttributes() {
-        return Attributes.empty();
+    private static int getIndex(SamplingDecision samplingDecision, int packed) {
+      return (packed << 1) | (samplingDecision == SamplingDecision.RECORD_AND_SAMPLE ? 1 : 0);
+    }
+
+    private static ConsistentSamplingResult[] createCachedResults() {
+      int maxPacked = OtelTraceState.pack(OtelTraceState.getMaxP(), OtelTraceState.getMaxR());
+      ConsistentSamplingResult[] results =
+          new ConsistentSamplingResult[getIndex(SamplingDecision.RECORD_AND_SAMPLE, maxPacked) + 1];
+      for (int p = OtelTraceState.getInvalidP(); p <= OtelTraceState.getMaxP(); ++p) {
+        for (int r = OtelTraceState.getInvalidR(); r <= OtelTraceState.getMaxR(); ++r) {
+          String serialized = OtelTraceState.serialize(p, r);
+          int packed = OtelTraceState.pack(p, r);
+          for (SamplingDecision samplingDecision :
+              new SamplingDecision[] {SamplingDecision.DROP, SamplingDecision.RECORD_AND_SAMPLE}) {
+            results[getIndex(samplingDecision, packed)] =
+                new ConsistentSamplingResult(samplingDecision, serialized);
+          }
+        }
       }
+      return results;
+    }
+
+    @Override
+    public SamplingDecision getDecision() {
+      return samplingDecision;
+    }
+
+    @Override
+    public Attributes getAttributes() {
+      return Attributes.empty();
+    }
 
-      @Override
-      public TraceState getUpdatedTraceState(TraceState parentTraceState) {
-        return parentTraceState.toBuilder()
-            .put(OtelTraceState.TRACE_STATE_KEY, newOtTraceState)
-            .build();
+    @Override
+    public TraceState getUpdatedTraceState(TraceState parentTraceState) {
+      // the parent trace state can be reused as is, if the "ot" entry does not change, which is the
+      // case for child spans of sampled spans with the same p-value
+      if (otelTraceState.equals(parentTraceState.get(OtelTraceState.TRACE_STATE_KEY))) {
+        return parentTraceState;
       }
-    };
+      return parentTraceState.toBuilder()
+          .put(OtelTraceState.TRACE_STATE_KEY, otelTraceState)
+          .build();
+    }
   }
 
   /**
@@ -337,6 +573,34 @@ public abstract class ConsistentSampler implements Sampler {
    */
   protected abstract int getP(int parentP, boolean isRoot);
 
+  /**
+   * Returns the p-value that is used for the sampling decision of a span with the given attributes.
+   *
+   * <p>By default, the attributes are ignored and the p-value is determined by {@link #getP(int,
+   * boolean)}. The same restrictions apply, in particular the returned p-value must not depend on
+   * the r-value.
+   *
+   * @param parentP is the p-value (if known) that was used for a consistent sampling decision by
+   *     the parent
+   * @param isRoot is true for the root span
+   * @param attributes the attributes of the span
+   * @return the p-value
+   */
+  int getP(int parentP, boolean isRoot, Attributes attributes) {
+    return getP(parentP, isRoot);
+  }
+
+  /**
+   * Returns {@code true} if {@link #getP(int, boolean)} may update state that is shared between
+   * spans, like the rate estimate of a rate-limiting sampler. Composed samplers evaluate samplers
+   * without side effects first and skip samplers with side effects if the result is already known.
+   *
+   * @return {@code false} if the sampler is free of side effects
+   */
+  boolean hasSideEffects() {
+    return true;
+  }
+
   /**
    * Returns the sampling probability for a given p-value.
    *
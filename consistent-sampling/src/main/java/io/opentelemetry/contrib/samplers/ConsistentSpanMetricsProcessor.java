@@ -0,0 +1,318 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static io.opentelemetry.api.internal.Utils.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.BatchCallback;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Predicate;
+
+/**
+ * A {@link SpanProcessor} which estimates the number of spans, the number of failed spans, and the
+ * distribution of span durations per span name from consistently sampled spans and reports the
+ * estimates as metrics.
+ *
+ * <p>A span sampled by a {@link ConsistentSampler} carries its p-value in the trace state. Every
+ * sampled span stands for 2^p spans, its adjusted count, and summing up the adjusted counts gives
+ * unbiased estimates of the corresponding quantities of all spans, including the unsampled ones.
+ * The rate and error rate of an operation can be derived from the reported counters by the metrics
+ * backend.
+ *
+ * <p>The estimates are accumulated in {@link DoubleAdder}s, which are updated without locking by
+ * the threads ending spans, and are read only when metrics are collected. Hence, the overhead on
+ * the thread ending a span is small and independent of the number of ended spans. The following
+ * asynchronous instruments are reported:
+ *
+ * <ul>
+ *   <li>{@code estimatedSpans}: the estimated number of ended spans
+ *   <li>{@code estimatedErrorSpans}: the estimated number of ended spans with error status
+ *   <li>{@code estimatedSpanDurationSum}: the estimated total duration of ended spans in ms
+ *   <li>{@code estimatedSpanDurationBucket}: the estimated number of ended spans with a duration
+ *       less than or equal to the bound given by the {@code le} attribute in ms
+ * </ul>
+ *
+ * <p>All of them have the span name as {@code spanName} attribute. If the number of distinct span
+ * names exceeds the configured maximum, further span names are reported together with the {@code
+ * otel.metric.overflow} attribute instead. Sampled spans without valid p-value, which cannot be
+ * accounted for, are counted by {@code spansWithUnknownAdjustedCount}.
+ */
+public final class ConsistentSpanMetricsProcessor implements SpanProcessor {
+
+  private static final String INSTRUMENTATION_SCOPE_NAME = "io.opentelemetry.contrib.samplers";
+  private static final AttributeKey<String> SPAN_NAME_KEY = AttributeKey.stringKey("spanName");
+  private static final AttributeKey<Boolean> OVERFLOW_KEY =
+      AttributeKey.booleanKey("otel.metric.overflow");
+  private static final AttributeKey<String> LE_KEY = AttributeKey.stringKey("le");
+  private static final Attributes SPAN_PROCESSOR_TYPE_ATTRIBUTES =
+      Attributes.of(
+          AttributeKey.stringKey("spanProcessorType"),
+          ConsistentSpanMetricsProcessor.class.getSimpleName());
+  private static final double NANOS_PER_MILLISECOND = 1e6;
+
+  // visible for testing
+  static final List<Double> DEFAULT_DURATION_BUCKET_BOUNDARIES =
+      Arrays.asList(
+          0., 5., 10., 25., 50., 75., 100., 250., 500., 750., 1000., 2500., 5000., 7500., 10000.);
+
+  private final double[] durationBucketBoundaries;
+  private final int maxNumberOfSpanNames;
+  private final Predicate<? super ReadableSpan> errorPredicate;
+  private final ConcurrentMap<String, SpanStatistics> statistics = new ConcurrentHashMap<>();
+  private final SpanStatistics overflowStatistics;
+  private final LongCounter spansWithUnknownAdjustedCount;
+  private final BatchCallback batchCallback;
+  private final AtomicBoolean isShutdown = new AtomicBoolean(false);
+
+  /** The estimates for spans with the same name. */
+  private static final class SpanStatistics {
+    private final Attributes attributes;
+    private final Attributes[] bucketAttributes;
+    private final DoubleAdder estimatedCount = new DoubleAdder();
+    private final DoubleAdder estimatedErrorCount = new DoubleAdder();
+    private final DoubleAdder estimatedDurationSumMillis = new DoubleAdder();
+    // the counts of the individual buckets, reported cumulatively
+    private final DoubleAdder[] estimatedBucketCounts;
+
+    private SpanStatistics(Attributes attributes, double[] durationBucketBoundaries) {
+      this.attributes = attributes;
+      int numberOfBuckets = durationBucketBoundaries.length + 1;
+      this.bucketAttributes = new Attributes[numberOfBuckets];
+      this.estimatedBucketCounts = new DoubleAdder[numberOfBuckets];
+      for (int i = 0; i < numberOfBuckets; ++i) {
+        String upperBound =
+            i < durationBucketBoundaries.length
+                ? Double.toString(durationBucketBoundaries[i])
+                : "+Inf";
+        bucketAttributes[i] = attributes.toBuilder().put(LE_KEY, upperBound).build();
+        estimatedBucketCounts[i] = new DoubleAdder();
+      }
+    }
+
+    private void record(
+        double adjustedCount, double durationMillis, int bucketIndex, boolean isError) {
+      estimatedCount.add(adjustedCount);
+      if (isError) {
+        estimatedErrorCount.add(adjustedCount);
+      }
+      estimatedDurationSumMillis.add(adjustedCount * durationMillis);
+      estimatedBucketCounts[bucketIndex].add(adjustedCount);
+    }
+
+    private void observe(
+        ObservableDoubleMeasurement spans,
+        ObservableDoubleMeasurement errorSpans,
+        ObservableDoubleMeasurement durationSum,
+        ObservableDoubleMeasurement durationBucket) {
+      spans.record(estimatedCount.sum(), attributes);
+      errorSpans.record(estimatedErrorCount.sum(), attributes);
+      durationSum.record(estimatedDurationSumMillis.sum(), attributes);
+      double cumulativeCount = 0;
+      for (int i = 0; i < estimatedBucketCounts.length; ++i) {
+        cumulativeCount += estimatedBucketCounts[i].sum();
+        durationBucket.record(cumulativeCount, bucketAttributes[i]);
+      }
+    }
+  }
+
+  /**
+   * Creates a new {@link SpanProcessor} which reports estimated span metrics with default
+   * configuration.
+   *
+   * @param meterProvider the meter provider used to report the metrics
+   * @return a span processor
+   */
+  public static SpanProcessor create(MeterProvider meterProvider) {
+    return builder(meterProvider).build();
+  }
+
+  /**
+   * Returns a new builder for a {@link SpanProcessor} which reports estimated span metrics.
+   *
+   * @param meterProvider the meter provider used to report the metrics
+   * @return a builder
+   */
+  public static ConsistentSpanMetricsProcessorBuilder builder(MeterProvider meterProvider) {
+    return new ConsistentSpanMetricsProcessorBuilder(meterProvider);
+  }
+
+  ConsistentSpanMetricsProcessor(
+      MeterProvider meterProvider,
+      List<Double> durationBucketBoundaries,
+      int maxNumberOfSpanNames,
+      Predicate<? super ReadableSpan> errorPredicate) {
+    requireNonNull(meterProvider, "meterProvider");
+    requireNonNull(durationBucketBoundaries, "durationBucketBoundaries");
+    checkArgument(maxNumberOfSpanNames > 0, "maximum number of span names must be positive");
+    requireNonNull(errorPredicate, "errorPredicate");
+
+    this.durationBucketBoundaries = new double[durationBucketBoundaries.size()];
+    for (int i = 0; i < this.durationBucketBoundaries.length; ++i) {
+      double boundary = durationBucketBoundaries.get(i);
+      checkArgument(
+          !Double.isNaN(boundary) && (i == 0 || boundary > this.durationBucketBoundaries[i - 1]),
+          "duration bucket boundaries must be strictly increasing");
+      this.durationBucketBoundaries[i] = boundary;
+    }
+    this.maxNumberOfSpanNames = maxNumberOfSpanNames;
+    this.errorPredicate = errorPredicate;
+    this.overflowStatistics =
+        new SpanStatistics(Attributes.of(OVERFLOW_KEY, true), this.durationBucketBoundaries);
+
+    Meter meter = meterProvider.meterBuilder(INSTRUMENTATION_SCOPE_NAME).build();
+    this.spansWithUnknownAdjustedCount =
+        meter
+            .counterBuilder("spansWithUnknownAdjustedCount")
+            .setDescription("The number of sampled spans ignored because of a missing p-value")
+            .setUnit("1")
+            .build();
+    ObservableDoubleMeasurement spans =
+        meter
+            .counterBuilder("estimatedSpans")
+            .ofDoubles()
+            .setDescription("The estimated number of ended spans")
+            .setUnit("1")
+            .buildObserver();
+    ObservableDoubleMeasurement errorSpans =
+        meter
+            .counterBuilder("estimatedErrorSpans")
+            .ofDoubles()
+            .setDescription("The estimated number of ended spans with error status")
+            .setUnit("1")
+            .buildObserver();
+    ObservableDoubleMeasurement durationSum =
+        meter
+            .counterBuilder("estimatedSpanDurationSum")
+            .ofDoubles()
+            .setDescription("The estimated total duration of ended spans")
+            .setUnit("ms")
+            .buildObserver();
+    ObservableDoubleMeasurement durationBucket =
+        meter
+            .counterBuilder("estimatedSpanDurationBucket")
+            .ofDoubles()
+            .setDescription(
+                "The estimated number of ended spans with a duration less than or equal to the"
+                    + " upper bound")
+            .setUnit("1")
+            .buildObserver();
+    this.batchCallback =
+        meter.batchCallback(
+            () -> {
+              for (SpanStatistics spanStatistics : statistics.values()) {
+                spanStatistics.observe(spans, errorSpans, durationSum, durationBucket);
+              }
+              overflowStatistics.observe(spans, errorSpans, durationSum, durationBucket);
+            },
+            spans,
+            errorSpans,
+            durationSum,
+            durationBucket);
+  }
+
+  private static int getP(ReadableSpan span) {
+    String otelTraceStateString =
+        span.getSpanContext().getTraceState().get(OtelTraceState.TRACE_STATE_KEY);
+    int packed = OtelTraceState.parsePacked(otelTraceStateString);
+    if (packed == OtelTraceState.getNotPackable()) {
+      return OtelTraceState.parse(otelTraceStateString).getP();
+    }
+    return OtelTraceState.unpackP(packed);
+  }
+
+  static boolean hasErrorStatus(ReadableSpan span) {
+    return span.toSpanData().getStatus().getStatusCode() == StatusCode.ERROR;
+  }
+
+  private int getBucketIndex(double durationMillis) {
+    int index = Arrays.binarySearch(durationBucketBoundaries, durationMillis);
+    // an exact match belongs to the bucket with that upper bound
+    return index >= 0 ? index : -index - 1;
+  }
+
+  private SpanStatistics getStatistics(String spanName) {
+    SpanStatistics spanStatistics = statistics.get(spanName);
+    if (spanStatistics != null) {
+      return spanStatistics;
+    }
+    // concurrently ended spans may exceed the maximum by a few span names
+    if (statistics.size() >= maxNumberOfSpanNames) {
+      return overflowStatistics;
+    }
+    return statistics.computeIfAbsent(
+        spanName,
+        name -> new SpanStatistics(Attributes.of(SPAN_NAME_KEY, name), durationBucketBoundaries));
+  }
+
+  @Override
+  public void onStart(Context parentContext, ReadWriteSpan span) {}
+
+  @Override
+  public boolean isStartRequired() {
+    return false;
+  }
+
+  @Override
+  public void onEnd(ReadableSpan span) {
+    if (span == null || !span.getSpanContext().isSampled()) {
+      return;
+    }
+    int pval = getP(span);
+    if (!OtelTraceState.isValidP(pval)) {
+      spansWithUnknownAdjustedCount.add(1, SPAN_PROCESSOR_TYPE_ATTRIBUTES);
+      return;
+    }
+    if (pval == OtelTraceState.getMaxP()) {
+      // the adjusted count is zero, the span was sampled for other reasons than its probability
+      return;
+    }
+    double adjustedCount = Math.scalb(1., pval);
+    double durationMillis = span.getLatencyNanos() / NANOS_PER_MILLISECOND;
+    getStatistics(span.getName())
+        .record(
+            adjustedCount,
+            durationMillis,
+            getBucketIndex(durationMillis),
+            errorPredicate.test(span));
+  }
+
+  @Override
+  public boolean isEndRequired() {
+    return true;
+  }
+
+  @Override
+  public CompletableResultCode shutdown() {
+    if (!isShutdown.getAndSet(true)) {
+      batchCallback.close();
+    }
+    return CompletableResultCode.ofSuccess();
+  }
+
+  @Override
+  public CompletableResultCode forceFlush() {
+    // the estimates are reported when metrics are collected, there is nothing to flush
+    return CompletableResultCode.ofSuccess();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import io.opentelemetry.api.metrics.MeterProvider;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** Builder class for {@link ConsistentSpanMetricsProcessor}. */
+public final class ConsistentSpanMetricsProcessorBuilder {
+
+  private static final int DEFAULT_MAX_NUMBER_OF_SPAN_NAMES = 1000;
+
+  private final MeterProvider meterProvider;
+  private List<Double> durationBucketBoundaries =
+      ConsistentSpanMetricsProcessor.DEFAULT_DURATION_BUCKET_BOUNDARIES;
+  private int maxNumberOfSpanNames = DEFAULT_MAX_NUMBER_OF_SPAN_NAMES;
+  private Predicate<? super ReadableSpan> errorPredicate =
+      ConsistentSpanMetricsProcessor::hasErrorStatus;
+
+  ConsistentSpanMetricsProcessorBuilder(MeterProvider meterProvider) {
+    this.meterProvider = requireNonNull(meterProvider, "meterProvider");
+  }
+
+  /**
+   * Sets the upper bounds of the buckets of the estimated span duration distribution in
+   * milliseconds. The bounds must be strictly increasing. A last bucket without upper bound is
+   * always added.
+   *
+   * <p>If unset, defaults to 0, 5, 10, 25, 50, 75, 100, 250, 500, 750, 1000, 2500, 5000, 7500, and
+   * 10000 ms.
+   *
+   * @param durationBucketBoundaries the bucket boundaries in milliseconds
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentSpanMetricsProcessorBuilder setDurationBucketBoundaries(
+      List<Double> durationBucketBoundaries) {
+    this.durationBucketBoundaries =
+        new ArrayList<>(requireNonNull(durationBucketBoundaries, "durationBucketBoundaries"));
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of span names for which separate estimates are reported. Spans with
+   * further names are reported together as overflow.
+   *
+   * <p>If unset, defaults to 1000.
+   *
+   * @param maxNumberOfSpanNames the maximum number of span names
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentSpanMetricsProcessorBuilder setMaxNumberOfSpanNames(int maxNumberOfSpanNames) {
+    this.maxNumberOfSpanNames = maxNumberOfSpanNames;
+    return this;
+  }
+
+  /**
+   * Sets the predicate deciding whether an ended span counts as error.
+   *
+   * <p>If unset, spans with status code {@link io.opentelemetry.api.trace.StatusCode#ERROR} count
+   * as errors. The span status is only accessible through {@link ReadableSpan#toSpanData()}, which
+   * locks the span and allocates a span data object for every sampled span. If errors are
+   * recognizable by attributes, a predicate based on {@link ReadableSpan#getAttribute} avoids this
+   * cost, for example one that checks whether the {@code http.status_code} attribute is at least
+   * 500.
+   *
+   * @param errorPredicate the error predicate
+   * @return this builder
+   */
+  @CanIgnoreReturnValue
+  public ConsistentSpanMetricsProcessorBuilder setErrorPredicate(
+      Predicate<? super ReadableSpan> errorPredicate) {
+    this.errorPredicate = requireNonNull(errorPredicate, "errorPredicate");
+    return this;
+  }
+
+  /**
+   * Returns a new {@link SpanProcessor} with the configuration of this builder.
+   *
+   * @return a span processor
+   */
+  public SpanProcessor build() {
+    return new ConsistentSpanMetricsProcessor(
+        meterProvider, durationBucketBoundaries, maxNumberOfSpanNames, errorPredicate);
+  }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A set of {@link ConsistentReservoir}s, one for each stratum, which share a total reservoir size.
+ *
+ * <p>Every stratum collects items in a reservoir of full size. Only when the reservoir is
+ * finalized, the total reservoir size is allocated to the strata according to a {@link
+ * StratumBudgetPolicy}, and the reservoir of every stratum is reduced to its allocation by merging
+ * it into a reservoir of the allocated size. As merging into a smaller reservoir is exact, the
+ * result is the same as if each stratum had collected its items in a reservoir of the allocated
+ * size from the beginning. Therefore, finalizing every stratum separately yields correct adjusted
+ * counts per stratum.
+ *
+ * <p>The number of strata is bounded. Items of further strata are collected by a single overflow
+ * stratum. The number of strata including the overflow stratum never exceeds the reservoir size,
+ * such that every stratum that has collected items is allocated at least one of them, and no
+ * stratum is dropped when the reservoir size is allocated.
+ *
+ * <p>As every stratum may hold up to the full reservoir size before finalization, a stratified
+ * reservoir holds up to {@code min(maxNumberOfStrata + 1, reservoirSize)} times the reservoir size
+ * items, although at most the reservoir size items remain after finalization.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @param <T> the type of the items
+ */
+final class ConsistentStratifiedReservoir<T> {
+
+  // the stratum of items without stratum key
+  private static final Object MISSING_STRATUM_KEY = new Object();
+
+  // the stratum of items whose stratum key does not fit into the map of strata anymore
+  private static final Object OVERFLOW_STRATUM_KEY = new Object();
+
+  private final int reservoirSize;
+  private final int maxNumberOfStrata;
+  private final StratumBudgetPolicy stratumBudgetPolicy;
+  private final RandomGenerator randomGenerator;
+
+  private final Map<Object, ConsistentReservoir<T>> strata = new HashMap<>();
+  private long numberOfAddedItems = 0;
+  private long numberOfKeptItems = 0;
+
+  // the stratum of the most recently added item, which saves the map lookup as long as items of the
+  // same stratum are added, in particular if there is only a single stratum
+  @Nullable private Object lastStratumKey = null;
+  @Nullable private ConsistentReservoir<T> lastStratum = null;
+
+  private ConsistentStratifiedReservoir(
+      int reservoirSize,
+      int maxNumberOfStrata,
+      StratumBudgetPolicy stratumBudgetPolicy,
+      RandomGenerator randomGenerator) {
+    this.reservoirSize = reservoirSize;
+    // leave room for the overflow stratum, so that every stratum can be allocated an item
+    this.maxNumberOfStrata = Math.min(maxNumberOfStrata, reservoirSize - 1);
+    this.stratumBudgetPolicy = stratumBudgetPolicy;
+    this.randomGenerator = randomGenerator;
+  }
+
+  /**
+   * Returns a new empty stratified reservoir.
+   *
+   * @param reservoirSize the maximum total number of kept items after finalization
+   * @param maxNumberOfStrata the maximum number of strata, not including the overflow stratum,
+   *     which is reduced to one less than the reservoir size if larger
+   * @param stratumBudgetPolicy the policy for allocating the reservoir size to the strata
+   * @param randomGenerator a random generator
+   * @param <T> the type of the items
+   * @return a new stratified reservoir
+   */
+  static <T> ConsistentStratifiedReservoir<T> create(
+      int reservoirSize,
+      int maxNumberOfStrata,
+      StratumBudgetPolicy stratumBudgetPolicy,
+      RandomGenerator randomGenerator) {
+    return new ConsistentStratifiedReservoir<>(
+        reservoirSize, maxNumberOfStrata, stratumBudgetPolicy, randomGenerator);
+  }
+
+  /**
+   * Adds an item to the given stratum.
+   *
+   * @param stratumKey the key of the stratum, or {@code null} if the item has no stratum key
+   * @param key the key of the item as created by {@link ConsistentReservoir#createKey(int, long)}
+   * @param item the item
+   */
+  void addWithKey(@Nullable Object stratumKey, long key, T item) {
+    ConsistentReservoir<T> stratum = getStratum(stratumKey);
+    int sizeBefore = stratum.size();
+    stratum.addWithKey(key, item);
+    numberOfKeptItems += stratum.size() - sizeBefore;
+    numberOfAddedItems += 1;
+  }
+
+  /**
+   * Returns {@code true} if an item with the given key would be kept by the given stratum, if it
+   * was added now.
+   *
+   * @param stratumKey the key of the stratum, or {@code null} if the item has no stratum key
+   * @param key the key of the item
+   * @return {@code true} if the item would be kept
+   */
+  boolean wouldKeep(@Nullable Object stratumKey, long key) {
+    return getStratum(stratumKey).wouldKeep(key);
+  }
+
+  private ConsistentReservoir<T> getStratum(@Nullable Object stratumKey) {
+    if (stratumKey == null) {
+      stratumKey = MISSING_STRATUM_KEY;
+    }
+    ConsistentReservoir<T> stratum = lastStratum;
+    if (stratum == null || stratumKey != lastStratumKey) {
+      stratum = lookUpStratum(stratumKey);
+      lastStratumKey = stratumKey;
+      lastStratum = stratum;
+    }
+    return stratum;
+  }
+
+  private ConsistentReservoir<T> lookUpStratum(Object stratumKey) {
+    ConsistentReservoir<T> stratum = strata.get(stratumKey);
+    if (stratum != null) {
+      return stratum;
+    }
+    if (strata.size() >= maxNumberOfStrata) {
+      stratumKey = OVERFLOW_STRATUM_KEY;
+      stratum = strata.get(stratumKey);
+      if (stratum != null) {
+        return stratum;
+      }
+    }
+    stratum = ConsistentReservoir.create(reservoirSize, randomGenerator);
+    strata.put(stratumKey, stratum);
+    return stratum;
+  }
+
+  /**
+   * Merges the given stratified reservoirs and returns the merged reservoir, which has the smaller
+   * of both reservoir sizes.
+   *
+   * <p>The given reservoirs must not be used afterwards.
+   *
+   * @param reservoir1 a stratified reservoir
+   * @param reservoir2 another stratified reservoir
+   * @param <T> the type of the items
+   * @return the merged reservoir
+   */
+  static <T> ConsistentStratifiedReservoir<T> mergeIntoSmaller(
+      ConsistentStratifiedReservoir<T> reservoir1, ConsistentStratifiedReservoir<T> reservoir2) {
+    if (reservoir1.reservoirSize <= reservoir2.reservoirSize) {
+      reservoir1.merge(reservoir2);
+      return reservoir1;
+    } else {
+      reservoir2.merge(reservoir1);
+      return reservoir2;
+    }
+  }
+
+  /**
+   * Merges the given stratified reservoir into this one stratum by stratum. The reservoirs of the
+   * given stratified reservoir are taken over, hence it must not be used afterwards.
+   *
+   * @param other the stratified reservoir to merge into this one, must not have a smaller reservoir
+   *     size
+   */
+  void merge(ConsistentStratifiedReservoir<T> other) {
+    for (Map.Entry<Object, ConsistentReservoir<T>> entry : other.strata.entrySet()) {
+      Object stratumKey = entry.getKey();
+      ConsistentReservoir<T> stratum = strata.get(stratumKey);
+      if (stratum == null && strata.size() >= maxNumberOfStrata) {
+        stratumKey = OVERFLOW_STRATUM_KEY;
+        stratum = strata.get(stratumKey);
+      }
+      if (stratum == null) {
+        strata.put(stratumKey, entry.getValue());
+      } else {
+        strata.put(stratumKey, ConsistentReservoir.mergeIntoSmaller(stratum, entry.getValue()));
+      }
+    }
+    numberOfAddedItems += other.numberOfAddedItems;
+    numberOfKeptItems = 0;
+    for (ConsistentReservoir<T> stratum : strata.values()) {
+      numberOfKeptItems += stratum.size();
+    }
+    lastStratumKey = null;
+    lastStratum = null;
+  }
+
+  /**
+   * Returns the reservoirs of all strata reduced to their allocated reservoir sizes. Each of them
+   * must be finalized separately.
+   *
+   * @return the reservoirs of all strata
+   */
+  List<ConsistentReservoir<T>> getStrataWithinBudget() {
+    List<ConsistentReservoir<T>> result = new ArrayList<>(strata.size());
+    if (numberOfKeptItems <= reservoirSize) {
+      result.addAll(strata.values());
+      return result;
+    }
+
+    List<ConsistentReservoir<T>> reservoirs = new ArrayList<>(strata.values());
+    long[] numberOfAddedItemsPerStratum = new long[reservoirs.size()];
+    int[] numberOfKeptItemsPerStratum = new int[reservoirs.size()];
+    for (int i = 0; i < reservoirs.size(); ++i) {
+      numberOfAddedItemsPerStratum[i] = reservoirs.get(i).getNumberOfAddedItems();
+      numberOfKeptItemsPerStratum[i] = reservoirs.get(i).size();
+    }
+    int[] allocation =
+        allocate(
+            reservoirSize,
+            numberOfAddedItemsPerStratum,
+            numberOfKeptItemsPerStratum,
+            stratumBudgetPolicy);
+
+    for (int i = 0; i < reservoirs.size(); ++i) {
+      ConsistentReservoir<T> reservoir = reservoirs.get(i);
+      if (allocation[i] == 0) {
+        // only empty strata are not allocated anything, as there are not more strata than items
+        continue;
+      }
+      if (allocation[i] < reservoir.size()) {
+        ConsistentReservoir<T> reducedReservoir =
+            ConsistentReservoir.create(allocation[i], randomGenerator);
+        reducedReservoir.merge(reservoir);
+        reservoir = reducedReservoir;
+      }
+      result.add(reservoir);
+    }
+    return result;
+  }
+
+  /**
+   * Allocates the given total reservoir size to the strata.
+   *
+   * <p>First, every stratum is allocated a single item in the order of decreasing weight, as long
+   * as the reservoir size allows. The remaining reservoir size is distributed proportionally to the
+   * weights, such that no stratum is allocated more than its number of kept items. Rounding
+   * remainders are allocated one by one in the order of decreasing weight.
+   *
+   * @param reservoirSize the total reservoir size
+   * @param numberOfAddedItems the number of items added to each stratum
+   * @param numberOfKeptItems the number of items kept by each stratum
+   * @param stratumBudgetPolicy the policy that determines the weights of the strata
+   * @return the number of items allocated to each stratum
+   */
+  // visible for testing
+  static int[] allocate(
+      int reservoirSize,
+      long[] numberOfAddedItems,
+      int[] numberOfKeptItems,
+      StratumBudgetPolicy stratumBudgetPolicy) {
+    int numberOfStrata = numberOfKeptItems.length;
+    double[] weights = new double[numberOfStrata];
+    for (int i = 0; i < numberOfStrata; ++i) {
+      weights[i] = stratumBudgetPolicy.getWeight(numberOfAddedItems[i]);
+    }
+    Integer[] order = new Integer[numberOfStrata];
+    for (int i = 0; i < numberOfStrata; ++i) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (i, j) -> Double.compare(weights[j], weights[i]));
+
+    int[] allocation = new int[numberOfStrata];
+    int remaining = reservoirSize;
+    for (int i : order) {
+      if (remaining == 0) {
+        return allocation;
+      }
+      if (numberOfKeptItems[i] > 0) {
+        allocation[i] = 1;
+        remaining -= 1;
+      }
+    }
+
+    while (remaining > 0) {
+      double totalWeight = 0;
+      for (int i = 0; i < numberOfStrata; ++i) {
+        if (allocation[i] < numberOfKeptItems[i]) {
+          totalWeight += weights[i];
+        }
+      }
+      if (totalWeight == 0) {
+        // all strata are allocated all their kept items
+        break;
+      }
+      int distributed = 0;
+      for (int i = 0; i < numberOfStrata; ++i) {
+        if (allocation[i] < numberOfKeptItems[i]) {
+          int share =
+              (int)
+                  Math.min(
+                      numberOfKeptItems[i] - allocation[i],
+                      (long) (remaining * (weights[i] / totalWeight)));
+          allocation[i] += share;
+          distributed += share;
+        }
+      }
+      remaining -= distributed;
+      if (distributed == 0) {
+        for (int i : order) {
+          if (remaining == 0) {
+            break;
+          }
+          if (allocation[i] < numberOfKeptItems[i]) {
+            allocation[i] += 1;
+            remaining -= 1;
+          }
+        }
+      }
+    }
+    return allocation;
+  }
+
+  /** Returns {@code true} if no items are kept. */
+  boolean isEmpty() {
+    return numberOfKeptItems == 0;
+  }
+
+  /** Returns the number of items that remain after allocating the reservoir size to the strata. */
+  int size() {
+    return (int) Math.min(numberOfKeptItems, reservoirSize);
+  }
+
+  /** Returns the number of items added to this reservoir, including merged reservoirs. */
+  long getNumberOfAddedItems() {
+    return numberOfAddedItems;
+  }
+
+  // visible for testing
+  int getNumberOfStrata() {
+    return strata.size();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * This consistent {@link Sampler} adjusts the sampling probability dynamically to limit the rate of
+ * sampled spans, like {@link ConsistentRateLimitingSampler}, but is designed for high concurrency.
+ *
+ * <p>The same exponential smoothing is used to estimate the average waiting time between spans.
+ * However, instead of updating a shared state for every span, spans are only counted using a
+ * striped {@link LongAdder}. The counted spans are folded into the smoothed estimate in regular
+ * ticks by a single thread. Treating all spans of a tick as if they occurred at the end of the
+ * tick, the recursion for a tick of length {@code T} with {@code N} spans becomes
+ *
+ * <p>{@code A(n) = b * A(n-1) + T} and {@code C(n) = b * C(n-1) + N}
+ *
+ * <p>with {@code b := exp(-T / adaptationTimeSeconds)}. As ticks are measured in whole multiples of
+ * the tick length, the decay factors are precomputed. The sampling probability and the
+ * corresponding p-values are computed once per tick as well, hence determining the p-value of a
+ * span neither allocates nor needs to call {@link Math#exp(double)}.
+ *
+ * <p>The estimate lags behind by at most one tick, which is negligible as long as the tick length
+ * is small compared to the adaptation time.
+ */
+final class ConsistentStripedRateLimitingSampler extends ConsistentSampler {
+
+  static final long DEFAULT_TICK_NANOS = 10_000_000L; // 10ms
+
+  // number of precomputed decay factors, longer gaps between ticks are rare
+  private static final int NUMBER_OF_DECAY_FACTORS = 64;
+
+  @Immutable
+  private static final class Estimate {
+    private final int lowerPValue;
+    private final int upperPValue;
+    private final double probabilityToUseLowerPValue;
+
+    private Estimate(int lowerPValue, int upperPValue, double probabilityToUseLowerPValue) {
+      this.lowerPValue = lowerPValue;
+      this.upperPValue = upperPValue;
+      this.probabilityToUseLowerPValue = probabilityToUseLowerPValue;
+    }
+  }
+
+  private static final Estimate SAMPLE_ALL = new Estimate(0, 0, 1.);
+
+  private final String description;
+  private final LongSupplier nanoTimeSupplier;
+  private final double targetSpansPerNanosecondLimit;
+  private final long tickNanos;
+  private final double[] decayFactors;
+  private final RandomGenerator randomGenerator;
+
+  private final LongAdder spanCount = new LongAdder();
+  private final ReentrantLock tickLock = new ReentrantLock();
+
+  // guarded by tickLock
+  private double effectiveWindowCount = 0;
+  private double effectiveWindowNanos = 0;
+
+  private volatile long nextTickNanoTime;
+  private volatile Estimate estimate = SAMPLE_ALL;
+
+  /**
+   * Constructor.
+   *
+   * @param targetSpansPerSecondLimit the desired spans per second limit
+   * @param adaptationTimeSeconds the typical time to adapt to a new load (time constant used for
+   *     exponential smoothing)
+   * @param rValueGenerator the function to use for generating the r-value
+   * @param randomGenerator a random generator
+   * @param nanoTimeSupplier a supplier for the current nano time
+   * @param tickNanos the time between updates of the sampling probability in nanoseconds
+   */
+  ConsistentStripedRateLimitingSampler(
+      double targetSpansPerSecondLimit,
+      double adaptationTimeSeconds,
+      RValueGenerator rValueGenerator,
+      RandomGenerator randomGenerator,
+      LongSupplier nanoTimeSupplier,
+      long tickNanos) {
+    super(rValueGenerator);
+
+    if (targetSpansPerSecondLimit < 0.0) {
+      throw new IllegalArgumentException("Limit for sampled spans per second must be nonnegative!");
+    }
+    if (adaptationTimeSeconds < 0.0) {
+      throw new IllegalArgumentException("Adaptation rate must be nonnegative!");
+    }
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("Tick length must be positive!");
+    }
+    this.description =
+        String.format(
+            "ConsistentStripedRateLimitingSampler{%.6f, %.6f}",
+            targetSpansPerSecondLimit, adaptationTimeSeconds);
+    this.nanoTimeSupplier = requireNonNull(nanoTimeSupplier);
+    this.targetSpansPerNanosecondLimit = 1e-9 * targetSpansPerSecondLimit;
+    this.tickNanos = tickNanos;
+
+    double inverseAdaptationTimeNanos = 1e-9 / adaptationTimeSeconds;
+    this.decayFactors = new double[NUMBER_OF_DECAY_FACTORS];
+    decayFactors[0] = 1.;
+    for (int i = 1; i < NUMBER_OF_DECAY_FACTORS; ++i) {
+      decayFactors[i] = Math.exp(-i * tickNanos * inverseAdaptationTimeNanos);
+    }
+
+    this.nextTickNanoTime = nanoTimeSupplier.getAsLong() + tickNanos;
+    this.randomGenerator = requireNonNull(randomGenerator);
+  }
+
+  private double getDecayFactor(long numberOfTicks) {
+    if (numberOfTicks < NUMBER_OF_DECAY_FACTORS) {
+      return decayFactors[(int) numberOfTicks];
+    }
+    return Math.pow(decayFactors[1], (double) numberOfTicks);
+  }
+
+  private void tick(long currentNanoTime) {
+    if (!tickLock.tryLock()) {
+      // another thread is already updating the estimate
+      return;
+    }
+    try {
+      long tickNanoTime = nextTickNanoTime;
+      if (currentNanoTime - tickNanoTime < 0) {
+        return;
+      }
+      // whole ticks elapsed since the last update, the remainder is accounted for in the next one
+      long numberOfTicks = (currentNanoTime - tickNanoTime) / tickNanos + 1;
+      long nanoTimeDelta = numberOfTicks * tickNanos;
+      double decayFactor = getDecayFactor(numberOfTicks);
+
+      effectiveWindowCount = effectiveWindowCount * decayFactor + spanCount.sumThenReset();
+      effectiveWindowNanos = effectiveWindowNanos * decayFactor + nanoTimeDelta;
+      estimate = createEstimate();
+      nextTickNanoTime = tickNanoTime + nanoTimeDelta;
+    } finally {
+      tickLock.unlock();
+    }
+  }
+
+  private Estimate createEstimate() {
+    double samplingProbability =
+        (effectiveWindowNanos * targetSpansPerNanosecondLimit) / effectiveWindowCount;
+
+    if (!(samplingProbability < 1.)) {
+      // also covers the case of no spans so far
+      return SAMPLE_ALL;
+    }
+
+    int lowerPValue = getLowerBoundP(samplingProbability);
+    int upperPValue = getUpperBoundP(samplingProbability);
+
+    if (lowerPValue == upperPValue) {
+      return new Estimate(lowerPValue, upperPValue, 1.);
+    }
+
+    double upperSamplingRate = getSamplingProbability(lowerPValue);
+    double lowerSamplingRate = getSamplingProbability(upperPValue);
+    double probabilityToUseLowerPValue =
+        (samplingProbability - lowerSamplingRate) / (upperSamplingRate - lowerSamplingRate);
+    return new Estimate(lowerPValue, upperPValue, probabilityToUseLowerPValue);
+  }
+
+  @Override
+  protected int getP(int parentP, boolean isRoot) {
+    spanCount.increment();
+    long currentNanoTime = nanoTimeSupplier.getAsLong();
+    if (currentNanoTime - nextTickNanoTime >= 0) {
+      tick(currentNanoTime);
+    }
+
+    Estimate currentEstimate = estimate;
+    if (currentEstimate.lowerPValue == currentEstimate.upperPValue) {
+      return currentEstimate.lowerPValue;
+    }
+    if (randomGenerator.nextBoolean(currentEstimate.probabilityToUseLowerPValue)) {
+      return currentEstimate.lowerPValue;
+    } else {
+      return currentEstimate.upperPValue;
+    }
+  }
+
+  @Override
+  public String getDescription() {
+    return description;
+  }
+}
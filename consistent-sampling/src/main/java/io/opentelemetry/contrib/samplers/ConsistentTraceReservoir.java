@@ -0,0 +1,362 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * A reservoir sampling buffer that keeps or discards local traces as a whole and keeps at most a
+ * fixed number of items, like spans, in total.
+ *
+ * <p>Every trace is added with a single key that is shared by all its items. Like in {@link
+ * ConsistentReservoir}, the key consists of the r-value of the trace and a priority. A trace
+ * occupies as many places of the reservoir as it has items. The reservoir keeps the traces with
+ * largest keys as long as their items fit into the reservoir. The first trace that does not fit, is
+ * discarded together with all traces with smaller keys. Hence, the kept traces are exactly those
+ * with keys greater than the largest key of all discarded traces. As traces are not split, the
+ * number of kept items may be smaller than the reservoir size.
+ *
+ * <p>The final p-values are derived as described in {@link ConsistentReservoir}, with traces taking
+ * the place of items. All items of a kept trace get the same final p-value, unless their original
+ * p-value is already larger. The p-value of a trace, which determines whether it is affected by the
+ * adjustment, is the smallest p-value of its items.
+ *
+ * <p>A trace with more items than the reservoir size can never be kept. Such a trace is discarded
+ * right away like any other trace that does not fit, together with all kept traces with smaller
+ * keys, and it is reported by {@link #hasDiscardedItems()}. The final p-values remain unbiased for
+ * all traces that fit into the reservoir. The items of oversized traces cannot be estimated from
+ * the kept items, which is why callers should count them separately.
+ *
+ * <p>Like {@link ConsistentReservoir}, reservoirs can be merged without loss of information, if
+ * their sizes are equal. A reservoir with larger size can be merged into one with smaller size.
+ * Then the traces kept by the larger reservoir that exceed the smaller size are discarded, and the
+ * traces the larger reservoir has discarded remain discarded, even if they would have fit into the
+ * smaller reservoir after all. The merged reservoir may therefore keep fewer traces than one of the
+ * smaller size that had seen all traces, but its final p-values remain valid.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @param <T> the type of the items
+ */
+final class ConsistentTraceReservoir<T> {
+
+  private static final class Trace<T> {
+    private final long key;
+    private final List<? extends T> items;
+
+    private Trace(long key, List<? extends T> items) {
+      this.key = key;
+      this.items = items;
+    }
+  }
+
+  private final int reservoirSize;
+  private final RandomGenerator randomGenerator;
+
+  // keys are non-negative, a negative value indicates that no trace has been discarded yet
+  private long maxDiscardedKey = -1;
+  private long numberOfDiscardedTracesWithMaxDiscardedRValue = 0;
+  private long numberOfAddedItems = 0;
+  private int numberOfKeptItems = 0;
+
+  // min-heap of the kept traces ordered by key
+  private final PriorityQueue<Trace<T>> traces =
+      new PriorityQueue<>(Comparator.comparingLong(trace -> trace.key));
+
+  private ConsistentTraceReservoir(int reservoirSize, RandomGenerator randomGenerator) {
+    if (reservoirSize < 1) {
+      throw new IllegalArgumentException("reservoir size must be positive");
+    }
+    this.reservoirSize = reservoirSize;
+    this.randomGenerator = requireNonNull(randomGenerator);
+  }
+
+  /**
+   * Returns a new empty reservoir with the given reservoir size.
+   *
+   * @param reservoirSize the maximum number of kept items
+   * @param randomGenerator a random generator
+   * @param <T> the type of the items
+   * @return a new reservoir
+   */
+  static <T> ConsistentTraceReservoir<T> create(
+      int reservoirSize, RandomGenerator randomGenerator) {
+    return new ConsistentTraceReservoir<>(reservoirSize, randomGenerator);
+  }
+
+  /**
+   * Adds a trace to the reservoir.
+   *
+   * <p>The trace is kept, if its key is greater than the keys of all discarded traces and if there
+   * is enough space left after discarding traces with smaller keys. The given list is referenced
+   * until the trace is discarded and must not be modified afterwards.
+   *
+   * @param key the key of the trace, as created by {@link ConsistentReservoir#createKey(int, long)}
+   * @param items the items of the trace
+   */
+  void addTrace(long key, List<? extends T> items) {
+    numberOfAddedItems += items.size();
+    addTraceWithoutCounting(key, items);
+  }
+
+  private void addTraceWithoutCounting(long key, List<? extends T> items) {
+    int numberOfItems = items.size();
+    if (key <= maxDiscardedKey) {
+      discard(key);
+      return;
+    }
+    if (numberOfItems > reservoirSize) {
+      // the kept traces must have larger keys than all discarded traces
+      discard(key);
+      discardTracesWithKeysNotAboveMaxDiscardedKey();
+      return;
+    }
+    traces.add(new Trace<>(key, items));
+    numberOfKeptItems += numberOfItems;
+    while (numberOfKeptItems > reservoirSize) {
+      discardSmallest();
+    }
+  }
+
+  private void discardSmallest() {
+    Trace<T> trace = requireNonNull(traces.poll());
+    numberOfKeptItems -= trace.items.size();
+    discard(trace.key);
+  }
+
+  private void discardTracesWithKeysNotAboveMaxDiscardedKey() {
+    while (!traces.isEmpty() && requireNonNull(traces.peek()).key <= maxDiscardedKey) {
+      discardSmallest();
+    }
+  }
+
+  private void discard(long key) {
+    int discardedRValue = ConsistentReservoir.getRFromKey(key);
+    if (maxDiscardedKey < 0 || discardedRValue > ConsistentReservoir.getRFromKey(maxDiscardedKey)) {
+      numberOfDiscardedTracesWithMaxDiscardedRValue = 1;
+    } else if (discardedRValue == ConsistentReservoir.getRFromKey(maxDiscardedKey)) {
+      numberOfDiscardedTracesWithMaxDiscardedRValue += 1;
+    }
+    maxDiscardedKey = Math.max(maxDiscardedKey, key);
+  }
+
+  /**
+   * Returns {@code true} if a trace with the given key and number of items might be kept, if it was
+   * added now. If {@code false} is returned, the trace would certainly be discarded.
+   *
+   * @param key the key of the trace
+   * @param numberOfItems the number of items of the trace
+   * @return {@code true} if the trace might be kept
+   */
+  boolean mightKeep(long key, int numberOfItems) {
+    if (key <= maxDiscardedKey || numberOfItems > reservoirSize) {
+      return false;
+    }
+    Trace<T> smallestTrace = traces.peek();
+    return numberOfKeptItems + numberOfItems <= reservoirSize
+        || (smallestTrace != null && key > smallestTrace.key);
+  }
+
+  /**
+   * Merges the given reservoirs and returns the merged reservoir. If the reservoir sizes differ,
+   * the reservoir with larger size is merged into the one with smaller size. Otherwise, the
+   * reservoir with fewer kept traces is merged into the other one.
+   *
+   * <p>The given reservoirs must not be used afterwards.
+   *
+   * @param reservoir1 a reservoir
+   * @param reservoir2 another reservoir
+   * @param <T> the type of the items
+   * @return the merged reservoir
+   */
+  static <T> ConsistentTraceReservoir<T> mergeIntoSmaller(
+      ConsistentTraceReservoir<T> reservoir1, ConsistentTraceReservoir<T> reservoir2) {
+    boolean mergeIntoFirst =
+        reservoir1.reservoirSize != reservoir2.reservoirSize
+            ? reservoir1.reservoirSize < reservoir2.reservoirSize
+            : reservoir1.getNumberOfTraces() >= reservoir2.getNumberOfTraces();
+    if (mergeIntoFirst) {
+      reservoir1.merge(reservoir2);
+      return reservoir1;
+    } else {
+      reservoir2.merge(reservoir1);
+      return reservoir2;
+    }
+  }
+
+  /**
+   * Merges the given reservoir into this reservoir. Afterwards, this reservoir is the same as if
+   * all traces added to either reservoir had been added to this reservoir. The given reservoir is
+   * not modified.
+   *
+   * <p>If the given reservoir has a larger reservoir size, its traces that are too large for this
+   * reservoir are discarded, and the traces it has discarded remain discarded.
+   *
+   * @param other the reservoir to merge into this reservoir
+   * @throws IllegalArgumentException if the given reservoir is this reservoir or has a smaller
+   *     reservoir size, as it might have discarded traces that this reservoir would keep
+   */
+  void merge(ConsistentTraceReservoir<? extends T> other) {
+    if (other == this) {
+      throw new IllegalArgumentException("a reservoir cannot be merged into itself");
+    }
+    if (other.reservoirSize < reservoirSize) {
+      throw new IllegalArgumentException(
+          "the reservoir size of the other reservoir must not be smaller");
+    }
+    // The traces discarded by the other reservoir did not fit together with traces of larger keys.
+    // Hence, they would not fit into the merged reservoir either, which is not larger, and neither
+    // would any trace with a smaller key.
+    if (other.maxDiscardedKey >= 0) {
+      int otherMaxDiscardedRValue = ConsistentReservoir.getRFromKey(other.maxDiscardedKey);
+      if (maxDiscardedKey < 0
+          || otherMaxDiscardedRValue > ConsistentReservoir.getRFromKey(maxDiscardedKey)) {
+        numberOfDiscardedTracesWithMaxDiscardedRValue =
+            other.numberOfDiscardedTracesWithMaxDiscardedRValue;
+      } else if (otherMaxDiscardedRValue == ConsistentReservoir.getRFromKey(maxDiscardedKey)) {
+        numberOfDiscardedTracesWithMaxDiscardedRValue +=
+            other.numberOfDiscardedTracesWithMaxDiscardedRValue;
+      }
+      maxDiscardedKey = Math.max(maxDiscardedKey, other.maxDiscardedKey);
+      discardTracesWithKeysNotAboveMaxDiscardedKey();
+    }
+    for (Trace<? extends T> trace : other.traces) {
+      addTraceWithoutCounting(trace.key, trace.items);
+    }
+    numberOfAddedItems += other.numberOfAddedItems;
+  }
+
+  /**
+   * Returns {@code true} if traces have been discarded. Otherwise, all added items are kept with
+   * unchanged p-values.
+   *
+   * @return {@code true} if traces have been discarded
+   */
+  boolean hasDiscardedItems() {
+    return numberOfDiscardedTracesWithMaxDiscardedRValue != 0;
+  }
+
+  /**
+   * Passes all items of the kept traces to the given consumer. The items of a trace are passed
+   * consecutively, the traces in no particular order.
+   *
+   * @param consumer the consumer of the items
+   */
+  void forEachItem(Consumer<? super T> consumer) {
+    for (Trace<T> trace : traces) {
+      trace.items.forEach(consumer);
+    }
+  }
+
+  /**
+   * Passes all items of the kept traces to the given consumer together with their final p-values,
+   * which reflect the additional sampling by this reservoir. The items of a trace are passed
+   * consecutively, the traces in no particular order.
+   *
+   * @param pValueFunction returns the p-value of an item at the time it was added, invalid p-values
+   *     must be mapped to 0
+   * @param consumer the consumer of the items and their final p-values
+   */
+  void forEachSample(
+      ToIntFunction<? super T> pValueFunction,
+      ConsistentReservoir.SampleConsumer<? super T> consumer) {
+
+    if (!hasDiscardedItems()) {
+      forEachItem(item -> consumer.accept(item, pValueFunction.applyAsInt(item)));
+      return;
+    }
+
+    int maxDiscardedRValue = ConsistentReservoir.getRFromKey(maxDiscardedKey);
+    List<Trace<T>> keptTraces = new ArrayList<>(traces);
+    int[] pValues = new int[numberOfKeptItems];
+    int[] tracePValues = new int[keptTraces.size()];
+    int numberOfSampledTracesWithMaxDiscardedRValue = 0;
+    int numSampledTracesWithGreaterRValueAndSmallPValue = 0;
+    int itemIndex = 0;
+    for (int i = 0; i < keptTraces.size(); ++i) {
+      Trace<T> trace = keptTraces.get(i);
+      int tracePValue = Integer.MAX_VALUE;
+      for (T item : trace.items) {
+        int pValue = pValueFunction.applyAsInt(item);
+        pValues[itemIndex++] = pValue;
+        tracePValue = Math.min(tracePValue, pValue);
+      }
+      tracePValues[i] = tracePValue;
+      if (ConsistentReservoir.getRFromKey(trace.key) == maxDiscardedRValue) {
+        numberOfSampledTracesWithMaxDiscardedRValue += 1;
+      } else if (tracePValue <= maxDiscardedRValue) {
+        numSampledTracesWithGreaterRValueAndSmallPValue += 1;
+      }
+    }
+
+    double expectedNumPValueIncrements =
+        numSampledTracesWithGreaterRValueAndSmallPValue
+            * (numberOfDiscardedTracesWithMaxDiscardedRValue
+                / (double)
+                    (numberOfDiscardedTracesWithMaxDiscardedRValue
+                        + numberOfSampledTracesWithMaxDiscardedRValue
+                        + 1L));
+    int roundedExpectedNumPValueIncrements =
+        Math.toIntExact(randomGenerator.roundStochastically(expectedNumPValueIncrements));
+
+    BitSet incrementIndicators =
+        randomGenerator.generateRandomBitSet(
+            numSampledTracesWithGreaterRValueAndSmallPValue, roundedExpectedNumPValueIncrements);
+
+    int incrementIndicatorIndex = 0;
+    itemIndex = 0;
+    for (int i = 0; i < keptTraces.size(); ++i) {
+      Trace<T> trace = keptTraces.get(i);
+      int tracePValue = tracePValues[i];
+      if (tracePValue <= maxDiscardedRValue) {
+        tracePValue = maxDiscardedRValue;
+        if (ConsistentReservoir.getRFromKey(trace.key) > maxDiscardedRValue) {
+          if (incrementIndicators.get(incrementIndicatorIndex)) {
+            tracePValue = maxDiscardedRValue + 1;
+          }
+          incrementIndicatorIndex += 1;
+        }
+      }
+      for (T item : trace.items) {
+        int pValue = pValues[itemIndex++];
+        consumer.accept(item, pValue <= maxDiscardedRValue ? tracePValue : pValue);
+      }
+    }
+  }
+
+  /** Returns {@code true} if no traces are kept. */
+  boolean isEmpty() {
+    return traces.isEmpty();
+  }
+
+  /** Returns the number of items of all kept traces. */
+  int size() {
+    return numberOfKeptItems;
+  }
+
+  /** Returns the number of kept traces. */
+  int getNumberOfTraces() {
+    return traces.size();
+  }
+
+  /** Returns the maximum number of kept items. */
+  int getReservoirSize() {
+    return reservoirSize;
+  }
+
+  /** Returns the number of items added to this reservoir, including merged reservoirs. */
+  long getNumberOfAddedItems() {
+    return numberOfAddedItems;
+  }
+}
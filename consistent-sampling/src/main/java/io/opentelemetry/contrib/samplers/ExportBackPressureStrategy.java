@@ -0,0 +1,24 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+/**
+ * Determines how a {@link ConsistentReservoirSamplingSpanProcessor} handles a new batch of spans
+ * when the previous batch is still waiting to be exported, because the maximum number of concurrent
+ * exports has been reached.
+ */
+public enum ExportBackPressureStrategy {
+
+  /**
+   * The waiting batch is merged into the new one. The merged batch is a consistent sample of the
+   * spans of both periods with a size of at most the reservoir size, hence no information is lost
+   * except for the additional spans that do not fit into the reservoir.
+   */
+  MERGE,
+
+  /** The waiting batch is dropped in favor of the new one. */
+  DROP_OLDEST
+}
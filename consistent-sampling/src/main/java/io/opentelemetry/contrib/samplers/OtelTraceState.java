@@ -22,6 +22,17 @@ final class OtelTraceState {
   private static final int INVALID_R = -1;
   private static final int TRACE_STATE_SIZE_LIMIT = 256;
 
+  // p- and r-values are packed into a single int as (p + 1) | ((r + 1) << 8), which maps invalid
+  // values to 0 and allows packed states to be used as table indices
+  private static final int PACKED_R_SHIFT = 8;
+  private static final int PACKED_P_MASK = (1 << PACKED_R_SHIFT) - 1;
+  private static final int NUMBER_OF_PACKED_P_VALUES = MAX_P + 2;
+  private static final int NUMBER_OF_PACKED_R_VALUES = MAX_R + 2;
+  private static final int NOT_PACKABLE = -1;
+
+  // serialized states without other key-value pairs indexed by (p + 1) and (r + 1)
+  private static final String[][] SERIALIZED_STATES = createSerializedStates();
+
   private int rval; // valid in the interval [0, MAX_R]
   private int pval; // valid in the interval [0, MAX_P]
 
@@ -115,6 +126,31 @@ final class OtelTraceState {
     return sb.toString();
   }
 
+  /**
+   * Returns a string representing a state with the given p- and r-values and without any other
+   * key-value pairs.
+   *
+   * <p>The returned strings are precomputed, hence this method does not allocate.
+   *
+   * @param pval the p-value, invalid p-values are omitted
+   * @param rval the r-value, invalid r-values are omitted
+   * @return a string
+   */
+  public static String serialize(int pval, int rval) {
+    return SERIALIZED_STATES[isValidP(pval) ? pval + 1 : 0][isValidR(rval) ? rval + 1 : 0];
+  }
+
+  private static String[][] createSerializedStates() {
+    String[][] serializedStates = new String[NUMBER_OF_PACKED_P_VALUES][NUMBER_OF_PACKED_R_VALUES];
+    for (int p = INVALID_P; p <= MAX_P; ++p) {
+      for (int r = INVALID_R; r <= MAX_R; ++r) {
+        serializedStates[p + 1][r + 1] =
+            new OtelTraceState(r, p, Collections.emptyList()).serialize();
+      }
+    }
+    return serializedStates;
+  }
+
   private static boolean isValueByte(char c) {
     return isLowerCaseAlphaNum(c) || isUpperCaseAlpha(c) || c == '.' || c == '_' || c == '-';
   }
@@ -172,20 +208,52 @@ final class OtelTraceState {
    * @return the parsed OtelTraceState or a new empty OtelTraceState in case of parsing errors
    */
   public static OtelTraceState parse(@Nullable String ts) {
-    List<String> otherKeyValuePairs = null;
-    int p = INVALID_P;
-    int r = INVALID_R;
+    List<String> otherKeyValuePairs = new ArrayList<>();
+    int packed = scan(ts, otherKeyValuePairs);
+    return new OtelTraceState(
+        unpackR(packed),
+        unpackP(packed),
+        otherKeyValuePairs.isEmpty() ? Collections.emptyList() : otherKeyValuePairs);
+  }
 
-    if (ts == null || ts.isEmpty()) {
-      return new OtelTraceState();
-    }
+  /**
+   * Parses the p- and r-values from a given string without allocating.
+   *
+   * <p>This is a fast path for the common case that the string contains no other key-value pairs
+   * than p and r. If the string cannot be successfully parsed, the packed representation of an
+   * empty state is returned, same as {@link #parse(String)} would return an empty state.
+   *
+   * @param ts the string
+   * @return the packed p- and r-values, or {@link #getNotPackable()} if the string contains other
+   *     key-value pairs
+   */
+  public static int parsePacked(@Nullable String ts) {
+    return scan(ts, null);
+  }
 
-    if (ts.length() > TRACE_STATE_SIZE_LIMIT) {
-      return new OtelTraceState();
+  /**
+   * Scans the given string in a single pass, shared by {@link #parse(String)} and {@link
+   * #parsePacked(String)}.
+   *
+   * <p>Other key-value pairs than p and r are added to the given list. If no list is given, {@link
+   * #NOT_PACKABLE} is returned for strings with other key-value pairs instead. If the string cannot
+   * be successfully parsed, the list is cleared and the packed representation of an empty state is
+   * returned.
+   *
+   * @param ts the string
+   * @param otherKeyValuePairs the list to which other key-value pairs are added, or {@code null}
+   * @return the packed p- and r-values, or {@link #NOT_PACKABLE}
+   */
+  private static int scan(@Nullable String ts, @Nullable List<String> otherKeyValuePairs) {
+    if (ts == null || ts.isEmpty() || ts.length() > TRACE_STATE_SIZE_LIMIT) {
+      return pack(INVALID_P, INVALID_R);
     }
 
+    int p = INVALID_P;
+    int r = INVALID_R;
     int startPos = 0;
     int len = ts.length();
+    boolean hasOtherKeyValuePairs = false;
 
     while (true) {
       int colonPos = startPos;
@@ -196,7 +264,7 @@ final class OtelTraceState {
         }
       }
       if (colonPos == startPos || colonPos == len || ts.charAt(colonPos) != ':') {
-        return new OtelTraceState();
+        return invalid(otherKeyValuePairs);
       }
 
       int separatorPos = colonPos + 1;
@@ -208,15 +276,14 @@ final class OtelTraceState {
         p = parseOneOrTwoDigitNumber(ts, colonPos + 1, separatorPos, MAX_P, INVALID_P);
       } else if (colonPos - startPos == 1 && ts.charAt(startPos) == R_SUBKEY) {
         r = parseOneOrTwoDigitNumber(ts, colonPos + 1, separatorPos, MAX_R, INVALID_R);
-      } else {
-        if (otherKeyValuePairs == null) {
-          otherKeyValuePairs = new ArrayList<>();
-        }
+      } else if (otherKeyValuePairs != null) {
         otherKeyValuePairs.add(ts.substring(startPos, separatorPos));
+      } else {
+        hasOtherKeyValuePairs = true;
       }
 
       if (separatorPos < len && ts.charAt(separatorPos) != ';') {
-        return new OtelTraceState();
+        return invalid(otherKeyValuePairs);
       }
 
       if (separatorPos == len) {
@@ -227,12 +294,63 @@ final class OtelTraceState {
 
       // test for a trailing ;
       if (startPos == len) {
-        return new OtelTraceState();
+        return invalid(otherKeyValuePairs);
       }
     }
 
-    return new OtelTraceState(
-        r, p, (otherKeyValuePairs != null) ? otherKeyValuePairs : Collections.emptyList());
+    // other key-value pairs are only reported after the whole string has been validated, as an
+    // invalid string is equivalent to an empty state
+    return hasOtherKeyValuePairs ? NOT_PACKABLE : pack(p, r);
+  }
+
+  private static int invalid(@Nullable List<String> otherKeyValuePairs) {
+    if (otherKeyValuePairs != null) {
+      otherKeyValuePairs.clear();
+    }
+    return pack(INVALID_P, INVALID_R);
+  }
+
+  /**
+   * Packs the given p- and r-values into a single {@code int}.
+   *
+   * <p>Invalid p- and r-values are normalized, the returned value is always non-negative.
+   *
+   * @param pval the p-value
+   * @param rval the r-value
+   * @return the packed p- and r-values
+   */
+  public static int pack(int pval, int rval) {
+    return (isValidP(pval) ? pval + 1 : 0) | ((isValidR(rval) ? rval + 1 : 0) << PACKED_R_SHIFT);
+  }
+
+  /**
+   * Returns the p-value of the given packed p- and r-values.
+   *
+   * @param packed the packed p- and r-values
+   * @return the p-value
+   */
+  public static int unpackP(int packed) {
+    return (packed & PACKED_P_MASK) - 1;
+  }
+
+  /**
+   * Returns the r-value of the given packed p- and r-values.
+   *
+   * @param packed the packed p- and r-values
+   * @return the r-value
+   */
+  public static int unpackR(int packed) {
+    return (packed >>> PACKED_R_SHIFT) - 1;
+  }
+
+  /**
+   * Returns the value returned by {@link #parsePacked(String)} for strings with other key-value
+   * pairs than p and r.
+   *
+   * @return a value that is never a valid packed representation
+   */
+  public static int getNotPackable() {
+    return NOT_PACKABLE;
   }
 
   public int getR() {
@@ -0,0 +1,189 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the items, like spans, of local traces by trace id until the local trace is complete.
+ *
+ * <p>A local trace is considered complete, when its local root span has ended, that is, the span
+ * without parent or with a remote parent. As child spans usually end before their parents, the
+ * local trace is then handed over with all its items. A local trace whose root span does not end
+ * within the trace timeout, for example because it ended before some of its children or because it
+ * was started in another thread that ends it much later, is handed over incomplete. To bound the
+ * memory needed, the oldest pending traces are handed over incomplete, whenever the total number of
+ * pending items exceeds the given maximum.
+ *
+ * <p>Pending traces are kept in the order in which their first item was added, such that timed out
+ * traces are found without scanning all pending traces.
+ *
+ * <p>This class is not thread-safe.
+ *
+ * @param <T> the type of the items
+ */
+final class PendingTraceIndex<T> {
+
+  /**
+   * Consumes a local trace that is handed over.
+   *
+   * @param <T> the type of the items
+   */
+  @FunctionalInterface
+  interface TraceConsumer<T> {
+    void accept(long key, List<? extends T> items);
+  }
+
+  private static final class PendingTrace<T> {
+    private final long key;
+    private final long startNanos;
+    private final List<T> items = new ArrayList<>();
+
+    private PendingTrace(long key, long startNanos) {
+      this.key = key;
+      this.startNanos = startNanos;
+    }
+  }
+
+  private final int maxNumberOfItems;
+  private final long traceTimeoutNanos;
+  private final Map<String, PendingTrace<T>> pendingTraces = new LinkedHashMap<>();
+  private int numberOfItems = 0;
+
+  /**
+   * Creates a new index.
+   *
+   * @param maxNumberOfItems the maximum number of pending items
+   * @param traceTimeoutNanos the time after the first item of a trace was added, after which an
+   *     incomplete trace is handed over by {@link #handOverTimedOutTraces(long, TraceConsumer)}
+   */
+  PendingTraceIndex(int maxNumberOfItems, long traceTimeoutNanos) {
+    if (maxNumberOfItems < 1) {
+      throw new IllegalArgumentException("maximum number of pending items must be positive");
+    }
+    if (traceTimeoutNanos <= 0) {
+      throw new IllegalArgumentException("trace timeout must be positive");
+    }
+    this.maxNumberOfItems = maxNumberOfItems;
+    this.traceTimeoutNanos = traceTimeoutNanos;
+  }
+
+  /**
+   * Adds an item to the pending local trace with the given trace id. If the item is the local root,
+   * the local trace is handed over to the given consumer.
+   *
+   * @param traceId the trace id
+   * @param key the key of the trace, only used if the item is the first of its local trace
+   * @param item the item
+   * @param isLocalRoot whether the item is the local root of its trace
+   * @param nanoTime the current nano time
+   * @param consumer the consumer of the handed over traces
+   * @return the number of incomplete traces handed over, because the maximum number of pending
+   *     items was exceeded
+   */
+  int add(
+      String traceId,
+      long key,
+      T item,
+      boolean isLocalRoot,
+      long nanoTime,
+      TraceConsumer<? super T> consumer) {
+    if (isLocalRoot) {
+      PendingTrace<T> pendingTrace = pendingTraces.remove(traceId);
+      if (pendingTrace == null) {
+        // the most frequent case of a local trace consisting of a single span needs no index entry
+        consumer.accept(key, Collections.singletonList(item));
+      } else {
+        numberOfItems -= pendingTrace.items.size();
+        pendingTrace.items.add(item);
+        consumer.accept(pendingTrace.key, Collections.unmodifiableList(pendingTrace.items));
+      }
+      return 0;
+    }
+
+    PendingTrace<T> pendingTrace = pendingTraces.get(traceId);
+    if (pendingTrace == null) {
+      pendingTrace = new PendingTrace<>(key, nanoTime);
+      pendingTraces.put(traceId, pendingTrace);
+    }
+    pendingTrace.items.add(item);
+    numberOfItems += 1;
+
+    int numberOfHandedOverTraces = 0;
+    Iterator<PendingTrace<T>> iterator = pendingTraces.values().iterator();
+    while (numberOfItems > maxNumberOfItems) {
+      handOver(iterator, consumer);
+      numberOfHandedOverTraces += 1;
+    }
+    return numberOfHandedOverTraces;
+  }
+
+  /**
+   * Hands over all pending traces, whose first item was added at least the trace timeout ago.
+   *
+   * @param nanoTime the current nano time
+   * @param consumer the consumer of the handed over traces
+   * @return the number of handed over traces
+   */
+  int handOverTimedOutTraces(long nanoTime, TraceConsumer<? super T> consumer) {
+    int numberOfHandedOverTraces = 0;
+    Iterator<PendingTrace<T>> iterator = pendingTraces.values().iterator();
+    while (iterator.hasNext()) {
+      PendingTrace<T> pendingTrace = iterator.next();
+      if (nanoTime - pendingTrace.startNanos < traceTimeoutNanos) {
+        break;
+      }
+      iterator.remove();
+      numberOfItems -= pendingTrace.items.size();
+      consumer.accept(pendingTrace.key, Collections.unmodifiableList(pendingTrace.items));
+      numberOfHandedOverTraces += 1;
+    }
+    return numberOfHandedOverTraces;
+  }
+
+  /**
+   * Hands over all pending traces.
+   *
+   * @param consumer the consumer of the handed over traces
+   * @return the number of handed over traces
+   */
+  int handOverAllTraces(TraceConsumer<? super T> consumer) {
+    int numberOfHandedOverTraces = 0;
+    Iterator<PendingTrace<T>> iterator = pendingTraces.values().iterator();
+    while (iterator.hasNext()) {
+      handOver(iterator, consumer);
+      numberOfHandedOverTraces += 1;
+    }
+    return numberOfHandedOverTraces;
+  }
+
+  private void handOver(Iterator<PendingTrace<T>> iterator, TraceConsumer<? super T> consumer) {
+    PendingTrace<T> pendingTrace = iterator.next();
+    iterator.remove();
+    numberOfItems -= pendingTrace.items.size();
+    consumer.accept(pendingTrace.key, Collections.unmodifiableList(pendingTrace.items));
+  }
+
+  /** Returns {@code true} if there are no pending traces. */
+  boolean isEmpty() {
+    return pendingTraces.isEmpty();
+  }
+
+  /** Returns the number of pending traces. */
+  int getNumberOfTraces() {
+    return pendingTraces.size();
+  }
+
+  /** Returns the total number of pending items. */
+  int getNumberOfItems() {
+    return numberOfItems;
+  }
+}
@@ -5,16 +5,97 @@
 
 package io.opentelemetry.contrib.samplers;
 
-final class RValueGenerators {
+/** Provides {@link RValueGenerator} implementations. */
+public final class RValueGenerators {
 
-  private static final RValueGenerator DEFAULT = createDefault();
+  private static final int TRACE_ID_HEX_LENGTH = 32;
 
-  static RValueGenerator getDefault() {
+  // the number of hex digits corresponding to the 56 random bits of a trace id
+  private static final int TRACE_ID_RANDOM_HEX_LENGTH = 14;
+
+  private static final RValueGenerator DEFAULT = create(RandomGenerator.getDefault());
+
+  private static final RValueGenerator THREAD_LOCAL_FREE =
+      create(RandomGenerator.getThreadLocalFree());
+
+  private static final RValueGenerator TRACE_ID_BASED = RValueGenerators::generateFromTraceId;
+
+  /**
+   * Returns the default {@link RValueGenerator}.
+   *
+   * <p>Random bits are drawn in chunks of 64 bits and pooled per thread.
+   *
+   * @return the default r-value generator
+   */
+  public static RValueGenerator getDefault() {
     return DEFAULT;
   }
 
-  private static RValueGenerator createDefault() {
-    RandomGenerator randomGenerator = RandomGenerator.getDefault();
+  /**
+   * Returns an {@link RValueGenerator} that does not keep any thread-local state.
+   *
+   * <p>Every r-value is derived from a new random {@code long}. This is recommended if spans are
+   * started on many short-lived threads, such as virtual threads, for which pooling random bits per
+   * thread is not effective.
+   *
+   * @return an r-value generator without thread-local state
+   */
+  public static RValueGenerator getThreadLocalFree() {
+    return THREAD_LOCAL_FREE;
+  }
+
+  /**
+   * Returns an {@link RValueGenerator} that derives r-values from the trace id.
+   *
+   * <p>The r-value is the number of leading zeros of the least significant 56 bits of the trace id,
+   * which are random for trace ids complying with the W3C Trace Context Level 2 random trace-id
+   * flag. Hence, all services of a trace compute the same r-value, even if the r-value was not
+   * propagated through the trace state, and no random numbers need to be generated. As only 56 bits
+   * are available, r-values are limited to 56, which means that sampling probabilities smaller than
+   * 2^-56 are not supported.
+   *
+   * <p>If the trace id is not a valid hexadecimal string of length 32, a random r-value is
+   * generated as by {@link #getDefault()}.
+   *
+   * @return an r-value generator using the trace id
+   */
+  public static RValueGenerator getTraceIdBased() {
+    return TRACE_ID_BASED;
+  }
+
+  // visible for testing
+  static int generateFromTraceId(String traceId) {
+    if (traceId.length() != TRACE_ID_HEX_LENGTH) {
+      return DEFAULT.generate(traceId);
+    }
+    // only the leading hex digits that are zero and the first non-zero hex digit need to be parsed
+    int numberOfLeadingZeros = 0;
+    for (int i = TRACE_ID_HEX_LENGTH - TRACE_ID_RANDOM_HEX_LENGTH; i < TRACE_ID_HEX_LENGTH; ++i) {
+      int digit = hexDigitValue(traceId.charAt(i));
+      if (digit < 0) {
+        return DEFAULT.generate(traceId);
+      }
+      if (digit != 0) {
+        return numberOfLeadingZeros + Integer.numberOfLeadingZeros(digit) - (Integer.SIZE - 4);
+      }
+      numberOfLeadingZeros += 4;
+    }
+    return numberOfLeadingZeros;
+  }
+
+  private static int hexDigitValue(char c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    } else if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    } else if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    } else {
+      return -1;
+    }
+  }
+
+  private static RValueGenerator create(RandomGenerator randomGenerator) {
     return s -> randomGenerator.numberOfLeadingZerosOfRandomLong();
   }
 
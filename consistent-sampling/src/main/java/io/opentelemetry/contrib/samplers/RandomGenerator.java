@@ -10,87 +10,79 @@ import static java.util.Objects.requireNonNull;
 import java.util.BitSet;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
 
 final class RandomGenerator {
 
   private final LongSupplier threadSafeRandomLongSupplier;
 
+  /**
+   * A per-thread pool of random bits.
+   *
+   * <p>Random bits are drawn 64 at a time from the random long supplier. Bits that are not yet
+   * consumed are kept for subsequent calls, which is efficient as r-values need just 2 random bits
+   * on average.
+   */
   private static final class ThreadLocalData {
-    private long randomBits = 0;
-    private int bitCount = 0;
 
-    private boolean nextRandomBit(LongSupplier threadSafeRandomLongSupplier) {
-      if ((bitCount & 0x3F) == 0) {
-        randomBits = threadSafeRandomLongSupplier.getAsLong();
-      }
-      boolean randomBit = ((randomBits >>> bitCount) & 1L) != 0L;
-      bitCount += 1;
-      return randomBit;
-    }
+    // not yet consumed random bits, the next bit to be consumed is the least significant one
+    private long randomBits = 0;
+    private int availableBitCount = 0;
 
     /**
-     * Returns a pseudorandomly chosen {@code boolean} value where the probability of returning
-     * {@code true} is predefined.
+     * Returns the number of leading zeros of a uniform random 64-bit integer.
      *
-     * <p>{@code true} needs to be returned with a success probability of {@code probability}. If
-     * the success probability is greater than 50% ({@code probability > 0.5}), the same can be
-     * achieved by returning {@code true} with a probability of 50%, and returning the result of a
-     * Bernoulli trial with a probability of {@code 2 * probability - 1}. The resulting success
-     * probability will be the same as {@code 0.5 + 0.5 * (2 * probability - 1) = probability}.
-     * Similarly, if the success probability is smaller than 50% ({@code probability <= 0.5}),
-     * {@code false} is returned with a probability of 50%. Otherwise, the result of a Bernoulli
-     * trial with success probability of {@code 2 * probability} is returned. Again, the resulting
-     * success probability is exactly as desired because {@code 0.5 * (2 * probability) =
-     * probability}. Recursive continuation of this approach allows realizing Bernoulli trials with
-     * arbitrary success probabilities using just few random bits.
+     * <p>This is equivalent to counting the number of consecutive 1-bits of a random bit sequence
+     * up to the first 0-bit, limited to 64. Instead of consuming one bit at a time, the number of
+     * consecutive 1-bits of all pooled bits is determined at once using {@link
+     * Long#numberOfTrailingZeros(long)}.
      *
      * @param threadSafeRandomLongSupplier a thread-safe random long supplier
-     * @param probability the probability of returning {@code true}
-     * @return a random {@code boolean}
+     * @return the number of leading zeros
      */
-    private boolean generateRandomBoolean(
-        LongSupplier threadSafeRandomLongSupplier, double probability) {
+    private int numberOfLeadingZerosOfRandomLong(LongSupplier threadSafeRandomLongSupplier) {
+      int count = 0;
       while (true) {
-        if (probability <= 0) {
-          return false;
+        if (availableBitCount == 0) {
+          randomBits = threadSafeRandomLongSupplier.getAsLong();
+          availableBitCount = Long.SIZE;
         }
-        if (probability >= 1) {
-          return true;
+        // the unavailable bits are always zero, therefore the number of consecutive 1-bits is
+        // never greater than the number of available bits
+        int numberOfOneBits = Long.numberOfTrailingZeros(~randomBits);
+        int maxNumberOfOneBits = Long.SIZE - count;
+        if (numberOfOneBits >= maxNumberOfOneBits) {
+          consumeBits(maxNumberOfOneBits);
+          return Long.SIZE;
         }
-        boolean b = probability > 0.5;
-        if (nextRandomBit(threadSafeRandomLongSupplier)) {
-          return b;
-        }
-        probability += probability;
-        if (b) {
-          probability -= 1;
+        if (numberOfOneBits < availableBitCount) {
+          // consume the 1-bits and the terminating 0-bit
+          consumeBits(numberOfOneBits + 1);
+          return count + numberOfOneBits;
         }
+        count += numberOfOneBits;
+        availableBitCount = 0;
       }
     }
 
-    /**
-     * Returns the number of leading zeros of a uniform random 64-bit integer.
-     *
-     * @param threadSafeRandomLongSupplier a thread-safe random long supplier
-     * @return the number of leading zeros
-     */
-    private int numberOfLeadingZerosOfRandomLong(LongSupplier threadSafeRandomLongSupplier) {
-      int count = 0;
-      while (count < Long.SIZE && nextRandomBit(threadSafeRandomLongSupplier)) {
-        count += 1;
-      }
-      return count;
+    private void consumeBits(int numberOfBits) {
+      randomBits = (numberOfBits < Long.SIZE) ? (randomBits >>> numberOfBits) : 0L;
+      availableBitCount -= numberOfBits;
     }
   }
 
-  private final ThreadLocal<ThreadLocalData> threadLocalData =
-      ThreadLocal.withInitial(ThreadLocalData::new);
+  @Nullable private final ThreadLocal<ThreadLocalData> threadLocalData;
 
   private static final RandomGenerator INSTANCE =
-      new RandomGenerator(() -> ThreadLocalRandom.current().nextLong());
+      new RandomGenerator(() -> ThreadLocalRandom.current().nextLong(), /* poolRandomBits= */ true);
 
-  private RandomGenerator(LongSupplier threadSafeRandomLongSupplier) {
+  private static final RandomGenerator THREAD_LOCAL_FREE_INSTANCE =
+      new RandomGenerator(
+          () -> ThreadLocalRandom.current().nextLong(), /* poolRandomBits= */ false);
+
+  private RandomGenerator(LongSupplier threadSafeRandomLongSupplier, boolean poolRandomBits) {
     this.threadSafeRandomLongSupplier = requireNonNull(threadSafeRandomLongSupplier);
+    this.threadLocalData = poolRandomBits ? ThreadLocal.withInitial(ThreadLocalData::new) : null;
   }
 
   /**
@@ -101,7 +93,23 @@ final class RandomGenerator {
    * @return a random generator
    */
   public static RandomGenerator create(LongSupplier threadSafeRandomLongSupplier) {
-    return new RandomGenerator(threadSafeRandomLongSupplier);
+    return new RandomGenerator(threadSafeRandomLongSupplier, /* poolRandomBits= */ true);
+  }
+
+  /**
+   * Creates a new random generator using the given thread-safe random long supplier as random
+   * source, which does not keep any thread-local state.
+   *
+   * <p>Unused random bits are not pooled and every call of {@link
+   * #numberOfLeadingZerosOfRandomLong()} draws a new random {@code long}. This avoids a {@link
+   * ThreadLocal} lookup per call and does not allocate per-thread state, which is preferable if
+   * spans are started on many short-lived threads such as virtual threads.
+   *
+   * @param threadSafeRandomLongSupplier a thread-safe random long supplier
+   * @return a random generator
+   */
+  public static RandomGenerator createThreadLocalFree(LongSupplier threadSafeRandomLongSupplier) {
+    return new RandomGenerator(threadSafeRandomLongSupplier, /* poolRandomBits= */ false);
   }
 
   /**
@@ -113,15 +121,35 @@ final class RandomGenerator {
     return INSTANCE;
   }
 
+  /**
+   * Returns a default random generator that does not keep any thread-local state.
+   *
+   * @return a random generator
+   * @see #createThreadLocalFree(LongSupplier)
+   */
+  public static RandomGenerator getThreadLocalFree() {
+    return THREAD_LOCAL_FREE_INSTANCE;
+  }
+
   /**
    * Returns a pseudorandomly chosen {@code boolean} value where the probability of returning {@code
    * true} is predefined.
    *
+   * <p>A single random {@code long} is drawn and its 53 most significant bits are compared with the
+   * given probability. Hence, the probability of returning {@code true} deviates by less than 2^-53
+   * from the given probability.
+   *
    * @param probability the probability of returning {@code true}
    * @return a random {@code boolean}
    */
   public boolean nextBoolean(double probability) {
-    return threadLocalData.get().generateRandomBoolean(threadSafeRandomLongSupplier, probability);
+    if (probability <= 0) {
+      return false;
+    }
+    if (probability >= 1) {
+      return true;
+    }
+    return (nextLong() >>> 11) * 0x1.0p-53 < probability;
   }
 
   /**
@@ -130,6 +158,10 @@ final class RandomGenerator {
    * @return the number of leading zeros
    */
   public int numberOfLeadingZerosOfRandomLong() {
+    ThreadLocal<ThreadLocalData> threadLocalData = this.threadLocalData;
+    if (threadLocalData == null) {
+      return Long.numberOfTrailingZeros(~threadSafeRandomLongSupplier.getAsLong());
+    }
     return threadLocalData.get().numberOfLeadingZerosOfRandomLong(threadSafeRandomLongSupplier);
   }
 
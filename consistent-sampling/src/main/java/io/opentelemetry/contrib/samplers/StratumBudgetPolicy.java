@@ -0,0 +1,47 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+/**
+ * Determines how a {@link ConsistentReservoirSamplingSpanProcessor} in stratified mode allocates
+ * the reservoir size, which is the total number of spans exported per period, to the strata.
+ *
+ * <p>Regardless of the policy, every stratum that has received spans is allocated at least one span
+ * as long as the reservoir size allows, and a stratum is never allocated more spans than it has
+ * received. The allocation that is not needed by a stratum is redistributed to the others.
+ */
+public enum StratumBudgetPolicy {
+
+  /**
+   * Every stratum is allocated the same number of spans, which gives rare strata the best chance to
+   * be represented.
+   */
+  EQUAL,
+
+  /**
+   * The number of spans allocated to a stratum is proportional to the number of spans it has
+   * received. All strata are sampled with about the same sampling rate, like a single reservoir.
+   */
+  PROPORTIONAL,
+
+  /**
+   * The number of spans allocated to a stratum is proportional to the square root of the number of
+   * spans it has received. This is a compromise between {@link #EQUAL} and {@link #PROPORTIONAL}.
+   */
+  SQUARE_ROOT;
+
+  double getWeight(long numberOfAddedItems) {
+    switch (this) {
+      case EQUAL:
+        return 1;
+      case PROPORTIONAL:
+        return (double) numberOfAddedItems;
+      case SQUARE_ROOT:
+        return Math.sqrt((double) numberOfAddedItems);
+    }
+    throw new AssertionError();
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.sdk.internal.DaemonThreadFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the periodic exports, flushes and exporter timeouts of {@link
+ * ConsistentReservoirSamplingSpanProcessor}s.
+ *
+ * <p>Unless an executor is configured, all span processors share a single scheduler, which is
+ * created when the first span processor is built. Its only thread waits for the next delayed task
+ * and hands it over to a new virtual thread, if the runtime supports virtual threads, or otherwise
+ * to a pool of daemon threads, which are started on demand and terminate when idle. Hence, span
+ * processors do not have idle threads of their own, and an exporter that blocks the thread calling
+ * it does not delay the tasks of other span processors.
+ */
+final class TaskScheduler {
+
+  private static final String SCHEDULER_THREAD_NAME =
+      ConsistentReservoirSamplingSpanProcessor.class.getSimpleName() + "_SchedulerThread";
+  private static final String EXPORT_THREAD_NAME =
+      ConsistentReservoirSamplingSpanProcessor.class.getSimpleName() + "_ExportThread";
+
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+
+  private TaskScheduler(ScheduledExecutorService scheduler, Executor executor) {
+    this.scheduler = scheduler;
+    this.executor = executor;
+  }
+
+  /**
+   * Returns a task scheduler that runs all tasks on the given executor.
+   *
+   * @param executorService the executor
+   * @return a task scheduler
+   */
+  static TaskScheduler create(ScheduledExecutorService executorService) {
+    return new TaskScheduler(executorService, executorService);
+  }
+
+  /**
+   * Returns the task scheduler shared by all span processors without executor.
+   *
+   * @return the shared task scheduler
+   */
+  static TaskScheduler getShared() {
+    return SharedHolder.INSTANCE;
+  }
+
+  // initialized on first use by the class loader, which is thread-safe
+  private static final class SharedHolder {
+    private static final TaskScheduler INSTANCE = createShared();
+
+    private SharedHolder() {}
+  }
+
+  private static TaskScheduler createShared() {
+    ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(SCHEDULER_THREAD_NAME));
+    ExecutorService executor = createVirtualThreadExecutor();
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(new DaemonThreadFactory(EXPORT_THREAD_NAME));
+    }
+    return new TaskScheduler(scheduler, executor);
+  }
+
+  /**
+   * Returns an executor that runs every task on a new virtual thread, or {@code null} if the
+   * runtime does not support virtual threads. Virtual threads are available as of Java 21, hence
+   * they are looked up reflectively.
+   *
+   * @return an executor backed by virtual threads, or {@code null}
+   */
+  @Nullable
+  static ExecutorService createVirtualThreadExecutor() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass
+              .getMethod("name", String.class, long.class)
+              .invoke(builder, EXPORT_THREAD_NAME + "-", 0L);
+      ThreadFactory threadFactory =
+          (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      return (ExecutorService)
+          Executors.class
+              .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+              .invoke(null, threadFactory);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // older runtime, or virtual threads are a preview feature that is not enabled
+      return null;
+    }
+  }
+
+  /**
+   * Runs the given task as soon as possible.
+   *
+   * @param task the task
+   * @throws java.util.concurrent.RejectedExecutionException if the executor rejects the task
+   */
+  void execute(Runnable task) {
+    executor.execute(task);
+  }
+
+  /**
+   * Runs the given task after the given delay.
+   *
+   * @param task the task
+   * @param delayNanos the delay in nanoseconds
+   * @return a future that can be used to cancel the task
+   * @throws java.util.concurrent.RejectedExecutionException if the executor rejects the task
+   */
+  ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+    if (scheduler == executor) {
+      return scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+    }
+    // the scheduler thread must never run the task itself, as it might block
+    return scheduler.schedule(() -> executor.execute(task), delayNanos, TimeUnit.NANOSECONDS);
+  }
+}
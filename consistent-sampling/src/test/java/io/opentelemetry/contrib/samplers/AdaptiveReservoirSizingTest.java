@@ -0,0 +1,148 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveReservoirSizingTest {
+
+  private static final long MIN_EXPORT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long MAX_EXPORT_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  @Test
+  void invalidConfig() {
+    assertThatThrownBy(
+            () ->
+                new AdaptiveReservoirSizing(
+                    0, 100, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () ->
+                new AdaptiveReservoirSizing(
+                    100, 0, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(
+            () ->
+                new AdaptiveReservoirSizing(
+                    100, 100, MAX_EXPORT_PERIOD_NANOS, MIN_EXPORT_PERIOD_NANOS))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> new AdaptiveReservoirSizing(100, 100, 0, MAX_EXPORT_PERIOD_NANOS))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  @Test
+  void startsWithMaxExportPeriod() {
+    AdaptiveReservoirSizing sizing =
+        new AdaptiveReservoirSizing(100, 10000, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(1000);
+  }
+
+  @Test
+  void reservoirSizeIsLimited() {
+    AdaptiveReservoirSizing sizing =
+        new AdaptiveReservoirSizing(100, 500, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(500);
+
+    sizing =
+        new AdaptiveReservoirSizing(0.01, 500, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(1);
+  }
+
+  @Test
+  void shortensExportPeriodIfReservoirFillsEarly() {
+    AdaptiveReservoirSizing sizing =
+        new AdaptiveReservoirSizing(100, 10000, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS);
+
+    // 400 spans per second, the reservoir of size 1000 fills after 2.5 seconds
+    sizing.update(4000, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(2500));
+    assertThat(sizing.getReservoirSize()).isEqualTo(250);
+
+    // at the same rate, the export period does not change anymore
+    sizing.update(1000, TimeUnit.MILLISECONDS.toNanos(2500));
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(2500));
+    assertThat(sizing.getReservoirSize()).isEqualTo(250);
+
+    // the number of exported spans per second never exceeds the target rate
+    sizing.update(10000000, TimeUnit.MILLISECONDS.toNanos(2500));
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(MIN_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(100);
+  }
+
+  @Test
+  void extendsExportPeriodGraduallyIfRateDrops() {
+    AdaptiveReservoirSizing sizing =
+        new AdaptiveReservoirSizing(100, 10000, MIN_EXPORT_PERIOD_NANOS, MAX_EXPORT_PERIOD_NANOS);
+    sizing.update(10000, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(MIN_EXPORT_PERIOD_NANOS);
+
+    // a single period at 50 spans per second only changes the estimated rate a little
+    sizing.update(50, MIN_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos())
+        .isGreaterThan(MIN_EXPORT_PERIOD_NANOS)
+        .isLessThan(TimeUnit.SECONDS.toNanos(2));
+
+    runAtConstantRate(sizing, 50, 10 * MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(1000);
+
+    sizing.update(0, MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getExportPeriodNanos()).isEqualTo(MAX_EXPORT_PERIOD_NANOS);
+    assertThat(sizing.getReservoirSize()).isEqualTo(1000);
+  }
+
+  @Test
+  void settlesOnIntermediateExportPeriods() {
+    long minExportPeriodNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    AdaptiveReservoirSizing sizing =
+        new AdaptiveReservoirSizing(100, 10000, minExportPeriodNanos, MAX_EXPORT_PERIOD_NANOS);
+
+    // the load swings by a factor of 20 between 200 and 4000 spans per second
+    for (int i = 0; i < 3; ++i) {
+      List<Long> exportPeriods = runAtConstantRate(sizing, 200, 20 * MAX_EXPORT_PERIOD_NANOS);
+      assertSettled(exportPeriods, TimeUnit.SECONDS.toNanos(5));
+      assertThat(sizing.getReservoirSize()).isCloseTo(500, withinPercentage(1));
+
+      exportPeriods = runAtConstantRate(sizing, 4000, 20 * MAX_EXPORT_PERIOD_NANOS);
+      assertSettled(exportPeriods, TimeUnit.MILLISECONDS.toNanos(250));
+      assertThat(sizing.getReservoirSize()).isCloseTo(25, withinPercentage(5));
+    }
+  }
+
+  private static void assertSettled(List<Long> exportPeriods, long expectedExportPeriodNanos) {
+    assertThat(exportPeriods)
+        .allSatisfy(
+            exportPeriod ->
+                assertThat(exportPeriod).isCloseTo(expectedExportPeriodNanos, withinPercentage(1)));
+  }
+
+  /**
+   * Simulates export periods at the given constant rate of spans.
+   *
+   * @return the export periods in nanoseconds that started in the second half of the duration
+   */
+  private static List<Long> runAtConstantRate(
+      AdaptiveReservoirSizing sizing, double spansPerSecond, long durationNanos) {
+    List<Long> exportPeriods = new ArrayList<>();
+    for (long time = 0; time < durationNanos; ) {
+      long exportPeriod = sizing.getExportPeriodNanos();
+      if (time >= durationNanos / 2) {
+        exportPeriods.add(exportPeriod);
+      }
+      sizing.update(Math.round(spansPerSecond * exportPeriod / 1e9), exportPeriod);
+      time += exportPeriod;
+    }
+    return exportPeriods;
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.EventData;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CompactSpanEncoderTest {
+
+  private SdkTracerProvider sdkTracerProvider;
+  private Tracer tracer;
+
+  @BeforeEach
+  void setUp() {
+    sdkTracerProvider =
+        SdkTracerProvider.builder()
+            .setSampler(ConsistentSampler.alwaysOn())
+            .setResource(Resource.create(Attributes.of(AttributeKey.stringKey("service"), "test")))
+            .build();
+    tracer = sdkTracerProvider.get("test-scope", "1.0");
+  }
+
+  @AfterEach
+  void tearDown() {
+    sdkTracerProvider.shutdown();
+  }
+
+  private static int getPackedPR(ReadableSpan span) {
+    return OtelTraceState.parsePacked(
+        span.getSpanContext().getTraceState().get(OtelTraceState.TRACE_STATE_KEY));
+  }
+
+  private static void assertSameSpanData(SpanData decoded, SpanData expected) {
+    assertThat(decoded.getName()).isEqualTo(expected.getName());
+    assertThat(decoded.getKind()).isEqualTo(expected.getKind());
+    assertThat(decoded.getSpanContext()).isEqualTo(expected.getSpanContext());
+    assertThat(decoded.getParentSpanContext()).isEqualTo(expected.getParentSpanContext());
+    assertThat(decoded.getStatus()).isEqualTo(expected.getStatus());
+    assertThat(decoded.getStartEpochNanos()).isEqualTo(expected.getStartEpochNanos());
+    assertThat(decoded.getEndEpochNanos()).isEqualTo(expected.getEndEpochNanos());
+    assertThat(decoded.hasEnded()).isEqualTo(expected.hasEnded());
+    assertThat(decoded.getAttributes().asMap()).isEqualTo(expected.getAttributes().asMap());
+    assertThat(decoded.getTotalAttributeCount()).isEqualTo(expected.getTotalAttributeCount());
+    assertThat(decoded.getLinks()).hasSameSizeAs(expected.getLinks());
+    for (int i = 0; i < expected.getLinks().size(); ++i) {
+      assertThat(decoded.getLinks().get(i).getSpanContext())
+          .isEqualTo(expected.getLinks().get(i).getSpanContext());
+      assertThat(decoded.getLinks().get(i).getAttributes().asMap())
+          .isEqualTo(expected.getLinks().get(i).getAttributes().asMap());
+      assertThat(decoded.getLinks().get(i).getTotalAttributeCount())
+          .isEqualTo(expected.getLinks().get(i).getTotalAttributeCount());
+    }
+    assertThat(decoded.getTotalRecordedLinks()).isEqualTo(expected.getTotalRecordedLinks());
+    assertThat(decoded.getTotalRecordedEvents()).isEqualTo(expected.getTotalRecordedEvents());
+    assertThat(decoded.getResource()).isEqualTo(expected.getResource());
+    assertThat(decoded.getInstrumentationScopeInfo())
+        .isEqualTo(expected.getInstrumentationScopeInfo());
+    List<EventData> decodedEvents = decoded.getEvents();
+    List<EventData> expectedEvents = expected.getEvents();
+    assertThat(decodedEvents).hasSameSizeAs(expectedEvents);
+    for (int i = 0; i < expectedEvents.size(); ++i) {
+      assertThat(decodedEvents.get(i).getName()).isEqualTo(expectedEvents.get(i).getName());
+      assertThat(decodedEvents.get(i).getEpochNanos())
+          .isEqualTo(expectedEvents.get(i).getEpochNanos());
+      assertThat(decodedEvents.get(i).getAttributes().asMap())
+          .isEqualTo(expectedEvents.get(i).getAttributes().asMap());
+      assertThat(decodedEvents.get(i).getTotalAttributeCount())
+          .isEqualTo(expectedEvents.get(i).getTotalAttributeCount());
+    }
+  }
+
+  @Test
+  @SuppressWarnings("deprecation") // testing deprecated getInstrumentationLibraryInfo
+  void testEncodingRoundTrip() {
+    SpanContext remoteParent =
+        SpanContext.createFromRemoteParent(
+            "ff000000000000000000000000000041",
+            "ff00000000000042",
+            TraceFlags.getSampled(),
+            TraceState.builder()
+                .put(OtelTraceState.TRACE_STATE_KEY, "p:1;r:3")
+                .put("k", "v")
+                .build());
+    SpanContext linkedSpanContext =
+        SpanContext.create(
+            "0123456789abcdef0123456789abcdef",
+            "0123456789abcdef",
+            TraceFlags.getDefault(),
+            TraceState.getDefault());
+
+    Span span =
+        tracer
+            .spanBuilder("encoded")
+            .setParent(Context.root().with(Span.wrap(remoteParent)))
+            .setSpanKind(SpanKind.SERVER)
+            .addLink(linkedSpanContext, Attributes.of(AttributeKey.longKey("link"), 7L))
+            .startSpan();
+    span.setAttribute("string", "value äöü");
+    span.setAttribute("boolean", true);
+    span.setAttribute("long", Long.MIN_VALUE);
+    span.setAttribute("double", 0.5);
+    span.setAttribute(AttributeKey.stringArrayKey("strings"), Arrays.asList("a", "", "b"));
+    span.setAttribute(AttributeKey.booleanArrayKey("booleans"), Arrays.asList(true, false));
+    span.setAttribute(AttributeKey.longArrayKey("longs"), Arrays.asList(1L, -1L));
+    span.setAttribute(AttributeKey.doubleArrayKey("doubles"), Arrays.asList(1.5, -2.5));
+    span.addEvent("event", Attributes.of(AttributeKey.stringKey("event"), "attribute"));
+    span.recordException(new IllegalStateException("failure"));
+    span.setStatus(StatusCode.ERROR, "description");
+    span.end();
+    ReadableSpan readableSpan = (ReadableSpan) span;
+
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    CompactSpan compactSpan = encoder.encode(readableSpan, getPackedPR(readableSpan));
+
+    assertThat(compactSpan.getPackedPR()).isEqualTo(getPackedPR(readableSpan));
+    SpanData decoded = compactSpan.toSpanData();
+    assertSameSpanData(decoded, readableSpan.toSpanData());
+    assertThat(decoded.getInstrumentationLibraryInfo())
+        .isEqualTo(readableSpan.toSpanData().getInstrumentationLibraryInfo());
+    // the exception is not retained, but its attributes are
+    assertThat(
+            decoded
+                .getEvents()
+                .get(1)
+                .getAttributes()
+                .get(AttributeKey.stringKey("exception.type")))
+        .isEqualTo(IllegalStateException.class.getCanonicalName());
+  }
+
+  @Test
+  void testSpanSpecificValuesAreNotAddedToTheDictionary() {
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    for (int i = 0; i < 100; ++i) {
+      Span span =
+          tracer
+              .spanBuilder("span")
+              .setParent(
+                  Context.root()
+                      .with(
+                          Span.wrap(
+                              SpanContext.createFromRemoteParent(
+                                  "ff000000000000000000000000000041",
+                                  "ff00000000000042",
+                                  TraceFlags.getSampled(),
+                                  TraceState.builder().put("k", "v" + i).build()))))
+              .setAttribute("key", "value " + i)
+              .startSpan();
+      span.setStatus(StatusCode.ERROR, "description " + i);
+      span.end();
+      ReadableSpan readableSpan = (ReadableSpan) span;
+      CompactSpan compactSpan = encoder.encode(readableSpan, getPackedPR(readableSpan));
+      assertSameSpanData(compactSpan.toSpanData(), readableSpan.toSpanData());
+    }
+    // the span name, the attribute key, the resource and the scope
+    assertThat(encoder.getDictionarySize()).isEqualTo(4);
+  }
+
+  @Test
+  void testNamesAndKeysAreInlinedIfTheDictionaryIsFull() {
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    for (int i = 0; i < CompactSpanEncoder.MAX_DICTIONARY_SIZE; ++i) {
+      Span span = tracer.spanBuilder("span " + i).setAttribute("key " + i, i).startSpan();
+      span.addEvent("event " + i);
+      span.end();
+      ReadableSpan readableSpan = (ReadableSpan) span;
+      CompactSpan compactSpan = encoder.encode(readableSpan, getPackedPR(readableSpan));
+      assertSameSpanData(compactSpan.toSpanData(), readableSpan.toSpanData());
+    }
+    assertThat(encoder.getDictionarySize()).isEqualTo(CompactSpanEncoder.MAX_DICTIONARY_SIZE);
+  }
+
+  @Test
+  void testSharedValuesAreEncodedOnce() {
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    int[] recordSizes = new int[2];
+    for (int i = 0; i < 2; ++i) {
+      Span span =
+          tracer.spanBuilder("a rather long span name that is used by many spans").startSpan();
+      span.end();
+      ReadableSpan readableSpan = (ReadableSpan) span;
+      CompactSpan compactSpan = encoder.encode(readableSpan, getPackedPR(readableSpan));
+      recordSizes[i] = compactSpan.getRecordSize();
+      assertSameSpanData(compactSpan.toSpanData(), readableSpan.toSpanData());
+    }
+    // ids, flags, timestamps, the trace state with the r-value, whose length may differ, and a
+    // few bytes for dictionary indices and sizes, but not the span name
+    assertThat(recordSizes[0]).isLessThan(80);
+    assertThat(recordSizes[1]).isLessThan(80);
+  }
+
+  @Test
+  void testReusedBufferGrowsForLargeSpans() {
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    char[] largeValue = new char[100000];
+    Arrays.fill(largeValue, 'x');
+    String[] values = {"small", new String(largeValue, 0, 1000), new String(largeValue), "small"};
+    for (String value : values) {
+      Span span = tracer.spanBuilder("span").setAttribute("key", value).startSpan();
+      span.end();
+      ReadableSpan readableSpan = (ReadableSpan) span;
+      CompactSpan compactSpan = encoder.encode(readableSpan, getPackedPR(readableSpan));
+      // the record does not include the unused part of the buffer
+      assertThat(compactSpan.getRecordSize()).isLessThan(value.length() + 80);
+      assertSameSpanData(compactSpan.toSpanData(), readableSpan.toSpanData());
+    }
+  }
+
+  @Test
+  void testConcurrentEncoding() throws InterruptedException {
+    CompactSpanEncoder encoder = new CompactSpanEncoder();
+    int numberOfThreads = 4;
+    int numberOfSpansPerThread = 1000;
+    List<ReadableSpan> spans = new ArrayList<>();
+    List<CompactSpan> compactSpans = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < numberOfThreads * numberOfSpansPerThread; ++i) {
+      // many distinct names and attribute keys, such that threads add to the dictionary
+      Span span = tracer.spanBuilder("span " + (i % 100)).setAttribute("key " + i, i).startSpan();
+      span.end();
+      spans.add((ReadableSpan) span);
+    }
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numberOfThreads; ++t) {
+      List<ReadableSpan> spansOfThread =
+          spans.subList(t * numberOfSpansPerThread, (t + 1) * numberOfSpansPerThread);
+      Thread thread =
+          new Thread(
+              () -> {
+                for (ReadableSpan span : spansOfThread) {
+                  compactSpans.add(encoder.encode(span, getPackedPR(span)));
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(compactSpans).hasSameSizeAs(spans);
+    Map<SpanContext, SpanData> expectedSpans = new HashMap<>();
+    for (ReadableSpan span : spans) {
+      expectedSpans.put(span.getSpanContext(), span.toSpanData());
+    }
+    for (CompactSpan compactSpan : compactSpans) {
+      SpanData decoded = compactSpan.toSpanData();
+      assertSameSpanData(decoded, expectedSpans.get(decoded.getSpanContext()));
+    }
+  }
+}
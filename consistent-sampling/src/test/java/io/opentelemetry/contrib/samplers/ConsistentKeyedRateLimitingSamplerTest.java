@@ -0,0 +1,311 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.assertj.core.data.Percentage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConsistentKeyedRateLimitingSamplerTest {
+
+  private static final AttributeKey<String> ROUTE = AttributeKey.stringKey("http.route");
+
+  private long[] nanoTime;
+  private LongSupplier nanoTimeSupplier;
+  private Context parentContext;
+  private String traceId;
+  private String name;
+  private SpanKind spanKind;
+  private List<LinkData> parentLinks;
+
+  @BeforeEach
+  void init() {
+    nanoTime = new long[] {0L};
+    nanoTimeSupplier = () -> nanoTime[0];
+    parentContext = Context.root();
+    traceId = "0123456789abcdef0123456789abcdef";
+    name = "name";
+    spanKind = SpanKind.SERVER;
+    parentLinks = Collections.emptyList();
+  }
+
+  private void advanceTime(long nanosIncrement) {
+    nanoTime[0] += nanosIncrement;
+  }
+
+  private long getCurrentTimeNanos() {
+    return nanoTime[0];
+  }
+
+  private boolean isSampled(ConsistentSampler sampler, Attributes attributes) {
+    SamplingResult samplingResult =
+        sampler.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+    return SamplingDecision.RECORD_AND_SAMPLE.equals(samplingResult.getDecision());
+  }
+
+  private static boolean isInLast5Seconds(long nanos) {
+    return nanos > TimeUnit.SECONDS.toNanos(95) && nanos <= TimeUnit.SECONDS.toNanos(100);
+  }
+
+  @Test
+  void testNoisyValueDoesNotStarveOthers() {
+    double targetSpansPerSecondLimitPerValue = 200;
+    double totalTargetSpansPerSecondLimit = 1000;
+    double adaptationTimeSeconds = 5;
+
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE,
+            targetSpansPerSecondLimitPerValue,
+            totalTargetSpansPerSecondLimit,
+            adaptationTimeSeconds,
+            100,
+            rValueGenerator(),
+            nanoTimeSupplier);
+
+    Attributes noisy = Attributes.of(ROUTE, "/noisy");
+    Attributes quiet = Attributes.of(ROUTE, "/quiet");
+
+    // 10000 noisy spans per second and 50 quiet spans per second
+    long nanosBetweenSpans = TimeUnit.MICROSECONDS.toNanos(100);
+    int numSpans = 1000000;
+    long numNoisySampledSpansInLast5Seconds = 0;
+    long numQuietSampledSpansInLast5Seconds = 0;
+    for (int i = 0; i < numSpans; ++i) {
+      advanceTime(nanosBetweenSpans);
+      if (isSampled(sampler, noisy) && isInLast5Seconds(getCurrentTimeNanos())) {
+        numNoisySampledSpansInLast5Seconds += 1;
+      }
+      if (i % 200 == 0 && isSampled(sampler, quiet) && isInLast5Seconds(getCurrentTimeNanos())) {
+        numQuietSampledSpansInLast5Seconds += 1;
+      }
+    }
+
+    assertThat(numNoisySampledSpansInLast5Seconds / 5.)
+        .isCloseTo(targetSpansPerSecondLimitPerValue, Percentage.withPercentage(5));
+    assertThat(numQuietSampledSpansInLast5Seconds / 5.).isEqualTo(50.);
+  }
+
+  @Test
+  void testTotalLimit() {
+    double targetSpansPerSecondLimitPerValue = 200;
+    double totalTargetSpansPerSecondLimit = 1000;
+    double adaptationTimeSeconds = 5;
+    int numValues = 20;
+
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE,
+            targetSpansPerSecondLimitPerValue,
+            totalTargetSpansPerSecondLimit,
+            adaptationTimeSeconds,
+            numValues,
+            rValueGenerator(),
+            nanoTimeSupplier);
+
+    Attributes[] attributes = new Attributes[numValues];
+    for (int i = 0; i < numValues; ++i) {
+      attributes[i] = Attributes.of(ROUTE, "/route" + i);
+    }
+
+    // 500 spans per second per value, 10000 spans per second in total
+    long nanosBetweenSpans = TimeUnit.MICROSECONDS.toNanos(100);
+    int numSpans = 1000000;
+    long numSampledSpansInLast5Seconds = 0;
+    for (int i = 0; i < numSpans; ++i) {
+      advanceTime(nanosBetweenSpans);
+      if (isSampled(sampler, attributes[i % numValues])
+          && isInLast5Seconds(getCurrentTimeNanos())) {
+        numSampledSpansInLast5Seconds += 1;
+      }
+    }
+
+    // the per-value limits would allow 4000 spans per second
+    assertThat(numSampledSpansInLast5Seconds / 5.)
+        .isCloseTo(totalTargetSpansPerSecondLimit, Percentage.withPercentage(5));
+  }
+
+  @Test
+  void testTotalLimitAcrossSegments() {
+    double targetSpansPerSecondLimitPerValue = 200;
+    double totalTargetSpansPerSecondLimit = 1000;
+    double adaptationTimeSeconds = 5;
+    int numValues = 1000;
+
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE,
+            targetSpansPerSecondLimitPerValue,
+            totalTargetSpansPerSecondLimit,
+            adaptationTimeSeconds,
+            numValues,
+            rValueGenerator(),
+            nanoTimeSupplier);
+
+    Attributes[] attributes = new Attributes[numValues];
+    for (int i = 0; i < numValues; ++i) {
+      attributes[i] = Attributes.of(ROUTE, "/route" + i);
+    }
+
+    // 10 spans per second per value, 10000 spans per second in total, spread over all segments
+    long nanosBetweenSpans = TimeUnit.MICROSECONDS.toNanos(100);
+    int numSpans = 1000000;
+    long numSampledSpansInLast5Seconds = 0;
+    for (int i = 0; i < numSpans; ++i) {
+      advanceTime(nanosBetweenSpans);
+      if (isSampled(sampler, attributes[i % numValues])
+          && isInLast5Seconds(getCurrentTimeNanos())) {
+        numSampledSpansInLast5Seconds += 1;
+      }
+    }
+
+    // the per-value limits alone would sample all spans
+    assertThat(numSampledSpansInLast5Seconds / 5.)
+        .isCloseTo(totalTargetSpansPerSecondLimit, Percentage.withPercentage(5));
+  }
+
+  @Test
+  void testNewValueDoesNotInheritTimeSinceCreation() {
+    double targetSpansPerSecondLimitPerValue = 100;
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE,
+            targetSpansPerSecondLimitPerValue,
+            100000,
+            5,
+            10,
+            rValueGenerator(),
+            nanoTimeSupplier);
+
+    advanceTime(TimeUnit.HOURS.toNanos(1));
+
+    // a burst of 10000 spans per second of a value that has not been seen before
+    Attributes attributes = Attributes.of(ROUTE, "/new");
+    long numSampledSpans = 0;
+    for (int i = 0; i < 10000; ++i) {
+      advanceTime(TimeUnit.MICROSECONDS.toNanos(100));
+      if (isSampled(sampler, attributes)) {
+        numSampledSpans += 1;
+      }
+    }
+
+    // the first spans are sampled while the estimate adapts, but not the whole burst
+    assertThat(numSampledSpans).isLessThan(2 * (long) targetSpansPerSecondLimitPerValue);
+  }
+
+  @Test
+  void testSpansWithoutAttributeShareEstimate() {
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE, 100, 1000, 5, 10, rValueGenerator(), nanoTimeSupplier);
+
+    advanceTime(TimeUnit.SECONDS.toNanos(1));
+    sampler.getP(OtelTraceState.getInvalidP(), true, Attributes.empty());
+    sampler.getP(OtelTraceState.getInvalidP(), true, Attributes.of(ROUTE, "/route"));
+    sampler.getP(
+        OtelTraceState.getInvalidP(), true, Attributes.of(AttributeKey.stringKey("other"), "x"));
+
+    assertThat(((ConsistentKeyedRateLimitingSampler) sampler).getNumberOfValues()).isEqualTo(2);
+  }
+
+  @Test
+  void testEvictionKeepsFrequentValues() {
+    int maxNumberOfValues = 4;
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE, 100, 100000, 5, maxNumberOfValues, rValueGenerator(), nanoTimeSupplier);
+    ConsistentKeyedRateLimitingSampler keyedSampler = (ConsistentKeyedRateLimitingSampler) sampler;
+
+    Attributes frequent = Attributes.of(ROUTE, "/frequent");
+    for (int i = 0; i < 100000; ++i) {
+      advanceTime(TimeUnit.MICROSECONDS.toNanos(100));
+      sampler.getP(OtelTraceState.getInvalidP(), true, frequent);
+    }
+    // 10000 spans per second exceed the limit of 100 spans per second
+    assertThat(sampler.getP(OtelTraceState.getInvalidP(), true, frequent)).isGreaterThan(0);
+
+    for (int i = 0; i < 1000; ++i) {
+      advanceTime(TimeUnit.MICROSECONDS.toNanos(100));
+      sampler.getP(OtelTraceState.getInvalidP(), true, Attributes.of(ROUTE, "/rare" + i));
+      assertThat(keyedSampler.getNumberOfValues()).isLessThanOrEqualTo(maxNumberOfValues);
+    }
+
+    // the estimate of the frequent value has not been evicted
+    assertThat(sampler.getP(OtelTraceState.getInvalidP(), true, frequent)).isGreaterThan(0);
+  }
+
+  @Test
+  void testEvictionKeepsRecentValues() {
+    int maxNumberOfValues = 64;
+    ConsistentSampler sampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE, 100, 1000, 5, maxNumberOfValues, rValueGenerator(), nanoTimeSupplier);
+    ConsistentKeyedRateLimitingSampler keyedSampler = (ConsistentKeyedRateLimitingSampler) sampler;
+
+    int numValues = 1000;
+    for (int i = 0; i < numValues; ++i) {
+      advanceTime(TimeUnit.MILLISECONDS.toNanos(1));
+      sampler.getP(OtelTraceState.getInvalidP(), true, Attributes.of(ROUTE, "/route" + i));
+    }
+
+    assertThat(keyedSampler.getNumberOfValues()).isEqualTo(maxNumberOfValues);
+    assertThat(keyedSampler.containsValue("/route0")).isFalse();
+    // every segment keeps its most recent values
+    for (int i = numValues - 10; i < numValues; ++i) {
+      assertThat(keyedSampler.containsValue("/route" + i)).isTrue();
+    }
+  }
+
+  @Test
+  void testAttributesArePassedThroughComposedSamplers() {
+    ConsistentSampler keyedSampler =
+        ConsistentSampler.keyedRateLimited(
+            ROUTE, 100, 1000, 5, 10, rValueGenerator(), nanoTimeSupplier);
+    ConsistentSampler sampler =
+        ConsistentSampler.parentBased(keyedSampler.and(ConsistentSampler.alwaysOn()));
+
+    advanceTime(TimeUnit.SECONDS.toNanos(1));
+    isSampled(sampler, Attributes.of(ROUTE, "/route1"));
+    isSampled(sampler, Attributes.of(ROUTE, "/route2"));
+
+    assertThat(((ConsistentKeyedRateLimitingSampler) keyedSampler).getNumberOfValues())
+        .isEqualTo(2);
+  }
+
+  @Test
+  void testInvalidArguments() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConsistentSampler.keyedRateLimited(ROUTE, -1, 1000, 5, 10));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConsistentSampler.keyedRateLimited(ROUTE, 100, 1000, -1, 10));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConsistentSampler.keyedRateLimited(ROUTE, 100, 1000, 5, 0));
+  }
+
+  private static RValueGenerator rValueGenerator() {
+    SplittableRandom random = new SplittableRandom(0L);
+    RandomGenerator randomGenerator = RandomGenerator.create(random::nextLong);
+    return s -> randomGenerator.numberOfLeadingZerosOfRandomLong();
+  }
+}
@@ -25,6 +25,15 @@ import org.junit.jupiter.api.Test;
 
 class ConsistentRateLimitingSamplerTest {
 
+  @FunctionalInterface
+  private interface RateLimitingSamplerFactory {
+    ConsistentSampler create(
+        double targetSpansPerSecondLimit,
+        double adaptationTimeSeconds,
+        RValueGenerator rValueGenerator,
+        LongSupplier nanoTimeSupplier);
+  }
+
   private long[] nanoTime;
   private LongSupplier nanoTimeSupplier;
   private Context parentContext;
@@ -56,12 +65,16 @@ class ConsistentRateLimitingSamplerTest {
 
   @Test
   void testConstantRate() {
+    testConstantRate(ConsistentSampler::rateLimited);
+  }
+
+  private void testConstantRate(RateLimitingSamplerFactory samplerFactory) {
 
     double targetSpansPerSecondLimit = 1000;
     double adaptationTimeSeconds = 5;
 
     ConsistentSampler sampler =
-        ConsistentSampler.rateLimited(
+        samplerFactory.create(
             targetSpansPerSecondLimit, adaptationTimeSeconds, rValueGenerator(), nanoTimeSupplier);
 
     long nanosBetweenSpans = TimeUnit.MICROSECONDS.toNanos(100);
@@ -87,14 +100,23 @@ class ConsistentRateLimitingSamplerTest {
         .isCloseTo(targetSpansPerSecondLimit, Percentage.withPercentage(5));
   }
 
+  @Test
+  void testConstantRateStriped() {
+    testConstantRate(ConsistentSampler::stripedRateLimited);
+  }
+
   @Test
   void testRateIncrease() {
+    testRateIncrease(ConsistentSampler::rateLimited);
+  }
+
+  private void testRateIncrease(RateLimitingSamplerFactory samplerFactory) {
 
     double targetSpansPerSecondLimit = 1000;
     double adaptationTimeSeconds = 5;
 
     ConsistentSampler sampler =
-        ConsistentSampler.rateLimited(
+        samplerFactory.create(
             targetSpansPerSecondLimit, adaptationTimeSeconds, rValueGenerator(), nanoTimeSupplier);
 
     long nanosBetweenSpans1 = TimeUnit.MICROSECONDS.toNanos(100);
@@ -142,14 +164,23 @@ class ConsistentRateLimitingSamplerTest {
         .isCloseTo(targetSpansPerSecondLimit, Percentage.withPercentage(5));
   }
 
+  @Test
+  void testRateIncreaseStriped() {
+    testRateIncrease(ConsistentSampler::stripedRateLimited);
+  }
+
   @Test
   void testRateDecrease() {
+    testRateDecrease(ConsistentSampler::rateLimited);
+  }
+
+  private void testRateDecrease(RateLimitingSamplerFactory samplerFactory) {
 
     double targetSpansPerSecondLimit = 1000;
     double adaptationTimeSeconds = 5;
 
     ConsistentSampler sampler =
-        ConsistentSampler.rateLimited(
+        samplerFactory.create(
             targetSpansPerSecondLimit, adaptationTimeSeconds, rValueGenerator(), nanoTimeSupplier);
 
     long nanosBetweenSpans1 = TimeUnit.MICROSECONDS.toNanos(10);
@@ -197,6 +228,11 @@ class ConsistentRateLimitingSamplerTest {
         .isCloseTo(targetSpansPerSecondLimit, Percentage.withPercentage(5));
   }
 
+  @Test
+  void testRateDecreaseStriped() {
+    testRateDecrease(ConsistentSampler::stripedRateLimited);
+  }
+
   private static RValueGenerator rValueGenerator() {
     SplittableRandom random = new SplittableRandom(0L);
     RandomGenerator randomGenerator = RandomGenerator.create(random::nextLong);
@@ -21,8 +21,16 @@ import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.when;
 
 import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
 import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
 import io.opentelemetry.sdk.trace.ReadableSpan;
 import io.opentelemetry.sdk.trace.SdkTracerProvider;
 import io.opentelemetry.sdk.trace.SpanProcessor;
@@ -33,15 +41,23 @@ import io.opentelemetry.sdk.trace.samplers.SamplingResult;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import javax.annotation.Nullable;
 import org.hipparchus.distribution.discrete.BinomialDistribution;
@@ -129,6 +145,39 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     }
   }
 
+  /** A span exporter that keeps exports in flight until they are completed by the test. */
+  private static class ManuallyCompletedSpanExporter implements SpanExporter {
+
+    private final BlockingQueue<List<SpanData>> exportedBatches = new LinkedBlockingQueue<>();
+    private final BlockingQueue<CompletableResultCode> exportResults = new LinkedBlockingQueue<>();
+
+    List<String> takeExportedSpanNames() throws InterruptedException {
+      return exportedBatches.take().stream().map(SpanData::getName).collect(Collectors.toList());
+    }
+
+    void completeExport() throws InterruptedException {
+      exportResults.take().succeed();
+    }
+
+    @Override
+    public CompletableResultCode export(Collection<SpanData> spans) {
+      CompletableResultCode result = new CompletableResultCode();
+      exportResults.add(result);
+      exportedBatches.add(new ArrayList<>(spans));
+      return result;
+    }
+
+    @Override
+    public CompletableResultCode flush() {
+      return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+      return CompletableResultCode.ofSuccess();
+    }
+  }
+
   @Nullable
   private ReadableSpan createEndedSpan(String spanName, SdkTracerProvider sdkTracerProvider) {
     Tracer tracer = sdkTracerProvider.get(getClass().getName());
@@ -161,6 +210,14 @@ class ConsistentReservoirSamplingSpanProcessorTest {
             () -> ConsistentReservoirSamplingSpanProcessor.create(exporter, 1, 1, 1, null))
         .isInstanceOf(NullPointerException.class)
         .hasMessage("randomGenerator");
+    assertThatThrownBy(
+            () ->
+                ConsistentReservoirSamplingSpanProcessor.builder(exporter, 1, 1)
+                    .setStratumKeyFunction(ReadableSpan::getName)
+                    .setTraceCompleteSampling(true)
+                    .build())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("stratified mode cannot be combined with trace-complete sampling");
   }
 
   @Test
@@ -216,6 +273,154 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     shutdown(sdkTracerProvider);
   }
 
+  @Test
+  @Timeout(10)
+  void stratifiedExportKeepsRareSpans() {
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    int reservoirSize = 20;
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, reservoirSize, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setStratumKeyFunction(ReadableSpan::getName)
+            .setStratumBudgetPolicy(StratumBudgetPolicy.EQUAL)
+            .build();
+
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+    for (int i = 0; i < 1000; i++) {
+      createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+      if (i % 200 == 0) {
+        createEndedSpan(SPAN_NAME_2, sdkTracerProvider);
+      }
+    }
+
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    Map<String, Long> exportedSpanNames =
+        exporter.getExported().stream()
+            .collect(Collectors.groupingBy(SpanData::getName, Collectors.counting()));
+    assertThat(exportedSpanNames)
+        .containsEntry(SPAN_NAME_1, (long) reservoirSize - 5)
+        .containsEntry(SPAN_NAME_2, 5L);
+
+    shutdown(sdkTracerProvider);
+  }
+
+  @Test
+  @Timeout(10)
+  void traceCompleteExportKeepsWholeTraces() {
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    int reservoirSize = 50;
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, reservoirSize, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setTraceCompleteSampling(true)
+            .setNumberOfStripes(4)
+            .build();
+
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+    Tracer tracer = sdkTracerProvider.get(getClass().getName());
+    Map<String, Long> traceSizes = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      Span rootSpan = tracer.spanBuilder(SPAN_NAME_1).startSpan();
+      int numberOfChildren = i % 5;
+      for (int j = 0; j < numberOfChildren; j++) {
+        tracer.spanBuilder(SPAN_NAME_2).setParent(Context.root().with(rootSpan)).startSpan().end();
+      }
+      rootSpan.end();
+      traceSizes.put(rootSpan.getSpanContext().getTraceId(), 1L + numberOfChildren);
+    }
+
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    List<SpanData> exported = exporter.getExported();
+    Map<String, Long> exportedTraceSizes =
+        exported.stream()
+            .collect(Collectors.groupingBy(SpanData::getTraceId, Collectors.counting()));
+    // the largest traces have 5 spans, a smaller trace would have fit otherwise
+    assertThat(exported.size()).isBetween(reservoirSize - 4, reservoirSize);
+    exportedTraceSizes.forEach(
+        (traceId, traceSize) -> assertThat(traceSize).isEqualTo(traceSizes.get(traceId)));
+
+    shutdown(sdkTracerProvider);
+  }
+
+  @Test
+  @Timeout(10)
+  void traceCompleteExportHandsOverIncompleteTraces() {
+    InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+    SdkMeterProvider meterProvider =
+        SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setTraceCompleteSampling(true)
+            .setMaxNumberOfPendingSpans(10)
+            .setMeterProvider(meterProvider)
+            .build();
+
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+    Tracer tracer = sdkTracerProvider.get(getClass().getName());
+    // the root spans never end, hence the pending spans exceed the limit
+    List<Span> rootSpans = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      Span rootSpan = tracer.spanBuilder(SPAN_NAME_1).startSpan();
+      for (int j = 0; j < 2; j++) {
+        tracer.spanBuilder(SPAN_NAME_2).setParent(Context.root().with(rootSpan)).startSpan().end();
+      }
+      rootSpans.add(rootSpan);
+    }
+    assertThat(getSumOfLongPoints(metricReader, "incompleteTraces")).isEqualTo(3);
+    assertThat(((ConsistentReservoirSamplingSpanProcessor) processor).isReservoirEmpty()).isFalse();
+
+    // flushing hands over the remaining pending traces
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    assertThat(exporter.getExported()).hasSize(16);
+    assertThat(getSumOfLongPoints(metricReader, "incompleteTraces")).isEqualTo(8);
+    assertThat(((ConsistentReservoirSamplingSpanProcessor) processor).isReservoirEmpty()).isTrue();
+
+    rootSpans.forEach(Span::end);
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    assertThat(exporter.getExported()).hasSize(8);
+
+    shutdown(sdkTracerProvider);
+    meterProvider.shutdown();
+  }
+
+  @Test
+  @Timeout(10)
+  void traceCompleteExportCountsSpansOfOversizedTraces() {
+    InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+    SdkMeterProvider meterProvider =
+        SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    int reservoirSize = 5;
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, reservoirSize, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setTraceCompleteSampling(true)
+            .setMeterProvider(meterProvider)
+            .build();
+
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+    Tracer tracer = sdkTracerProvider.get(getClass().getName());
+    Span rootSpan = tracer.spanBuilder(SPAN_NAME_1).startSpan();
+    for (int j = 0; j < reservoirSize; j++) {
+      tracer.spanBuilder(SPAN_NAME_2).setParent(Context.root().with(rootSpan)).startSpan().end();
+    }
+    rootSpan.end();
+
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    assertThat(exporter.getExported()).isEmpty();
+    assertThat(getSumOfLongPoints(metricReader, "oversizedTraceSpans"))
+        .isEqualTo(reservoirSize + 1);
+
+    shutdown(sdkTracerProvider);
+    meterProvider.shutdown();
+  }
+
   @Test
   @Timeout(10)
   void exportSpansToMultipleServices() {
@@ -241,11 +446,328 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     shutdown(sdkTracerProvider);
   }
 
+  private static long getLongGaugeValue(InMemoryMetricReader metricReader, String name) {
+    return metricReader.collectAllMetrics().stream()
+        .filter(metricData -> metricData.getName().equals(name))
+        .flatMap(metricData -> metricData.getLongGaugeData().getPoints().stream())
+        .findFirst()
+        .orElseThrow(AssertionError::new)
+        .getValue();
+  }
+
+  @Test
+  @Timeout(10)
+  void adaptiveReservoirSize() {
+    InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+    SdkMeterProvider meterProvider =
+        SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, 1000, TimeUnit.SECONDS.toNanos(10))
+            .setTargetExportedSpansPerSecond(100)
+            .setMinExportPeriodNanos(TimeUnit.SECONDS.toNanos(5))
+            .setMeterProvider(meterProvider)
+            .build();
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    assertThat(getLongGaugeValue(metricReader, "reservoirSize")).isEqualTo(1000);
+    assertThat(getLongGaugeValue(metricReader, "exportPeriod"))
+        .isEqualTo(TimeUnit.SECONDS.toNanos(10));
+
+    // the reservoir fills early, hence the export period is shortened and the reservoir is resized
+    // to meet the target of 100 exported spans per second
+    createEndedSpans(0, 2000, sdkTracerProvider);
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    assertThat(exporter.getExported()).hasSize(1000);
+    assertThat(getLongGaugeValue(metricReader, "reservoirSize")).isEqualTo(500);
+    assertThat(getLongGaugeValue(metricReader, "exportPeriod"))
+        .isEqualTo(TimeUnit.SECONDS.toNanos(5));
+
+    createEndedSpans(0, 2000, sdkTracerProvider);
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+    assertThat(exporter.getExported()).hasSize(500);
+
+    // the gauges are not reported after shutdown
+    shutdown(sdkTracerProvider);
+    assertThat(metricReader.collectAllMetrics())
+        .noneMatch(
+            metricData ->
+                metricData.getName().equals("reservoirSize")
+                    || metricData.getName().equals("exportPeriod"));
+    meterProvider.shutdown();
+  }
+
+  private static long getSumOfLongPoints(InMemoryMetricReader metricReader, String name) {
+    return metricReader.collectAllMetrics().stream()
+        .filter(metricData -> metricData.getName().equals(name))
+        .flatMap(metricData -> metricData.getLongSumData().getPoints().stream())
+        .mapToLong(LongPointData::getValue)
+        .sum();
+  }
+
+  private static long getHistogramCount(InMemoryMetricReader metricReader, String name) {
+    return metricReader.collectAllMetrics().stream()
+        .filter(metricData -> metricData.getName().equals(name))
+        .flatMap(metricData -> metricData.getHistogramData().getPoints().stream())
+        .mapToLong(HistogramPointData::getCount)
+        .sum();
+  }
+
+  private static void awaitWaitingFlushes(SpanProcessor processor, int numberOfWaitingFlushes) {
+    await()
+        .untilAsserted(
+            () ->
+                assertThat(
+                        ((ConsistentReservoirSamplingSpanProcessor) processor)
+                            .getNumberOfWaitingFlushes())
+                    .isEqualTo(numberOfWaitingFlushes));
+  }
+
+  private void testExportBackPressure(
+      ExportBackPressureStrategy exportBackPressureStrategy,
+      List<String> expectedSpanNames,
+      long expectedNumberOfDroppedSpans)
+      throws InterruptedException {
+    InMemoryMetricReader metricReader = InMemoryMetricReader.create();
+    SdkMeterProvider meterProvider =
+        SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+    ManuallyCompletedSpanExporter exporter = new ManuallyCompletedSpanExporter();
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setExportBackPressureStrategy(exportBackPressureStrategy)
+            .setMeterProvider(meterProvider)
+            .build();
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+    CompletableResultCode flushResult1 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_1);
+
+    // spans are still collected while the first export is in flight
+    createEndedSpan(SPAN_NAME_2, sdkTracerProvider);
+    CompletableResultCode flushResult2 = processor.forceFlush();
+    awaitWaitingFlushes(processor, 1);
+    createEndedSpan(SPAN_NAME_3, sdkTracerProvider);
+    CompletableResultCode flushResult3 = processor.forceFlush();
+    awaitWaitingFlushes(processor, 2);
+    assertThat(flushResult1.isDone()).isFalse();
+
+    exporter.completeExport();
+    assertThat(flushResult1.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+    assertThat(exporter.takeExportedSpanNames())
+        .containsExactlyInAnyOrderElementsOf(expectedSpanNames);
+    assertThat(flushResult2.isDone()).isFalse();
+    assertThat(flushResult3.isDone()).isFalse();
+
+    exporter.completeExport();
+    assertThat(flushResult2.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+    assertThat(flushResult3.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+
+    assertThat(getSumOfLongPoints(metricReader, "droppedSpans"))
+        .isEqualTo(expectedNumberOfDroppedSpans);
+    assertThat(getHistogramCount(metricReader, "reservoirFinalizationDuration")).isEqualTo(2);
+    assertThat(getHistogramCount(metricReader, "exportDuration")).isEqualTo(2);
+
+    shutdown(sdkTracerProvider);
+    meterProvider.shutdown();
+  }
+
+  @Test
+  @Timeout(10)
+  void exportBackPressureMerge() throws InterruptedException {
+    testExportBackPressure(
+        ExportBackPressureStrategy.MERGE, Arrays.asList(SPAN_NAME_2, SPAN_NAME_3), 0);
+  }
+
+  @Test
+  @Timeout(10)
+  void exportBackPressureDropOldest() throws InterruptedException {
+    testExportBackPressure(
+        ExportBackPressureStrategy.DROP_OLDEST, Collections.singletonList(SPAN_NAME_3), 1);
+  }
+
+  @Test
+  @Timeout(10)
+  void concurrentExports() throws InterruptedException {
+    ManuallyCompletedSpanExporter exporter = new ManuallyCompletedSpanExporter();
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setMaxConcurrentExports(2)
+            .build();
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+    CompletableResultCode flushResult1 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_1);
+
+    // the second export starts although the first one is still in flight
+    createEndedSpan(SPAN_NAME_2, sdkTracerProvider);
+    CompletableResultCode flushResult2 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_2);
+    assertThat(flushResult1.isDone()).isFalse();
+
+    // the second flush also waits for the first export
+    exporter.completeExport();
+    assertThat(flushResult1.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+    assertThat(flushResult2.isDone()).isFalse();
+    exporter.completeExport();
+    assertThat(flushResult2.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+
+    shutdown(sdkTracerProvider);
+  }
+
+  @Test
+  @Timeout(10)
+  void sharedExecutorService() {
+    ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    WaitingSpanExporter periodicExporter = new WaitingSpanExporter(1);
+    SdkTracerProvider periodicTracerProvider =
+        SdkTracerProvider.builder()
+            .addSpanProcessor(
+                ConsistentReservoirSamplingSpanProcessor.builder(
+                        periodicExporter, RESERVOIR_SIZE, EXPORT_PERIOD_10_MILLIS_AS_NANOS)
+                    .setExecutorService(executorService)
+                    .build())
+            .build();
+    WaitingSpanExporter flushedExporter = new WaitingSpanExporter(0);
+    SpanProcessor flushedProcessor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                flushedExporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setExecutorService(executorService)
+            .build();
+    SdkTracerProvider flushedTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(flushedProcessor).build();
+
+    ReadableSpan span1 = createEndedSpan(SPAN_NAME_1, periodicTracerProvider);
+    assertThat(periodicExporter.waitForExport()).containsExactly(span1.toSpanData());
+
+    ReadableSpan span2 = createEndedSpan(SPAN_NAME_2, flushedTracerProvider);
+    assertThat(flushedProcessor.forceFlush().join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+    assertThat(flushedExporter.getExported()).containsExactly(span2.toSpanData());
+
+    ReadableSpan span3 = createEndedSpan(SPAN_NAME_3, flushedTracerProvider);
+    shutdown(flushedTracerProvider);
+    assertThat(flushedExporter.getExported()).containsExactly(span3.toSpanData());
+    assertThat(flushedExporter.shutDownCalled.get()).isTrue();
+    shutdown(periodicTracerProvider);
+    assertThat(periodicExporter.shutDownCalled.get()).isTrue();
+
+    // the executor is owned by the caller
+    assertThat(executorService.isShutdown()).isFalse();
+    executorService.shutdown();
+  }
+
+  @Test
+  @Timeout(10)
+  void sharedExecutorServiceHandlesConcurrentAndTimedOutExports() throws InterruptedException {
+    ScheduledExecutorService executorService = Executors.newScheduledThreadPool(2);
+    ManuallyCompletedSpanExporter exporter = new ManuallyCompletedSpanExporter();
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                exporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setExporterTimeoutNanos(TimeUnit.MILLISECONDS.toNanos(200))
+            .setMaxConcurrentExports(2)
+            .setExecutorService(executorService)
+            .build();
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+    CompletableResultCode flushResult1 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_1);
+    createEndedSpan(SPAN_NAME_2, sdkTracerProvider);
+    CompletableResultCode flushResult2 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_2);
+
+    // the third batch waits for a free export slot
+    createEndedSpan(SPAN_NAME_3, sdkTracerProvider);
+    CompletableResultCode flushResult3 = processor.forceFlush();
+    awaitWaitingFlushes(processor, 1);
+    exporter.completeExport();
+    assertThat(flushResult1.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_3);
+
+    // the remaining exports are never completed and time out, which fails their flushes
+    assertThat(flushResult2.join(10, TimeUnit.SECONDS).isSuccess()).isFalse();
+    assertThat(flushResult3.join(10, TimeUnit.SECONDS).isSuccess()).isFalse();
+
+    // completing the timed out exports late has no effect, and a flush after them succeeds again
+    exporter.completeExport();
+    exporter.completeExport();
+    assertThat(flushResult2.isSuccess()).isFalse();
+    createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+    CompletableResultCode flushResult4 = processor.forceFlush();
+    assertThat(exporter.takeExportedSpanNames()).containsExactly(SPAN_NAME_1);
+    exporter.completeExport();
+    assertThat(flushResult4.join(10, TimeUnit.SECONDS).isSuccess()).isTrue();
+
+    shutdown(sdkTracerProvider);
+    executorService.shutdown();
+  }
+
+  @Test
+  @Timeout(10)
+  void concurrentFlushesAllComplete() {
+    WaitingSpanExporter exporter = new WaitingSpanExporter(0);
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.create(
+            exporter, RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS);
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    // flushes are requested faster than they are exported, but none of them is dropped
+    List<CompletableResultCode> flushResults = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      createEndedSpan(SPAN_NAME_1, sdkTracerProvider);
+      flushResults.add(processor.forceFlush());
+    }
+    assertThat(CompletableResultCode.ofAll(flushResults).join(10, TimeUnit.SECONDS).isSuccess())
+        .isTrue();
+    assertThat(exporter.getExported()).hasSize(100);
+
+    shutdown(sdkTracerProvider);
+  }
+
+  private static long getNumberOfProcessorThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(
+            thread ->
+                thread
+                    .getName()
+                    .startsWith(ConsistentReservoirSamplingSpanProcessor.class.getSimpleName()))
+        .count();
+  }
+
+  @Test
+  void processorsDoNotStartThreadsOfTheirOwn() {
+    List<SpanProcessor> processors = new ArrayList<>();
+    processors.add(
+        ConsistentReservoirSamplingSpanProcessor.create(
+            new WaitingSpanExporter(0), RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS));
+    long numberOfThreads = getNumberOfProcessorThreads();
+    for (int i = 0; i < 20; ++i) {
+      processors.add(
+          ConsistentReservoirSamplingSpanProcessor.create(
+              new WaitingSpanExporter(0), RESERVOIR_SIZE, VERY_LONG_EXPORT_PERIOD_NANOS));
+    }
+    // idle export threads of previous tests may have terminated in the meantime
+    assertThat(getNumberOfProcessorThreads()).isLessThanOrEqualTo(numberOfThreads);
+    processors.forEach(processor -> processor.shutdown().join(10, TimeUnit.SECONDS));
+  }
+
   @Test
   void ignoresNullSpans() {
+    SpanExporter exporter = mock(SpanExporter.class);
+    when(exporter.shutdown()).thenReturn(CompletableResultCode.ofSuccess());
     SpanProcessor processor =
         ConsistentReservoirSamplingSpanProcessor.create(
-            mock(SpanExporter.class), RESERVOIR_SIZE, EXPORT_PERIOD_100_MILLIS_AS_NANOS);
+            exporter, RESERVOIR_SIZE, EXPORT_PERIOD_100_MILLIS_AS_NANOS);
     assertThatCode(
             () -> {
               processor.onStart(null, null);
@@ -457,6 +979,46 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     assertThat(result.isSuccess()).isFalse();
   }
 
+  private static void createEndedChildSpan(
+      String spanName, String otelTraceState, SdkTracerProvider sdkTracerProvider) {
+    SpanContext parentSpanContext =
+        SpanContext.create(
+            "0123456789abcdef0123456789abcdef",
+            "0123456789abcdef",
+            TraceFlags.getSampled(),
+            TraceState.builder().put(OtelTraceState.TRACE_STATE_KEY, otelTraceState).build());
+    sdkTracerProvider
+        .get("test")
+        .spanBuilder(spanName)
+        .setParent(Context.root().with(Span.wrap(parentSpanContext)))
+        .startSpan()
+        .end();
+  }
+
+  @Test
+  @Timeout(10)
+  void keepsSpansWithLargestRValues() {
+    WaitingSpanExporter exporter = new WaitingSpanExporter(1);
+    SpanProcessor processor =
+        ConsistentReservoirSamplingSpanProcessor.create(exporter, 1, VERY_LONG_EXPORT_PERIOD_NANOS);
+    SdkTracerProvider sdkTracerProvider =
+        SdkTracerProvider.builder().addSpanProcessor(processor).build();
+
+    createEndedChildSpan(SPAN_NAME_1, "r:3", sdkTracerProvider);
+    createEndedChildSpan(SPAN_NAME_2, "r:5;x:y", sdkTracerProvider);
+    createEndedChildSpan(SPAN_NAME_3, "p:1;r:2", sdkTracerProvider);
+    processor.forceFlush().join(10, TimeUnit.SECONDS);
+
+    List<SpanData> exported = exporter.waitForExport();
+    assertThat(exported).hasSize(1);
+    assertThat(exported.get(0).getName()).isEqualTo(SPAN_NAME_2);
+    // the largest r-value of the discarded spans is 3, hence the p-value is either 3 or 4
+    assertThat(exported.get(0).getSpanContext().getTraceState().get(OtelTraceState.TRACE_STATE_KEY))
+        .isIn("p:3;r:5;x:y", "p:4;r:5;x:y");
+
+    shutdown(sdkTracerProvider);
+  }
+
   @Test
   @Timeout(10)
   void fullReservoir() {
@@ -500,6 +1062,18 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     };
   }
 
+  private List<ReadableSpan> createEndedSpans(
+      int fromIndex, int toIndex, SdkTracerProvider sdkTracerProvider) {
+    List<ReadableSpan> spans = new ArrayList<>(toIndex - fromIndex);
+    for (long i = fromIndex; i < toIndex; ++i) {
+      ReadableSpan span = createEndedSpan(Long.toString(i), sdkTracerProvider);
+      if (span != null) {
+        spans.add(span);
+      }
+    }
+    return spans;
+  }
+
   /**
    * Tests a multi-stage consistent sampling setup consisting of a consistent probability-based
    * sampler with predefined sampling probability followed by a reservoir sampling span processor
@@ -511,7 +1085,48 @@ class ConsistentReservoirSamplingSpanProcessorTest {
       int numberOfSpans,
       int reservoirSize,
       double samplingProbability,
-      EnumSet<Tests> tests) {
+      EnumSet<Tests> tests)
+      throws ExecutionException, InterruptedException {
+    testConsistentSampling(
+        seed, numCycles, numberOfSpans, reservoirSize, samplingProbability, tests, 1);
+  }
+
+  private void testConsistentSampling(
+      long seed,
+      int numCycles,
+      int numberOfSpans,
+      int reservoirSize,
+      double samplingProbability,
+      EnumSet<Tests> tests,
+      int numberOfStripes)
+      throws ExecutionException, InterruptedException {
+    testConsistentSampling(
+        seed,
+        numCycles,
+        numberOfSpans,
+        reservoirSize,
+        samplingProbability,
+        tests,
+        numberOfStripes,
+        /* compactSpanEncoding= */ false);
+  }
+
+  /**
+   * Tests a multi-stage consistent sampling setup as above, where spans are ended by {@code
+   * numberOfStripes} different threads and collected by a striped reservoir. The threads are run
+   * one after another, which keeps the test deterministic. If {@code compactSpanEncoding} is set,
+   * the reservoir keeps encoded spans instead.
+   */
+  private void testConsistentSampling(
+      long seed,
+      int numCycles,
+      int numberOfSpans,
+      int reservoirSize,
+      double samplingProbability,
+      EnumSet<Tests> tests,
+      int numberOfStripes,
+      boolean compactSpanEncoding)
+      throws ExecutionException, InterruptedException {
 
     SplittableRandom rng1 = new SplittableRandom(seed);
     SplittableRandom rng2 = rng1.split();
@@ -519,12 +1134,25 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     WaitingSpanExporter spanExporter = new WaitingSpanExporter(0);
 
     SpanProcessor processor =
-        ConsistentReservoirSamplingSpanProcessor.create(
-            spanExporter,
-            reservoirSize,
-            VERY_LONG_EXPORT_PERIOD_NANOS,
-            DEFAULT_EXPORT_TIMEOUT_NANOS,
-            RandomGenerator.create(asThreadSafeLongSupplier(rng1)));
+        ConsistentReservoirSamplingSpanProcessor.builder(
+                spanExporter, reservoirSize, VERY_LONG_EXPORT_PERIOD_NANOS)
+            .setExporterTimeoutNanos(DEFAULT_EXPORT_TIMEOUT_NANOS)
+            .setNumberOfStripes(numberOfStripes)
+            .setCompactSpanEncoding(compactSpanEncoding)
+            .setRandomGenerator(RandomGenerator.create(asThreadSafeLongSupplier(rng1)))
+            .build();
+
+    List<ExecutorService> executors = new ArrayList<>();
+    // the stripe each executor adds its spans to, which is selected by the id of its thread
+    int[] stripeIndices = new int[numberOfStripes];
+    if (numberOfStripes > 1) {
+      for (int i = 0; i < numberOfStripes; ++i) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executors.add(executor);
+        long threadId = executor.submit(() -> Thread.currentThread().getId()).get();
+        stripeIndices[i] = (int) (threadId % numberOfStripes);
+      }
+    }
 
     RandomGenerator randomGenerator = RandomGenerator.create(asThreadSafeLongSupplier(rng2));
     SdkTracerProvider sdkTracerProvider =
@@ -542,10 +1170,21 @@ class ConsistentReservoirSamplingSpanProcessorTest {
 
     for (int k = 0; k < numCycles; ++k) {
       List<ReadableSpan> spans = new ArrayList<>(numberOfSpans);
-      for (long i = 0; i < numberOfSpans; ++i) {
-        ReadableSpan span = createEndedSpan(Long.toString(i), sdkTracerProvider);
-        if (span != null) {
-          spans.add(span);
+      long[] expectedNumberOfAddedSpansPerStripe = new long[numberOfStripes];
+      if (executors.isEmpty()) {
+        spans.addAll(createEndedSpans(0, numberOfSpans, sdkTracerProvider));
+        expectedNumberOfAddedSpansPerStripe[0] = spans.size();
+      } else {
+        for (int j = 0; j < executors.size(); ++j) {
+          int fromIndex = (int) ((numberOfSpans * (long) j) / executors.size());
+          int toIndex = (int) ((numberOfSpans * (long) (j + 1)) / executors.size());
+          List<ReadableSpan> executorSpans =
+              executors
+                  .get(j)
+                  .submit(() -> createEndedSpans(fromIndex, toIndex, sdkTracerProvider))
+                  .get();
+          spans.addAll(executorSpans);
+          expectedNumberOfAddedSpansPerStripe[stripeIndices[j]] += executorSpans.size();
         }
       }
 
@@ -553,6 +1192,11 @@ class ConsistentReservoirSamplingSpanProcessorTest {
         assertThat(spans).hasSize(numberOfSpans);
       }
 
+      long[] numberOfAddedSpansPerStripe =
+          ((ConsistentReservoirSamplingSpanProcessor) processor).getNumberOfAddedSpansPerStripe();
+      // the sampled spans of every thread are collected by the stripe of that thread
+      assertThat(numberOfAddedSpansPerStripe).containsExactly(expectedNumberOfAddedSpansPerStripe);
+
       processor.forceFlush().join(1000, TimeUnit.SECONDS);
 
       List<SpanData> exported = spanExporter.getExported();
@@ -616,12 +1260,13 @@ class ConsistentReservoirSamplingSpanProcessorTest {
       assertThat(new GTest().gTest(expected, observed)).isGreaterThan(0.01);
     }
 
+    executors.forEach(ExecutorService::shutdown);
     shutdown(sdkTracerProvider);
   }
 
   @Test
   @Timeout(1000)
-  void testConsistentSampling() {
+  void testConsistentSampling() throws ExecutionException, InterruptedException {
     testConsistentSampling(
         0x34e7052af91d5355L,
         1000,
@@ -687,4 +1332,59 @@ class ConsistentReservoirSamplingSpanProcessorTest {
     testConsistentSampling(
         0xc41d327fd1a6866aL, 1000000, 5, 4, 1.0, EnumSet.of(Tests.VERIFY_ORDER_INDEPENDENCE));
   }
+
+  @Test
+  @Timeout(1000)
+  void testConsistentSamplingWithStripes() throws ExecutionException, InterruptedException {
+    testConsistentSampling(
+        0x6c1f3b5e8a1a4d0bL,
+        1000,
+        1000,
+        100,
+        1.,
+        EnumSet.of(Tests.VERIFY_MEAN, Tests.VERIFY_ORDER_INDEPENDENCE),
+        4);
+    testConsistentSampling(
+        0x5a3c1e0f9b7d2468L,
+        1000,
+        1000,
+        200,
+        0.2,
+        EnumSet.of(
+            Tests.VERIFY_MEAN, Tests.VERIFY_PVALUE_DISTRIBUTION, Tests.VERIFY_ORDER_INDEPENDENCE),
+        4);
+    testConsistentSampling(
+        0xa3b4f0c6d2e81f47L,
+        1000,
+        200,
+        100,
+        1.,
+        EnumSet.of(Tests.VERIFY_MEAN, Tests.VERIFY_ORDER_INDEPENDENCE),
+        8);
+  }
+
+  @Test
+  @Timeout(1000)
+  void testConsistentSamplingWithCompactSpanEncoding()
+      throws ExecutionException, InterruptedException {
+    testConsistentSampling(
+        0x1e6a8c54f7b3d902L,
+        1000,
+        1000,
+        100,
+        1.,
+        EnumSet.of(Tests.VERIFY_MEAN, Tests.VERIFY_ORDER_INDEPENDENCE),
+        1,
+        /* compactSpanEncoding= */ true);
+    testConsistentSampling(
+        0x7d29b3e0c4a15f86L,
+        1000,
+        1000,
+        200,
+        0.2,
+        EnumSet.of(
+            Tests.VERIFY_MEAN, Tests.VERIFY_PVALUE_DISTRIBUTION, Tests.VERIFY_ORDER_INDEPENDENCE),
+        4,
+        /* compactSpanEncoding= */ true);
+  }
 }
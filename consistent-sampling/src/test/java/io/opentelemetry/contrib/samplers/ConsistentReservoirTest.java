@@ -0,0 +1,166 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class ConsistentReservoirTest {
+
+  private static byte[] encode(ConsistentReservoir<Integer> reservoir) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    reservoir.writeTo(new DataOutputStream(bytes), (item, out) -> out.writeInt(item));
+    return bytes.toByteArray();
+  }
+
+  private static ConsistentReservoir<Integer> decode(byte[] bytes) throws IOException {
+    return ConsistentReservoir.readFrom(
+        new DataInputStream(new ByteArrayInputStream(bytes)), DataInput::readInt);
+  }
+
+  private static Set<Integer> getItems(ConsistentReservoir<Integer> reservoir) {
+    Set<Integer> items = new HashSet<>();
+    reservoir.forEachItem(items::add);
+    return items;
+  }
+
+  private static double getSumOfAdjustedCounts(ConsistentReservoir<Integer> reservoir) {
+    double[] sum = new double[] {0};
+    reservoir.forEachSample(item -> 0, (item, pValue) -> sum[0] += Math.pow(2, pValue));
+    return sum[0];
+  }
+
+  @Test
+  void testMergeIsEquivalentToAddingAllItems() {
+    SplittableRandom random = new SplittableRandom(0L);
+    int numItems = 1000;
+    long[] keys = new long[numItems];
+    for (int i = 0; i < numItems; ++i) {
+      keys[i] =
+          ConsistentReservoir.createKey(
+              Long.numberOfLeadingZeros(random.nextLong()) % 63, random.nextLong());
+    }
+
+    ConsistentReservoir<Integer> direct = ConsistentReservoir.create(50);
+    ConsistentReservoir<Integer> reservoir1 = ConsistentReservoir.create(50);
+    ConsistentReservoir<Integer> reservoir2 = ConsistentReservoir.create(70);
+    for (int i = 0; i < numItems; ++i) {
+      direct.addWithKey(keys[i], i);
+      if (i % 3 == 0) {
+        reservoir1.addWithKey(keys[i], i);
+      } else {
+        reservoir2.addWithKey(keys[i], i);
+      }
+    }
+    Set<Integer> itemsOfReservoir2 = getItems(reservoir2);
+    reservoir1.merge(reservoir2);
+
+    assertThat(getItems(reservoir1)).isEqualTo(getItems(direct));
+    assertThat(reservoir1.getNumberOfAddedItems()).isEqualTo(numItems);
+    assertThat(reservoir1.hasDiscardedItems()).isTrue();
+    // the merged reservoir is not modified
+    assertThat(getItems(reservoir2)).isEqualTo(itemsOfReservoir2);
+  }
+
+  @Test
+  void testMergeRequiresReservoirOfSameOrLargerSize() {
+    ConsistentReservoir<Integer> reservoir = ConsistentReservoir.create(10);
+    assertThrows(IllegalArgumentException.class, () -> reservoir.merge(reservoir));
+    assertThrows(
+        IllegalArgumentException.class, () -> reservoir.merge(ConsistentReservoir.create(9)));
+    reservoir.merge(ConsistentReservoir.create(11));
+    assertThat(reservoir.isEmpty()).isTrue();
+  }
+
+  @Test
+  void testEncodingRoundTrip() throws IOException {
+    ConsistentReservoir<Integer> reservoir = ConsistentReservoir.create(20);
+    for (int i = 0; i < 100; ++i) {
+      reservoir.add(i, OtelTraceState.getInvalidR());
+    }
+    byte[] bytes = encode(reservoir);
+    ConsistentReservoir<Integer> decoded = decode(bytes);
+
+    assertThat(getItems(decoded)).isEqualTo(getItems(reservoir));
+    assertThat(decoded.getReservoirSize()).isEqualTo(20);
+    assertThat(decoded.getNumberOfAddedItems()).isEqualTo(100);
+    assertThat(decoded.hasDiscardedItems()).isTrue();
+    // 8 bytes for the key and 4 bytes for the item
+    assertThat(bytes.length).isLessThan(20 * 12 + 16);
+    assertThat(encode(decoded)).isEqualTo(bytes);
+
+    // adding to and merging decoded reservoirs works as before
+    ConsistentReservoir<Integer> empty = decode(encode(ConsistentReservoir.create(20)));
+    assertThat(empty.isEmpty()).isTrue();
+    empty.merge(decoded);
+    assertThat(getItems(empty)).isEqualTo(getItems(reservoir));
+  }
+
+  @Test
+  void testInvalidEncoding() throws IOException {
+    byte[] bytes = encode(ConsistentReservoir.create(20));
+    byte[] unsupportedVersion = bytes.clone();
+    unsupportedVersion[0] = 2;
+    assertThrows(IOException.class, () -> decode(unsupportedVersion));
+    byte[] truncated = new byte[bytes.length - 1];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    assertThrows(IOException.class, () -> decode(truncated));
+
+    ConsistentReservoir<Integer> reservoir = ConsistentReservoir.create(3);
+    for (int i = 0; i < 3; ++i) {
+      reservoir.add(i, 5);
+    }
+    byte[] invalidRValue = encode(reservoir);
+    // the first key follows the 6 bytes of the reservoir state
+    invalidRValue[6] = (byte) 0x7F;
+    assertThrows(IOException.class, () -> decode(invalidRValue));
+  }
+
+  @Test
+  void testHierarchicalAggregationIsUnbiased() throws IOException {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int numTrials = 1000;
+    int numFirstStageReservoirs = 10;
+    int numItemsPerFirstStageReservoir = 200;
+    double sumOfEstimates = 0;
+    List<ConsistentReservoir<Integer>> firstStageReservoirs = new ArrayList<>();
+    for (int trial = 0; trial < numTrials; ++trial) {
+      firstStageReservoirs.clear();
+      for (int j = 0; j < numFirstStageReservoirs; ++j) {
+        ConsistentReservoir<Integer> reservoir = ConsistentReservoir.create(50, randomGenerator);
+        for (int i = 0; i < numItemsPerFirstStageReservoir; ++i) {
+          reservoir.add(i, OtelTraceState.getInvalidR());
+        }
+        firstStageReservoirs.add(reservoir);
+      }
+      ConsistentReservoir<Integer> secondStageReservoir =
+          ConsistentReservoir.create(20, randomGenerator);
+      for (ConsistentReservoir<Integer> reservoir : firstStageReservoirs) {
+        secondStageReservoir.merge(decode(encode(reservoir)));
+      }
+      assertThat(secondStageReservoir.size()).isEqualTo(20);
+      sumOfEstimates += getSumOfAdjustedCounts(secondStageReservoir);
+    }
+    assertThat(sumOfEstimates / numTrials)
+        .isCloseTo(
+            numFirstStageReservoirs * numItemsPerFirstStageReservoir,
+            within(0.05 * numFirstStageReservoirs * numItemsPerFirstStageReservoir));
+  }
+}
@@ -22,10 +22,12 @@ import io.opentelemetry.context.Context;
 import io.opentelemetry.sdk.trace.data.LinkData;
 import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
 import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.OptionalInt;
 import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 
 class ConsistentSamplerTest {
@@ -256,4 +258,198 @@ class ConsistentSamplerTest {
     assertConsistentSampling(3, 5, SAMPLED, getInvalidP(), 7, getInvalidP(), 5, SAMPLED);
     assertConsistentSampling(5, 3, NOT_SAMPLED, getInvalidP(), 7, getInvalidP(), 3, NOT_SAMPLED);
   }
+
+  @Test
+  void testParentTraceStateWithOtherKeyValuePairs() {
+    String traceId = "0123456789abcdef0123456789abcdef";
+    String spanId = "0123456789abcdef";
+    TraceState parentTraceState =
+        TraceState.builder().put(OtelTraceState.TRACE_STATE_KEY, "r:5;p:3;x:abc").build();
+    Context parentContext =
+        Span.wrap(SpanContext.create(traceId, spanId, TraceFlags.getSampled(), parentTraceState))
+            .storeInContext(Context.root());
+    ConsistentSampler sampler = createConsistentSampler(2, 7);
+    SamplingResult samplingResult =
+        sampler.shouldSample(
+            parentContext,
+            traceId,
+            "name",
+            SpanKind.SERVER,
+            Attributes.empty(),
+            Collections.emptyList());
+
+    assertThat(getSampledFlag(samplingResult)).isTrue();
+    assertThat(
+            samplingResult
+                .getUpdatedTraceState(parentTraceState)
+                .get(OtelTraceState.TRACE_STATE_KEY))
+        .isEqualTo("p:2;r:5;x:abc");
+  }
+
+  @Test
+  void testSamplingResultsAreCached() {
+    String traceId = "0123456789abcdef0123456789abcdef";
+    String spanId = "0123456789abcdef";
+    Context parentContext = createParentContext(traceId, spanId, 3, 5, SAMPLED);
+    ConsistentSampler sampler = createConsistentSampler(2, 7);
+    SamplingResult samplingResult1 =
+        sampler.shouldSample(
+            parentContext,
+            traceId,
+            "name",
+            SpanKind.SERVER,
+            Attributes.empty(),
+            Collections.emptyList());
+    SamplingResult samplingResult2 =
+        sampler.shouldSample(
+            parentContext,
+            traceId,
+            "name",
+            SpanKind.SERVER,
+            Attributes.empty(),
+            Collections.emptyList());
+    assertThat(samplingResult1).isSameAs(samplingResult2);
+  }
+
+  @Test
+  void testUnchangedParentTraceStateIsReused() {
+    String traceId = "0123456789abcdef0123456789abcdef";
+    String spanId = "0123456789abcdef";
+    TraceState parentTraceState =
+        TraceState.builder().put("a", "b").put(OtelTraceState.TRACE_STATE_KEY, "p:2;r:5").build();
+    Context parentContext =
+        Span.wrap(SpanContext.create(traceId, spanId, TraceFlags.getSampled(), parentTraceState))
+            .storeInContext(Context.root());
+
+    SamplingResult unchangedResult =
+        createConsistentSampler(2, 7)
+            .shouldSample(
+                parentContext,
+                traceId,
+                "name",
+                SpanKind.SERVER,
+                Attributes.empty(),
+                Collections.emptyList());
+    assertThat(unchangedResult.getUpdatedTraceState(parentTraceState)).isSameAs(parentTraceState);
+
+    SamplingResult changedResult =
+        createConsistentSampler(1, 7)
+            .shouldSample(
+                parentContext,
+                traceId,
+                "name",
+                SpanKind.SERVER,
+                Attributes.empty(),
+                Collections.emptyList());
+    TraceState updatedTraceState = changedResult.getUpdatedTraceState(parentTraceState);
+    assertThat(updatedTraceState.get(OtelTraceState.TRACE_STATE_KEY)).isEqualTo("p:1;r:5");
+    assertThat(updatedTraceState.get("a")).isEqualTo("b");
+  }
+
+  private static final class CountingConsistentSampler extends ConsistentSampler {
+
+    private final int p;
+    private final AtomicInteger numberOfCalls = new AtomicInteger();
+
+    CountingConsistentSampler(int p) {
+      super(RValueGenerators.getDefault());
+      this.p = p;
+    }
+
+    @Override
+    protected int getP(int parentP, boolean isRoot) {
+      numberOfCalls.incrementAndGet();
+      return p;
+    }
+
+    @Override
+    public String getDescription() {
+      return "CountingConsistentSampler{p=" + p + '}';
+    }
+  }
+
+  private static int getAndP(int p1, int p2) {
+    if (OtelTraceState.isValidP(p1) && OtelTraceState.isValidP(p2)) {
+      return Math.max(p1, p2);
+    }
+    return getInvalidP();
+  }
+
+  private static int getOrP(int p1, int p2) {
+    if (OtelTraceState.isValidP(p1)) {
+      return OtelTraceState.isValidP(p2) ? Math.min(p1, p2) : p1;
+    }
+    return p2;
+  }
+
+  @Test
+  void testComposedSamplersAreFlattened() {
+    ConsistentSampler sampler1 = ConsistentSampler.probabilityBased(0.5);
+    ConsistentSampler sampler2 = ConsistentSampler.alwaysOff();
+    ConsistentSampler sampler3 = ConsistentSampler.rateLimited(10., 1.);
+
+    ConsistentSampler andSampler = sampler1.and(sampler2).and(sampler3.and(sampler1));
+    assertThat(andSampler).isInstanceOf(ConsistentComposedAndSampler.class);
+    assertThat(((ConsistentComposedAndSampler) andSampler).getSamplers())
+        .containsExactly(sampler1, sampler2, sampler3);
+    assertThat(andSampler.getDescription())
+        .isEqualTo(
+            "ConsistentComposedAndSampler{sampler1="
+                + sampler1.getDescription()
+                + ",sampler2="
+                + sampler2.getDescription()
+                + ",sampler3="
+                + sampler3.getDescription()
+                + '}');
+
+    ConsistentSampler orSampler = sampler1.or(sampler2.or(sampler3)).or(andSampler);
+    assertThat(orSampler).isInstanceOf(ConsistentComposedOrSampler.class);
+    assertThat(((ConsistentComposedOrSampler) orSampler).getSamplers())
+        .containsExactly(sampler1, sampler2, sampler3, andSampler);
+  }
+
+  @Test
+  void testFlattenedComposedSamplersMatchNestedComposition() {
+    List<Integer> pValues = Arrays.asList(getInvalidP(), 0, 1, 5, OtelTraceState.getMaxP());
+    for (int p1 : pValues) {
+      for (int p2 : pValues) {
+        for (int p3 : pValues) {
+          ConsistentSampler sampler1 = new CountingConsistentSampler(p1);
+          ConsistentSampler sampler2 = new CountingConsistentSampler(p2);
+          ConsistentSampler sampler3 = new CountingConsistentSampler(p3);
+          assertThat(sampler1.and(sampler2.and(sampler3)).getP(getInvalidP(), true))
+              .isEqualTo(getAndP(p1, getAndP(p2, p3)));
+          assertThat(sampler1.and(sampler2).and(sampler3).getP(getInvalidP(), true))
+              .isEqualTo(getAndP(getAndP(p1, p2), p3));
+          assertThat(sampler1.or(sampler2.or(sampler3)).getP(getInvalidP(), true))
+              .isEqualTo(getOrP(p1, getOrP(p2, p3)));
+          assertThat(sampler1.or(sampler2).or(sampler3).getP(getInvalidP(), true))
+              .isEqualTo(getOrP(getOrP(p1, p2), p3));
+        }
+      }
+    }
+  }
+
+  @Test
+  void testComposedSamplersSkipSamplersWithSideEffects() {
+    CountingConsistentSampler countingSampler = new CountingConsistentSampler(3);
+
+    // the always-on sampler is evaluated first although it was composed last
+    ConsistentSampler orSampler = countingSampler.or(ConsistentSampler.alwaysOn());
+    assertThat(orSampler.getP(getInvalidP(), true)).isEqualTo(0);
+    assertThat(countingSampler.numberOfCalls.get()).isEqualTo(0);
+
+    // the parent-based sampler returns an invalid p-value for children of unknown p-value
+    ConsistentSampler andSampler =
+        countingSampler.and(ConsistentSampler.parentBased(ConsistentSampler.alwaysOn()));
+    assertThat(andSampler.getP(getInvalidP(), false)).isEqualTo(getInvalidP());
+    assertThat(countingSampler.numberOfCalls.get()).isEqualTo(0);
+
+    // the counting sampler is evaluated, if the result is not yet known
+    assertThat(andSampler.getP(getInvalidP(), true)).isEqualTo(3);
+    assertThat(orSampler.or(ConsistentSampler.alwaysOff()).getP(getInvalidP(), true)).isEqualTo(0);
+    assertThat(ConsistentSampler.alwaysOff().or(countingSampler).getP(getInvalidP(), true))
+        .isEqualTo(3);
+    assertThat(countingSampler.numberOfCalls.get()).isEqualTo(2);
+  }
 }
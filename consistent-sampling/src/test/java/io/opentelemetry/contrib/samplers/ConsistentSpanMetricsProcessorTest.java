@@ -0,0 +1,246 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.within;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.testing.exporter.InMemoryMetricReader;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ConsistentSpanMetricsProcessorTest {
+
+  private static final AttributeKey<String> SPAN_NAME_KEY = AttributeKey.stringKey("spanName");
+  private static final AttributeKey<String> LE_KEY = AttributeKey.stringKey("le");
+
+  private InMemoryMetricReader metricReader;
+  private SdkMeterProvider meterProvider;
+
+  @BeforeEach
+  void setUp() {
+    metricReader = InMemoryMetricReader.create();
+    meterProvider = SdkMeterProvider.builder().registerMetricReader(metricReader).build();
+  }
+
+  @AfterEach
+  void tearDown() {
+    meterProvider.shutdown();
+  }
+
+  private static void endSpan(Tracer tracer, String spanName, long durationMillis, boolean error) {
+    Span span =
+        tracer.spanBuilder(spanName).setStartTimestamp(0, TimeUnit.MILLISECONDS).startSpan();
+    if (error) {
+      span.setStatus(StatusCode.ERROR);
+    }
+    span.end(durationMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static Map<Attributes, Double> getDoublePoints(
+      Collection<MetricData> metrics, String name) {
+    Map<Attributes, Double> points = new HashMap<>();
+    for (MetricData metricData : metrics) {
+      if (metricData.getName().equals(name)) {
+        for (DoublePointData point : metricData.getDoubleSumData().getPoints()) {
+          points.put(point.getAttributes(), point.getValue());
+        }
+      }
+    }
+    return points;
+  }
+
+  private static double getDoubleValue(
+      Collection<MetricData> metrics, String name, Attributes attributes) {
+    return getDoublePoints(metrics, name).getOrDefault(attributes, 0.);
+  }
+
+  private static long getSumOfLongPoints(Collection<MetricData> metrics, String name) {
+    return metrics.stream()
+        .filter(metricData -> metricData.getName().equals(name))
+        .flatMap(metricData -> metricData.getLongSumData().getPoints().stream())
+        .mapToLong(LongPointData::getValue)
+        .sum();
+  }
+
+  @Test
+  void invalidConfig() {
+    assertThatThrownBy(() -> ConsistentSpanMetricsProcessor.create(null))
+        .isInstanceOf(NullPointerException.class)
+        .hasMessage("meterProvider");
+    assertThatThrownBy(
+            () ->
+                ConsistentSpanMetricsProcessor.builder(meterProvider)
+                    .setMaxNumberOfSpanNames(0)
+                    .build())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("maximum number of span names must be positive");
+    assertThatThrownBy(
+            () ->
+                ConsistentSpanMetricsProcessor.builder(meterProvider)
+                    .setDurationBucketBoundaries(Arrays.asList(1., 1.))
+                    .build())
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("duration bucket boundaries must be strictly increasing");
+  }
+
+  @Test
+  void adjustedCountsAreAggregated() {
+    InMemorySpanExporter spanExporter = InMemorySpanExporter.create();
+    SdkTracerProvider tracerProvider =
+        SdkTracerProvider.builder()
+            .setSampler(ConsistentSampler.probabilityBased(0.25))
+            .addSpanProcessor(
+                ConsistentSpanMetricsProcessor.builder(meterProvider)
+                    .setDurationBucketBoundaries(Arrays.asList(10., 100.))
+                    .build())
+            .addSpanProcessor(SimpleSpanProcessor.create(spanExporter))
+            .build();
+    Tracer tracer = tracerProvider.get("test");
+    for (int i = 0; i < 1000; ++i) {
+      endSpan(tracer, "a", i % 200, /* error= */ i % 10 == 0);
+      endSpan(tracer, "b", 50, /* error= */ false);
+    }
+
+    // every sampled span has p-value 2 and adjusted count 4
+    Map<String, Integer> sampledSpans = new HashMap<>();
+    Map<String, Integer> sampledErrorSpans = new HashMap<>();
+    Map<String, Double> sampledDurations = new HashMap<>();
+    Map<String, int[]> sampledBuckets = new HashMap<>();
+    for (SpanData span : spanExporter.getFinishedSpanItems()) {
+      String name = span.getName();
+      double durationMillis = (span.getEndEpochNanos() - span.getStartEpochNanos()) / 1e6;
+      sampledSpans.merge(name, 1, Integer::sum);
+      if (span.getStatus().getStatusCode() == StatusCode.ERROR) {
+        sampledErrorSpans.merge(name, 1, Integer::sum);
+      }
+      sampledDurations.merge(name, durationMillis, Double::sum);
+      int[] buckets = sampledBuckets.computeIfAbsent(name, n -> new int[3]);
+      buckets[durationMillis <= 10 ? 0 : durationMillis <= 100 ? 1 : 2] += 1;
+    }
+
+    Collection<MetricData> metrics = metricReader.collectAllMetrics();
+    for (String name : Arrays.asList("a", "b")) {
+      Attributes attributes = Attributes.of(SPAN_NAME_KEY, name);
+      assertThat(getDoubleValue(metrics, "estimatedSpans", attributes))
+          .isEqualTo(4. * sampledSpans.get(name));
+      assertThat(getDoubleValue(metrics, "estimatedErrorSpans", attributes))
+          .isEqualTo(4. * sampledErrorSpans.getOrDefault(name, 0));
+      assertThat(getDoubleValue(metrics, "estimatedSpanDurationSum", attributes))
+          .isCloseTo(4. * sampledDurations.get(name), within(1e-6));
+      int[] buckets = sampledBuckets.get(name);
+      Attributes bucketAttributes10 = attributes.toBuilder().put(LE_KEY, "10.0").build();
+      Attributes bucketAttributes100 = attributes.toBuilder().put(LE_KEY, "100.0").build();
+      Attributes bucketAttributesInf = attributes.toBuilder().put(LE_KEY, "+Inf").build();
+      // the bucket counts are cumulative
+      assertThat(getDoubleValue(metrics, "estimatedSpanDurationBucket", bucketAttributes10))
+          .isEqualTo(4. * buckets[0]);
+      assertThat(getDoubleValue(metrics, "estimatedSpanDurationBucket", bucketAttributes100))
+          .isEqualTo(4. * (buckets[0] + buckets[1]));
+      assertThat(getDoubleValue(metrics, "estimatedSpanDurationBucket", bucketAttributesInf))
+          .isEqualTo(4. * sampledSpans.get(name));
+    }
+    assertThat(getSumOfLongPoints(metrics, "spansWithUnknownAdjustedCount")).isZero();
+
+    tracerProvider.shutdown();
+  }
+
+  @Test
+  void estimatesAreUnbiased() {
+    SdkTracerProvider tracerProvider =
+        SdkTracerProvider.builder()
+            .setSampler(ConsistentSampler.probabilityBased(0.1))
+            .addSpanProcessor(ConsistentSpanMetricsProcessor.create(meterProvider))
+            .build();
+    Tracer tracer = tracerProvider.get("test");
+    int numberOfSpans = 100000;
+    for (int i = 0; i < numberOfSpans; ++i) {
+      endSpan(tracer, "span", 1, /* error= */ i % 4 == 0);
+    }
+
+    Collection<MetricData> metrics = metricReader.collectAllMetrics();
+    Attributes attributes = Attributes.of(SPAN_NAME_KEY, "span");
+    // the sampling probability 0.1 is realized by mixing p-values 3 and 4
+    assertThat(getDoubleValue(metrics, "estimatedSpans", attributes))
+        .isCloseTo(numberOfSpans, within(0.05 * numberOfSpans));
+    assertThat(getDoubleValue(metrics, "estimatedErrorSpans", attributes))
+        .isCloseTo(numberOfSpans / 4., within(0.1 * numberOfSpans / 4.));
+
+    tracerProvider.shutdown();
+  }
+
+  @Test
+  void spanNamesAreLimited() {
+    SdkTracerProvider tracerProvider =
+        SdkTracerProvider.builder()
+            .setSampler(ConsistentSampler.alwaysOn())
+            .addSpanProcessor(
+                ConsistentSpanMetricsProcessor.builder(meterProvider)
+                    .setMaxNumberOfSpanNames(2)
+                    .build())
+            .build();
+    Tracer tracer = tracerProvider.get("test");
+    for (String name : Arrays.asList("a", "b", "c", "d", "a")) {
+      endSpan(tracer, name, 1, /* error= */ false);
+    }
+
+    Map<Attributes, Double> points =
+        getDoublePoints(metricReader.collectAllMetrics(), "estimatedSpans");
+    assertThat(points)
+        .containsOnly(
+            entry(Attributes.of(SPAN_NAME_KEY, "a"), 2.),
+            entry(Attributes.of(SPAN_NAME_KEY, "b"), 1.),
+            entry(Attributes.of(AttributeKey.booleanKey("otel.metric.overflow"), true), 2.));
+
+    tracerProvider.shutdown();
+  }
+
+  @Test
+  void spansWithoutPValueAreCountedSeparately() {
+    SpanProcessor processor = ConsistentSpanMetricsProcessor.create(meterProvider);
+    SdkTracerProvider tracerProvider =
+        SdkTracerProvider.builder()
+            .setSampler(Sampler.alwaysOn())
+            .addSpanProcessor(processor)
+            .build();
+    Tracer tracer = tracerProvider.get("test");
+    endSpan(tracer, "span", 1, /* error= */ false);
+    endSpan(tracer, "span", 1, /* error= */ false);
+
+    Collection<MetricData> metrics = metricReader.collectAllMetrics();
+    assertThat(getSumOfLongPoints(metrics, "spansWithUnknownAdjustedCount")).isEqualTo(2);
+    assertThat(getDoublePoints(metrics, "estimatedSpans"))
+        .doesNotContainKey(Attributes.of(SPAN_NAME_KEY, "span"));
+
+    // no estimates are reported after shutdown
+    processor.shutdown();
+    assertThat(getDoublePoints(metricReader.collectAllMetrics(), "estimatedSpans")).isEmpty();
+    tracerProvider.shutdown();
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class ConsistentStratifiedReservoirTest {
+
+  private static int[] allocate(
+      int reservoirSize, long[] numberOfAddedItems, StratumBudgetPolicy stratumBudgetPolicy) {
+    int[] numberOfKeptItems = new int[numberOfAddedItems.length];
+    for (int i = 0; i < numberOfAddedItems.length; ++i) {
+      numberOfKeptItems[i] = (int) Math.min(numberOfAddedItems[i], reservoirSize);
+    }
+    return ConsistentStratifiedReservoir.allocate(
+        reservoirSize, numberOfAddedItems, numberOfKeptItems, stratumBudgetPolicy);
+  }
+
+  @Test
+  void testAllocate() {
+    long[] numberOfAddedItems = {10000, 2500, 100};
+    assertThat(allocate(300, numberOfAddedItems, StratumBudgetPolicy.EQUAL))
+        .containsExactly(100, 100, 100);
+    assertThat(allocate(300, numberOfAddedItems, StratumBudgetPolicy.PROPORTIONAL))
+        .containsExactly(238, 59, 3);
+    assertThat(allocate(300, numberOfAddedItems, StratumBudgetPolicy.SQUARE_ROOT))
+        .containsExactly(188, 93, 19);
+
+    // the allocation not needed by a stratum is redistributed
+    assertThat(allocate(300, new long[] {10000, 2500, 20}, StratumBudgetPolicy.EQUAL))
+        .containsExactly(140, 140, 20);
+
+    // every stratum gets at least one item
+    assertThat(allocate(10, new long[] {100000, 1, 1}, StratumBudgetPolicy.PROPORTIONAL))
+        .containsExactly(8, 1, 1);
+
+    // the strata with largest weights get one item each, if there are not enough items
+    assertThat(allocate(2, new long[] {1, 100, 10}, StratumBudgetPolicy.PROPORTIONAL))
+        .containsExactly(0, 1, 1);
+  }
+
+  @Test
+  void testAllocateUsesFullReservoirSize() {
+    SplittableRandom random = new SplittableRandom(0L);
+    for (StratumBudgetPolicy stratumBudgetPolicy : StratumBudgetPolicy.values()) {
+      for (int trial = 0; trial < 1000; ++trial) {
+        int reservoirSize = 1 + random.nextInt(100);
+        long[] numberOfAddedItems = new long[1 + random.nextInt(20)];
+        long totalNumberOfAddedItems = 0;
+        for (int i = 0; i < numberOfAddedItems.length; ++i) {
+          numberOfAddedItems[i] = 1L + random.nextInt(random.nextBoolean() ? 10 : 10000);
+          totalNumberOfAddedItems += numberOfAddedItems[i];
+        }
+        int[] allocation = allocate(reservoirSize, numberOfAddedItems, stratumBudgetPolicy);
+        int totalAllocation = 0;
+        for (int i = 0; i < allocation.length; ++i) {
+          assertThat(allocation[i]).isBetween(0, (int) numberOfAddedItems[i]);
+          totalAllocation += allocation[i];
+        }
+        assertThat(totalAllocation)
+            .isEqualTo((int) Math.min(reservoirSize, totalNumberOfAddedItems));
+      }
+    }
+  }
+
+  @Test
+  void testAdjustedCountsPerStratumAreUnbiased() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int numTrials = 1000;
+    int reservoirSize = 20;
+    int numFrequentItems = 10000;
+    int numRareItems = 5;
+    double sumOfFrequentEstimates = 0;
+    for (int trial = 0; trial < numTrials; ++trial) {
+      ConsistentStratifiedReservoir<String> reservoir =
+          ConsistentStratifiedReservoir.create(
+              reservoirSize, 10, StratumBudgetPolicy.EQUAL, randomGenerator);
+      for (int i = 0; i < numFrequentItems; ++i) {
+        reservoir.addWithKey("frequent", createKey(randomGenerator), "frequent");
+        if (i % (numFrequentItems / numRareItems) == 0) {
+          reservoir.addWithKey("rare", createKey(randomGenerator), "rare");
+        }
+      }
+
+      Map<String, Double> sumOfAdjustedCounts = new HashMap<>();
+      Map<String, Integer> numberOfSamples = new HashMap<>();
+      List<ConsistentReservoir<String>> strata = reservoir.getStrataWithinBudget();
+      for (ConsistentReservoir<String> stratum : strata) {
+        stratum.forEachSample(
+            item -> 0,
+            (item, pValue) -> {
+              sumOfAdjustedCounts.merge(item, Math.pow(2, pValue), Double::sum);
+              numberOfSamples.merge(item, 1, Integer::sum);
+            });
+      }
+
+      assertThat(numberOfSamples.get("frequent")).isEqualTo(reservoirSize - numRareItems);
+      // rare items are never sampled away
+      assertThat(numberOfSamples.get("rare")).isEqualTo(numRareItems);
+      assertThat(sumOfAdjustedCounts.get("rare")).isEqualTo(numRareItems);
+      sumOfFrequentEstimates += sumOfAdjustedCounts.get("frequent");
+    }
+    assertThat(sumOfFrequentEstimates / numTrials)
+        .isCloseTo(numFrequentItems, within(0.05 * numFrequentItems));
+  }
+
+  @Test
+  void testNumberOfStrataIsBounded() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int maxNumberOfStrata = 5;
+    ConsistentStratifiedReservoir<Integer> reservoir1 =
+        ConsistentStratifiedReservoir.create(
+            100, maxNumberOfStrata, StratumBudgetPolicy.EQUAL, randomGenerator);
+    ConsistentStratifiedReservoir<Integer> reservoir2 =
+        ConsistentStratifiedReservoir.create(
+            100, maxNumberOfStrata, StratumBudgetPolicy.EQUAL, randomGenerator);
+    for (int i = 0; i < 50; ++i) {
+      reservoir1.addWithKey(i, createKey(randomGenerator), i);
+      reservoir2.addWithKey(i + 25, createKey(randomGenerator), i);
+    }
+    reservoir1.addWithKey(null, createKey(randomGenerator), -1);
+    // the maximum number of strata plus the overflow stratum
+    assertThat(reservoir1.getNumberOfStrata()).isEqualTo(maxNumberOfStrata + 1);
+
+    reservoir1.merge(reservoir2);
+    assertThat(reservoir1.getNumberOfStrata()).isEqualTo(maxNumberOfStrata + 1);
+    assertThat(reservoir1.getNumberOfAddedItems()).isEqualTo(101);
+    assertThat(reservoir1.size()).isEqualTo(100);
+  }
+
+  @Test
+  void testEveryStratumIsAllocatedAnItem() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int reservoirSize = 4;
+    ConsistentStratifiedReservoir<Integer> reservoir =
+        ConsistentStratifiedReservoir.create(
+            reservoirSize, 100, StratumBudgetPolicy.PROPORTIONAL, randomGenerator);
+    int numItems = 0;
+    for (int stratum = 0; stratum < 10; ++stratum) {
+      for (int i = 0; i <= stratum * 100; ++i) {
+        reservoir.addWithKey(stratum, createKey(randomGenerator), stratum);
+        numItems += 1;
+      }
+    }
+    // further strata are collected by the overflow stratum
+    assertThat(reservoir.getNumberOfStrata()).isEqualTo(reservoirSize);
+
+    List<ConsistentReservoir<Integer>> strata = reservoir.getStrataWithinBudget();
+    assertThat(strata).hasSize(reservoirSize);
+    double[] sumOfAdjustedCounts = new double[1];
+    for (ConsistentReservoir<Integer> stratum : strata) {
+      assertThat(stratum.size()).isEqualTo(1);
+      stratum.forEachSample(
+          item -> 0, (item, pValue) -> sumOfAdjustedCounts[0] += Math.pow(2, pValue));
+    }
+    // no stratum is dropped, hence the adjusted counts cover the items of all strata
+    assertThat(sumOfAdjustedCounts[0]).isGreaterThan(numItems / 4.);
+  }
+
+  private static long createKey(RandomGenerator randomGenerator) {
+    return ConsistentReservoir.createKey(
+        Math.min(randomGenerator.numberOfLeadingZerosOfRandomLong(), OtelTraceState.getMaxR()),
+        randomGenerator.nextLong());
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+class ConsistentTraceReservoirTest {
+
+  private static long createKey(RandomGenerator randomGenerator) {
+    return ConsistentReservoir.createKey(
+        Math.min(randomGenerator.numberOfLeadingZerosOfRandomLong(), OtelTraceState.getMaxR()),
+        randomGenerator.nextLong());
+  }
+
+  private static Map<Integer, Integer> getNumberOfKeptItemsPerTrace(
+      ConsistentTraceReservoir<Integer> reservoir) {
+    Map<Integer, Integer> numberOfKeptItems = new HashMap<>();
+    reservoir.forEachItem(trace -> numberOfKeptItems.merge(trace, 1, Integer::sum));
+    return numberOfKeptItems;
+  }
+
+  @Test
+  void testTracesAreKeptOrDiscardedAsAWhole() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    SplittableRandom random = new SplittableRandom(1L);
+    int reservoirSize = 50;
+    ConsistentTraceReservoir<Integer> reservoir =
+        ConsistentTraceReservoir.create(reservoirSize, randomGenerator);
+    Map<Integer, Integer> traceSizes = new HashMap<>();
+    Map<Integer, Long> traceKeys = new HashMap<>();
+    long numberOfAddedItems = 0;
+    for (int trace = 0; trace < 1000; ++trace) {
+      int traceSize = 1 + random.nextInt(10);
+      long key = createKey(randomGenerator);
+      reservoir.addTrace(key, Collections.nCopies(traceSize, trace));
+      traceSizes.put(trace, traceSize);
+      traceKeys.put(trace, key);
+      numberOfAddedItems += traceSize;
+    }
+
+    Map<Integer, Integer> numberOfKeptItems = getNumberOfKeptItemsPerTrace(reservoir);
+    numberOfKeptItems.forEach((trace, count) -> assertThat(count).isEqualTo(traceSizes.get(trace)));
+    int totalNumberOfKeptItems = numberOfKeptItems.values().stream().mapToInt(i -> i).sum();
+    assertThat(reservoir.size())
+        .isEqualTo(totalNumberOfKeptItems)
+        .isLessThanOrEqualTo(reservoirSize)
+        // otherwise another small trace would have fit
+        .isGreaterThan(reservoirSize - 10);
+    assertThat(reservoir.getNumberOfTraces()).isEqualTo(numberOfKeptItems.size());
+    assertThat(reservoir.getNumberOfAddedItems()).isEqualTo(numberOfAddedItems);
+    assertThat(reservoir.hasDiscardedItems()).isTrue();
+
+    // the kept traces are exactly those with the largest keys
+    long minKeptKey = numberOfKeptItems.keySet().stream().mapToLong(traceKeys::get).min().orElse(0);
+    traceKeys.forEach(
+        (trace, key) ->
+            assertThat(numberOfKeptItems.containsKey(trace)).isEqualTo(key >= minKeptKey));
+  }
+
+  @Test
+  void testOversizedTracesAreDiscarded() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    ConsistentTraceReservoir<Integer> reservoir =
+        ConsistentTraceReservoir.create(5, randomGenerator);
+    reservoir.addTrace(ConsistentReservoir.createKey(OtelTraceState.getMaxR(), -1L), nCopies(2, 0));
+    reservoir.addTrace(ConsistentReservoir.createKey(1, 0L), nCopies(2, 1));
+    reservoir.addTrace(ConsistentReservoir.createKey(1, 1L << 62), nCopies(6, 2));
+    reservoir.addTrace(ConsistentReservoir.createKey(1, 2L << 62), nCopies(2, 3));
+    reservoir.addTrace(ConsistentReservoir.createKey(0, 0L), nCopies(1, 4));
+    // traces with smaller keys than the oversized trace are discarded, too
+    assertThat(getNumberOfKeptItemsPerTrace(reservoir)).containsOnlyKeys(0, 3);
+    assertThat(reservoir.hasDiscardedItems()).isTrue();
+    assertThat(reservoir.mightKeep(ConsistentReservoir.createKey(1, 1L << 62), 1)).isFalse();
+    assertThat(reservoir.getNumberOfAddedItems()).isEqualTo(13);
+  }
+
+  private static List<Integer> nCopies(int n, int trace) {
+    return Collections.nCopies(n, trace);
+  }
+
+  @Test
+  void testAdjustedCountsAreUnbiased() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int numTrials = 2000;
+    int reservoirSize = 100;
+    int numTraces = 200;
+    int maxTraceSize = 10;
+    double[] sumOfAdjustedCountsPerTraceSize = new double[maxTraceSize + 1];
+    for (int trial = 0; trial < numTrials; ++trial) {
+      ConsistentTraceReservoir<Integer> reservoir =
+          ConsistentTraceReservoir.create(reservoirSize, randomGenerator);
+      for (int trace = 0; trace < numTraces; ++trace) {
+        int traceSize = 1 + trace % maxTraceSize;
+        reservoir.addTrace(createKey(randomGenerator), nCopies(traceSize, traceSize));
+      }
+      reservoir.forEachSample(
+          traceSize -> 0,
+          (traceSize, pValue) -> sumOfAdjustedCountsPerTraceSize[traceSize] += Math.pow(2, pValue));
+    }
+
+    double sumOfAdjustedCounts = 0;
+    for (int traceSize = 1; traceSize <= maxTraceSize; ++traceSize) {
+      double expected = traceSize * (numTraces / (double) maxTraceSize);
+      // large traces are kept less often, but with correspondingly larger adjusted counts
+      assertThat(sumOfAdjustedCountsPerTraceSize[traceSize] / numTrials)
+          .isCloseTo(expected, within(0.15 * expected));
+      sumOfAdjustedCounts += sumOfAdjustedCountsPerTraceSize[traceSize];
+    }
+    double expectedTotal = numTraces * (maxTraceSize + 1) / 2.;
+    assertThat(sumOfAdjustedCounts / numTrials)
+        .isCloseTo(expectedTotal, within(0.05 * expectedTotal));
+  }
+
+  @Test
+  void testAdjustedCountsAreUnbiasedWithOversizedTraces() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    int numTrials = 2000;
+    int reservoirSize = 100;
+    int numTraces = 200;
+    int maxTraceSize = 10;
+    int oversizedTraceSize = reservoirSize + 1;
+    int numOversizedTraces = 10;
+    double[] sumOfAdjustedCountsPerTraceSize = new double[maxTraceSize + 1];
+    for (int trial = 0; trial < numTrials; ++trial) {
+      ConsistentTraceReservoir<Integer> reservoir =
+          ConsistentTraceReservoir.create(reservoirSize, randomGenerator);
+      for (int trace = 0; trace < numTraces; ++trace) {
+        if (trace % (numTraces / numOversizedTraces) == 0) {
+          reservoir.addTrace(createKey(randomGenerator), nCopies(oversizedTraceSize, 0));
+        }
+        int traceSize = 1 + trace % maxTraceSize;
+        reservoir.addTrace(createKey(randomGenerator), nCopies(traceSize, traceSize));
+      }
+      assertThat(reservoir.hasDiscardedItems()).isTrue();
+      reservoir.forEachSample(
+          traceSize -> 0,
+          (traceSize, pValue) -> sumOfAdjustedCountsPerTraceSize[traceSize] += Math.pow(2, pValue));
+    }
+
+    // oversized traces are never kept, but the estimates of all other traces remain unbiased
+    assertThat(sumOfAdjustedCountsPerTraceSize[0]).isZero();
+    double sumOfAdjustedCounts = 0;
+    for (int traceSize = 1; traceSize <= maxTraceSize; ++traceSize) {
+      double expected = traceSize * (numTraces / (double) maxTraceSize);
+      assertThat(sumOfAdjustedCountsPerTraceSize[traceSize] / numTrials)
+          .isCloseTo(expected, within(0.15 * expected));
+      sumOfAdjustedCounts += sumOfAdjustedCountsPerTraceSize[traceSize];
+    }
+    double expectedTotal = numTraces * (maxTraceSize + 1) / 2.;
+    assertThat(sumOfAdjustedCounts / numTrials)
+        .isCloseTo(expectedTotal, within(0.05 * expectedTotal));
+  }
+
+  @Test
+  void testMergeIsEquivalentToSingleReservoir() {
+    RandomGenerator keyGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    SplittableRandom random = new SplittableRandom(1L);
+    for (int trial = 0; trial < 100; ++trial) {
+      long seed = random.nextLong();
+      int reservoirSize = 1 + random.nextInt(50);
+      ConsistentTraceReservoir<Integer> reservoir =
+          ConsistentTraceReservoir.create(
+              reservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      ConsistentTraceReservoir<Integer> reservoir1 =
+          ConsistentTraceReservoir.create(
+              reservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      ConsistentTraceReservoir<Integer> reservoir2 =
+          ConsistentTraceReservoir.create(
+              reservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      int numTraces = random.nextInt(100);
+      for (int trace = 0; trace < numTraces; ++trace) {
+        List<Integer> items = nCopies(1 + random.nextInt(5), trace);
+        long key = createKey(keyGenerator);
+        reservoir.addTrace(key, items);
+        (random.nextBoolean() ? reservoir1 : reservoir2).addTrace(key, items);
+      }
+
+      ConsistentTraceReservoir<Integer> mergedReservoir =
+          ConsistentTraceReservoir.mergeIntoSmaller(reservoir2, reservoir1);
+      assertThat(getNumberOfKeptItemsPerTrace(mergedReservoir))
+          .isEqualTo(getNumberOfKeptItemsPerTrace(reservoir));
+      assertThat(mergedReservoir.size()).isEqualTo(reservoir.size());
+      assertThat(mergedReservoir.getNumberOfAddedItems())
+          .isEqualTo(reservoir.getNumberOfAddedItems());
+      assertThat(mergedReservoir.hasDiscardedItems()).isEqualTo(reservoir.hasDiscardedItems());
+      assertThat(getSortedPValues(mergedReservoir)).isEqualTo(getSortedPValues(reservoir));
+    }
+  }
+
+  @Test
+  void testMergeOfDifferentReservoirSizes() {
+    RandomGenerator keyGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    SplittableRandom random = new SplittableRandom(1L);
+    for (int trial = 0; trial < 100; ++trial) {
+      long seed = random.nextLong();
+      int smallerReservoirSize = 1 + random.nextInt(30);
+      int largerReservoirSize = smallerReservoirSize + 1 + random.nextInt(30);
+      ConsistentTraceReservoir<Integer> reservoir =
+          ConsistentTraceReservoir.create(
+              smallerReservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      ConsistentTraceReservoir<Integer> smallerReservoir =
+          ConsistentTraceReservoir.create(
+              smallerReservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      ConsistentTraceReservoir<Integer> largerReservoir =
+          ConsistentTraceReservoir.create(
+              largerReservoirSize, RandomGenerator.create(new SplittableRandom(seed)::nextLong));
+      int numTraces = random.nextInt(60);
+      for (int trace = 0; trace < numTraces; ++trace) {
+        List<Integer> items = nCopies(1 + random.nextInt(8), trace);
+        long key = createKey(keyGenerator);
+        reservoir.addTrace(key, items);
+        (random.nextBoolean() ? smallerReservoir : largerReservoir).addTrace(key, items);
+      }
+      boolean largerReservoirHasDiscardedItems = largerReservoir.hasDiscardedItems();
+
+      ConsistentTraceReservoir<Integer> mergedReservoir =
+          random.nextBoolean()
+              ? ConsistentTraceReservoir.mergeIntoSmaller(largerReservoir, smallerReservoir)
+              : ConsistentTraceReservoir.mergeIntoSmaller(smallerReservoir, largerReservoir);
+      assertThat(mergedReservoir).isSameAs(smallerReservoir);
+      assertThat(mergedReservoir.getReservoirSize()).isEqualTo(smallerReservoirSize);
+      assertThat(mergedReservoir.size()).isLessThanOrEqualTo(smallerReservoirSize);
+      assertThat(mergedReservoir.getNumberOfAddedItems())
+          .isEqualTo(reservoir.getNumberOfAddedItems());
+      Map<Integer, Integer> numberOfKeptItems = getNumberOfKeptItemsPerTrace(mergedReservoir);
+      // traces discarded by the larger reservoir stay discarded, everything else is as if all
+      // traces had been added to a reservoir of the smaller size
+      assertThat(getNumberOfKeptItemsPerTrace(reservoir)).containsAllEntriesOf(numberOfKeptItems);
+      if (!largerReservoirHasDiscardedItems) {
+        assertThat(numberOfKeptItems).isEqualTo(getNumberOfKeptItemsPerTrace(reservoir));
+        assertThat(mergedReservoir.hasDiscardedItems()).isEqualTo(reservoir.hasDiscardedItems());
+        assertThat(getSortedPValues(mergedReservoir)).isEqualTo(getSortedPValues(reservoir));
+      }
+    }
+  }
+
+  @Test
+  void testMergeOfSmallerReservoirIsRejected() {
+    RandomGenerator randomGenerator = RandomGenerator.create(new SplittableRandom(0L)::nextLong);
+    ConsistentTraceReservoir<Integer> reservoir =
+        ConsistentTraceReservoir.create(5, randomGenerator);
+    assertThatThrownBy(() -> reservoir.merge(ConsistentTraceReservoir.create(4, randomGenerator)))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> reservoir.merge(reservoir))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  // the traces chosen for a p-value increment depend on the iteration order, their number does not
+  private static List<Integer> getSortedPValues(ConsistentTraceReservoir<Integer> reservoir) {
+    Map<Integer, Integer> pValues = new HashMap<>();
+    reservoir.forEachSample(trace -> 0, pValues::put);
+    List<Integer> sortedPValues = new ArrayList<>(pValues.values());
+    Collections.sort(sortedPValues);
+    return sortedPValues;
+  }
+}
@@ -6,6 +6,7 @@
 package io.opentelemetry.contrib.samplers;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -76,4 +77,44 @@ public class OtelTraceStateTest {
     assertEquals("", OtelTraceState.parse("_;p:6;r:10").serialize());
     assertEquals("", OtelTraceState.parse("5;p:6;r:10").serialize());
   }
+
+  @Test
+  public void testParsePacked() {
+    assertEquals(
+        OtelTraceState.pack(OtelTraceState.getInvalidP(), OtelTraceState.getInvalidR()),
+        OtelTraceState.parsePacked(null));
+    assertEquals(
+        OtelTraceState.pack(OtelTraceState.getInvalidP(), OtelTraceState.getInvalidR()),
+        OtelTraceState.parsePacked("p:5;"));
+    assertEquals(
+        OtelTraceState.pack(OtelTraceState.getInvalidP(), OtelTraceState.getInvalidR()),
+        OtelTraceState.parsePacked("p:5;x:3;"));
+    assertEquals(
+        OtelTraceState.pack(5, OtelTraceState.getInvalidR()), OtelTraceState.parsePacked("p:5"));
+    assertEquals(OtelTraceState.pack(7, 5), OtelTraceState.parsePacked("r:5;p:7"));
+    assertEquals(
+        OtelTraceState.pack(OtelTraceState.getInvalidP(), 5),
+        OtelTraceState.parsePacked("p:64;r:5"));
+    assertEquals(OtelTraceState.getNotPackable(), OtelTraceState.parsePacked("p:5;x:3"));
+    assertEquals(OtelTraceState.getNotPackable(), OtelTraceState.parsePacked("p5:3;p:6;r:10"));
+  }
+
+  @Test
+  public void testPackedSerialization() {
+    for (int p = OtelTraceState.getInvalidP(); p <= OtelTraceState.getMaxP(); ++p) {
+      for (int r = OtelTraceState.getInvalidR(); r <= OtelTraceState.getMaxR(); ++r) {
+        int packed = OtelTraceState.pack(p, r);
+        assertEquals(p, OtelTraceState.unpackP(packed));
+        assertEquals(r, OtelTraceState.unpackR(packed));
+
+        OtelTraceState otelTraceState = OtelTraceState.parse("");
+        otelTraceState.setP(p);
+        otelTraceState.setR(r);
+        String serialized = otelTraceState.serialize();
+        assertEquals(serialized, OtelTraceState.serialize(p, r));
+        assertSame(OtelTraceState.serialize(p, r), OtelTraceState.serialize(p, r));
+        assertEquals(packed, OtelTraceState.parsePacked(serialized));
+      }
+    }
+  }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class PendingTraceIndexTest {
+
+  private final List<Long> handedOverKeys = new ArrayList<>();
+  private final List<List<String>> handedOverTraces = new ArrayList<>();
+
+  private void handOver(long key, List<? extends String> items) {
+    handedOverKeys.add(key);
+    handedOverTraces.add(new ArrayList<>(items));
+  }
+
+  @Test
+  void testLocalRootHandsOverTrace() {
+    PendingTraceIndex<String> index = new PendingTraceIndex<>(100, 1000);
+    assertThat(index.add("a", 1, "a1", false, 0, this::handOver)).isZero();
+    assertThat(index.add("b", 2, "b1", false, 0, this::handOver)).isZero();
+    // the key of a pending trace is taken from its first item
+    assertThat(index.add("a", 3, "a2", false, 0, this::handOver)).isZero();
+    assertThat(handedOverTraces).isEmpty();
+    assertThat(index.getNumberOfTraces()).isEqualTo(2);
+    assertThat(index.getNumberOfItems()).isEqualTo(3);
+
+    assertThat(index.add("a", 3, "aRoot", true, 0, this::handOver)).isZero();
+    assertThat(handedOverKeys).containsExactly(1L);
+    assertThat(handedOverTraces).containsExactly(Arrays.asList("a1", "a2", "aRoot"));
+
+    // a local root without pending items is handed over immediately
+    assertThat(index.add("c", 4, "cRoot", true, 0, this::handOver)).isZero();
+    assertThat(handedOverKeys).containsExactly(1L, 4L);
+    assertThat(handedOverTraces.get(1)).containsExactly("cRoot");
+
+    assertThat(index.getNumberOfTraces()).isEqualTo(1);
+    assertThat(index.getNumberOfItems()).isEqualTo(1);
+    assertThat(index.isEmpty()).isFalse();
+  }
+
+  @Test
+  void testTimedOutTracesAreHandedOver() {
+    PendingTraceIndex<String> index = new PendingTraceIndex<>(100, 10);
+    index.add("a", 1, "a1", false, 0, this::handOver);
+    index.add("b", 2, "b1", false, 5, this::handOver);
+    // the timeout is measured from the first item of a trace
+    index.add("a", 1, "a2", false, 8, this::handOver);
+
+    assertThat(index.handOverTimedOutTraces(9, this::handOver)).isZero();
+    assertThat(index.handOverTimedOutTraces(10, this::handOver)).isEqualTo(1);
+    assertThat(handedOverTraces).containsExactly(Arrays.asList("a1", "a2"));
+    assertThat(index.handOverTimedOutTraces(15, this::handOver)).isEqualTo(1);
+    assertThat(handedOverKeys).containsExactly(1L, 2L);
+    assertThat(index.isEmpty()).isTrue();
+    assertThat(index.getNumberOfItems()).isZero();
+  }
+
+  @Test
+  void testOldestTracesAreHandedOverIfLimitIsExceeded() {
+    PendingTraceIndex<String> index = new PendingTraceIndex<>(3, 1000);
+    index.add("a", 1, "a1", false, 0, this::handOver);
+    index.add("b", 2, "b1", false, 0, this::handOver);
+    index.add("a", 1, "a2", false, 0, this::handOver);
+    assertThat(handedOverTraces).isEmpty();
+
+    assertThat(index.add("c", 3, "c1", false, 0, this::handOver)).isEqualTo(1);
+    assertThat(handedOverTraces).containsExactly(Arrays.asList("a1", "a2"));
+    assertThat(index.getNumberOfItems()).isEqualTo(2);
+
+    assertThat(index.handOverAllTraces(this::handOver)).isEqualTo(2);
+    assertThat(handedOverKeys).containsExactly(1L, 2L, 3L);
+    assertThat(index.isEmpty()).isTrue();
+    assertThat(index.getNumberOfItems()).isZero();
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.TraceId;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import org.hipparchus.stat.inference.GTest;
+import org.junit.jupiter.api.Test;
+
+class RValueGeneratorsTest {
+
+  @Test
+  void testTraceIdBased() {
+    RValueGenerator rValueGenerator = RValueGenerators.getTraceIdBased();
+    assertThat(rValueGenerator.generate("ffffffffffffffffff80000000000000")).isEqualTo(0);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff40000000000000")).isEqualTo(1);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff1fffffffffffff")).isEqualTo(3);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff00ffffffffffff")).isEqualTo(8);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff000000000000A0")).isEqualTo(48);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff00000000000001")).isEqualTo(55);
+    assertThat(rValueGenerator.generate("0123456789abcdefff00000000000000")).isEqualTo(56);
+  }
+
+  @Test
+  void testTraceIdBasedFallsBackToRandomForInvalidTraceIds() {
+    RValueGenerator rValueGenerator = RValueGenerators.getTraceIdBased();
+    assertThat(rValueGenerator.generate("")).isBetween(0, 64);
+    assertThat(rValueGenerator.generate("ffffffffffffffffff0000000000000x")).isBetween(0, 64);
+  }
+
+  @Test
+  void testTraceIdBasedDistribution() {
+    SplittableRandom splittableRandom = new SplittableRandom(0x2e6b0f4c9a8d1375L);
+    RValueGenerator rValueGenerator = RValueGenerators.getTraceIdBased();
+    int numCycles = 1000000;
+    int maxR = 10;
+
+    long[] observed = new long[maxR + 1];
+    double[] expected = new double[maxR + 1];
+    for (int i = 0; i < maxR; ++i) {
+      expected[i] = Math.pow(0.5, i + 1);
+    }
+    expected[maxR] = Math.pow(0.5, maxR);
+
+    for (int i = 0; i < numCycles; ++i) {
+      String traceId = TraceId.fromLongs(splittableRandom.nextLong(), splittableRandom.nextLong());
+      observed[Math.min(rValueGenerator.generate(traceId), maxR)] += 1;
+    }
+    assertThat(new GTest().gTest(expected, observed)).isGreaterThan(0.01);
+  }
+
+  @Test
+  void testTraceIdBasedSamplingIsConsistentWithoutTraceState() {
+    ConsistentSampler sampler =
+        ConsistentSampler.probabilityBased(0.25, RValueGenerators.getTraceIdBased());
+
+    // r-value 1 is below the p-value 2, r-value 2 is not
+    assertThat(shouldSample(sampler, "0123456789abcdefff40000000000000").getDecision())
+        .isEqualTo(SamplingDecision.DROP);
+    assertThat(shouldSample(sampler, "0123456789abcdefff20000000000000").getDecision())
+        .isEqualTo(SamplingDecision.RECORD_AND_SAMPLE);
+  }
+
+  private static SamplingResult shouldSample(ConsistentSampler sampler, String traceId) {
+    return sampler.shouldSample(
+        Context.root(),
+        traceId,
+        "name",
+        SpanKind.SERVER,
+        Attributes.empty(),
+        Collections.emptyList());
+  }
+}
@@ -10,6 +10,7 @@ import static org.assertj.core.api.Assertions.fail;
 
 import java.util.BitSet;
 import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
 import java.util.stream.DoubleStream;
 import org.hipparchus.stat.inference.GTest;
 import org.junit.jupiter.api.Test;
@@ -75,4 +76,107 @@ public class RandomGeneratorTest {
     testGenerateRandomBitSet(0x602fdb45063e7b0fL, 1000, 990);
     testGenerateRandomBitSet(0xe0ef0cb214de3ec0L, 1000, 999);
   }
+
+  private static LongSupplier createBiasedRandomLongSupplier(long seed) {
+    SplittableRandom splittableRandom = new SplittableRandom(seed);
+    // produce long sequences of 1-bits spanning several random longs
+    return () -> {
+      switch (splittableRandom.nextInt(3)) {
+        case 0:
+          return splittableRandom.nextLong();
+        case 1:
+          long randomLong = splittableRandom.nextLong();
+          return randomLong | splittableRandom.nextLong();
+        default:
+          return ~0L;
+      }
+    };
+  }
+
+  private static int numberOfLeadingZerosOfRandomLongBitByBit(
+      LongSupplier randomLongSupplier, long[] state) {
+    // state[0] holds the current random long, state[1] the number of consumed bits
+    int count = 0;
+    while (count < Long.SIZE) {
+      if ((state[1] & 0x3F) == 0) {
+        state[0] = randomLongSupplier.getAsLong();
+      }
+      boolean randomBit = ((state[0] >>> state[1]) & 1L) != 0L;
+      state[1] += 1;
+      if (!randomBit) {
+        break;
+      }
+      count += 1;
+    }
+    return count;
+  }
+
+  @Test
+  void testNumberOfLeadingZerosOfRandomLongIsConsistentWithBitByBitGeneration() {
+    long seed = 0x3b7c1a9e5d2f4086L;
+    RandomGenerator randomGenerator = RandomGenerator.create(createBiasedRandomLongSupplier(seed));
+    LongSupplier referenceRandomLongSupplier = createBiasedRandomLongSupplier(seed);
+    long[] state = new long[2];
+    for (int i = 0; i < 100000; ++i) {
+      assertThat(randomGenerator.numberOfLeadingZerosOfRandomLong())
+          .isEqualTo(numberOfLeadingZerosOfRandomLongBitByBit(referenceRandomLongSupplier, state));
+    }
+  }
+
+  private static void testNumberOfLeadingZerosOfRandomLong(RandomGenerator randomGenerator) {
+    int numCycles = 1000000;
+    int maxNumberOfLeadingZeros = 10;
+
+    long[] observed = new long[maxNumberOfLeadingZeros + 1];
+    double[] expected = new double[maxNumberOfLeadingZeros + 1];
+    for (int i = 0; i < maxNumberOfLeadingZeros; ++i) {
+      expected[i] = Math.pow(0.5, i + 1);
+    }
+    expected[maxNumberOfLeadingZeros] = Math.pow(0.5, maxNumberOfLeadingZeros);
+
+    for (int i = 0; i < numCycles; ++i) {
+      int numberOfLeadingZeros = randomGenerator.numberOfLeadingZerosOfRandomLong();
+      observed[Math.min(numberOfLeadingZeros, maxNumberOfLeadingZeros)] += 1;
+    }
+    assertThat(new GTest().gTest(expected, observed)).isGreaterThan(0.01);
+  }
+
+  @Test
+  void testNumberOfLeadingZerosOfRandomLong() {
+    SplittableRandom splittableRandom = new SplittableRandom(0x1f5a8c3e9b7d2640L);
+    testNumberOfLeadingZerosOfRandomLong(RandomGenerator.create(splittableRandom::nextLong));
+  }
+
+  @Test
+  void testNumberOfLeadingZerosOfRandomLongThreadLocalFree() {
+    SplittableRandom splittableRandom = new SplittableRandom(0x86e4d1b03a9c57f2L);
+    testNumberOfLeadingZerosOfRandomLong(
+        RandomGenerator.createThreadLocalFree(splittableRandom::nextLong));
+    assertThat(RandomGenerator.createThreadLocalFree(() -> ~0L).numberOfLeadingZerosOfRandomLong())
+        .isEqualTo(Long.SIZE);
+    assertThat(
+            RandomGenerator.createThreadLocalFree(() -> 0x17L).numberOfLeadingZerosOfRandomLong())
+        .isEqualTo(3);
+  }
+
+  @Test
+  void testNextBoolean() {
+    SplittableRandom splittableRandom = new SplittableRandom(0x5c0e2b7a4f91d386L);
+    RandomGenerator randomGenerator = RandomGenerator.create(splittableRandom::nextLong);
+    int numCycles = 1000000;
+    for (double probability : new double[] {0., 0.1, 0.5, 0.7, 1.}) {
+      long numberOfTrues = 0;
+      for (int i = 0; i < numCycles; ++i) {
+        if (randomGenerator.nextBoolean(probability)) {
+          numberOfTrues += 1;
+        }
+      }
+      assertThat(
+              new GTest()
+                  .gTest(
+                      new double[] {1. - probability + 1e-9, probability + 1e-9},
+                      new long[] {numCycles - numberOfTrues, numberOfTrues}))
+          .isGreaterThan(0.01);
+    }
+  }
 }
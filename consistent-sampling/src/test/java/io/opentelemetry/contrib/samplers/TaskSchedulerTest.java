@@ -0,0 +1,63 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class TaskSchedulerTest {
+
+  @Test
+  void usesVirtualThreadsIfSupported()
+      throws ExecutionException, InterruptedException, TimeoutException {
+    String specificationVersion = System.getProperty("java.specification.version");
+    boolean supportsVirtualThreads =
+        !specificationVersion.startsWith("1.") && Integer.parseInt(specificationVersion) >= 21;
+    ExecutorService executor = TaskScheduler.createVirtualThreadExecutor();
+    if (!supportsVirtualThreads) {
+      assertThat(executor).isNull();
+      return;
+    }
+    assertThat(executor).isNotNull();
+    try {
+      Thread thread = executor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+      assertThat(thread.isDaemon()).isTrue();
+      assertThat(thread.getName())
+          .startsWith(ConsistentReservoirSamplingSpanProcessor.class.getSimpleName());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  @Timeout(10)
+  void sharedSchedulerRunsTasksOnExportThreads() {
+    TaskScheduler taskScheduler = TaskScheduler.getShared();
+    assertThat(TaskScheduler.getShared()).isSameAs(taskScheduler);
+
+    CompletableFuture<Thread> executed = new CompletableFuture<>();
+    taskScheduler.execute(() -> executed.complete(Thread.currentThread()));
+    CompletableFuture<Thread> scheduled = new CompletableFuture<>();
+    long startNanos = System.nanoTime();
+    Future<?> unused =
+        taskScheduler.schedule(
+            () -> scheduled.complete(Thread.currentThread()), TimeUnit.MILLISECONDS.toNanos(50));
+
+    // scheduled tasks are handed over, as they might block the scheduler thread otherwise
+    assertThat(executed.join().getName()).contains("_ExportThread");
+    assertThat(scheduled.join().getName()).contains("_ExportThread");
+    assertThat(System.nanoTime() - startNanos)
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+  }
+}
@@ -38,6 +38,8 @@ val CORE_DEPENDENCIES = listOf(
   "io.prometheus:simpleclient_httpserver:0.16.0",
   "org.mockito:mockito-core:4.8.1",
   "org.mockito:mockito-junit-jupiter:4.8.1",
+  "org.openjdk.jmh:jmh-core:1.35",
+  "org.openjdk.jmh:jmh-generator-bytecode:1.35",
   "org.slf4j:slf4j-api:2.0.3",
   "org.slf4j:slf4j-simple:2.0.3",
   "org.slf4j:log4j-over-slf4j:2.0.3",
@@ -50,6 +52,7 @@ val DEPENDENCIES = listOf(
   "com.google.code.findbugs:annotations:3.0.1u2",
   "com.google.code.findbugs:jsr305:3.0.2",
   "com.squareup.okhttp3:okhttp:4.10.0",
+  "com.squareup.okhttp3:mockwebserver:4.10.0",
   "com.uber.nullaway:nullaway:0.10.2",
   "org.assertj:assertj-core:3.23.1",
   "org.awaitility:awaitility:4.2.0",
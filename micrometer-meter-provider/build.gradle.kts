@@ -1,6 +1,7 @@
 plugins {
   id("otel.java-conventions")
   id("otel.publish-conventions")
+  id("otel.jmh-conventions")
 }
 
 description = "OpenTelemetry Micrometer MeterProvider"
@@ -19,6 +20,8 @@ dependencies {
   compileOnly("com.google.auto.value:auto-value-annotations")
 
   testImplementation("io.micrometer:micrometer-core:1.9.5")
+
+  jmh("io.micrometer:micrometer-core:1.9.5")
 }
 
 testing {
@@ -0,0 +1,113 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.metrics.micrometer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.LongUpDownCounter;
+import io.opentelemetry.api.metrics.Meter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures recording measurements with synchronous instruments of the {@link
+ * MicrometerMeterProvider} for a single thread and for 4 threads sharing the same instruments. Run
+ * with the {@code gc} profiler to see the allocated bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MicrometerInstrumentBenchmark {
+
+  @Param({"0", "2"})
+  int numberOfAttributes;
+
+  MicrometerMeterProvider meterProvider;
+  LongCounter longCounter;
+  LongUpDownCounter longUpDownCounter;
+  DoubleHistogram doubleHistogram;
+  Attributes attributes;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    meterProvider = MicrometerMeterProvider.builder(new SimpleMeterRegistry()).build();
+    Meter meter = meterProvider.get("benchmark");
+    longCounter = meter.counterBuilder("counter").build();
+    longUpDownCounter = meter.upDownCounterBuilder("upDownCounter").build();
+    doubleHistogram = meter.histogramBuilder("histogram").build();
+
+    if (numberOfAttributes == 0) {
+      attributes = Attributes.empty();
+    } else {
+      attributes =
+          Attributes.of(
+              AttributeKey.stringKey("http.method"),
+              "GET",
+              AttributeKey.longKey("http.status_code"),
+              200L);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    meterProvider.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void longCounterAdd_01Thread() {
+    longCounter.add(1, attributes);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void longCounterAdd_04Threads() {
+    longCounter.add(1, attributes);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void longUpDownCounterAdd_01Thread() {
+    longUpDownCounter.add(1, attributes);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void longUpDownCounterAdd_04Threads() {
+    longUpDownCounter.add(1, attributes);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void doubleHistogramRecord_01Thread() {
+    doubleHistogram.record(42.5, attributes);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void doubleHistogramRecord_04Threads() {
+    doubleHistogram.record(42.5, attributes);
+  }
+}
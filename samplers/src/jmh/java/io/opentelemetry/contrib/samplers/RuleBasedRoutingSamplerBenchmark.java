@@ -0,0 +1,103 @@
+/*
+ * Copyright The OpenTelemetry Authors
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.opentelemetry.contrib.samplers;
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link RuleBasedRoutingSampler#shouldSample(Context, String, String, SpanKind,
+ * Attributes, List)} for different numbers of rules, depending on whether the first, the last or no
+ * rule matches. Run with the {@code gc} profiler to see the allocated bytes per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleBasedRoutingSamplerBenchmark {
+
+  private static final String TRACE_ID = "0123456789abcdef0123456789abcdef";
+  private static final List<LinkData> NO_LINKS = Collections.emptyList();
+
+  @Param({"1", "10", "100"})
+  int numberOfRules;
+
+  @Param({"first", "last", "none"})
+  String matchingRule;
+
+  RuleBasedRoutingSampler sampler;
+  Attributes attributes;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    RuleBasedRoutingSamplerBuilder builder =
+        RuleBasedRoutingSampler.builder(SpanKind.SERVER, Sampler.alwaysOn());
+    for (int i = 0; i < numberOfRules; ++i) {
+      builder.drop(SemanticAttributes.HTTP_TARGET, "^/internal/service-" + i + "/");
+    }
+    sampler = builder.build();
+
+    String target;
+    switch (matchingRule) {
+      case "first":
+        target = "/internal/service-0/health";
+        break;
+      case "last":
+        target = "/internal/service-" + (numberOfRules - 1) + "/health";
+        break;
+      case "none":
+        target = "/api/items";
+        break;
+      default:
+        throw new IllegalArgumentException(matchingRule);
+    }
+    attributes =
+        Attributes.builder()
+            .put(SemanticAttributes.HTTP_METHOD, "GET")
+            .put(SemanticAttributes.HTTP_TARGET, target)
+            .build();
+  }
+
+  private SamplingResult shouldSample() {
+    return sampler.shouldSample(
+        Context.root(), TRACE_ID, "span", SpanKind.SERVER, attributes, NO_LINKS);
+  }
+
+  @Benchmark
+  @Threads(1)
+  public SamplingResult shouldSample_01Thread() {
+    return shouldSample();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public SamplingResult shouldSample_04Threads() {
+    return shouldSample();
+  }
+}